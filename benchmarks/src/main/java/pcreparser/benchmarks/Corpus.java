@@ -0,0 +1,64 @@
+package pcreparser.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The checked-in pattern corpus the benchmarks run over. Every category
+ * is a resource file next to this class containing one pattern per line:
+ *
+ * <ul>
+ *     <li><code>literals</code>: short literals and single escapes</li>
+ *     <li><code>classes</code>: patterns dominated by character classes</li>
+ *     <li><code>mixed</code>: realistic patterns using most PCRE constructs</li>
+ *     <li><code>nested</code>: deeply nested groups and look-arounds</li>
+ *     <li><code>alternation</code>: alternations of 10 up to 500 branches</li>
+ * </ul>
+ */
+public final class Corpus {
+
+    private Corpus() {
+    }
+
+    /**
+     * Loads all patterns of a corpus category.
+     *
+     * @param category the name of the category, e.g. <code>"mixed"</code>.
+     * @return         the patterns of the category, in file order.
+     */
+    public static String[] load(String category) {
+
+        InputStream in = Corpus.class.getResourceAsStream(category + ".txt");
+
+        if(in == null) {
+            throw new IllegalArgumentException("no such corpus category: " + category);
+        }
+
+        List<String> patterns = new ArrayList<String>();
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charset.forName("UTF-8")));
+
+            try {
+                String line;
+
+                while((line = reader.readLine()) != null) {
+                    patterns.add(line);
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+        catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return patterns.toArray(new String[patterns.size()]);
+    }
+}
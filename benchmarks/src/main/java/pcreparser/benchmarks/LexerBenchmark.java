@@ -0,0 +1,78 @@
+package pcreparser.benchmarks;
+
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.Token;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import pcreparser.PCRELexer;
+import pcreparser.PCREScanner;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures tokenization only: every operation pulls all tokens of every
+ * pattern in the category until EOF from the generated <code>PCRELexer</code>
+ * or from <code>PCREScanner</code>, or only scans them into the scanner's
+ * int arrays.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+
+    @Param({"literals", "classes", "mixed", "nested", "alternation"})
+    public String category;
+
+    private String[] patterns;
+    private PCREScanner scanner;
+
+    @Setup
+    public void setup() {
+        patterns = Corpus.load(category);
+        scanner = new PCREScanner();
+    }
+
+    @Benchmark
+    public void tokenize(Blackhole blackhole) {
+
+        for(String pattern : patterns) {
+
+            PCRELexer lexer = new PCRELexer(new ANTLRStringStream(pattern));
+            Token token;
+
+            while((token = lexer.nextToken()).getType() != Token.EOF) {
+                blackhole.consume(token);
+            }
+        }
+    }
+
+    @Benchmark
+    public void scanTokens(Blackhole blackhole) {
+
+        for(String pattern : patterns) {
+
+            scanner.scan(pattern);
+            Token token;
+
+            while((token = scanner.nextToken()).getType() != Token.EOF) {
+                blackhole.consume(token);
+            }
+        }
+    }
+
+    @Benchmark
+    public void scan(Blackhole blackhole) {
+
+        for(String pattern : patterns) {
+
+            scanner.scan(pattern);
+
+            for(int i = 0; i < scanner.getTokenCount(); i++) {
+                blackhole.consume(scanner.getType(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package pcreparser.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import pcreparser.PCRE;
+import pcreparser.PCRECache;
+import pcreparser.PCREFileCallback;
+import pcreparser.PCREFileCache;
+import pcreparser.PCREFastParser;
+import pcreparser.PCREParseOptions;
+import pcreparser.PCREParseStatistics;
+import pcreparser.PCREParsingContext;
+import pcreparser.PCREResult;
+import pcreparser.PCRETree;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the full <code>new PCRE(String)</code> pipeline: lexing,
+ * parsing and the bookkeeping of the capture groups, and the same pipeline
+ * through a reused <code>PCREParsingContext</code>, with either parser, and
+ * through <code>PCREFastParser</code>. The <code>*GroupCount</code>
+ * benchmarks only ask for the group count, eagerly and lazily,
+ * <code>parseAll</code> parses all patterns on the common fork/join pool
+ * the <code>load*</code> benchmarks read the patterns back from the
+ * binary records of <code>PCRE.writeTo</code>, in a direct buffer, and
+ * <code>fileCache</code> gets them from a warm <code>PCREFileCache</code>,
+ * like a worker does after a restart. The <code>tryParse*</code>
+ * benchmarks validate the patterns with an unsupported property in front,
+ * reporting all errors or stopping at the first one. <code>contextCharSlice</code>
+ * parses the patterns in place from one <code>char[]</code> holding them
+ * all, and <code>contextCharCopy</code> copies each of them into a
+ * <code>String</code> first, which is what callers had to do before.
+ * Likewise, <code>fromUtf8</code> parses the patterns straight from their
+ * UTF-8 bytes in a direct buffer, and <code>decodeUtf8</code> decodes each
+ * of them into a <code>String</code> first. <code>parseFile</code> parses
+ * a file with the patterns, repeated, a pattern per line with
+ * <code>PCRE.parseFile</code>, and <code>readFile</code> reads the same
+ * file with a <code>BufferedReader</code> and parses every line.
+ * <code>contextListener</code> is <code>context</code> with a
+ * <code>PCREParseStatistics</code> counting every parse, and
+ * <code>contextBudget</code> is <code>context</code> with a timeout, a
+ * maximum number of tokens and a maximum depth checked throughout.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PCREBenchmark {
+
+    @Param({"literals", "classes", "mixed", "nested", "alternation"})
+    public String category;
+
+    private String[] patterns;
+    private String[] invalidPatterns;
+    private char[] buffer;
+    private int[] offsets;
+    private ByteBuffer utf8;
+    private int[] utf8Offsets;
+    private PCREParsingContext context;
+    private PCREParsingContext linearContext;
+    private PCREParsingContext listenerContext;
+    private PCREParsingContext budgetContext;
+    private ByteBuffer[] records;
+    private Path fileCacheDirectory;
+    private PCREFileCache fileCache;
+    private Path patternFile;
+
+    private static final int PATTERN_FILE_REPEATS = 50;
+
+    @Setup
+    public void setup() throws IOException {
+        patterns = Corpus.load(category);
+        invalidPatterns = new String[patterns.length];
+
+        for(int i = 0; i < patterns.length; i++) {
+            invalidPatterns[i] = "\\p{Foo}" + patterns[i];
+        }
+
+        StringBuilder all = new StringBuilder();
+        offsets = new int[patterns.length + 1];
+
+        for(int i = 0; i < patterns.length; i++) {
+            offsets[i] = all.length();
+            all.append(patterns[i]);
+        }
+
+        offsets[patterns.length] = all.length();
+        buffer = all.toString().toCharArray();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        utf8Offsets = new int[patterns.length + 1];
+
+        for(int i = 0; i < patterns.length; i++) {
+            utf8Offsets[i] = bytes.size();
+            bytes.write(patterns[i].getBytes(StandardCharsets.UTF_8));
+        }
+
+        utf8Offsets[patterns.length] = bytes.size();
+        utf8 = ByteBuffer.allocateDirect(bytes.size());
+        utf8.put(bytes.toByteArray()).clear();
+
+        context = new PCREParsingContext();
+        linearContext = PCREParsingContext.linear();
+        listenerContext = new PCREParsingContext();
+        listenerContext.setParseListener(new PCREParseStatistics());
+
+        budgetContext = new PCREParsingContext();
+        budgetContext.setParseOptions(PCREParseOptions.DEFAULT
+                .withTimeout(1, TimeUnit.SECONDS)
+                .withMaxTokens(100000)
+                .withMaxDepth(10000));
+        records = new ByteBuffer[patterns.length];
+
+        for(int i = 0; i < patterns.length; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new PCRE(patterns[i]).writeTo(out);
+            records[i] = ByteBuffer.allocateDirect(out.size());
+            records[i].put(out.toByteArray()).flip();
+        }
+
+        fileCacheDirectory = Files.createTempDirectory("pcre-benchmark");
+        fileCache = PCRECache.open(fileCacheDirectory.resolve("patterns"));
+
+        for(String pattern : patterns) {
+            fileCache.get(pattern);
+        }
+
+        StringBuilder lines = new StringBuilder();
+
+        for(int i = 0; i < PATTERN_FILE_REPEATS; i++) {
+            for(String pattern : patterns) {
+                lines.append(pattern).append('\n');
+            }
+        }
+
+        patternFile = fileCacheDirectory.resolve("patterns.txt");
+        Files.write(patternFile, lines.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+
+        fileCache.close();
+
+        for(String name : new String[]{"patterns", "patterns.index", "patterns.lock", "patterns.txt"}) {
+            Files.deleteIfExists(fileCacheDirectory.resolve(name));
+        }
+
+        Files.delete(fileCacheDirectory);
+    }
+
+    @Benchmark
+    public void construct(Blackhole blackhole) {
+        for(String pattern : patterns) {
+            blackhole.consume(new PCRE(pattern));
+        }
+    }
+
+    @Benchmark
+    public void context(Blackhole blackhole) {
+        for(String pattern : patterns) {
+            blackhole.consume(context.parse(pattern));
+        }
+    }
+
+    @Benchmark
+    public void contextListener(Blackhole blackhole) {
+        for(String pattern : patterns) {
+            blackhole.consume(listenerContext.parse(pattern));
+        }
+    }
+
+    @Benchmark
+    public void contextBudget(Blackhole blackhole) {
+        for(String pattern : patterns) {
+            blackhole.consume(budgetContext.parse(pattern));
+        }
+    }
+
+    @Benchmark
+    public void contextCharSlice(Blackhole blackhole) {
+        for(int i = 0; i < patterns.length; i++) {
+            blackhole.consume(context.parse(buffer, offsets[i], offsets[i + 1] - offsets[i]));
+        }
+    }
+
+    @Benchmark
+    public void contextCharCopy(Blackhole blackhole) {
+        for(int i = 0; i < patterns.length; i++) {
+            blackhole.consume(context.parse(new String(buffer, offsets[i], offsets[i + 1] - offsets[i])));
+        }
+    }
+
+    @Benchmark
+    public void fromUtf8(Blackhole blackhole) {
+        for(int i = 0; i < patterns.length; i++) {
+            utf8.limit(utf8Offsets[i + 1]).position(utf8Offsets[i]);
+            blackhole.consume(PCRE.fromUtf8(utf8));
+        }
+        utf8.clear();
+    }
+
+    @Benchmark
+    public void decodeUtf8(Blackhole blackhole) {
+        for(int i = 0; i < patterns.length; i++) {
+            utf8.limit(utf8Offsets[i + 1]).position(utf8Offsets[i]);
+            blackhole.consume(new PCRE(StandardCharsets.UTF_8.decode(utf8).toString()));
+        }
+        utf8.clear();
+    }
+
+    @Benchmark
+    public long parseFile(final Blackhole blackhole) throws IOException {
+        return PCRE.parseFile(patternFile, new PCREFileCallback() {
+            @Override
+            public void parsed(long line, PCREResult result) {
+                blackhole.consume(result);
+            }
+        });
+    }
+
+    @Benchmark
+    public void readFile(Blackhole blackhole) throws IOException {
+
+        BufferedReader reader = Files.newBufferedReader(patternFile, StandardCharsets.UTF_8);
+
+        try {
+            String line;
+
+            while((line = reader.readLine()) != null) {
+                blackhole.consume(context.tryParse(line));
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    @Benchmark
+    public void linearContext(Blackhole blackhole) {
+        for(String pattern : patterns) {
+            blackhole.consume(linearContext.parse(pattern));
+        }
+    }
+
+    @Benchmark
+    public void fast(Blackhole blackhole) {
+        for(String pattern : patterns) {
+            blackhole.consume(PCREFastParser.parse(pattern));
+        }
+    }
+
+    @Benchmark
+    public void groupCount(Blackhole blackhole) {
+        for(String pattern : patterns) {
+            blackhole.consume(new PCRE(pattern).getGroupCount());
+        }
+    }
+
+    @Benchmark
+    public void lazyGroupCount(Blackhole blackhole) {
+        for(String pattern : patterns) {
+            blackhole.consume(PCRE.lazy(pattern).getGroupCount());
+        }
+    }
+
+    @Benchmark
+    public void parseAll(Blackhole blackhole) {
+        blackhole.consume(PCRE.parseAll(Arrays.asList(patterns)));
+    }
+
+    @Benchmark
+    public void tryParse(Blackhole blackhole) {
+        for(String pattern : invalidPatterns) {
+            blackhole.consume(PCRE.tryParse(pattern));
+        }
+    }
+
+    @Benchmark
+    public void tryParseFirstError(Blackhole blackhole) {
+        for(String pattern : invalidPatterns) {
+            blackhole.consume(PCRE.tryParse(pattern, true));
+        }
+    }
+
+    @Benchmark
+    public void load(Blackhole blackhole) {
+        for(ByteBuffer record : records) {
+            blackhole.consume(PCRE.load(record, 0));
+        }
+    }
+
+    @Benchmark
+    public void loadTree(Blackhole blackhole) {
+        for(ByteBuffer record : records) {
+            blackhole.consume(PCRETree.load(record, 0));
+        }
+    }
+
+    @Benchmark
+    public void fileCache(Blackhole blackhole) {
+        for(String pattern : patterns) {
+            blackhole.consume(fileCache.get(pattern));
+        }
+    }
+}
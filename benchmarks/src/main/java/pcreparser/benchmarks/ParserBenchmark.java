@@ -0,0 +1,96 @@
+package pcreparser.benchmarks;
+
+import org.antlr.runtime.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import pcreparser.PCRELexer;
+import pcreparser.PCRELinearParser;
+import pcreparser.PCREParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures <code>PCREParser.parse()</code> and
+ * <code>PCRELinearParser.parse()</code> in isolation. All patterns are
+ * tokenized once during setup and replayed from memory, so the numbers
+ * only contain parsing (with or without the <code>backtrack=true</code> and
+ * <code>memoize=true</code> settings of <code>PCRE.g</code>) and AST
+ * construction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"literals", "classes", "mixed", "nested", "alternation"})
+    public String category;
+
+    private List<List<Token>> tokenLists;
+
+    @Setup
+    public void setup() {
+
+        tokenLists = new ArrayList<List<Token>>();
+
+        for(String pattern : Corpus.load(category)) {
+
+            PCRELexer lexer = new PCRELexer(new ANTLRStringStream(pattern));
+            List<Token> tokens = new ArrayList<Token>();
+            Token token;
+
+            do {
+                token = lexer.nextToken();
+                tokens.add(token);
+            }
+            while(token.getType() != Token.EOF);
+
+            tokenLists.add(tokens);
+        }
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) throws RecognitionException {
+
+        for(List<Token> tokens : tokenLists) {
+            PCREParser parser = new PCREParser(new CommonTokenStream(new ReplayTokenSource(tokens)));
+            blackhole.consume(parser.parse().getTree());
+        }
+    }
+
+    @Benchmark
+    public void parseLinear(Blackhole blackhole) throws RecognitionException {
+
+        for(List<Token> tokens : tokenLists) {
+            PCRELinearParser parser = new PCRELinearParser(new CommonTokenStream(new ReplayTokenSource(tokens)));
+            blackhole.consume(parser.parse().getTree());
+        }
+    }
+
+    /**
+     * A token source handing out a pre-lexed list of tokens.
+     */
+    static final class ReplayTokenSource implements TokenSource {
+
+        private final List<Token> tokens;
+        private int index = 0;
+
+        ReplayTokenSource(List<Token> tokens) {
+            this.tokens = tokens;
+        }
+
+        @Override
+        public Token nextToken() {
+            return tokens.get(index < tokens.size() - 1 ? index++ : index);
+        }
+
+        @Override
+        public String getSourceName() {
+            return "replay";
+        }
+    }
+}
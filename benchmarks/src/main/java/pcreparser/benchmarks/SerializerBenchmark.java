@@ -0,0 +1,69 @@
+package pcreparser.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import pcreparser.PCRE;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the <code>PCRE</code> serializers on patterns that have been
+ * parsed during setup: <code>toStringASCII()</code>,
+ * <code>toStringDOT()</code>, <code>writeDOT(Appendable)</code> and
+ * <code>toStringLisp()</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializerBenchmark {
+
+    @Param({"literals", "classes", "mixed", "nested", "alternation"})
+    public String category;
+
+    private PCRE[] parsed;
+
+    @Setup
+    public void setup() {
+
+        String[] patterns = Corpus.load(category);
+        parsed = new PCRE[patterns.length];
+
+        for(int i = 0; i < patterns.length; i++) {
+            parsed[i] = new PCRE(patterns[i]);
+        }
+    }
+
+    @Benchmark
+    public void ascii(Blackhole blackhole) {
+        for(PCRE pcre : parsed) {
+            blackhole.consume(pcre.toStringASCII());
+        }
+    }
+
+    @Benchmark
+    public void dot(Blackhole blackhole) {
+        for(PCRE pcre : parsed) {
+            blackhole.consume(pcre.toStringDOT());
+        }
+    }
+
+    @Benchmark
+    public void dotWriter(Blackhole blackhole) throws IOException {
+        for(PCRE pcre : parsed) {
+            StringBuilder builder = new StringBuilder();
+            pcre.writeDOT(builder);
+            blackhole.consume(builder);
+        }
+    }
+
+    @Benchmark
+    public void lisp(Blackhole blackhole) {
+        for(PCRE pcre : parsed) {
+            blackhole.consume(pcre.toStringLisp());
+        }
+    }
+}
@@ -32,6 +32,7 @@ options {
   output=AST;
   backtrack=true;
   memoize=true;
+  superClass=AbstractPCREParser;
 }
 
 tokens {
@@ -115,9 +116,6 @@ tokens {
 
 @parser::header {
   package pcreparser;
-
-  import java.util.Map;
-  import java.util.TreeMap;
 }
 
 @lexer::header {
@@ -132,20 +130,12 @@ tokens {
 
 @parser::members {
 
-  public static final String HUGE_NUMBER = String.valueOf(Integer.MAX_VALUE);
-  
-  protected Map<Integer, ParserRuleReturnScope> captureReturns = new TreeMap<Integer, ParserRuleReturnScope>();
-  protected Map<String, ParserRuleReturnScope> namedReturns = new TreeMap<String, ParserRuleReturnScope>();
-  
   private boolean insideCharacterClass = false;
-      
-  private void addNumberedMatchGroup(ParserRuleReturnScope value) {
-    int group = captureReturns.size() + 1;
-    captureReturns.put(group, value);
-  }
-  
-  private void addNamedMatchGroup(String name, ParserRuleReturnScope value) {
-    namedReturns.put(name, value);
+
+  @Override
+  public void reset() {
+    super.reset();
+    insideCharacterClass = false;
   }
 }
 
@@ -173,21 +163,41 @@ tokens {
                 "Syriac", "Tagalog", "Tagbanwa", "Tai_Le", "Tai_Tham", "Tai_Viet", "Takri", "Tamil", "Telugu", 
                 "Thaana", "Thai", "Tibetan", "Tifinagh", "Ugaritic", "Vai", "Yi"));
                 
+  // the lexer of a PCREParsingContext shares the reporter of its parser
+  PCREErrorReporter errors = new PCREErrorReporter();
+
+  @Override
+  public void displayRecognitionError(String[] tokenNames, RecognitionException e) {
+    super.displayRecognitionError(tokenNames, e);
+    errors.recognitionError(this, e);
+  }
+
+  @Override
+  public void emitErrorMessage(String msg) {
+    if(!errors.emit(msg)) {
+      super.emitErrorMessage(msg);
+    }
+  }
+
+  private void unsupported(String message) {
+    errors.unsupported(this, state.tokenStartCharIndex, message);
+  }
+
   private void checkNamedSet(String name) {
     if(!namedSet.contains(name)) {
-      throw new RuntimeException("unsupported named set: " + name);
+      unsupported("unsupported named set: " + name);
     }
   }
   
   private void checkOption(String name) {
     if(!namedSet.contains(name)) {
-      throw new RuntimeException("unsupported option: " + name);
+      unsupported("unsupported option: " + name);
     }
   }
   
   private void checkProperty(String name) {
     if(!propertySet.contains(name)) {
-      throw new RuntimeException("unsupported character property: " + name);
+      unsupported("unsupported character property: " + name);
     }
   }
 }
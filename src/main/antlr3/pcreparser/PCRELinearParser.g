@@ -0,0 +1,532 @@
+/*
+ * Copyright (c) 2012 by Bart Kiers
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * Project      : PCRE Parser, an ANTLR grammar for PCRE
+ * Developed by : Bart Kiers, bart@big-o.nl
+ */
+
+// The parser rules of PCRE.g without the global backtrack=true and
+// memoize=true options. All alternatives sharing a '(' '?', '(' '*', '\\g',
+// '\\k' or '\\' digit prefix are left-factored so that they are decided with
+// a fixed number of lookahead tokens. The few places where PCRE.g falls back
+// to literals after a failed alternative ("a{1", "[a-]", "[]-]" and "[^]")
+// use small, local syntactic predicates instead. It consumes the tokens of
+// PCRELexer and builds the same ASTs as PCREParser.
+//
+// Since this grammar only imports the token types of PCRE.g, the escaped
+// literals '\\g', '\\k' and '\'' are referred to by their lexer rule names.
+parser grammar PCRELinearParser;
+
+options {
+  tokenVocab=PCRE;
+  ASTLabelType=CommonTree;
+  output=AST;
+  superClass=AbstractPCREParser;
+}
+
+@header {
+  package pcreparser;
+}
+
+@members {
+  // "Rn" in a condition: specific group recursion
+  private static boolean isRecursionCondition(String text) {
+    if(text.length() < 2 || text.charAt(0) != 'R') {
+      return false;
+    }
+    for(int i = 1; i < text.length(); i++) {
+      if(text.charAt(i) < '0' || text.charAt(i) > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+}
+
+parse
+ : regex EOF -> regex
+ ;
+
+// ALTERNATION
+//
+//         expr|expr|expr...
+regex
+ : (first_alternative -> first_alternative) (('|' alternative)+ -> ^(OR first_alternative alternative+))?
+ ;
+
+first_alternative
+ : alternative
+ ;
+
+alternative
+ : element* -> ^(ALTERNATIVE element*)
+ ;
+
+element
+ : atom ((quantifier)=> quantifier)? -> ^(ELEMENT atom quantifier?)
+ ;
+
+// QUANTIFIERS
+//
+//         ?           0 or 1
+//         *           0 or more
+//         +           1 or more
+//         {n}         exactly n
+//         {n,m}       at least n, no more than m
+//         {n,}        n or more
+//
+// each followed by an optional '+' (possessive) or '?' (lazy). When a '{'
+// does not start a valid quantifier, it is a literal.
+quantifier
+ : '?' quantifier_type -> ^(QUANTIFIER NUMBER["0"] NUMBER["1"]         quantifier_type)
+ | '+' quantifier_type -> ^(QUANTIFIER NUMBER["1"] NUMBER[HUGE_NUMBER] quantifier_type)
+ | '*' quantifier_type -> ^(QUANTIFIER NUMBER["0"] NUMBER[HUGE_NUMBER] quantifier_type)
+ | '{' a=number
+   ( '}' quantifier_type                 -> ^(QUANTIFIER $a $a                  quantifier_type)
+   | ',' ( '}' quantifier_type           -> ^(QUANTIFIER $a NUMBER[HUGE_NUMBER] quantifier_type)
+         | b=number '}' quantifier_type  -> ^(QUANTIFIER $a $b                  quantifier_type)
+         )
+   )
+ ;
+
+quantifier_type
+ : '+'           -> POSSESSIVE
+ | '?'           -> LAZY
+ | /* nothing */ -> GREEDY
+ ;
+
+// CHARACTER CLASSES
+//
+//         [...]       positive character class
+//         [^...]      negative character class
+//
+// A ']' directly after the opening '[' or '[^' is a literal, and can be
+// the start of a range. "[^]" is a class containing a '^'.
+character_class
+ : '['
+   ( ('^' cc_atoms ']')=> '^' cc_atoms ']' -> ^(NEGATED_CHARACTER_CLASS cc_atoms)
+   | cc_atoms ']'                         -> ^(CHARACTER_CLASS cc_atoms)
+   )
+ ;
+
+cc_atoms
+ : CharacterClassEnd
+   ( (Hyphen cc_atom_end_range)=> Hyphen cc_atom_end_range cc_atom* -> ^(RANGE LITERAL["]"] cc_atom_end_range) cc_atom*
+   | cc_atom*                                                       -> LITERAL["]"] cc_atom*
+   )
+ | cc_atom+
+ ;
+
+cc_atom_end_range
+ : cc_atom
+ ;
+
+// Of all atoms starting with a backslash followed by a digit, only octal
+// chars can start a range.
+cc_atom
+ : (s=cc_literal -> $s) ((Hyphen cc_range_end)=> Hyphen e=cc_range_end -> ^(RANGE $s $e))?
+ | (n=backslash_number -> $n) ({$n.octal}?=> (Hyphen cc_range_end)=> Hyphen e=cc_range_end -> ^(RANGE $n $e))?
+ | shared_atom
+ ;
+
+cc_range_end
+ : cc_literal
+ | octal_char
+ ;
+
+// BACKREFERENCES
+//
+//         \n              reference by number (can be ambiguous)
+//         \gn             reference by number
+//         \g{n}           reference by number
+//         \g{-n}          relative reference by number
+//         \k<name>        reference by name (Perl)
+//         \k'name'        reference by name (Perl)
+//         \g{name}        reference by name (Perl)
+//         \k{name}        reference by name (.NET)
+//         (?P=name)       reference by name (Python)
+//
+// SUBROUTINE REFERENCES (ONIGURUMA SYNTAX)
+//
+//         \g<name>        call subpattern by name
+//         \g'name'        call subpattern by name
+//         \g<n>           call subpattern by absolute number
+//         \g'n'           call subpattern by absolute number
+//         \g<+n>          call subpattern by relative number
+//         \g'+n'          call subpattern by relative number
+//         \g<-n>          call subpattern by relative number
+//         \g'-n'          call subpattern by relative number
+backslash_g
+ : SubroutineOrNamedReferenceStartG
+   ( number                              -> ^(NUMBERED_BACKREFERENCE number)
+   | '{' ( number '}'                    -> ^(NUMBERED_BACKREFERENCE number)
+         | '-' number '}'                -> ^(RELATIVE_NUMBERED_BACKREFERENCE number)
+         | name '}'                      -> ^(NAMED_BACKREFERENCE_PERL name)
+         )
+   | '<' ( name '>'                      -> ^(NAMED_REFERENCE_ONIGURUMA name)
+         | number '>'                    -> ^(NUMBERED_REFERENCE_ABSOLUTE_ONIGURUMA number)
+         | '+' number '>'                -> ^(NUMBERED_REFERENCE_RELATIVE_PLUS number)
+         | '-' number '>'                -> ^(NUMBERED_REFERENCE_RELATIVE_MINUS number)
+         )
+   | SingleQuote ( name SingleQuote       -> ^(NAMED_REFERENCE_ONIGURUMA name)
+                 | number SingleQuote     -> ^(NUMBERED_REFERENCE_ABSOLUTE_ONIGURUMA number)
+                 | '+' number SingleQuote -> ^(NUMBERED_REFERENCE_RELATIVE_PLUS number)
+                 | '-' number SingleQuote -> ^(NUMBERED_REFERENCE_RELATIVE_MINUS number)
+                 )
+   )
+ ;
+
+backslash_k
+ : NamedReferenceStartK
+   ( '<' name '>'                 -> ^(NAMED_BACKREFERENCE_PERL name)
+   | SingleQuote name SingleQuote -> ^(NAMED_BACKREFERENCE_PERL name)
+   | '{' name '}'                 -> ^(NAMED_BACKREFERENCE_NET name)
+   )
+ ;
+
+// A backslash followed by digits: an octal char when it is followed by two
+// or three octal digits (three only if the first is 0..3), otherwise a
+// numbered backreference of a single digit.
+backslash_number returns [boolean octal]
+ : Backslash
+   ( (D0 | D1 | D2 | D3) ( (options {greedy=true;} : octal_digit (options {greedy=true;} : octal_digit)? {$octal=true;})? )
+   | (D4 | D5 | D6 | D7) ( (options {greedy=true;} : octal_digit {$octal=true;})? )
+   | D8
+   | D9
+   )
+   -> {$octal}? LITERAL[String.valueOf((char)Integer.parseInt($text.substring(1), 8))]
+   ->           ^(NUMBERED_BACKREFERENCE NUMBER[$text.substring(1)])
+ ;
+
+octal_char
+ : Backslash
+   ( (D0 | D1 | D2 | D3) octal_digit (options {greedy=true;} : octal_digit)?
+   | (D4 | D5 | D6 | D7) octal_digit
+   )
+   -> LITERAL[String.valueOf((char)Integer.parseInt($text.substring(1), 8))]
+ ;
+
+// GROUPS
+//
+//         (...)           capturing group
+//         (?...)          see group_extension
+//         (*...)          see verb
+group
+ : '('
+   ( '?' e=group_extension[retval]                             -> $e
+   | '*' verb                                                  -> verb
+   | {addNumberedMatchGroup(retval);} regex ')'                -> ^(CAPTURING_GROUP regex)
+   )
+ ;
+
+// Everything after "(?". The <code>owner</code> is the return scope of the
+// surrounding group rule, which is registered when it is a named capture.
+//
+//         (?<name>...)    named capturing group (Perl)
+//         (?'name'...)    named capturing group (Perl)
+//         (?P<name>...)   named capturing group (Python)
+//         (?:...)         non-capturing group
+//         (?|...)         non-capturing group; reset group numbers
+//         (?>...)         atomic, non-capturing group
+//         (?#....)        comment
+//         (?=...)         positive look ahead
+//         (?!...)         negative look ahead
+//         (?<=...)        positive look behind
+//         (?<!...)        negative look behind
+//         (?R)            recurse whole pattern
+//         (?n)            call subpattern by absolute number
+//         (?+n)           call subpattern by relative number
+//         (?-n)           call subpattern by relative number
+//         (?&name)        call subpattern by name (Perl)
+//         (?P>name)       call subpattern by name (Python)
+//         (?P=name)       reference by name (Python)
+//         (?(...)...)     conditional pattern
+//         (?C) (?Cn)      callout
+//         (?imsxUJ-...)   option setting
+group_extension[ParserRuleReturnScope owner]
+ : '<'
+   ( {addNumberedMatchGroup(owner);} name '>' {addNamedMatchGroup($name.text, owner);} regex ')' -> ^(NAMED_CAPTURING_GROUP_PERL name regex)
+   | '=' regex ')'                                                                               -> ^(LOOK_BEHIND regex)
+   | '!' regex ')'                                                                               -> ^(NEGATIVE_LOOK_BEHIND regex)
+   )
+ | SingleQuote {addNumberedMatchGroup(owner);} name SingleQuote {addNamedMatchGroup($name.text, owner);} regex ')'
+   -> ^(NAMED_CAPTURING_GROUP_PERL name regex)
+ | 'P'
+   ( '<' {addNumberedMatchGroup(owner);} n=name '>' {addNamedMatchGroup($n.text, owner);} regex ')' -> ^(NAMED_CAPTURING_GROUP_PYTHON $n regex)
+   | '=' n=name ')'                                                                                 -> ^(NAMED_BACKREFERENCE_PYTHON $n)
+   | '>' n=name ')'                                                                                 -> ^(NAMED_REFERENCE_PYTHON $n)
+   )
+ | ':' regex ')'               -> ^(NON_CAPTURING_GROUP regex)
+ | '|' regex ')'               -> ^(NON_CAPTURING_GROUP_RESET regex)
+ | '>' regex ')'               -> ^(ATOMIC_GROUP regex)
+ | '#' non_close_parens ')'    -> COMMENT[$non_close_parens.text]
+ | '=' regex ')'               -> ^(LOOK_AHEAD regex)
+ | '!' regex ')'               -> ^(NEGATIVE_LOOK_AHEAD regex)
+ | 'R' ')'                     -> ^(NUMBERED_REFERENCE_ABSOLUTE NUMBER["0"])
+ | number ')'                  -> ^(NUMBERED_REFERENCE_ABSOLUTE number)
+ | '+' number ')'              -> ^(NUMBERED_REFERENCE_RELATIVE_PLUS number)
+ | '-'
+   ( number ')'                -> ^(NUMBERED_REFERENCE_RELATIVE_MINUS number)
+   | option_flags ')'          -> ^(OPTIONS SET ^(UNSET option_flags))
+   )
+ | '&' name ')'                -> ^(NAMED_REFERENCE_PERL name)
+ | '(' conditional             -> conditional
+ | 'C'
+   ( ')'                       -> ^(CALLOUT)
+   | number ')'                -> ^(CALLOUT number)
+   )
+ | s=option_flags
+   ( '-' u=option_flags ')'    -> ^(OPTIONS ^(SET $s) ^(UNSET $u))
+   | ')'                       -> ^(OPTIONS ^(SET $s) UNSET)
+   )
+ ;
+
+// CONDITIONAL PATTERNS, everything after "(?("
+//
+//         (?(condition)yes-pattern)
+//         (?(condition)yes-pattern|no-pattern)
+//
+//         (?(n)...        absolute reference condition
+//         (?(+n)...       relative reference condition
+//         (?(-n)...       relative reference condition
+//         (?(<name>)...   named reference condition (Perl)
+//         (?('name')...   named reference condition (Perl)
+//         (?(name)...     named reference condition (PCRE)
+//         (?(R)...        overall recursion condition
+//         (?(Rn)...       specific group recursion condition
+//         (?(R&name)...   specific recursion condition
+//         (?(DEFINE)...   define subpattern for reference
+//         (?(assert)...   assertion condition
+//
+// "R", "Rn", "DEFINE" and "assert" are told apart from other names after
+// the entire name has been matched.
+//
+// Like in PCRE.g, the regex after the condition consumes all '|'s, so the
+// no-pattern ends up in the YES branch and NO is always empty.
+conditional
+ : number ')' regex ')'                     -> ^(REFERENCE_CONDITION_ABSOLUTE number ^(YES regex) NO)
+ | '+' number ')' regex ')'                 -> ^(REFERENCE_CONDITION_RELATIVE_PLUS number ^(YES regex) NO)
+ | '-' number ')' regex ')'                 -> ^(REFERENCE_CONDITION_RELATIVE_MINUS number ^(YES regex) NO)
+ | '<' name '>' ')' regex ')'               -> ^(NAMED_REFERENCE_CONDITION_PERL name ^(YES regex) NO)
+ | SingleQuote name SingleQuote ')' regex ')' -> ^(NAMED_REFERENCE_CONDITION_PERL name ^(YES regex) NO)
+ | 'R' '&' name ')' regex ')'               -> ^(SPECIFIC_RECURSION_CONDITION name ^(YES regex) NO)
+ | alpha_nums ')' regex ')'
+   -> {$alpha_nums.text.equals("R")}?           ^(OVERALL_RECURSION_CONDITION ^(YES regex) NO)
+   -> {isRecursionCondition($alpha_nums.text)}? ^(SPECIFIC_GROUP_RECURSION_CONDITION NUMBER[$alpha_nums.text.substring(1)] ^(YES regex) NO)
+   -> {$alpha_nums.text.equals("DEFINE")}?      ^(DEFINE ^(YES regex) NO)
+   -> {$alpha_nums.text.equals("assert")}?      ^(ASSERT ^(YES regex) NO)
+   ->                                           ^(NAMED_REFERENCE_CONDITION NAME[$alpha_nums.text] ^(YES regex) NO)
+ ;
+
+// BACKTRACKING CONTROL, OPTIONS AND NEWLINE CONVENTIONS, everything after "(*"
+//
+//         (*ACCEPT) (*FAIL) (*F) (*MARK:NAME) (*:NAME) (*COMMIT) (*PRUNE)
+//         (*PRUNE:NAME) (*SKIP) (*SKIP:NAME) (*THEN) (*THEN:NAME)
+//         (*NO_START_OPT) (*UTF8) (*UTF16) (*UCP)
+//         (*CR) (*LF) (*CRLF) (*ANYCRLF) (*ANY) (*BSR_ANYCRLF) (*BSR_UNICODE)
+verb
+ : 'A'
+   ( 'C' 'C' 'E' 'P' 'T' ')'                         -> BACKTACK_CONTROL_ACCEPT
+   | 'N' 'Y'
+     ( ')'                                           -> NEWLINE_CONVENTION_ANY
+     | 'C' 'R' 'L' 'F' ')'                           -> NEWLINE_CONVENTION_ANYCRLF
+     )
+   )
+ | 'B' 'S' 'R' '_'
+   ( 'A' 'N' 'Y' 'C' 'R' 'L' 'F' ')'                 -> NEWLINE_CONVENTION_BSR_ANYCRLF
+   | 'U' 'N' 'I' 'C' 'O' 'D' 'E' ')'                 -> NEWLINE_CONVENTION_BSR_UNICODE
+   )
+ | 'C'
+   ( 'R'
+     ( ')'                                           -> NEWLINE_CONVENTION_CR
+     | 'L' 'F' ')'                                   -> NEWLINE_CONVENTION_CRLF
+     )
+   | 'O' 'M' 'M' 'I' 'T' ')'                         -> BACKTACK_CONTROL_COMMIT
+   )
+ | 'F' ('A' 'I' 'L')? ')'                            -> BACKTACK_CONTROL_FAIL
+ | 'L' 'F' ')'                                       -> NEWLINE_CONVENTION_LF
+ | ('M' 'A' 'R' 'K')? ':' 'N' 'A' 'M' 'E' ')'        -> BACKTACK_CONTROL_MARK_NAME
+ | 'N' 'O' '_' 'S' 'T' 'A' 'R' 'T' '_' 'O' 'P' 'T' ')' -> OPTIONS_NO_START_OPT
+ | 'P' 'R' 'U' 'N' 'E'
+   ( ')'                                             -> BACKTACK_CONTROL_PRUNE
+   | ':' 'N' 'A' 'M' 'E' ')'                         -> BACKTACK_CONTROL_PRUNE_NAME
+   )
+ | 'S' 'K' 'I' 'P'
+   ( ')'                                             -> BACKTACK_CONTROL_SKIP
+   | ':' 'N' 'A' 'M' 'E' ')'                         -> BACKTACK_CONTROL_SKIP_NAME
+   )
+ | 'T' 'H' 'E' 'N'
+   ( ')'                                             -> BACKTACK_CONTROL_THEN
+   | ':' 'N' 'A' 'M' 'E' ')'                         -> BACKTACK_CONTROL_THEN_NAME
+   )
+ | 'U'
+   ( 'T' 'F'
+     ( '8' ')'                                       -> OPTIONS_UTF8
+     | '1' '6' ')'                                   -> OPTIONS_UTF16
+     )
+   | 'C' 'P' ')'                                     -> OPTIONS_UCP
+   )
+ ;
+
+option_flags
+ : option_flag+
+ ;
+
+option_flag
+ : 'i' -> OPTION["i"]
+ | 'J' -> OPTION["J"]
+ | 'm' -> OPTION["m"]
+ | 's' -> OPTION["s"]
+ | 'U' -> OPTION["U"]
+ | 'x' -> OPTION["x"]
+ ;
+
+atom
+ : group
+ | backslash_g
+ | backslash_k
+ | backslash_number
+ | shared_atom
+ | literal
+ | character_class
+ | Dot                -> ANY
+ | Caret              -> START_OF_SUBJECT
+ | StartOfSubject     -> START_OF_SUBJECT
+ | WordBoundary
+ | NonWordBoundary
+ | EndOfSubjectOrLine
+ | EndOfSubjectOrLineEndOfSubject
+ | EndOfSubject
+ | PreviousMatchInSubject
+ | ResetStartMatch
+ | OneDataUnit
+ | ExtendedUnicodeChar
+ ;
+
+shared_atom
+ : POSIXNamedSet
+ | POSIXNegatedNamedSet
+ | ControlChar
+ | DecimalDigit
+ | NotDecimalDigit
+ | HorizontalWhiteSpace
+ | NotHorizontalWhiteSpace
+ | NotNewLine
+ | CharWithProperty
+ | CharWithoutProperty
+ | NewLineSequence
+ | WhiteSpace
+ | NotWhiteSpace
+ | VerticalWhiteSpace
+ | NotVerticalWhiteSpace
+ | WordChar
+ | NotWordChar
+ ;
+
+literal
+ : shared_literal
+ | CharacterClassEnd -> LITERAL["]"]
+ ;
+
+cc_literal
+ : shared_literal
+ | Dot                 -> LITERAL["."]
+ | CharacterClassStart -> LITERAL["["]
+ | Caret               -> LITERAL["^"]
+ | QuestionMark        -> LITERAL["?"]
+ | Plus                -> LITERAL["+"]
+ | Star                -> LITERAL["*"]
+ | WordBoundary        -> LITERAL["\u0008"] // backspace
+ | EndOfSubjectOrLine  -> LITERAL["$"]
+ | Pipe                -> LITERAL["|"]
+ | OpenParen           -> LITERAL["("]
+ | CloseParen          -> LITERAL[")"]
+ ;
+
+// unlike in PCRE.g, octal chars are not part of this rule: see
+// backslash_number and octal_char
+shared_literal
+ : letter         -> LITERAL[$letter.text]
+ | digit          -> LITERAL[$digit.text]
+ | BellChar       -> LITERAL[$BellChar.text]
+ | EscapeChar     -> LITERAL[$EscapeChar.text]
+ | FormFeed       -> LITERAL[$FormFeed.text]
+ | NewLine        -> LITERAL[$NewLine.text]
+ | CarriageReturn -> LITERAL[$CarriageReturn.text]
+ | Tab            -> LITERAL[$Tab.text]
+ | HexChar        -> LITERAL[$HexChar.text]
+ | Quoted         -> LITERAL[$Quoted.text]
+ | BlockQuoted    -> LITERAL[$BlockQuoted.text]
+ | OpenBrace      -> LITERAL["{"]
+ | CloseBrace     -> LITERAL["}"]
+ | Comma          -> LITERAL[","]
+ | Hyphen         -> LITERAL["-"]
+ | LessThan       -> LITERAL["<"]
+ | GreaterThan    -> LITERAL[">"]
+ | SingleQuote    -> LITERAL["'"]
+ | Underscore     -> LITERAL["_"]
+ | Colon          -> LITERAL[":"]
+ | Hash           -> LITERAL["#"]
+ | Equals         -> LITERAL["="]
+ | Exclamation    -> LITERAL["!"]
+ | Ampersand      -> LITERAL["&"]
+ | OtherChar      -> LITERAL[$OtherChar.text]
+ ;
+
+number
+ : digits -> NUMBER[$digits.text]
+ ;
+
+octal_digit
+ : D0 | D1 | D2 | D3 | D4 | D5 | D6 | D7
+ ;
+
+digits
+ : (options {greedy=true;} : digit)+
+ ;
+
+digit
+ : D0 | D1 | D2 | D3 | D4 | D5 | D6 | D7 | D8 | D9
+ ;
+
+name
+ : alpha_nums -> NAME[$alpha_nums.text]
+ ;
+
+alpha_nums
+ : (letter | Underscore) (letter | Underscore | digit)*
+ ;
+
+non_close_parens
+ : non_close_paren+
+ ;
+
+non_close_paren
+ : ~CloseParen
+ ;
+
+letter
+ : ALC | BLC | CLC | DLC | ELC | FLC | GLC | HLC | ILC | JLC | KLC | LLC | MLC | NLC | OLC | PLC | QLC | RLC | SLC | TLC | ULC | VLC | WLC | XLC | YLC | ZLC |
+   AUC | BUC | CUC | DUC | EUC | FUC | GUC | HUC | IUC | JUC | KUC | LUC | MUC | NUC | OUC | PUC | QUC | RUC | SUC | TUC | UUC | VUC | WUC | XUC | YUC | ZUC
+ ;
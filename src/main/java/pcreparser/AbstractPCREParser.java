@@ -0,0 +1,185 @@
+package pcreparser;
+
+import org.antlr.runtime.BitSet;
+import org.antlr.runtime.IntStream;
+import org.antlr.runtime.Parser;
+import org.antlr.runtime.ParserRuleReturnScope;
+import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.RecognizerSharedState;
+import org.antlr.runtime.TokenStream;
+import org.antlr.runtime.tree.TreeAdaptor;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The superclass of the generated parsers (see the <code>superClass</code>
+ * option of <code>PCRE.g</code> and <code>PCRELinearParser.g</code>). It
+ * keeps track of the (named) capture groups encountered while parsing.
+ * <p>
+ * The rule memos of the backtracking parser are kept in an <code>int[]</code>
+ * per rule, indexed by the token index the rule started at, instead of the
+ * <code>Map&lt;Integer, Integer&gt;</code> per rule of <code>BaseRecognizer</code>.
+ * The arrays are cleared and reused by {@link #reset()}.
+ * <p>
+ * While a <code>PCREParseListener</code> is installed, the rule invocations
+ * and memo lookups are counted in its <code>PCREParseStats</code>. With a
+ * <code>PCREParseBudget</code>, every rule invocation is checked against it.
+ */
+public abstract class AbstractPCREParser extends Parser {
+
+    public static final String HUGE_NUMBER = String.valueOf(Integer.MAX_VALUE);
+
+    protected Map<Integer, ParserRuleReturnScope> captureReturns = new TreeMap<Integer, ParserRuleReturnScope>();
+    protected Map<String, ParserRuleReturnScope> namedReturns = new TreeMap<String, ParserRuleReturnScope>();
+
+    // rows of the memo tables retained by reset(), larger ones are dropped
+    private static final int RETAINED_MEMO_LENGTH = 1 << 16;
+
+    // where errors are reported to, shared with the lexer by a PCREParsingContext
+    PCREErrorReporter errors = new PCREErrorReporter();
+
+    // when not null, the counters of the pattern being parsed
+    PCREParseStats stats = null;
+
+    // when not null, the limits of the pattern being parsed
+    PCREParseBudget budget = null;
+
+    // the stop token index + 3 per rule and start token index, 0 if unknown
+    private int[][] memo = new int[0][];
+
+    // the highest start token index memoized since the last reset, + 1
+    private int memoLength = 0;
+
+    public AbstractPCREParser(TokenStream input, RecognizerSharedState state) {
+        super(input, state);
+    }
+
+    /**
+     * Parses an entire pattern.
+     *
+     * @return the return scope of the entire pattern, group 0.
+     */
+    public abstract ParserRuleReturnScope parse() throws RecognitionException;
+
+    public abstract TreeAdaptor getTreeAdaptor();
+
+    public abstract void setTreeAdaptor(TreeAdaptor adaptor);
+
+    protected void addNumberedMatchGroup(ParserRuleReturnScope value) {
+        int group = captureReturns.size() + 1;
+        captureReturns.put(group, value);
+    }
+
+    protected void addNamedMatchGroup(String name, ParserRuleReturnScope value) {
+        namedReturns.put(name, value);
+    }
+
+    @Override
+    public void displayRecognitionError(String[] tokenNames, RecognitionException e) {
+        super.displayRecognitionError(tokenNames, e);
+        errors.recognitionError(this, e);
+    }
+
+    @Override
+    public void emitErrorMessage(String msg) {
+        if(!errors.emit(msg)) {
+            super.emitErrorMessage(msg);
+        }
+    }
+
+    // the generated rules push their follow set before every rule they
+    // invoke, except for the first rule, parse()
+    @Override
+    protected void pushFollow(BitSet fset) {
+
+        if(stats != null) {
+            stats.ruleInvocations++;
+        }
+
+        if(budget != null) {
+            // parse(), the rules on the follow stack and the invoked rule
+            budget.ruleEntered(state._fsp + 3);
+        }
+
+        super.pushFollow(fset);
+    }
+
+    @Override
+    public int getRuleMemoization(int ruleIndex, int ruleStartIndex) {
+
+        int stopIndex = 0;
+
+        if(ruleIndex < memo.length && memo[ruleIndex] != null && ruleStartIndex < memo[ruleIndex].length) {
+            stopIndex = memo[ruleIndex][ruleStartIndex];
+        }
+
+        if(stats != null) {
+            if(stopIndex == 0) {
+                stats.memoMisses++;
+            }
+            else {
+                stats.memoHits++;
+            }
+        }
+
+        return stopIndex == 0 ? MEMO_RULE_UNKNOWN : stopIndex - 3;
+    }
+
+    @Override
+    public void memoize(IntStream input, int ruleIndex, int ruleStartIndex) {
+
+        if(ruleIndex >= memo.length) {
+            memo = Arrays.copyOf(memo, Math.max(ruleIndex + 1, state.ruleMemo == null ? 0 : state.ruleMemo.length));
+        }
+
+        int[] row = memo[ruleIndex];
+
+        if(row == null || ruleStartIndex >= row.length) {
+            int length = Math.max(ruleStartIndex + 1, Math.max(input.size(), row == null ? 0 : row.length * 2));
+            row = memo[ruleIndex] = row == null ? new int[length] : Arrays.copyOf(row, length);
+        }
+
+        row[ruleStartIndex] = (state.failed ? MEMO_RULE_FAILED : input.index() - 1) + 3;
+        memoLength = Math.max(memoLength, ruleStartIndex + 1);
+    }
+
+    @Override
+    public int getRuleMemoizationCacheSize() {
+
+        int size = 0;
+
+        for(int[] row : memo) {
+            if(row != null) {
+                for(int i = 0; i < Math.min(row.length, memoLength); i++) {
+                    if(row[i] != 0) {
+                        size++;
+                    }
+                }
+            }
+        }
+
+        return size;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        captureReturns.clear();
+        namedReturns.clear();
+
+        for(int i = 0; i < memo.length; i++) {
+            if(memo[i] != null) {
+                if(memo[i].length > RETAINED_MEMO_LENGTH) {
+                    memo[i] = null;
+                }
+                else {
+                    Arrays.fill(memo[i], 0, Math.min(memo[i].length, memoLength), 0);
+                }
+            }
+        }
+
+        memoLength = 0;
+    }
+}
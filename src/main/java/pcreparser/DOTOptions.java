@@ -0,0 +1,97 @@
+package pcreparser;
+
+/**
+ * How <code>PCRE.writeDOT(...)</code> renders a tree. Instances are
+ * immutable: every <code>with*</code> method returns a copy.
+ *
+ * <pre>
+ * DOTOptions options = DOTOptions.DEFAULT
+ *         .withLabel(DOTOptions.Label.TOKEN_NAME_AND_TEXT)
+ *         .withMaxDepth(8)
+ *         .withGroupsHighlighted(true);
+ *
+ * pcre.writeDOT(writer, 0, options);
+ * </pre>
+ */
+public final class DOTOptions {
+
+    /**
+     * What the label of a node shows.
+     */
+    public enum Label {
+
+        /** The text of the node, like <code>toStringDOT()</code> does. */
+        TEXT,
+
+        /** The token name of the node, like <code>LITERAL</code>. */
+        TOKEN_NAME,
+
+        /** The token name, followed by the text if it differs. */
+        TOKEN_NAME_AND_TEXT
+    }
+
+    /**
+     * Text labels, no depth limit and no highlighted groups.
+     */
+    public static final DOTOptions DEFAULT = new DOTOptions(Label.TEXT, Integer.MAX_VALUE, false);
+
+    private final Label label;
+    private final int maxDepth;
+    private final boolean groupsHighlighted;
+
+    private DOTOptions(Label label, int maxDepth, boolean groupsHighlighted) {
+        this.label = label;
+        this.maxDepth = maxDepth;
+        this.groupsHighlighted = groupsHighlighted;
+    }
+
+    public Label getLabel() {
+        return label;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public boolean isGroupsHighlighted() {
+        return groupsHighlighted;
+    }
+
+    public DOTOptions withLabel(Label label) {
+
+        if(label == null) {
+            throw new IllegalArgumentException("label == null");
+        }
+
+        return new DOTOptions(label, maxDepth, groupsHighlighted);
+    }
+
+    /**
+     * Returns a copy that only writes nodes up to <code>maxDepth</code>
+     * levels below the root. Nodes of which the children are left out
+     * get a single, dashed <code>...</code> child instead.
+     *
+     * @param maxDepth the depth of the deepest nodes to write, the root
+     *                 being at depth 0.
+     * @return         a copy with the given maximum depth.
+     */
+    public DOTOptions withMaxDepth(int maxDepth) {
+
+        if(maxDepth < 0) {
+            throw new IllegalArgumentException("maxDepth < 0: " + maxDepth);
+        }
+
+        return new DOTOptions(label, maxDepth, groupsHighlighted);
+    }
+
+    /**
+     * Returns a copy that fills the nodes of capture groups and adds the
+     * group number, and name, to their label.
+     *
+     * @param groupsHighlighted whether to highlight capture groups.
+     * @return                  a copy with groups highlighted, or not.
+     */
+    public DOTOptions withGroupsHighlighted(boolean groupsHighlighted) {
+        return new DOTOptions(label, maxDepth, groupsHighlighted);
+    }
+}
@@ -0,0 +1,222 @@
+package pcreparser;
+
+import org.antlr.runtime.Token;
+import org.antlr.runtime.tree.CommonTree;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a tree in the DOT language node by node, without going through
+ * <code>DOTTreeGenerator</code> and <code>StringTemplate</code>. See
+ * <code>PCRE.writeDOT(...)</code>.
+ */
+final class DOTWriter {
+
+    private static final String HEADER =
+            "digraph {\n" +
+            "\n" +
+            "\tordering=out;\n" +
+            "\tranksep=.4;\n" +
+            "\tbgcolor=\"lightgrey\"; node [shape=box, fixedsize=false, fontsize=12, fontname=\"Helvetica-bold\", fontcolor=\"blue\"\n" +
+            "\t\twidth=.25, height=.25, color=\"black\", fillcolor=\"white\", style=\"filled, solid, bold\"];\n" +
+            "\tedge [arrowsize=.5, color=\"black\", style=\"bold\"]\n" +
+            "\n";
+
+    private final DOTOptions options;
+    private final Appendable out;
+
+    // the group numbers and names of the nodes to highlight, by token
+    private final Map<Token, Integer> groupNumbers = new IdentityHashMap<Token, Integer>();
+    private final String[] groupNames;
+
+    private int nextId = 0;
+
+    DOTWriter(PCRE pcre, DOTOptions options, Appendable out) {
+
+        this.options = options;
+        this.out = out;
+
+        if(options.isGroupsHighlighted()) {
+
+            // by token: the trees of groups in the first alternative of an OR
+            // are copies of the ones in the entire pattern
+            for(int group = 1; group <= pcre.getGroupCount(); group++) {
+                groupNumbers.put(pcre.getCommonTree(group).getToken(), group);
+            }
+
+            groupNames = new String[pcre.getGroupCount() + 1];
+
+            for(int i = 0; i < pcre.getNames().length; i++) {
+                groupNames[pcre.getNameGroups()[i]] = pcre.getNames()[i];
+            }
+        }
+        else {
+            groupNames = null;
+        }
+    }
+
+    void write(CommonTree tree) throws IOException {
+
+        out.append(HEADER);
+
+        // the ancestors of the next node to write, their ids and next child index
+        List<CommonTree> parents = new ArrayList<CommonTree>();
+        int[] parentIds = new int[16];
+        int[] nextChildren = new int[16];
+
+        int rootId = node(tree);
+
+        if(tree.getChildCount() > 0) {
+            if(options.getMaxDepth() == 0) {
+                truncated(rootId);
+            }
+            else {
+                parents.add(tree);
+                parentIds[0] = rootId;
+            }
+        }
+
+        while(!parents.isEmpty()) {
+
+            int depth = parents.size() - 1;
+            CommonTree parent = parents.get(depth);
+            int index = nextChildren[depth];
+
+            if(index == parent.getChildCount()) {
+                parents.remove(depth);
+                nextChildren[depth] = 0;
+                continue;
+            }
+
+            nextChildren[depth] = index + 1;
+
+            CommonTree child = (CommonTree)parent.getChild(index);
+            int childId = node(child);
+
+            edge(parentIds[depth], childId);
+
+            if(child.getChildCount() > 0) {
+
+                // child is at depth + 1
+                if(depth + 1 == options.getMaxDepth()) {
+                    truncated(childId);
+                    continue;
+                }
+
+                if(parents.size() == nextChildren.length) {
+                    nextChildren = Arrays.copyOf(nextChildren, nextChildren.length * 2);
+                    parentIds = Arrays.copyOf(parentIds, parentIds.length * 2);
+                }
+
+                parents.add(child);
+                parentIds[depth + 1] = childId;
+            }
+        }
+
+        out.append("\n}\n");
+    }
+
+    // writes the node and returns its id
+    private int node(CommonTree tree) throws IOException {
+
+        int id = nextId++;
+        Integer group = groupNames == null ? null : groupNumbers.get(tree.getToken());
+
+        out.append("  n").append(String.valueOf(id)).append(" [label=\"");
+
+        String tokenName = PCREParser.tokenNames[tree.getType()];
+        String text = tree.getText();
+
+        switch(options.getLabel()) {
+            case TEXT:
+                escape(text);
+                break;
+            case TOKEN_NAME:
+                escape(tokenName);
+                break;
+            default:
+                escape(tokenName);
+
+                if(!tokenName.equals(text)) {
+                    out.append("='");
+                    escape(text);
+                    out.append('\'');
+                }
+        }
+
+        if(group != null) {
+
+            out.append("\\ngroup ").append(String.valueOf(group));
+
+            if(groupNames[group] != null) {
+                out.append(" '");
+                escape(groupNames[group]);
+                out.append('\'');
+            }
+
+            out.append("\", fillcolor=\"lightblue\"];\n");
+        }
+        else {
+            out.append("\"];\n");
+        }
+
+        return id;
+    }
+
+    // writes a "..." child in place of the children of the node
+    private void truncated(int parentId) throws IOException {
+
+        int id = nextId++;
+
+        out.append("  n").append(String.valueOf(id)).append(" [label=\"...\", style=\"dashed\"];\n");
+        edge(parentId, id);
+    }
+
+    private void edge(int parentId, int childId) throws IOException {
+        out.append("  n").append(String.valueOf(parentId)).append(" -> n").append(String.valueOf(childId)).append(";\n");
+    }
+
+    // writes text as (part of) a quoted DOT string, showing control chars as escapes
+    private void escape(String text) throws IOException {
+
+        if(text == null) {
+            out.append("null");
+            return;
+        }
+
+        for(int i = 0; i < text.length(); i++) {
+
+            char ch = text.charAt(i);
+
+            switch(ch) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\\\n");
+                    break;
+                case '\r':
+                    out.append("\\\\r");
+                    break;
+                case '\t':
+                    out.append("\\\\t");
+                    break;
+                default:
+                    if(ch < ' ') {
+                        out.append(String.format("\\\\x%02X", (int)ch));
+                    }
+                    else {
+                        out.append(ch);
+                    }
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package pcreparser;
+
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.tree.CommonTree;
+import org.antlr.runtime.tree.CommonTreeAdaptor;
+
+/**
+ * A tree adaptor that does not build any trees: every node it is asked to
+ * create is the same, childless placeholder. A parser using it only
+ * recognizes the pattern and keeps track of its (named) capture groups,
+ * which is all <code>PCRE.lazy(String)</code> needs.
+ */
+final class DiscardingTreeAdaptor extends CommonTreeAdaptor {
+
+    static final DiscardingTreeAdaptor INSTANCE = new DiscardingTreeAdaptor();
+
+    // not nil, so the rewrite streams never look for its children
+    private static final CommonTree NODE = new CommonTree(new CommonToken(Token.INVALID_TOKEN_TYPE, ""));
+
+    private DiscardingTreeAdaptor() {
+    }
+
+    @Override
+    public Object create(Token payload) {
+        return NODE;
+    }
+
+    @Override
+    public Object create(int tokenType, Token fromToken) {
+        return NODE;
+    }
+
+    @Override
+    public Object create(int tokenType, Token fromToken, String text) {
+        return NODE;
+    }
+
+    @Override
+    public Object create(int tokenType, String text) {
+        return NODE;
+    }
+
+    @Override
+    public Object nil() {
+        return NODE;
+    }
+
+    @Override
+    public Object dupNode(Object t) {
+        return NODE;
+    }
+
+    @Override
+    public Object dupTree(Object tree) {
+        return NODE;
+    }
+
+    @Override
+    public void addChild(Object t, Object child) {
+    }
+
+    @Override
+    public Object becomeRoot(Object newRoot, Object oldRoot) {
+        return NODE;
+    }
+
+    @Override
+    public Object becomeRoot(Token newRoot, Object oldRoot) {
+        return NODE;
+    }
+
+    @Override
+    public Object rulePostProcessing(Object root) {
+        return NODE;
+    }
+
+    @Override
+    public void setTokenBoundaries(Object t, Token startToken, Token stopToken) {
+    }
+}
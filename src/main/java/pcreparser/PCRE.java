@@ -1,31 +1,556 @@
 package pcreparser;
 
-import org.antlr.runtime.ANTLRStringStream;
-import org.antlr.runtime.CommonTokenStream;
+import org.antlr.runtime.CommonToken;
 import org.antlr.runtime.ParserRuleReturnScope;
 import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.Token;
 import org.antlr.runtime.tree.CommonTree;
 import org.antlr.runtime.tree.DOTTreeGenerator;
 import org.antlr.stringtemplate.StringTemplate;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
 
 public class PCRE {
 
-    private final PCREParser parser;
+    private static final PCRECache CACHE = new PCRECache();
+
+    private static final int PARSE_ALL_CHUNK_SIZE = 32;
+
+    private static final int[] NO_NAMES = new int[0];
+
+    // the formats of serialize(String, int)
+    private static final String ASCII = "ascii";
+    private static final String DOT = "dot";
+    private static final String LISP = "lisp";
+
+    // groups[0] is the entire pattern, groups[n] the n-th capture group
+    private final CommonTree[] groups;
+
+    // the offsets of the first and last char of group n at [n * 2] and
+    // [n * 2 + 1], or PCRETree.NONE if they are not known
+    private final int[] spans;
+
+    // the names of the named groups, sorted, and their group numbers
+    private final String[] names;
+    private final int[] nameGroups;
+
+    // an open-addressed table of the indexes of names, + 1, by their hash
+    private final int[] nameTable;
+
+    // the name of every group, or null if there are no named groups
+    private final String[] groupNames;
+
+    // for lazy instances: the pattern
+    private final String regex;
 
     public PCRE(String regex) {
-        try {
-            PCRELexer lexer = new PCRELexer(new ANTLRStringStream(regex));
-            parser = new PCREParser(new CommonTokenStream(lexer));
+        this(PCREParsingContext.forCurrentThread().parse(regex));
+    }
+
+    /**
+     * Parses the chars of <code>regex</code> in place, without copying them
+     * into a <code>String</code> first. The chars must not change as long
+     * as this instance is in use: the text of its nodes is read from
+     * <code>regex</code>.
+     *
+     * @param regex the pattern to parse.
+     */
+    public PCRE(CharSequence regex) {
+        this(PCREParsingContext.forCurrentThread().parse(regex));
+    }
+
+    /**
+     * Parses the <code>length</code> chars of <code>regex</code> from
+     * <code>offset</code> on in place, like {@link #PCRE(CharSequence)}.
+     * The offsets of the groups and nodes are indexes in <code>regex</code>.
+     *
+     * @param regex  the array holding the pattern.
+     * @param offset the index of the first char of the pattern.
+     * @param length the number of chars of the pattern.
+     * @throws IndexOutOfBoundsException if the pattern is not within
+     *                                   <code>regex</code>.
+     */
+    public PCRE(char[] regex, int offset, int length) {
+        this(PCREParsingContext.forCurrentThread().parse(regex, offset, length));
+    }
 
+    /**
+     * Parses the remaining chars of <code>regex</code>, from its position to
+     * its limit, in place, like {@link #PCRE(CharSequence)}. The offsets of
+     * the groups and nodes are indexes in the buffer. The position and limit
+     * of <code>regex</code> are left alone.
+     *
+     * @param regex the buffer holding the pattern.
+     */
+    public PCRE(CharBuffer regex) {
+        this(PCREParsingContext.forCurrentThread().parse(regex));
+    }
+
+    private PCRE(PCRE parsed) {
+        this(parsed.groups, parsed.spans, parsed.names, parsed.nameGroups);
+    }
+
+    /**
+     * Creates an instance from trees that are already built, like the ones
+     * of <code>PCREFastParser</code>.
+     *
+     * @param groups     the entire pattern followed by all capture groups.
+     * @param spans      the offsets of the first and last char of every
+     *                   group, or <code>PCRETree.NONE</code> if not known.
+     * @param names      the names of the named groups, sorted.
+     * @param nameGroups the group numbers of <code>names</code>.
+     */
+    PCRE(CommonTree[] groups, int[] spans, String[] names, int[] nameGroups) {
+        this.groups = groups;
+        this.spans = spans;
+        this.names = names;
+        this.nameGroups = nameGroups;
+        this.nameTable = nameTable(names);
+        this.groupNames = groupNames(groups.length, names, nameGroups);
+        this.regex = null;
+    }
+
+    /**
+     * Parses the pattern <code>parser</code> is prepared for and keeps only
+     * the resulting trees and group index: no reference to the parser, its
+     * token stream or its memoization tables is retained.
+     *
+     * @param parser the parser to parse with.
+     */
+    PCRE(AbstractPCREParser parser) {
+        this(parser, null);
+    }
+
+    /**
+     * Parses the pattern <code>parser</code> is prepared for. If
+     * <code>regex</code> is not <code>null</code>, the trees are not kept
+     * (the parser is expected not to build them), and are built from the
+     * spans of the groups when they are first asked for.
+     *
+     * @param parser the parser to parse with.
+     * @param regex  the pattern <code>parser</code> is prepared for, or
+     *               <code>null</code> to keep the trees.
+     */
+    PCRE(AbstractPCREParser parser, String regex) {
+
+        PCREEvents.Parse event = PCREEvents.beginParse();
+
+        try {
             ParserRuleReturnScope capture0 = parser.parse();
             parser.captureReturns.put(0, capture0);
+
+            Map<ParserRuleReturnScope, Integer> groupNumbers = new IdentityHashMap<ParserRuleReturnScope, Integer>();
+
+            groups = new CommonTree[parser.captureReturns.size()];
+            spans = new int[groups.length * 2];
+
+            for (Map.Entry<Integer, ParserRuleReturnScope> entry : parser.captureReturns.entrySet()) {
+
+                int group = entry.getKey();
+                ParserRuleReturnScope value = entry.getValue();
+
+                if (regex == null) {
+                    groups[group] = (CommonTree)value.getTree();
+                }
+
+                setSpan(spans, group, (CommonToken)value.getStart(), (CommonToken)value.getStop());
+                groupNumbers.put(value, group);
+            }
+
+            names = new String[parser.namedReturns.size()];
+            nameGroups = new int[names.length];
+
+            int index = 0;
+
+            for (Map.Entry<String, ParserRuleReturnScope> entry : parser.namedReturns.entrySet()) {
+                names[index] = entry.getKey();
+                nameGroups[index] = groupNumbers.get(entry.getValue());
+                index++;
+            }
+
+            nameTable = nameTable(names);
+            groupNames = groupNames(groups.length, names, nameGroups);
+            this.regex = regex;
         }
         catch (RecognitionException e) {
+            if (event != null) {
+                event.finish(parser, null, 0, e);
+            }
             throw new RuntimeException(e);
         }
+        catch (RuntimeException | StackOverflowError e) {
+            // including PCREDiagnostic.STOP and too deeply nested patterns
+            if (event != null) {
+                event.finish(parser, null, 0, e);
+            }
+            throw e;
+        }
+
+        if (event != null) {
+            event.finish(parser, groups[0], groups.length - 1, null);
+        }
+    }
+
+    // sets the span of group from its start and stop token, like PCRETree
+    private static void setSpan(int[] spans, int group, CommonToken start, CommonToken stop) {
+
+        if (start == null || start.getStartIndex() < 0) {
+            spans[group * 2] = PCRETree.NONE;
+            spans[group * 2 + 1] = PCRETree.NONE;
+        }
+        else if (stop == null || stop.getTokenIndex() < start.getTokenIndex()) {
+            // matched nothing: an empty span before the start token
+            spans[group * 2] = start.getStartIndex();
+            spans[group * 2 + 1] = start.getStartIndex() - 1;
+        }
+        else {
+            // the entire pattern also spans EOF, which matched nothing
+            spans[group * 2] = start.getStartIndex();
+            spans[group * 2 + 1] = stop.getType() == Token.EOF ? stop.getStartIndex() - 1 : stop.getStopIndex();
+        }
+    }
+
+    private static int[] nameTable(String[] names) {
+
+        if (names.length == 0) {
+            return NO_NAMES;
+        }
+
+        // a power of 2, at most half full
+        int[] table = new int[Integer.highestOneBit(names.length * 2 - 1) * 2];
+
+        for (int i = 0; i < names.length; i++) {
+
+            int slot = hash(names[i]) & (table.length - 1);
+
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+
+            table[slot] = i + 1;
+        }
+
+        return table;
+    }
+
+    private static int hash(String name) {
+        int hash = name.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static String[] groupNames(int groupCount, String[] names, int[] nameGroups) {
+
+        if (names.length == 0) {
+            return null;
+        }
+
+        String[] groupNames = new String[groupCount];
+
+        for (int i = 0; i < names.length; i++) {
+            groupNames[nameGroups[i]] = names[i];
+        }
+
+        return groupNames;
+    }
+
+    /**
+     * Parses <code>regex</code> without building its trees: only the number,
+     * names and offsets of its groups are kept, which is all
+     * {@link #getGroupCount()} and {@link #getNamedGroupCount()} need.
+     * <p>
+     * The first call that asks for the tree of any group, like
+     * {@link #getCommonTree(int)} or {@link #toStringASCII()}, parses the
+     * whole pattern again with <code>new PCRE(regex)</code> and keeps the
+     * trees of all groups. That call costs a full parse, however small the
+     * group it asks for, and holds the lock of the instance while parsing,
+     * so other threads asking for a tree of the same instance wait for it.
+     * The trees are the same, with the same offsets, as those of
+     * <code>new PCRE(regex)</code>.
+     *
+     * @param regex the pattern to parse.
+     * @return      the parsed <code>regex</code>, building its trees on demand.
+     */
+    public static PCRE lazy(String regex) {
+        return PCREParsingContext.forCurrentThread().parseLazy(regex);
+    }
+
+    /**
+     * Parses the UTF-8 bytes of <code>regex</code> from its position to its
+     * limit without decoding them into a <code>String</code> first: the
+     * lexer decodes them as it reads them. A code point outside the BMP is
+     * two chars, like in a <code>String</code>. The offsets of the groups
+     * and nodes are indexes of bytes in the buffer, see
+     * <code>PCREUtf8CharStream</code>. The position and limit of
+     * <code>regex</code> are left alone, and its bytes must not change as
+     * long as the returned instance is in use.
+     *
+     * @param regex the buffer holding the pattern, like a
+     *              <code>MappedByteBuffer</code>.
+     * @return      the parsed pattern.
+     */
+    public static PCRE fromUtf8(ByteBuffer regex) {
+        return PCREParsingContext.forCurrentThread().parseUtf8(regex);
+    }
+
+    /**
+     * Parses the <code>length</code> UTF-8 bytes of <code>regex</code> from
+     * <code>offset</code> on, like {@link #fromUtf8(ByteBuffer)}. The
+     * offsets of the groups and nodes are indexes in <code>regex</code>.
+     *
+     * @param regex  the array holding the pattern.
+     * @param offset the index of the first byte of the pattern.
+     * @param length the number of bytes of the pattern.
+     * @return       the parsed pattern.
+     * @throws IndexOutOfBoundsException if the pattern is not within
+     *                                   <code>regex</code>.
+     */
+    public static PCRE fromUtf8(byte[] regex, int offset, int length) {
+        return fromUtf8(ByteBuffer.wrap(regex, offset, length));
+    }
+
+    /**
+     * Parses <code>regex</code> without throwing or printing. An invalid
+     * pattern results in a list of diagnostics, each with the offset of the
+     * error in <code>regex</code>, the tokens expected there and a message.
+     * Unsupported character properties and named sets are reported the
+     * same way instead of thrown.
+     *
+     * @param regex the pattern to parse.
+     * @return      the parsed <code>regex</code>, or its errors.
+     */
+    public static PCREResult tryParse(String regex) {
+        return tryParse(regex, false);
+    }
+
+    /**
+     * Parses <code>regex</code> like {@link #tryParse(String)}. If
+     * <code>stopAtFirstError</code> is <code>true</code>, parsing stops at
+     * the first error instead of recovering from it, so that the result
+     * holds a single diagnostic. This is the cheapest way to only find out
+     * whether, and where, a pattern is invalid.
+     *
+     * @param regex            the pattern to parse.
+     * @param stopAtFirstError whether to stop at the first error.
+     * @return                 the parsed <code>regex</code>, or its errors.
+     */
+    public static PCREResult tryParse(String regex, boolean stopAtFirstError) {
+        return PCREParsingContext.forCurrentThread().tryParse(regex, stopAtFirstError);
+    }
+
+    /**
+     * Parses <code>regex</code> like {@link #tryParse(String)}, within the
+     * limits of <code>options</code>. This is the way to parse patterns
+     * from untrusted sources: a pattern that would take too long or nest
+     * too deeply is stopped early.
+     *
+     * @param regex   the pattern to parse.
+     * @param options the limits of the parse.
+     * @return        the parsed <code>regex</code>, or its errors.
+     * @throws PCREBudgetExceededException if the parse exceeds a limit.
+     */
+    public static PCREResult tryParse(String regex, PCREParseOptions options) {
+
+        PCREParsingContext context = PCREParsingContext.forCurrentThread();
+        PCREParseOptions previous = context.getParseOptions();
+
+        context.setParseOptions(options);
+
+        try {
+            return context.tryParse(regex);
+        }
+        finally {
+            context.setParseOptions(previous);
+        }
+    }
+
+    /**
+     * Parses all patterns on the threads of the common fork/join pool. See
+     * {@link #parseAll(Iterable, Executor)}.
+     *
+     * @param regexes the patterns to parse.
+     * @return        the results of all patterns, in the same order.
+     */
+    public static List<PCREResult> parseAll(Iterable<String> regexes) {
+        return parseAll(regexes, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Parses all patterns in parallel on the threads of
+     * <code>executor</code>, each thread with its own lexer and parser. An
+     * invalid pattern does not stop the others from being parsed: its
+     * errors end up in its result instead. The calling thread parses
+     * patterns as well while it waits.
+     *
+     * @param regexes  the patterns to parse.
+     * @param executor the executor to parse with.
+     * @return         the results of all patterns, in the same order.
+     */
+    public static List<PCREResult> parseAll(Iterable<String> regexes, Executor executor) {
+
+        final List<String> patterns = new ArrayList<String>();
+
+        for (String regex : regexes) {
+            patterns.add(regex);
+        }
+
+        final PCREResult[] results = new PCREResult[patterns.size()];
+        List<FutureTask<Void>> chunks = new ArrayList<FutureTask<Void>>();
+
+        // chunks of patterns, so that scheduling does not cost more than parsing
+        for (int start = 0; start < patterns.size(); start += PARSE_ALL_CHUNK_SIZE) {
+
+            final int from = start;
+            final int to = Math.min(start + PARSE_ALL_CHUNK_SIZE, patterns.size());
+
+            FutureTask<Void> chunk = new FutureTask<Void>(new Runnable() {
+                @Override
+                public void run() {
+
+                    PCREParsingContext context = PCREParsingContext.forCurrentThread();
+
+                    for (int i = from; i < to; i++) {
+                        results[i] = context.tryParse(patterns.get(i));
+                    }
+                }
+            }, null);
+
+            chunks.add(chunk);
+            executor.execute(chunk);
+        }
+
+        boolean interrupted = false;
+
+        try {
+            for (FutureTask<Void> chunk : chunks) {
+
+                // the calling thread helps: this does nothing if the chunk is
+                // already (being) parsed, and cannot deadlock when called from
+                // a thread of executor itself
+                chunk.run();
+
+                while (true) {
+                    try {
+                        chunk.get();
+                        break;
+                    }
+                    catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                    catch (ExecutionException e) {
+                        // tryParse does not throw, so this is an Error
+                        throw new IllegalStateException(e.getCause());
+                    }
+                }
+            }
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Parses every line of <code>file</code> on the threads of the common
+     * fork/join pool. See {@link #parseFile(Path, Executor, PCREFileCallback)}.
+     *
+     * @param file     the file with a UTF-8 pattern per line.
+     * @param callback where to hand the result of every line to.
+     * @return         the number of lines.
+     * @throws IOException if the file cannot be read or mapped.
+     */
+    public static long parseFile(Path file, PCREFileCallback callback) throws IOException {
+        return parseFile(file, ForkJoinPool.commonPool(), callback);
+    }
+
+    /**
+     * Parses every line of <code>file</code>, a UTF-8 pattern per line, in
+     * parallel on the threads of <code>executor</code>, without reading
+     * the lines into <code>String</code>s: the file is mapped in chunks of
+     * whole lines, and every line is parsed straight from the mapped bytes,
+     * like {@link #fromUtf8(ByteBuffer)} does. Lines end at <code>\n</code>,
+     * <code>\r</code> or <code>\r\n</code>, like for
+     * <code>BufferedReader.readLine()</code>.
+     *
+     * The results are handed to <code>callback</code> on the calling
+     * thread, in the order of the lines, while later chunks are still being
+     * parsed. Only invalid lines are decoded into a <code>String</code>
+     * right away, valid ones when their result is asked for it. The results
+     * keep the chunk they were parsed from mapped while they are in use, and
+     * the file must not change as long as they are.
+     *
+     * @param file     the file with a UTF-8 pattern per line.
+     * @param executor the executor to parse with.
+     * @param callback where to hand the result of every line to.
+     * @return         the number of lines.
+     * @throws IOException if the file cannot be read or mapped, or has a
+     *                     line of 2 GB or more.
+     */
+    public static long parseFile(Path file, Executor executor, PCREFileCallback callback) throws IOException {
+        return PCREFileParser.parse(file, executor, callback, PCREFileParser.SEGMENT_SIZE, PCREFileParser.CHUNK_SIZE);
+    }
+
+    /**
+     * Returns the parsed <code>regex</code> from a shared, bounded cache,
+     * only parsing it when it is not cached yet. The returned instance can
+     * be shared with other callers, so its trees must not be modified.
+     *
+     * @param regex the pattern to parse.
+     * @return      the, possibly shared, parsed <code>regex</code>.
+     */
+    public static PCRE of(String regex) {
+        return CACHE.get(regex);
+    }
+
+    /**
+     * Returns the cache used by {@link #of(String)}, for example to inspect
+     * its hit, miss and eviction counters.
+     *
+     * @return the cache used by {@link #of(String)}.
+     */
+    public static PCRECache getCache() {
+        return CACHE;
+    }
+
+    /**
+     * Installs a listener that the counters of every pattern parsed by a
+     * <code>PCREParsingContext</code> without a listener of its own are
+     * reported to, like the patterns parsed by the constructors and static
+     * methods of this class. Patterns parsed by <code>PCREFastParser</code>
+     * are reported as well, with the tokens and time of the parse only.
+     * <code>PCREParseStatistics</code> aggregates them into histograms.
+     * Without a listener nothing is counted, and the parsers only check
+     * that there is no listener.
+     *
+     * @param listener the listener to report to, or <code>null</code> to
+     *                 stop counting.
+     */
+    public static void setParseListener(PCREParseListener listener) {
+        PCREParsingContext.setDefaultParseListener(listener);
+    }
+
+    /**
+     * Returns the listener installed by {@link #setParseListener}.
+     *
+     * @return the listener of all contexts, or <code>null</code>.
+     */
+    public static PCREParseListener getParseListener() {
+        return PCREParsingContext.getDefaultParseListener();
     }
 
     public String toStringASCII() {
@@ -33,19 +558,46 @@ public class PCRE {
     }
 
     public String toStringASCII(String name) {
-
-        StringBuilder builder = new StringBuilder();
-        walk(getCommonTree(name), builder);
-
-        return builder.toString();
+        return toStringASCII(namedGroup(name));
     }
 
     public String toStringASCII(int group) {
+        return serialize(ASCII, group);
+    }
 
-        StringBuilder builder = new StringBuilder();
-        walk(getCommonTree(group), builder);
+    /**
+     * Writes the same ASCII tree as {@link #toStringASCII()} to
+     * <code>out</code>, node by node, without building it in memory first.
+     *
+     * @param out where to write the tree of the entire pattern to.
+     * @throws IOException if <code>out</code> throws it.
+     */
+    public void writeASCII(Appendable out) throws IOException {
+        writeASCII(out, 0);
+    }
 
-        return builder.toString();
+    /**
+     * Writes the same ASCII tree as {@link #toStringASCII(String)} to
+     * <code>out</code>, node by node, without building it in memory first.
+     *
+     * @param out  where to write the tree to.
+     * @param name the name of the group to write.
+     * @throws IOException if <code>out</code> throws it.
+     */
+    public void writeASCII(Appendable out, String name) throws IOException {
+        walk(getCommonTree(name), out);
+    }
+
+    /**
+     * Writes the same ASCII tree as {@link #toStringASCII(int)} to
+     * <code>out</code>, node by node, without building it in memory first.
+     *
+     * @param out   where to write the tree to.
+     * @param group the number of the group to write.
+     * @throws IOException if <code>out</code> throws it.
+     */
+    public void writeASCII(Appendable out, int group) throws IOException {
+        walk(getCommonTree(group), out);
     }
 
     public CommonTree getCommonTree() {
@@ -53,25 +605,39 @@ public class PCRE {
     }
 
     public CommonTree getCommonTree(String name) {
+        return getCommonTree(namedGroup(name));
+    }
 
-        ParserRuleReturnScope retval = parser.namedReturns.get(name);
+    private int namedGroup(String name) {
 
-        if(retval == null) {
+        int group = getGroupNumber(name);
+
+        if(group < 0) {
             throw new RuntimeException("no such named group: " + name);
         }
 
-        return (CommonTree)retval.getTree();
+        return group;
     }
 
     public CommonTree getCommonTree(int group) {
 
-        ParserRuleReturnScope retval = parser.captureReturns.get(group);
+        checkGroup(group);
 
-        if(retval == null) {
-            throw new RuntimeException("no such capture group: " + group);
+        return regex == null ? groups[group] : build(group);
+    }
+
+    // builds the trees of all groups for lazy instances, if they are not
+    // built yet, by a full parse of the pattern under the lock of this
+    // instance: parsing the entire pattern gives the nodes the same offsets
+    // as parsing it eagerly, and group trees that are subtrees of group 0
+    private synchronized CommonTree build(int group) {
+
+        if(groups[group] == null) {
+            PCRE parsed = new PCRE(regex);
+            System.arraycopy(parsed.groups, 0, groups, 0, groups.length);
         }
 
-        return (CommonTree)retval.getTree();
+        return groups[group];
     }
 
     public String toStringDOT() {
@@ -79,19 +645,134 @@ public class PCRE {
     }
 
     public String toStringDOT(int group) {
-        DOTTreeGenerator gen = new DOTTreeGenerator();
-        StringTemplate st = gen.toDOT(getCommonTree(group));
-        return st.toString();
+        return serialize(DOT, group);
     }
 
     public String toStringDOT(String name) {
-        DOTTreeGenerator gen = new DOTTreeGenerator();
-        StringTemplate st = gen.toDOT(getCommonTree(name));
-        return st.toString();
+        return toStringDOT(namedGroup(name));
+    }
+
+    /**
+     * Writes the tree of <code>group</code> in <code>format</code>, which is
+     * recorded by a <code>pcreparser.Serialize</code> flight recorder event
+     * if it takes long enough.
+     *
+     * @param format {@link #ASCII}, {@link #DOT} or {@link #LISP}.
+     * @param group  the number of the group to write.
+     * @return       the tree of <code>group</code>.
+     */
+    private String serialize(String format, int group) {
+
+        PCREEvents.Serialize event = PCREEvents.beginSerialize();
+        CommonTree tree = null;
+        String output = null;
+
+        try {
+            tree = getCommonTree(group);
+
+            if (format == ASCII) {
+                StringBuilder builder = new StringBuilder();
+                walk(tree, builder);
+                output = builder.toString();
+            }
+            else if (format == DOT) {
+                DOTTreeGenerator gen = new DOTTreeGenerator();
+                StringTemplate st = gen.toDOT(tree);
+                output = st.toString();
+            }
+            else {
+                output = lisp(tree);
+            }
+
+            return output;
+        }
+        catch (IOException e) {
+            // a StringBuilder does not throw
+            throw new RuntimeException(e);
+        }
+        finally {
+            if (event != null) {
+                event.finish(format, group, tree, output);
+            }
+        }
+    }
+
+    public void writeDOT(Appendable out) throws IOException {
+        writeDOT(out, 0, DOTOptions.DEFAULT);
+    }
+
+    public void writeDOT(Appendable out, int group) throws IOException {
+        writeDOT(out, group, DOTOptions.DEFAULT);
+    }
+
+    public void writeDOT(Appendable out, String name) throws IOException {
+        writeDOT(out, name, DOTOptions.DEFAULT);
+    }
+
+    /**
+     * Writes the tree of a group in the DOT language to <code>out</code>,
+     * node by node. Unlike {@link #toStringDOT(int)}, this does not use
+     * <code>StringTemplate</code>, writes every node once and escapes
+     * all labels, and the labels, depth and highlighting of the capture
+     * groups can be set with <code>options</code>.
+     *
+     * @param out     where to write the tree to.
+     * @param group   the number of the group to write.
+     * @param options how to render the tree.
+     * @throws IOException if <code>out</code> throws it.
+     */
+    public void writeDOT(Appendable out, int group, DOTOptions options) throws IOException {
+        new DOTWriter(this, options, out).write(getCommonTree(group));
+    }
+
+    /**
+     * Writes the tree of a named group in the DOT language to
+     * <code>out</code>, node by node. See
+     * {@link #writeDOT(Appendable, int, DOTOptions)}.
+     *
+     * @param out     where to write the tree to.
+     * @param name    the name of the group to write.
+     * @param options how to render the tree.
+     * @throws IOException if <code>out</code> throws it.
+     */
+    public void writeDOT(Appendable out, String name, DOTOptions options) throws IOException {
+        new DOTWriter(this, options, out).write(getCommonTree(name));
+    }
+
+    /**
+     * Writes the trees, group index and offsets of this pattern as a
+     * single binary record to <code>out</code>, which
+     * {@link #load(ByteBuffer, int)} reads back without parsing again.
+     * Records of several patterns can be written to the same stream. See
+     * {@link PCRETree#writeTo(OutputStream)} for the format. The trees of
+     * invalid patterns, like those of <code>PCRE.tryParse</code>, can be
+     * written as well: their nodes without text read back without text.
+     *
+     * @param out where to write the record to.
+     * @throws IOException if <code>out</code> throws it.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        PCRETree.of(this).writeTo(out);
+    }
+
+    /**
+     * Reads the <code>index</code>-th record written by
+     * {@link #writeTo(OutputStream)} from <code>buffer</code>, which can be
+     * a <code>MappedByteBuffer</code> of a file the records were written
+     * to. The position of <code>buffer</code> is not changed.
+     *
+     * @param buffer the records.
+     * @param index  the number of records before the one to read.
+     * @return       the pattern of the record.
+     * @throws IllegalArgumentException if there is no such record, or if it
+     *                                  is malformed or of another version.
+     */
+    public static PCRE load(ByteBuffer buffer, int index) {
+        return PCRETree.load(buffer, index).toPCRE();
     }
 
     public int getGroupCount() {
-        return parser.captureReturns.size() - 1;
+        return groups.length - 1;
     }
 
     public String toStringLisp() {
@@ -99,62 +780,215 @@ public class PCRE {
     }
 
     public String toStringLisp(String name) {
-        return getCommonTree(name).toStringTree();
+        return toStringLisp(namedGroup(name));
     }
 
     public String toStringLisp(int group) {
-        return getCommonTree(group).toStringTree();
+        return serialize(LISP, group);
     }
 
     public int getNamedGroupCount() {
-        return parser.namedReturns.size();
+        return names.length;
+    }
+
+    /**
+     * Returns the number of the group named <code>name</code>, without
+     * building or touching any tree.
+     *
+     * @param name the name of the group.
+     * @return     the number of the group, or -1 if there is no group
+     *             named <code>name</code>.
+     */
+    public int getGroupNumber(String name) {
+
+        if(nameTable.length == 0) {
+            return -1;
+        }
+
+        int mask = nameTable.length - 1;
+
+        for(int slot = hash(name) & mask; nameTable[slot] != 0; slot = (slot + 1) & mask) {
+
+            int index = nameTable[slot] - 1;
+
+            if(names[index].equals(name)) {
+                return nameGroups[index];
+            }
+        }
+
+        return -1;
     }
 
-    @SuppressWarnings("unchecked")
-    private void walk(CommonTree tree, StringBuilder builder) {
+    /**
+     * Returns the name of a group.
+     *
+     * @param group the number of the group.
+     * @return      the name of the group, or <code>null</code> if it has
+     *              no name.
+     */
+    public String getGroupName(int group) {
+        checkGroup(group);
+        return groupNames == null ? null : groupNames[group];
+    }
 
-        List<CommonTree> firstStack = new ArrayList<CommonTree>();
-        firstStack.add(tree);
+    /**
+     * Returns the offset of the first char of a group in the pattern,
+     * including its parentheses, without building its tree. Group 0 starts
+     * at 0.
+     *
+     * @param group the number of the group.
+     * @return      the offset of the first char of the group, or
+     *              <code>PCRETree.NONE</code> if it is not known.
+     */
+    public int getGroupStart(int group) {
+        checkGroup(group);
+        return spans[group * 2];
+    }
 
-        List<List<CommonTree>> childListStack = new ArrayList<List<CommonTree>>();
-        childListStack.add(firstStack);
+    /**
+     * Returns the offset of the last char of a group in the pattern,
+     * including its parentheses, without building its tree. For an empty
+     * pattern this is <code>getGroupStart(0) - 1</code>.
+     *
+     * @param group the number of the group.
+     * @return      the offset of the last char of the group, or
+     *              <code>PCRETree.NONE</code> if it is not known.
+     */
+    public int getGroupStop(int group) {
+        checkGroup(group);
+        return spans[group * 2 + 1];
+    }
 
-        while (!childListStack.isEmpty()) {
+    private void checkGroup(int group) {
+        if(group < 0 || group >= groups.length) {
+            throw new RuntimeException("no such capture group: " + group);
+        }
+    }
 
-            List<CommonTree> childStack = childListStack.get(childListStack.size() - 1);
+    // the names of the named groups, sorted
+    String[] getNames() {
+        return names;
+    }
+
+    // the group numbers of the names of getNames()
+    int[] getNameGroups() {
+        return nameGroups;
+    }
+
+    // the same as tree.toStringTree(), without recursion: the stack holds
+    // the nodes still to write, and the separators and closing parentheses
+    // between them
+    private static String lisp(CommonTree tree) {
+
+        StringBuilder builder = new StringBuilder();
+        List<Object> stack = new ArrayList<Object>();
+
+        stack.add(tree);
 
-            if (childStack.isEmpty()) {
-                childListStack.remove(childListStack.size() - 1);
+        while (!stack.isEmpty()) {
+
+            Object top = stack.remove(stack.size() - 1);
+
+            if (top instanceof String) {
+                builder.append((String)top);
+                continue;
             }
-            else {
-                tree = childStack.remove(0);
 
-                String indent = "";
+            CommonTree node = (CommonTree)top;
+
+            if (node.getChildCount() == 0) {
+                builder.append(node.toString());
+                continue;
+            }
+
+            if (!node.isNil()) {
+                builder.append('(').append(node.toString()).append(' ');
+                stack.add(")");
+            }
 
-                for (int i = 0; i < childListStack.size() - 1; i++) {
-                    indent += (childListStack.get(i).size() > 0) ? "|  " : "   ";
+            for (int i = node.getChildCount() - 1; i >= 0; i--) {
+                stack.add(node.getChild(i));
+
+                if (i > 0) {
+                    stack.add(" ");
                 }
+            }
+        }
+
+        return builder.toString();
+    }
+
+    private static void walk(CommonTree tree, Appendable out) throws IOException {
+
+        // the ancestors of the next node to write, and their next child index
+        List<CommonTree> parents = new ArrayList<CommonTree>();
+        int[] nextChildren = new int[16];
+
+        // a "|  " for every ancestor with siblings still to come, else "   "
+        StringBuilder indent = new StringBuilder();
+
+        write(tree, "'- ", indent, out);
+
+        if (tree.getChildCount() > 0) {
+            parents.add(tree);
+            indent.append("   ");
+        }
+
+        while (!parents.isEmpty()) {
+
+            int depth = parents.size() - 1;
+            CommonTree parent = parents.get(depth);
+            int index = nextChildren[depth];
 
-                String tokenName = PCREParser.tokenNames[tree.getType()];
-                String tokenText = tree.getText();
+            if (index == parent.getChildCount()) {
+                parents.remove(depth);
+                nextChildren[depth] = 0;
+                indent.setLength(indent.length() - 3);
+                continue;
+            }
+
+            nextChildren[depth] = index + 1;
+
+            CommonTree child = (CommonTree)parent.getChild(index);
+            boolean last = index == parent.getChildCount() - 1;
+
+            write(child, last ? "'- " : "|- ", indent, out);
 
-                builder.append(indent)
-                        .append(childStack.isEmpty() ? "'- " : "|- ")
-                        .append(tokenName)
-                        .append(!tokenName.equals(tokenText) ? "='" + tree.getText() + "'" : "")
-                        .append("\n");
+            if (child.getChildCount() > 0) {
 
-                if (tree.getChildCount() > 0) {
-                    childListStack.add(new ArrayList<CommonTree>((List<CommonTree>)tree.getChildren()));
+                if (parents.size() == nextChildren.length) {
+                    nextChildren = Arrays.copyOf(nextChildren, nextChildren.length * 2);
                 }
+
+                parents.add(child);
+                indent.append(last ? "   " : "|  ");
             }
         }
     }
 
+    private static void write(CommonTree tree, String branch, CharSequence indent, Appendable out) throws IOException {
+
+        String tokenName = PCREParser.tokenNames[tree.getType()];
+        String tokenText = tree.getText();
+
+        out.append(indent).append(branch).append(tokenName);
+
+        if (!tokenName.equals(tokenText)) {
+            out.append("='").append(tokenText).append('\'');
+        }
+
+        out.append('\n');
+    }
+
     public static void main(String[] args) {
 
+        if(args.length > 0 && args[0].equals("--batch")) {
+            System.exit(PCREBatch.run(args, System.in, System.out, System.err));
+        }
+
         if(args.length != 1) {
             System.err.println("usage: java -jar PCRE.jar 'regex-pattern'");
+            System.err.println("       " + PCREBatch.USAGE.substring("usage: ".length()));
             System.exit(42);
         }
 
@@ -0,0 +1,354 @@
+package pcreparser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The <code>--batch</code> mode of <code>PCRE.main</code>: parses a file, or
+ * stdin, with a pattern per line on a number of worker threads, and writes
+ * a JSON object per pattern, per line, to stdout:
+ *
+ * <pre>
+ * {"line":1,"pattern":"(?&lt;Y&gt;\\d{4})","groups":1,"namedGroups":{"Y":1},"tree":"(ALTERNATIVE ...)","nanos":41250}
+ * {"line":2,"pattern":"(a","error":"line 1:2 mismatched input '&lt;EOF&gt;' expecting CloseParen","nanos":30125}
+ * </pre>
+ */
+final class PCREBatch {
+
+    static final String USAGE =
+            "usage: java -jar PCRE.jar --batch [file|-] [--threads n] [--order input|completion] [--tree lisp|ascii|none]";
+
+    enum Order {
+        INPUT, COMPLETION
+    }
+
+    enum Tree {
+        LISP, ASCII, NONE
+    }
+
+    private String file = "-";
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private Order order = Order.INPUT;
+    private Tree tree = Tree.LISP;
+
+    private PCREBatch() {
+    }
+
+    /**
+     * Runs the batch mode.
+     *
+     * @param args the command line arguments, starting with
+     *             <code>--batch</code>.
+     * @param in   where to read the patterns from if the file is
+     *             <code>-</code>.
+     * @param out  where to write the JSON lines to.
+     * @param err  where to write usage and I/O errors to.
+     * @return     the exit status: 0, or 42 for invalid arguments or an
+     *             unreadable file.
+     */
+    static int run(String[] args, InputStream in, OutputStream out, PrintStream err) {
+
+        PCREBatch batch = new PCREBatch();
+
+        try {
+            batch.parseArguments(args);
+        }
+        catch(IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return 42;
+        }
+
+        try {
+            InputStream input = batch.file.equals("-") ? in : new FileInputStream(batch.file);
+
+            try {
+                batch.run(input, out);
+            }
+            finally {
+                if(input != in) {
+                    input.close();
+                }
+            }
+
+            return 0;
+        }
+        catch(IOException e) {
+            err.println("could not read " + batch.file + ": " + e.getMessage());
+            return 42;
+        }
+    }
+
+    private void parseArguments(String[] args) {
+
+        boolean fileSeen = false;
+
+        for(int i = 1; i < args.length; i++) {
+
+            String arg = args[i];
+
+            if(arg.equals("--threads")) {
+                try {
+                    threads = Integer.parseInt(value(args, ++i));
+                }
+                catch(NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid thread count: " + args[i]);
+                }
+
+                if(threads < 1) {
+                    throw new IllegalArgumentException("invalid thread count: " + threads);
+                }
+            }
+            else if(arg.equals("--order")) {
+                order = Order.valueOf(option(value(args, ++i), Order.values()));
+            }
+            else if(arg.equals("--tree")) {
+                tree = Tree.valueOf(option(value(args, ++i), Tree.values()));
+            }
+            else if(!fileSeen && (arg.equals("-") || !arg.startsWith("--"))) {
+                file = arg;
+                fileSeen = true;
+            }
+            else {
+                throw new IllegalArgumentException("unexpected argument: " + arg);
+            }
+        }
+    }
+
+    private static String value(String[] args, int index) {
+
+        if(index >= args.length) {
+            throw new IllegalArgumentException("missing value for " + args[index - 1]);
+        }
+
+        return args[index];
+    }
+
+    private static String option(String value, Enum<?>[] options) {
+
+        for(Enum<?> option : options) {
+            if(option.name().equalsIgnoreCase(value)) {
+                return option.name();
+            }
+        }
+
+        throw new IllegalArgumentException("invalid option: " + value);
+    }
+
+    private void run(InputStream input, OutputStream output) throws IOException {
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "pcre-batch");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // enough patterns in flight to keep all workers busy, without reading the entire input
+        int maxPending = threads * 64;
+
+        try {
+            if(order == Order.INPUT) {
+                runInInputOrder(reader, writer, executor, maxPending);
+            }
+            else {
+                runInCompletionOrder(reader, writer, executor, maxPending);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            writer.flush();
+        }
+    }
+
+    private void runInInputOrder(BufferedReader reader, Writer writer, ExecutorService executor, int maxPending)
+            throws IOException {
+
+        Deque<Future<String>> pending = new ArrayDeque<Future<String>>();
+        String pattern;
+        int line = 0;
+
+        while((pattern = reader.readLine()) != null) {
+
+            pending.add(executor.submit(task(++line, pattern)));
+
+            while(!pending.isEmpty() && (pending.size() >= maxPending || pending.peek().isDone())) {
+                writeLine(writer, pending.poll());
+            }
+        }
+
+        while(!pending.isEmpty()) {
+            writeLine(writer, pending.poll());
+        }
+    }
+
+    private void runInCompletionOrder(BufferedReader reader, Writer writer, ExecutorService executor, int maxPending)
+            throws IOException {
+
+        CompletionService<String> completed = new ExecutorCompletionService<String>(executor);
+        String pattern;
+        int line = 0;
+        int pending = 0;
+
+        while((pattern = reader.readLine()) != null) {
+
+            completed.submit(task(++line, pattern));
+            pending++;
+
+            Future<String> done;
+
+            while(pending > 0 && (pending >= maxPending ? (done = take(completed)) : (done = completed.poll())) != null) {
+                writeLine(writer, done);
+                pending--;
+            }
+        }
+
+        while(pending > 0) {
+            writeLine(writer, take(completed));
+            pending--;
+        }
+    }
+
+    private static Future<String> take(CompletionService<String> completed) throws IOException {
+        try {
+            return completed.take();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        }
+    }
+
+    private static void writeLine(Writer writer, Future<String> json) throws IOException {
+        try {
+            writer.write(json.get());
+            writer.write('\n');
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        }
+        catch(ExecutionException e) {
+            // task() catches everything a pattern can cause
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private Callable<String> task(final int line, final String pattern) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                return parse(line, pattern);
+            }
+        };
+    }
+
+    private String parse(int line, String pattern) {
+
+        long start = System.nanoTime();
+        PCREResult result = PCREParsingContext.forCurrentThread().tryParse(pattern);
+        long nanos = System.nanoTime() - start;
+
+        StringBuilder json = new StringBuilder("{\"line\":").append(line).append(",\"pattern\":");
+        quote(pattern, json);
+
+        if(!result.isValid()) {
+            json.append(",\"error\":");
+            quote(join(result.getErrors()), json);
+        }
+        else {
+            PCRE pcre = result.getPCRE();
+
+            json.append(",\"groups\":").append(pcre.getGroupCount()).append(",\"namedGroups\":{");
+
+            String[] names = pcre.getNames();
+
+            for(int i = 0; i < names.length; i++) {
+                quote(names[i], json.append(i == 0 ? "" : ","));
+                json.append(':').append(pcre.getNameGroups()[i]);
+            }
+
+            json.append('}');
+
+            if(tree != Tree.NONE) {
+                json.append(",\"tree\":");
+                quote(tree == Tree.LISP ? pcre.toStringLisp() : pcre.toStringASCII(), json);
+            }
+        }
+
+        return json.append(",\"nanos\":").append(nanos).append('}').toString();
+    }
+
+    private static String join(List<String> messages) {
+
+        StringBuilder builder = new StringBuilder();
+
+        for(String message : messages) {
+            builder.append(builder.length() == 0 ? "" : "; ").append(message);
+        }
+
+        return builder.toString();
+    }
+
+    // appends text as a JSON string
+    static void quote(String text, StringBuilder json) {
+
+        json.append('"');
+
+        for(int i = 0; i < text.length(); i++) {
+
+            char ch = text.charAt(i);
+
+            switch(ch) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if(ch < ' ') {
+                        json.append(String.format("\\u%04x", (int)ch));
+                    }
+                    else {
+                        json.append(ch);
+                    }
+            }
+        }
+
+        json.append('"');
+    }
+}
@@ -0,0 +1,40 @@
+package pcreparser;
+
+/**
+ * Thrown when parsing a pattern exceeds a limit of its
+ * <code>PCREParseOptions</code>. It has no stack trace, so throwing it
+ * costs about as little as returning.
+ */
+public final class PCREBudgetExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The limit that was exceeded.
+     */
+    public enum Limit {
+
+        /** The parse took longer than its timeout. */
+        TIMEOUT,
+
+        /** The pattern has more tokens than allowed. */
+        TOKENS,
+
+        /** The parser rules nested deeper than allowed. */
+        DEPTH,
+
+        /** The parse was cancelled. */
+        CANCELLED
+    }
+
+    private final Limit limit;
+
+    PCREBudgetExceededException(Limit limit, String message) {
+        super(message, null, false, false);
+        this.limit = limit;
+    }
+
+    public Limit getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,269 @@
+package pcreparser;
+
+import org.antlr.runtime.tree.CommonTree;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded, thread-safe cache of parsed patterns.
+ *
+ * Lookups are lock free, inserts, evictions and clearing the cache take
+ * the same lock, so the map, the eviction queue and the weight always agree
+ * with each other. When an insert makes the cache exceed its maximum
+ * number of entries or its maximum weight (the total number of AST nodes
+ * of all cached patterns), entries are evicted in "second chance" order:
+ * the oldest entry is removed, unless it has been read since it was last
+ * considered for eviction, in which case it is moved to the back of the
+ * queue.
+ *
+ * The cached <code>PCRE</code> instances are shared between all callers,
+ * so their trees must be treated as read-only.
+ */
+public class PCRECache {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 4096;
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 1L << 20;
+
+    private final int maximumSize;
+    private final long maximumWeight;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final Queue<Entry> evictionQueue = new ConcurrentLinkedQueue<Entry>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache with the default limits.
+     */
+    public PCRECache() {
+        this(DEFAULT_MAXIMUM_SIZE, DEFAULT_MAXIMUM_WEIGHT);
+    }
+
+    /**
+     * Creates a cache holding at most <code>maximumSize</code> patterns and
+     * at most <code>maximumWeight</code> AST nodes in total.
+     *
+     * @param maximumSize   the maximum number of cached patterns.
+     * @param maximumWeight the maximum number of AST nodes of all cached
+     *                      patterns combined, use <code>Long.MAX_VALUE</code>
+     *                      to only bound the cache by size.
+     */
+    public PCRECache(int maximumSize, long maximumWeight) {
+
+        if(maximumSize < 0 || maximumWeight < 0) {
+            throw new IllegalArgumentException("cache limits cannot be negative");
+        }
+
+        this.maximumSize = maximumSize;
+        this.maximumWeight = maximumWeight;
+    }
+
+    /**
+     * Opens a cache of parsed patterns in <code>file</code> that is kept
+     * across restarts of the JVM and can be shared by several processes, see
+     * {@link PCREFileCache}. Creates the cache if <code>file</code> does not
+     * exist.
+     *
+     * @param file the file to keep the parsed patterns in.
+     * @return     the opened cache, which must be closed when done.
+     * @throws IOException if the cache cannot be opened or created.
+     */
+    public static PCREFileCache open(Path file) throws IOException {
+        return PCREFileCache.open(file);
+    }
+
+    /**
+     * Returns the parsed <code>regex</code>, parsing and caching it if it is
+     * not present in the cache.
+     *
+     * @param regex the pattern to parse.
+     * @return      the, possibly shared, parsed <code>regex</code>.
+     */
+    public PCRE get(String regex) {
+
+        PCREEvents.CacheLookup event = PCREEvents.beginCacheLookup();
+        PCRE pcre = null;
+
+        try {
+            pcre = lookup(regex, event);
+            return pcre;
+        }
+        finally {
+            if(event != null) {
+                event.finish("PCRECache", regex, pcre);
+            }
+        }
+    }
+
+    private PCRE lookup(String regex, PCREEvents.CacheLookup event) {
+
+        Entry entry = entries.get(regex);
+
+        if(entry != null) {
+            entry.referenced = true;
+            hits.incrementAndGet();
+
+            if(event != null) {
+                event.hit = true;
+            }
+
+            return entry.pcre;
+        }
+
+        misses.incrementAndGet();
+
+        PCRE pcre = new PCRE(regex);
+        Entry created = new Entry(regex, pcre, countNodes(pcre.getCommonTree()));
+
+        if(created.weight > maximumWeight || maximumSize == 0) {
+            // would be evicted right away
+            return pcre;
+        }
+
+        evictionLock.lock();
+
+        try {
+            entry = entries.putIfAbsent(regex, created);
+
+            if(entry != null) {
+                // another thread parsed the same pattern in the meantime
+                return entry.pcre;
+            }
+
+            evictionQueue.add(created);
+            weight.addAndGet(created.weight);
+            evict();
+        }
+        finally {
+            evictionLock.unlock();
+        }
+
+        return pcre;
+    }
+
+    /**
+     * Removes all cached patterns. The hit, miss and eviction counters are
+     * left untouched.
+     */
+    public void clear() {
+
+        evictionLock.lock();
+
+        try {
+            Entry entry;
+
+            while((entry = evictionQueue.poll()) != null) {
+                entries.remove(entry.regex, entry);
+                weight.addAndGet(-entry.weight);
+            }
+        }
+        finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long weight() {
+        return weight.get();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    // called with the eviction lock held
+    private void evict() {
+
+        while(entries.size() > maximumSize || weight.get() > maximumWeight) {
+
+            Entry candidate = evictionQueue.poll();
+
+            if(candidate == null) {
+                break;
+            }
+
+            if(candidate.referenced) {
+                candidate.referenced = false;
+                evictionQueue.add(candidate);
+                continue;
+            }
+
+            if(entries.remove(candidate.regex, candidate)) {
+                weight.addAndGet(-candidate.weight);
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Counts the nodes of <code>tree</code> without recursion.
+     *
+     * @param tree the tree to count the nodes of.
+     * @return     the number of nodes of <code>tree</code>, including the
+     *             root itself.
+     */
+    static int countNodes(CommonTree tree) {
+
+        int count = 0;
+        List<CommonTree> stack = new ArrayList<CommonTree>();
+        stack.add(tree);
+
+        while(!stack.isEmpty()) {
+
+            CommonTree node = stack.remove(stack.size() - 1);
+            count++;
+
+            for(int i = 0; i < node.getChildCount(); i++) {
+                stack.add((CommonTree)node.getChild(i));
+            }
+        }
+
+        return count;
+    }
+
+    private static final class Entry {
+
+        final String regex;
+        final PCRE pcre;
+        final int weight;
+
+        volatile boolean referenced = false;
+
+        Entry(String regex, PCRE pcre, int weight) {
+            this.regex = regex;
+            this.pcre = pcre;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package pcreparser;
+
+import org.antlr.runtime.CharStream;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * A <code>CharStream</code> reading the chars of a pattern in place from a
+ * <code>CharSequence</code>, like a <code>String</code> or a
+ * <code>CharBuffer</code> wrapping a <code>char[]</code>, instead of
+ * copying them into an array of its own like <code>ANTLRStringStream</code>
+ * does.
+ *
+ * The pattern can be a slice of the sequence: the stream starts at
+ * <code>begin</code> and ends before <code>end</code>, and its indexes,
+ * and so the offsets of all tokens and nodes, are indexes in the entire
+ * sequence. Lines and positions in the line are counted from
+ * <code>begin</code>.
+ *
+ * The sequence must not change while the stream is in use.
+ */
+public final class PCRECharStream implements CharStream {
+
+    private final CharSequence data;
+    private final int begin;
+    private final int end;
+
+    private int p;
+    private int line = 1;
+    private int charPositionInLine = 0;
+
+    // the index, line and position in the line of marker m at [m * 3 ...]
+    private int[] markers = new int[0];
+    private int markDepth = 0;
+    private int lastMarker = 0;
+
+    /**
+     * Creates a stream over all chars of <code>data</code>.
+     *
+     * @param data the chars to read.
+     */
+    public PCRECharStream(CharSequence data) {
+        this(data, 0, data.length());
+    }
+
+    /**
+     * Creates a stream over the chars of <code>data</code> from
+     * <code>begin</code>, inclusive, to <code>end</code>, exclusive.
+     *
+     * @param data  the chars to read.
+     * @param begin the index of the first char to read.
+     * @param end   the index after the last char to read.
+     * @throws IndexOutOfBoundsException if the range is not within
+     *                                   <code>data</code>.
+     */
+    public PCRECharStream(CharSequence data, int begin, int end) {
+
+        if(begin < 0 || end < begin || end > data.length()) {
+            throw new IndexOutOfBoundsException("begin " + begin + ", end " + end + ", length " + data.length());
+        }
+
+        this.data = data;
+        this.begin = begin;
+        this.end = end;
+        this.p = begin;
+    }
+
+    /**
+     * Returns the index of the first char of the pattern.
+     *
+     * @return the index of the first char of the pattern.
+     */
+    public int getBegin() {
+        return begin;
+    }
+
+    /**
+     * Returns the index after the last char of the pattern.
+     *
+     * @return the index after the last char of the pattern.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    @Override
+    public void consume() {
+        if(p < end) {
+            charPositionInLine++;
+
+            if(data.charAt(p) == '\n') {
+                line++;
+                charPositionInLine = 0;
+            }
+
+            p++;
+        }
+    }
+
+    @Override
+    public int LA(int i) {
+
+        if(i == 0) {
+            // undefined
+            return 0;
+        }
+
+        int index = i < 0 ? p + i : p + i - 1;
+
+        return index < begin || index >= end ? EOF : data.charAt(index);
+    }
+
+    @Override
+    public int LT(int i) {
+        return LA(i);
+    }
+
+    @Override
+    public int mark() {
+
+        markDepth++;
+
+        if(markDepth * 3 + 3 > markers.length) {
+            markers = Arrays.copyOf(markers, Math.max(24, markers.length * 2));
+        }
+
+        markers[markDepth * 3] = p;
+        markers[markDepth * 3 + 1] = line;
+        markers[markDepth * 3 + 2] = charPositionInLine;
+        lastMarker = markDepth;
+
+        return markDepth;
+    }
+
+    @Override
+    public int index() {
+        return p;
+    }
+
+    @Override
+    public void rewind(int marker) {
+        seek(markers[marker * 3]);
+        line = markers[marker * 3 + 1];
+        charPositionInLine = markers[marker * 3 + 2];
+        release(marker);
+    }
+
+    @Override
+    public void rewind() {
+        rewind(lastMarker);
+    }
+
+    @Override
+    public void release(int marker) {
+        markDepth = marker - 1;
+    }
+
+    @Override
+    public void seek(int index) {
+
+        if(index <= p) {
+            // like ANTLRStringStream: line and position are left alone
+            p = index;
+            return;
+        }
+
+        while(p < index && p < end) {
+            consume();
+        }
+    }
+
+    /**
+     * Returns the index after the last char of the pattern, which is what
+     * <code>CommonToken</code> compares the offsets of a token to, not the
+     * number of chars in the pattern.
+     *
+     * @return the index after the last char of the pattern.
+     */
+    @Override
+    public int size() {
+        return end;
+    }
+
+    @Override
+    public String getSourceName() {
+        return null;
+    }
+
+    @Override
+    public String substring(int start, int stop) {
+        return substring(data, start, stop + 1);
+    }
+
+    /**
+     * Returns the chars of <code>data</code> from <code>start</code>,
+     * inclusive, to <code>end</code>, exclusive, as a <code>String</code>,
+     * copying them straight from the array of a <code>CharBuffer</code>
+     * instead of creating a buffer for them first.
+     *
+     * @param data  the chars to copy from.
+     * @param start the index of the first char to copy.
+     * @param end   the index after the last char to copy.
+     * @return      the chars from <code>start</code> to <code>end</code>.
+     */
+    static String substring(CharSequence data, int start, int end) {
+
+        if(data instanceof String) {
+            return ((String)data).substring(start, end);
+        }
+
+        if(data instanceof CharBuffer && ((CharBuffer)data).hasArray()) {
+
+            CharBuffer buffer = (CharBuffer)data;
+
+            if(start < 0 || end < start || end > buffer.remaining()) {
+                throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + buffer.remaining());
+            }
+
+            return new String(buffer.array(), buffer.arrayOffset() + buffer.position() + start, end - start);
+        }
+
+        return data.subSequence(start, end).toString();
+    }
+
+    @Override
+    public int getLine() {
+        return line;
+    }
+
+    @Override
+    public void setLine(int line) {
+        this.line = line;
+    }
+
+    @Override
+    public int getCharPositionInLine() {
+        return charPositionInLine;
+    }
+
+    @Override
+    public void setCharPositionInLine(int pos) {
+        this.charPositionInLine = pos;
+    }
+}
@@ -0,0 +1,116 @@
+package pcreparser;
+
+import org.antlr.runtime.BaseRecognizer;
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.Lexer;
+import org.antlr.runtime.MismatchedNotSetException;
+import org.antlr.runtime.MismatchedRangeException;
+import org.antlr.runtime.MismatchedSetException;
+import org.antlr.runtime.MismatchedTokenException;
+import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.Token;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single error found while parsing a pattern: where it was found, which
+ * tokens were expected there and a message describing it.
+ */
+public final class PCREDiagnostic {
+
+    // thrown, without a stack trace, to stop parsing at the first error
+    static final RuntimeException STOP = new RuntimeException("stopped at the first error", null, false, false) {
+    };
+
+    private final int offset;
+    private final List<String> expected;
+    private final String message;
+
+    PCREDiagnostic(int offset, List<String> expected, String message) {
+        this.offset = offset;
+        this.expected = Collections.unmodifiableList(expected);
+        this.message = message;
+    }
+
+    /**
+     * Creates a diagnostic for an error <code>recognizer</code> is about to
+     * report.
+     *
+     * @param recognizer the lexer or parser that ran into the error.
+     * @param e          the error.
+     * @return           a diagnostic for <code>e</code>.
+     */
+    static PCREDiagnostic of(BaseRecognizer recognizer, RecognitionException e) {
+
+        int offset = e.token instanceof CommonToken ? ((CommonToken)e.token).getStartIndex() : e.index;
+        List<String> expected = new ArrayList<String>();
+
+        if(e instanceof MismatchedTokenException) {
+            expected.add(name(recognizer, ((MismatchedTokenException)e).expecting));
+        }
+        else if(e instanceof MismatchedRangeException) {
+            MismatchedRangeException range = (MismatchedRangeException)e;
+            expected.add(name(recognizer, range.a) + ".." + name(recognizer, range.b));
+        }
+        else if(e instanceof MismatchedNotSetException && ((MismatchedNotSetException)e).expecting != null) {
+            for(int type : ((MismatchedNotSetException)e).expecting.toArray()) {
+                expected.add("~" + name(recognizer, type));
+            }
+        }
+        else if(e instanceof MismatchedSetException && ((MismatchedSetException)e).expecting != null) {
+            for(int type : ((MismatchedSetException)e).expecting.toArray()) {
+                expected.add(name(recognizer, type));
+            }
+        }
+
+        return new PCREDiagnostic(offset, expected, recognizer.getErrorMessage(e, recognizer.getTokenNames()));
+    }
+
+    // the name of a token type, or a quoted char for the lexer
+    private static String name(BaseRecognizer recognizer, int type) {
+
+        if(recognizer instanceof Lexer) {
+            return ((Lexer)recognizer).getCharErrorDisplay(type);
+        }
+
+        return type == Token.EOF ? "EOF" : recognizer.getTokenNames()[type];
+    }
+
+    /**
+     * Returns the offset of the char in the pattern where the error was
+     * found, the length of the pattern if it was found at the end of the
+     * pattern, or -1 if it is not known.
+     *
+     * @return the offset of the error in the pattern.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the names of the tokens (or, for errors inside a single token,
+     * the quoted chars) that were expected at the offset of the error, or
+     * an empty list if that is not known.
+     *
+     * @return the tokens that were expected.
+     */
+    public List<String> getExpected() {
+        return expected;
+    }
+
+    /**
+     * Returns a message describing the error, without its position.
+     *
+     * @return a message describing the error.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return offset + ": " + message;
+    }
+}
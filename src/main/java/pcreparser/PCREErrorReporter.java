@@ -0,0 +1,88 @@
+package pcreparser;
+
+import org.antlr.runtime.BaseRecognizer;
+import org.antlr.runtime.RecognitionException;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Where <code>PCRELexer</code> and the parsers report their errors to. By
+ * default errors are printed, like ANTLR does, but a
+ * <code>PCREParsingContext</code> sets it up to collect them instead. The
+ * lexer and parser of a context share one reporter.
+ */
+final class PCREErrorReporter {
+
+    // when not null, error messages are added to it instead of printed
+    List<String> errorMessages = null;
+
+    // when not null, a diagnostic is added to it for every error as well,
+    // and unsupported() reports its error instead of throwing
+    List<PCREDiagnostic> diagnostics = null;
+
+    // when true, PCREDiagnostic.STOP is thrown after the first error
+    boolean stopAtFirstError = false;
+
+    /**
+     * Collects the errors of the pattern about to be parsed.
+     *
+     * @param errorMessages    where to add the error messages to, or
+     *                         <code>null</code> to print them.
+     * @param diagnostics      where to add the diagnostics to, or
+     *                         <code>null</code>.
+     * @param stopAtFirstError whether to throw <code>PCREDiagnostic.STOP</code>
+     *                         after the first error.
+     */
+    void collect(List<String> errorMessages, List<PCREDiagnostic> diagnostics, boolean stopAtFirstError) {
+        this.errorMessages = errorMessages;
+        this.diagnostics = diagnostics;
+        this.stopAtFirstError = stopAtFirstError;
+    }
+
+    /**
+     * Prints errors again, as a new reporter does.
+     */
+    void reset() {
+        collect(null, null, false);
+    }
+
+    // called by displayRecognitionError() of recognizer, after it emitted the message of e
+    void recognitionError(BaseRecognizer recognizer, RecognitionException e) {
+
+        if(diagnostics != null) {
+            diagnostics.add(PCREDiagnostic.of(recognizer, e));
+        }
+
+        if(stopAtFirstError) {
+            throw PCREDiagnostic.STOP;
+        }
+    }
+
+    // called by emitErrorMessage(), returns false if msg is to be printed
+    boolean emit(String msg) {
+
+        if(errorMessages == null) {
+            return false;
+        }
+
+        errorMessages.add(msg);
+
+        return true;
+    }
+
+    // an error the grammar accepts but this library does not, at offset
+    void unsupported(BaseRecognizer recognizer, int offset, String message) {
+
+        if(diagnostics == null) {
+            throw new RuntimeException(message);
+        }
+
+        diagnostics.add(new PCREDiagnostic(offset, Collections.<String>emptyList(), message));
+        recognizer.emitErrorMessage(message);
+
+        if(stopAtFirstError) {
+            throw PCREDiagnostic.STOP;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package pcreparser;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.TokenStream;
+import org.antlr.runtime.tree.CommonTree;
+
+/**
+ * The Java Flight Recorder events of this library: parsing a pattern,
+ * scanning it, serializing a tree and looking a pattern up in a cache.
+ * Like the events of the JDK itself, every event is only recorded if it
+ * took at least its threshold, 1 ms by default, which can be changed in
+ * the settings of a recording, like <code>pcreparser.Parse#threshold=0 ms</code>.
+ * <p>
+ * The <code>begin*</code> methods return <code>null</code>, without creating
+ * an event, if the event is not recorded, or if the JVM has no flight
+ * recorder at all: Java 8 only has it from update 262 on. The event classes
+ * are only loaded when it has.
+ */
+final class PCREEvents {
+
+    // whether the JVM has a flight recorder
+    private static final boolean AVAILABLE = isAvailable();
+
+    private static final String CATEGORY = "PCREParser";
+    private static final String THRESHOLD = "1 ms";
+
+    private PCREEvents() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, PCREEvents.class.getClassLoader());
+            return true;
+        }
+        catch(ClassNotFoundException e) {
+            return false;
+        }
+        catch(LinkageError e) {
+            return false;
+        }
+    }
+
+    static Parse beginParse() {
+
+        if(!AVAILABLE || !Parse.TYPE.isEnabled()) {
+            return null;
+        }
+
+        Parse event = new Parse();
+        event.begin();
+
+        return event;
+    }
+
+    static Lex beginLex() {
+
+        if(!AVAILABLE || !Lex.TYPE.isEnabled()) {
+            return null;
+        }
+
+        Lex event = new Lex();
+        event.begin();
+
+        return event;
+    }
+
+    static Serialize beginSerialize() {
+
+        if(!AVAILABLE || !Serialize.TYPE.isEnabled()) {
+            return null;
+        }
+
+        Serialize event = new Serialize();
+        event.begin();
+
+        return event;
+    }
+
+    static CacheLookup beginCacheLookup() {
+
+        if(!AVAILABLE || !CacheLookup.TYPE.isEnabled()) {
+            return null;
+        }
+
+        CacheLookup event = new CacheLookup();
+        event.begin();
+
+        return event;
+    }
+
+    // what became of a parse: ok, or why it failed
+    private static String outcome(Throwable failure) {
+        return failure == null ? "ok" : failure.getMessage() != null ? failure.getMessage() : failure.toString();
+    }
+
+    // the number of chars (or bytes, for UTF-8) from the first token on
+    // to the last token the parser read
+    private static int patternLength(TokenStream tokens) {
+
+        int size = tokens.size();
+
+        if(size == 0) {
+            return 0;
+        }
+
+        CommonToken first = (CommonToken)tokens.get(0);
+        CommonToken last = (CommonToken)tokens.get(size - 1);
+        int end = last.getType() == Token.EOF ? last.getStartIndex() : last.getStopIndex() + 1;
+
+        return end - first.getStartIndex();
+    }
+
+    @Name("pcreparser.Parse")
+    @Label("Parse Pattern")
+    @Description("Parsing a pattern by PCREFastParser, PCREParser or PCRELinearParser, including the lexing by " +
+            "PCRELexer of patterns the scanner left to it")
+    @Category(CATEGORY)
+    @Threshold(THRESHOLD)
+    static final class Parse extends Event {
+
+        static final EventType TYPE = EventType.getEventType(Parse.class);
+
+        @Label("Parser")
+        String parser;
+
+        @Label("Pattern Length")
+        @Description("The number of chars of the pattern, or bytes for patterns parsed from UTF-8")
+        int patternLength;
+
+        @Label("Token Count")
+        int tokenCount;
+
+        @Label("Node Count")
+        @Description("The number of nodes of the tree of the pattern, 0 if it was parsed without trees")
+        int nodeCount;
+
+        @Label("Group Count")
+        int groupCount;
+
+        @Label("Syntax Errors")
+        int syntaxErrors;
+
+        @Label("Outcome")
+        String outcome;
+
+        void finish(AbstractPCREParser parser, CommonTree tree, int groupCount, Throwable failure) {
+
+            end();
+
+            if(shouldCommit()) {
+                TokenStream tokens = parser.getTokenStream();
+                report(parser.getClass().getSimpleName(), patternLength(tokens), PCREParsingContext.tokenCount(tokens),
+                        tree, groupCount, parser.getNumberOfSyntaxErrors(), failure);
+            }
+        }
+
+        // for parsers without a token stream, like PCREFastParser
+        void finish(String parser, int patternLength, int tokenCount, CommonTree tree, int groupCount, int syntaxErrors,
+                    Throwable failure) {
+
+            end();
+
+            if(shouldCommit()) {
+                report(parser, patternLength, tokenCount, tree, groupCount, syntaxErrors, failure);
+            }
+        }
+
+        private void report(String parser, int patternLength, int tokenCount, CommonTree tree, int groupCount,
+                            int syntaxErrors, Throwable failure) {
+            this.parser = parser;
+            this.patternLength = patternLength;
+            this.tokenCount = tokenCount;
+            this.nodeCount = tree == null ? 0 : PCRECache.countNodes(tree);
+            this.groupCount = groupCount;
+            this.syntaxErrors = syntaxErrors;
+            this.outcome = outcome(failure);
+            commit();
+        }
+    }
+
+    @Name("pcreparser.Lex")
+    @Label("Scan Pattern")
+    @Description("Tokenizing a pattern by PCREScanner, before it is parsed")
+    @Category(CATEGORY)
+    @Threshold(THRESHOLD)
+    static final class Lex extends Event {
+
+        static final EventType TYPE = EventType.getEventType(Lex.class);
+
+        @Label("Pattern Length")
+        @Description("The number of chars of the pattern")
+        int patternLength;
+
+        @Label("Token Count")
+        int tokenCount;
+
+        @Label("Outcome")
+        @Description("ok, or lexer if the pattern is left to PCRELexer, which lexes it while it is parsed")
+        String outcome;
+
+        void finish(int patternLength, int tokenCount, boolean scanned) {
+
+            end();
+
+            if(shouldCommit()) {
+                this.patternLength = patternLength;
+                this.tokenCount = tokenCount;
+                this.outcome = scanned ? "ok" : "lexer";
+                commit();
+            }
+        }
+    }
+
+    @Name("pcreparser.Serialize")
+    @Label("Serialize Tree")
+    @Description("Writing the tree of a group by toStringASCII, toStringDOT or toStringLisp")
+    @Category(CATEGORY)
+    @Threshold(THRESHOLD)
+    static final class Serialize extends Event {
+
+        static final EventType TYPE = EventType.getEventType(Serialize.class);
+
+        @Label("Format")
+        String format;
+
+        @Label("Group")
+        int group;
+
+        @Label("Node Count")
+        int nodeCount;
+
+        @Label("Output Length")
+        @Description("The number of chars written")
+        int outputLength;
+
+        @Label("Outcome")
+        String outcome;
+
+        void finish(String format, int group, CommonTree tree, String output) {
+
+            end();
+
+            if(shouldCommit()) {
+                this.format = format;
+                this.group = group;
+                this.nodeCount = tree == null ? 0 : PCRECache.countNodes(tree);
+                this.outputLength = output == null ? 0 : output.length();
+                this.outcome = output == null ? "failed" : "ok";
+                commit();
+            }
+        }
+    }
+
+    @Name("pcreparser.CacheLookup")
+    @Label("Cache Lookup")
+    @Description("Getting a pattern from a PCRECache or PCREFileCache, including parsing it on a miss")
+    @Category(CATEGORY)
+    @Threshold(THRESHOLD)
+    static final class CacheLookup extends Event {
+
+        static final EventType TYPE = EventType.getEventType(CacheLookup.class);
+
+        @Label("Cache")
+        String cache;
+
+        @Label("Pattern Length")
+        int patternLength;
+
+        @Label("Hit")
+        boolean hit;
+
+        @Label("Node Count")
+        int nodeCount;
+
+        @Label("Group Count")
+        int groupCount;
+
+        @Label("Outcome")
+        String outcome;
+
+        void finish(String cache, String regex, PCRE pcre) {
+
+            end();
+
+            if(shouldCommit()) {
+                this.cache = cache;
+                this.patternLength = regex.length();
+                this.nodeCount = pcre == null ? 0 : PCRECache.countNodes(pcre.getCommonTree());
+                this.groupCount = pcre == null ? 0 : pcre.getGroupCount();
+                this.outcome = pcre == null ? "failed" : "ok";
+                commit();
+            }
+        }
+    }
+}
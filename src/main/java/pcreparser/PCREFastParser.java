@@ -0,0 +1,1398 @@
+package pcreparser;
+
+import org.antlr.runtime.CharStream;
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.tree.CommonTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A hand-written, single pass parser for valid PCRE patterns: literals,
+ * escapes, octal and hex chars, properties, POSIX sets, character classes,
+ * (named) capture groups, non-capturing groups, look arounds, conditionals,
+ * backreferences, subroutine references, callouts, verbs, comments,
+ * options, quantifiers, alternation and anchors. It reads the pattern
+ * directly, without a lexer, and builds the same trees as
+ * <code>PCREParser</code>, down to the token boundaries of their nodes:
+ *
+ * <pre>
+ * PCRE pcre = PCREFastParser.parse("^(?&lt;YEAR&gt;(?:19|20)\\d{2})$");
+ * </pre>
+ *
+ * Invalid patterns, and the few valid ones it does not handle (comments
+ * holding a backslash or <code>[[</code>, and classes starting with
+ * <code>]-</code>), are parsed by the ANTLR parser instead.
+ * <code>new PCRE(String)</code> and <code>PCRE.tryParse</code> try this
+ * parser first as well, see <code>PCREParsingContext.parse(String)</code>.
+ * <p>
+ * Unlike the ANTLR parser, which takes several Java stack frames for every
+ * level of nested groups, it keeps the groups it is in on a stack of its
+ * own. Patterns with hundreds of thousands of nested groups take memory in
+ * proportion to their nesting, instead of overflowing the stack. Deeply
+ * nested patterns it leaves to the ANTLR parser can be kept from overflowing
+ * the stack by the maximum depth of <code>PCREParseOptions</code>; without
+ * it, <code>PCRE.tryParse</code> reports them as nested too deeply.
+ * <p>
+ * Through a <code>PCREParsingContext</code>, it reports to the
+ * <code>PCREParseListener</code> and keeps to the
+ * <code>PCREParseOptions</code> of the context like the ANTLR parsers do.
+ */
+public final class PCREFastParser {
+
+    /**
+     * Thrown when a pattern contains something this parser does not
+     * handle. There is only one instance, without a stack trace.
+     */
+    private static final class UnsupportedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final UnsupportedException INSTANCE = new UnsupportedException();
+
+        private UnsupportedException() {
+            super(null, null, false, false);
+        }
+    }
+
+    // PCREParser nests at most six rules for every level of groups, and
+    // twelve for the entire pattern and the innermost atom: patterns that
+    // might nest deeper than the maximum depth of the options are left to
+    // PCREParser, so that exactly the same patterns exceed it
+    private static final int RULES_PER_GROUP = 6;
+    private static final int RULES_OUTSIDE_GROUPS = 16;
+
+    // the verbs, newline conventions and options between "(*" and ")"
+    private static final Map<String, Integer> VERBS = new HashMap<String, Integer>();
+
+    static {
+        VERBS.put("NO_START_OPT", PCREParser.OPTIONS_NO_START_OPT);
+        VERBS.put("UTF8", PCREParser.OPTIONS_UTF8);
+        VERBS.put("UTF16", PCREParser.OPTIONS_UTF16);
+        VERBS.put("UCP", PCREParser.OPTIONS_UCP);
+        VERBS.put("ACCEPT", PCREParser.BACKTACK_CONTROL_ACCEPT);
+        VERBS.put("F", PCREParser.BACKTACK_CONTROL_FAIL);
+        VERBS.put("FAIL", PCREParser.BACKTACK_CONTROL_FAIL);
+        VERBS.put("MARK:NAME", PCREParser.BACKTACK_CONTROL_MARK_NAME);
+        VERBS.put(":NAME", PCREParser.BACKTACK_CONTROL_MARK_NAME);
+        VERBS.put("COMMIT", PCREParser.BACKTACK_CONTROL_COMMIT);
+        VERBS.put("PRUNE", PCREParser.BACKTACK_CONTROL_PRUNE);
+        VERBS.put("PRUNE:NAME", PCREParser.BACKTACK_CONTROL_PRUNE_NAME);
+        VERBS.put("SKIP", PCREParser.BACKTACK_CONTROL_SKIP);
+        VERBS.put("SKIP:NAME", PCREParser.BACKTACK_CONTROL_SKIP_NAME);
+        VERBS.put("THEN", PCREParser.BACKTACK_CONTROL_THEN);
+        VERBS.put("THEN:NAME", PCREParser.BACKTACK_CONTROL_THEN_NAME);
+        VERBS.put("CR", PCREParser.NEWLINE_CONVENTION_CR);
+        VERBS.put("LF", PCREParser.NEWLINE_CONVENTION_LF);
+        VERBS.put("CRLF", PCREParser.NEWLINE_CONVENTION_CRLF);
+        VERBS.put("ANYCRLF", PCREParser.NEWLINE_CONVENTION_ANYCRLF);
+        VERBS.put("ANY", PCREParser.NEWLINE_CONVENTION_ANY);
+        VERBS.put("BSR_ANYCRLF", PCREParser.NEWLINE_CONVENTION_BSR_ANYCRLF);
+        VERBS.put("BSR_UNICODE", PCREParser.NEWLINE_CONVENTION_BSR_UNICODE);
+    }
+
+    private final String regex;
+    private int index = 0;
+
+    // the limits of the options of the context, if any, and the number of
+    // nested groups left to PCREParser
+    private final PCREParseBudget budget;
+    private final int maxNesting;
+
+    // the index of the next token, as PCRELexer and PCREScanner split the
+    // pattern into tokens: the nodes get the token boundaries PCREParser
+    // gives them
+    private int token = 0;
+
+    // the stream of the tokens that end up in the trees as they are, like
+    // \d, created on demand, and the line of the last of them
+    private CharStream input = null;
+    private int line = 1;
+    private int lineStart = 0;
+    private int lineScanned = 0;
+
+    private final List<CommonTree> groups = new ArrayList<CommonTree>();
+
+    // the offsets of the first and last char of group n at [n * 2] and [n * 2 + 1]
+    private int[] spans = new int[8];
+    private final Map<String, Integer> namedGroups = new TreeMap<String, Integer>();
+
+    private PCREFastParser(String regex, PCREParseBudget budget) {
+        this.regex = regex;
+        this.budget = budget;
+        this.maxNesting = budget == null ? Integer.MAX_VALUE :
+                Math.max(budget.getMaxDepth() - RULES_OUTSIDE_GROUPS, 0) / RULES_PER_GROUP;
+        groups.add(null);
+    }
+
+    /**
+     * Parses <code>regex</code>, with the fast parser if possible, or
+     * else with the ANTLR parser.
+     *
+     * @param regex the pattern to parse.
+     * @return      the parsed <code>regex</code>.
+     */
+    public static PCRE parse(String regex) {
+
+        PCRE pcre = tryParse(regex);
+
+        // not parse(String), which would try the fast parser again
+        return pcre != null ? pcre : PCREParsingContext.forCurrentThread().parse((CharSequence)regex);
+    }
+
+    /**
+     * Parses <code>regex</code> with the fast parser only. A pattern it
+     * parses is recorded by a <code>pcreparser.Parse</code> flight recorder
+     * event, one it does not is not.
+     *
+     * @param regex the pattern to parse.
+     * @return      the parsed <code>regex</code>, or <code>null</code> if it
+     *              contains something the fast parser does not handle.
+     */
+    static PCRE tryParse(String regex) {
+        return tryParse(regex, null, null);
+    }
+
+    /**
+     * Parses <code>regex</code> with the fast parser only, like
+     * {@link #tryParse(String)}, counting the tokens and time of the parse
+     * in <code>stats</code> and checking the limits of <code>budget</code>
+     * for every element. The counters of a pattern the fast parser does not
+     * handle are left for the ANTLR parser to carry on with.
+     *
+     * @param regex  the pattern to parse.
+     * @param stats  the counters of the parse, or <code>null</code>.
+     * @param budget the limits of the parse, or <code>null</code>.
+     * @return       the parsed <code>regex</code>, or <code>null</code> if it
+     *               contains something the fast parser does not handle.
+     * @throws PCREBudgetExceededException if the parse exceeds a limit of
+     *                                     <code>budget</code>.
+     */
+    static PCRE tryParse(String regex, PCREParseStats stats, PCREParseBudget budget) {
+
+        PCREEvents.Parse event = PCREEvents.beginParse();
+        PCREFastParser parser = new PCREFastParser(regex, budget);
+        PCRE pcre;
+
+        if(stats != null) {
+            stats.setRegex(regex);
+            stats.setParser(PCREFastParser.class.getSimpleName());
+        }
+
+        try {
+            pcre = parser.parse();
+        }
+        catch(UnsupportedException e) {
+            return null;
+        }
+        catch(PCREBudgetExceededException e) {
+            parser.finish(event, stats, e);
+            throw e;
+        }
+
+        parser.finish(event, stats, null);
+
+        return pcre;
+    }
+
+    // records the parse, unless it was left to the ANTLR parser
+    private void finish(PCREEvents.Parse event, PCREParseStats stats, Throwable failure) {
+
+        if(stats != null) {
+            stats.finish(token);
+        }
+
+        if(event != null) {
+            event.finish(PCREFastParser.class.getSimpleName(), regex.length(), token,
+                    failure == null ? groups.get(0) : null, groups.size() - 1, 0, failure);
+        }
+    }
+
+    private PCRE parse() {
+
+        CommonTree tree = regex();
+
+        // like the parse rule, the entire pattern spans EOF as well
+        bound(tree, 0, token);
+
+        groups.set(0, tree);
+        spans[1] = regex.length() - 1;
+
+        String[] names = namedGroups.keySet().toArray(new String[namedGroups.size()]);
+        int[] nameGroups = new int[names.length];
+
+        for(int i = 0; i < names.length; i++) {
+            nameGroups[i] = namedGroups.get(names[i]);
+        }
+
+        return new PCRE(groups.toArray(new CommonTree[groups.size()]), Arrays.copyOf(spans, groups.size() * 2),
+                names, nameGroups);
+    }
+
+    /**
+     * A group being parsed, or the entire pattern, on the stack of
+     * {@link #regex()}.
+     */
+    private static final class Frame {
+
+        // the group and the element holding it, null for the entire pattern,
+        // and the node its regex goes in: the YES of a conditional
+        final CommonTree group;
+        final CommonTree body;
+        final CommonTree element;
+
+        // the number of the group, if it captures, and the offset and
+        // token index of its '('
+        final int groupNumber;
+        final int start;
+        final int startToken;
+
+        // the first alternative, the OR once a '|' is seen, and the
+        // alternative elements are added to
+        final CommonTree first;
+        CommonTree or = null;
+        CommonTree alternative;
+
+        // the token index the regex of the group and the alternative start at
+        final int regexToken;
+        int alternativeToken;
+
+        Frame(CommonTree group, CommonTree body, CommonTree element, int groupNumber, int start, int startToken,
+              int regexToken) {
+            this.group = group;
+            this.body = body;
+            this.element = element;
+            this.groupNumber = groupNumber;
+            this.start = start;
+            this.startToken = startToken;
+            this.first = node(PCREParser.ALTERNATIVE, "ALTERNATIVE");
+            this.alternative = first;
+            this.regexToken = regexToken;
+            this.alternativeToken = regexToken;
+        }
+
+        CommonTree regex() {
+            return or != null ? or : first;
+        }
+    }
+
+    // regex       : alternative ('|' alternative)*
+    // alternative : element*
+    // element     : atom quantifier?
+    //
+    // The regexes of groups are parsed with a stack of frames instead of
+    // recursively, so the nesting of groups is limited by the heap instead
+    // of the Java stack.
+    private CommonTree regex() {
+
+        List<Frame> stack = new ArrayList<Frame>();
+        Frame frame = new Frame(null, null, null, -1, 0, 0, 0);
+
+        while(true) {
+
+            if(budget != null) {
+                budget.tokenRead(token);
+            }
+
+            if(index == regex.length() || at(')')) {
+
+                bound(frame.alternative, frame.alternativeToken, previous());
+
+                if(frame.or != null) {
+                    bound(frame.or, frame.regexToken, previous());
+                }
+
+                if(frame.group == null) {
+
+                    if(index < regex.length()) {
+                        // an unbalanced ')'
+                        throw UnsupportedException.INSTANCE;
+                    }
+
+                    return frame.regex();
+                }
+
+                if(index == regex.length()) {
+                    // an unclosed group
+                    throw UnsupportedException.INSTANCE;
+                }
+
+                next(1);
+                close(frame);
+
+                frame = stack.remove(stack.size() - 1);
+            }
+            else if(at('|')) {
+
+                bound(frame.alternative, frame.alternativeToken, previous());
+                next(1);
+
+                if(frame.or == null) {
+                    frame.or = node(PCREParser.OR, "OR");
+                    frame.or.addChild(frame.first);
+                }
+
+                frame.alternative = node(PCREParser.ALTERNATIVE, "ALTERNATIVE");
+                frame.alternativeToken = token;
+                frame.or.addChild(frame.alternative);
+            }
+            else if(at('(')) {
+
+                int start = token;
+                CommonTree element = node(PCREParser.ELEMENT, "ELEMENT");
+                frame.alternative.addChild(element);
+
+                CommonTree atom = comment();
+
+                if(atom == null) {
+                    atom = option();
+                }
+
+                if(atom == null) {
+                    atom = reference();
+                }
+
+                if(atom == null) {
+                    atom = verb();
+                }
+
+                if(atom != null) {
+                    element.addChild(atom);
+                    quantify(element, start);
+                }
+                else if(stack.size() == maxNesting) {
+                    // PCREParser decides whether this is too deep
+                    throw UnsupportedException.INSTANCE;
+                }
+                else {
+                    stack.add(frame);
+                    frame = open(element);
+                }
+            }
+            else {
+
+                int start = token;
+                CommonTree element = node(PCREParser.ELEMENT, "ELEMENT");
+                element.addChild(atom());
+                frame.alternative.addChild(element);
+
+                quantify(element, start);
+            }
+        }
+    }
+
+    // adds the quantifier that follows, if any, to element, which starts at
+    // the token index start
+    private void quantify(CommonTree element, int start) {
+
+        CommonTree quantifier = quantifier();
+
+        if(quantifier != null) {
+            element.addChild(quantifier);
+        }
+
+        bound(element, start, previous());
+    }
+
+    private CommonTree quantifier() {
+
+        if(index >= regex.length()) {
+            return null;
+        }
+
+        int start = token;
+        CommonTree min;
+        CommonTree max;
+
+        switch(regex.charAt(index)) {
+            case '?':
+                next(1);
+                min = node(PCREParser.NUMBER, "0");
+                max = node(PCREParser.NUMBER, "1");
+                break;
+            case '+':
+                next(1);
+                min = node(PCREParser.NUMBER, "1");
+                max = node(PCREParser.NUMBER, AbstractPCREParser.HUGE_NUMBER);
+                break;
+            case '*':
+                next(1);
+                min = node(PCREParser.NUMBER, "0");
+                max = node(PCREParser.NUMBER, AbstractPCREParser.HUGE_NUMBER);
+                break;
+            case '{':
+                // {n}, {n,} or {n,m}, or else the '{' is a literal
+                int minEnd = digits(index + 1);
+
+                if(minEnd == index + 1) {
+                    return null;
+                }
+
+                if(at(minEnd, '}')) {
+                    next(1);
+                    min = number(minEnd - index);
+                    // PCREParser duplicates the number
+                    max = node(PCREParser.NUMBER, min.getText());
+                    bound(max, min.getTokenStartIndex(), min.getTokenStopIndex());
+                    next(1);
+                    break;
+                }
+
+                int maxEnd = digits(minEnd + 1);
+
+                if(!at(minEnd, ',') || !at(maxEnd, '}')) {
+                    return null;
+                }
+
+                next(1);
+                min = number(minEnd - index);
+                next(1);
+
+                if(maxEnd == minEnd + 1) {
+                    max = node(PCREParser.NUMBER, AbstractPCREParser.HUGE_NUMBER);
+                }
+                else {
+                    max = number(maxEnd - index);
+                }
+
+                next(1);
+                break;
+            default:
+                return null;
+        }
+
+        CommonTree quantifier = node(PCREParser.QUANTIFIER, "QUANTIFIER");
+        quantifier.addChild(min);
+        quantifier.addChild(max);
+
+        if(at('+')) {
+            quantifier.addChild(leaf(PCREParser.POSSESSIVE, "POSSESSIVE", 1));
+        }
+        else if(at('?')) {
+            quantifier.addChild(leaf(PCREParser.LAZY, "LAZY", 1));
+        }
+        else {
+            // matched no tokens at all
+            CommonTree greedy = node(PCREParser.GREEDY, "GREEDY");
+            bound(greedy, token, previous());
+            quantifier.addChild(greedy);
+        }
+
+        bound(quantifier, start, previous());
+
+        return quantifier;
+    }
+
+    // the number of the digits that follow, which are a token each
+    private CommonTree number(int digits) {
+
+        CommonTree number = node(PCREParser.NUMBER, regex.substring(index, index + digits));
+        bound(number, token, token + digits - 1);
+        next(digits);
+
+        return number;
+    }
+
+    private CommonTree atom() {
+
+        char c = regex.charAt(index);
+
+        switch(c) {
+            case '\\':
+                return escape(false);
+            case '[':
+                CommonTree set = posixSet();
+                return set != null ? set : characterClass();
+            case '.':
+                return leaf(PCREParser.ANY, "ANY", 1);
+            case '^':
+                return leaf(PCREParser.START_OF_SUBJECT, "START_OF_SUBJECT", 1);
+            case '$':
+                return token(PCREParser.EndOfSubjectOrLine, null, 1);
+            case '?':
+            case '+':
+            case '*':
+                // a quantifier without an atom
+                throw UnsupportedException.INSTANCE;
+            default:
+                return leaf(PCREParser.LITERAL, String.valueOf(c), 1);
+        }
+    }
+
+    // parses a group up to its regex, adds it to element and returns the
+    // frame to parse its regex with
+    private Frame open(CommonTree element) {
+
+        int start = index;
+        int startToken = token;
+
+        next(1);
+
+        int groupNumber = -1;
+        CommonTree name = null;
+        int type;
+        String text;
+
+        if(at('?')) {
+            next(1);
+
+            char c = index < regex.length() ? regex.charAt(index) : 0;
+
+            if(c == ':' || c == '|' || c == '>' || c == '=' || c == '!') {
+                next(1);
+                type = c == ':' ? PCREParser.NON_CAPTURING_GROUP :
+                        c == '|' ? PCREParser.NON_CAPTURING_GROUP_RESET :
+                        c == '>' ? PCREParser.ATOMIC_GROUP :
+                        c == '=' ? PCREParser.LOOK_AHEAD :
+                        PCREParser.NEGATIVE_LOOK_AHEAD;
+            }
+            else if(c == '<' && (at(index + 1, '=') || at(index + 1, '!'))) {
+                type = at(index + 1, '=') ? PCREParser.LOOK_BEHIND : PCREParser.NEGATIVE_LOOK_BEHIND;
+                next(2);
+            }
+            else if(c == '<' || c == '\'') {
+                next(1);
+                groupNumber = addGroup();
+                name = name();
+                expect(c == '<' ? '>' : '\'');
+                type = PCREParser.NAMED_CAPTURING_GROUP_PERL;
+            }
+            else if(c == 'P' && at(index + 1, '<')) {
+                next(2);
+                groupNumber = addGroup();
+                name = name();
+                expect('>');
+                type = PCREParser.NAMED_CAPTURING_GROUP_PYTHON;
+            }
+            else if(c == '(') {
+                next(1);
+
+                // the regex goes in YES: PCREParser reads every '|' as part
+                // of it, so NO, added on close, is always empty
+                CommonTree conditional = condition();
+                CommonTree yes = node(PCREParser.YES, "YES");
+
+                conditional.addChild(yes);
+                element.addChild(conditional);
+
+                return new Frame(conditional, yes, element, -1, start, startToken, token);
+            }
+            else {
+                throw UnsupportedException.INSTANCE;
+            }
+
+            text = PCREParser.tokenNames[type];
+        }
+        else if(at('*')) {
+            throw UnsupportedException.INSTANCE;
+        }
+        else {
+            groupNumber = addGroup();
+            type = PCREParser.CAPTURING_GROUP;
+            text = "CAPTURING_GROUP";
+        }
+
+        CommonTree group = node(type, text);
+
+        if(name != null) {
+            // like PCREParser, the innermost of the groups with the same
+            // name wins
+            namedGroups.put(name.getText(), groupNumber);
+            group.addChild(name);
+        }
+
+        element.addChild(group);
+
+        return new Frame(group, group, element, groupNumber, start, startToken, token);
+    }
+
+    // the condition of a conditional after its "(?(", up to and including
+    // its ')', as the node of the conditional, tried in the order of the
+    // alternatives of PCREParser
+    private CommonTree condition() {
+
+        char c = index < regex.length() ? regex.charAt(index) : 0;
+        CommonTree condition;
+
+        if(isDigit(index)) {
+            condition = node(PCREParser.REFERENCE_CONDITION_ABSOLUTE, "REFERENCE_CONDITION_ABSOLUTE");
+            condition.addChild(number());
+        }
+        else if(c == '+' || c == '-') {
+            next(1);
+            condition = c == '+' ?
+                    node(PCREParser.REFERENCE_CONDITION_RELATIVE_PLUS, "REFERENCE_CONDITION_RELATIVE_PLUS") :
+                    node(PCREParser.REFERENCE_CONDITION_RELATIVE_MINUS, "REFERENCE_CONDITION_RELATIVE_MINUS");
+            condition.addChild(number());
+        }
+        else if(c == '<' || c == '\'') {
+            next(1);
+            condition = node(PCREParser.NAMED_REFERENCE_CONDITION_PERL, "NAMED_REFERENCE_CONDITION_PERL");
+            condition.addChild(name());
+            expect(c == '<' ? '>' : '\'');
+        }
+        else if(c == 'R' && isDigit(index + 1) && at(digits(index + 1), ')')) {
+            next(1);
+            condition = node(PCREParser.SPECIFIC_GROUP_RECURSION_CONDITION, "SPECIFIC_GROUP_RECURSION_CONDITION");
+            condition.addChild(number());
+        }
+        else if(c == 'R' && at(index + 1, ')')) {
+            next(1);
+            condition = node(PCREParser.OVERALL_RECURSION_CONDITION, "OVERALL_RECURSION_CONDITION");
+        }
+        else if(c == 'R' && at(index + 1, '&')) {
+            next(2);
+            condition = node(PCREParser.SPECIFIC_RECURSION_CONDITION, "SPECIFIC_RECURSION_CONDITION");
+            condition.addChild(name());
+        }
+        else if(regex.startsWith("DEFINE)", index)) {
+            next(6);
+            condition = node(PCREParser.DEFINE, "DEFINE");
+        }
+        else if(regex.startsWith("assert)", index)) {
+            next(6);
+            condition = node(PCREParser.ASSERT, "ASSERT");
+        }
+        else {
+            condition = node(PCREParser.NAMED_REFERENCE_CONDITION, "NAMED_REFERENCE_CONDITION");
+            condition.addChild(name());
+        }
+
+        expect(')');
+
+        return condition;
+    }
+
+    // completes the group of frame, after its ')', and quantifies it
+    private void close(Frame frame) {
+
+        frame.body.addChild(frame.regex());
+
+        if(frame.body != frame.group) {
+            frame.group.addChild(node(PCREParser.NO, "NO"));
+        }
+
+        bound(frame.group, frame.startToken, previous());
+
+        if(frame.groupNumber >= 0) {
+            groups.set(frame.groupNumber, frame.group);
+            spans[frame.groupNumber * 2] = frame.start;
+            spans[frame.groupNumber * 2 + 1] = index - 1;
+        }
+
+        quantify(frame.element, frame.startToken);
+    }
+
+    // reserves the next group number, like PCREParser does when it sees
+    // the opening parenthesis of a capture group
+    private int addGroup() {
+
+        groups.add(null);
+
+        if(spans.length < groups.size() * 2) {
+            spans = Arrays.copyOf(spans, spans.length * 2);
+        }
+
+        return groups.size() - 1;
+    }
+
+    // name : (letter | '_') (letter | '_' | digit)*
+    private CommonTree name() {
+
+        int end = index;
+
+        while(end < regex.length() && isNameChar(regex.charAt(end), end == index)) {
+            end++;
+        }
+
+        if(end == index) {
+            throw UnsupportedException.INSTANCE;
+        }
+
+        CommonTree name = node(PCREParser.NAME, regex.substring(index, end));
+        bound(name, token, token + end - index - 1);
+        next(end - index);
+
+        return name;
+    }
+
+    // skips the char c, which must follow
+    private void expect(char c) {
+
+        if(!at(c)) {
+            throw UnsupportedException.INSTANCE;
+        }
+
+        next(1);
+    }
+
+    // subroutine references (?R), (?n), (?+n), (?-n), (?&name) and
+    // (?P>name), backreferences (?P=name) and callouts (?C) and (?Cn), or
+    // null if none starts here
+    private CommonTree reference() {
+
+        if(!at(index + 1, '?') || index + 2 >= regex.length()) {
+            return null;
+        }
+
+        int start = token;
+        char c = regex.charAt(index + 2);
+        CommonTree reference;
+
+        if(c == 'R') {
+            next(3);
+            reference = node(PCREParser.NUMBERED_REFERENCE_ABSOLUTE, "NUMBERED_REFERENCE_ABSOLUTE");
+            reference.addChild(node(PCREParser.NUMBER, "0"));
+        }
+        else if(isDigit(index + 2)) {
+            next(2);
+            reference = node(PCREParser.NUMBERED_REFERENCE_ABSOLUTE, "NUMBERED_REFERENCE_ABSOLUTE");
+            reference.addChild(number());
+        }
+        else if(c == '+' || c == '-') {
+            // options like (?-i) are read before
+            next(3);
+            reference = c == '+' ?
+                    node(PCREParser.NUMBERED_REFERENCE_RELATIVE_PLUS, "NUMBERED_REFERENCE_RELATIVE_PLUS") :
+                    node(PCREParser.NUMBERED_REFERENCE_RELATIVE_MINUS, "NUMBERED_REFERENCE_RELATIVE_MINUS");
+            reference.addChild(number());
+        }
+        else if(c == '&') {
+            next(3);
+            reference = node(PCREParser.NAMED_REFERENCE_PERL, "NAMED_REFERENCE_PERL");
+            reference.addChild(name());
+        }
+        else if(c == 'P' && (at(index + 3, '>') || at(index + 3, '='))) {
+            reference = at(index + 3, '>') ?
+                    node(PCREParser.NAMED_REFERENCE_PYTHON, "NAMED_REFERENCE_PYTHON") :
+                    node(PCREParser.NAMED_BACKREFERENCE_PYTHON, "NAMED_BACKREFERENCE_PYTHON");
+            next(4);
+            reference.addChild(name());
+        }
+        else if(c == 'C') {
+            next(3);
+            reference = node(PCREParser.CALLOUT, "CALLOUT");
+
+            if(isDigit(index)) {
+                reference.addChild(number());
+            }
+        }
+        else {
+            return null;
+        }
+
+        expect(')');
+        bound(reference, start, previous());
+
+        return reference;
+    }
+
+    // backtracking control verbs, newline conventions and options like
+    // (*UTF8), or null if none starts here
+    private CommonTree verb() {
+
+        if(!at(index + 1, '*')) {
+            return null;
+        }
+
+        int end = regex.indexOf(')', index);
+        Integer type = end < 0 ? null : VERBS.get(regex.substring(index + 2, end));
+
+        if(type == null) {
+            throw UnsupportedException.INSTANCE;
+        }
+
+        int start = token;
+        CommonTree verb = node(type, PCREParser.tokenNames[type]);
+
+        next(end + 1 - index);
+        bound(verb, start, previous());
+
+        return verb;
+    }
+
+    // comment : '(' '?' '#' (~')')+ ')', or null if no comment starts here.
+    // Comments with a backslash or "[[" are left to PCRELexer, which does
+    // not split those into a token per char.
+    private CommonTree comment() {
+
+        if(!regex.startsWith("(?#", index)) {
+            return null;
+        }
+
+        int end = regex.indexOf(')', index + 3);
+
+        if(end <= index + 3 || regex.lastIndexOf('\\', end) > index || regex.lastIndexOf("[[", end) > index) {
+            return null;
+        }
+
+        int start = token;
+        CommonTree comment = node(PCREParser.COMMENT, regex.substring(index + 3, end));
+
+        next(end - index + 1);
+        bound(comment, start, previous());
+
+        return comment;
+    }
+
+    // option : '(' '?' flags ('-' flags)? ')' | '(' '?' '-' flags ')',
+    // or null if no option starts here
+    private CommonTree option() {
+
+        if(!at(index + 1, '?')) {
+            return null;
+        }
+
+        int setEnd = flags(index + 2);
+        int unsetEnd = at(setEnd, '-') ? flags(setEnd + 1) : setEnd;
+
+        if(!at(unsetEnd, ')') || (unsetEnd == setEnd ? setEnd == index + 2 : unsetEnd == setEnd + 1)) {
+            return null;
+        }
+
+        int start = token;
+        CommonTree set = node(PCREParser.SET, "SET");
+        CommonTree unset = node(PCREParser.UNSET, "UNSET");
+
+        next(2);
+
+        while(index < setEnd) {
+            set.addChild(leaf(PCREParser.OPTION, String.valueOf(regex.charAt(index)), 1));
+        }
+
+        if(at('-')) {
+            next(1);
+
+            while(index < unsetEnd) {
+                unset.addChild(leaf(PCREParser.OPTION, String.valueOf(regex.charAt(index)), 1));
+            }
+        }
+
+        next(1);
+
+        CommonTree options = node(PCREParser.OPTIONS, "OPTIONS");
+        options.addChild(set);
+        options.addChild(unset);
+        bound(options, start, previous());
+
+        return options;
+    }
+
+    // the index after the (possibly empty) run of option flags from start
+    private int flags(int start) {
+
+        int end = start;
+
+        while(end < regex.length() && "iJmsUx".indexOf(regex.charAt(end)) >= 0) {
+            end++;
+        }
+
+        return end;
+    }
+
+    private CommonTree characterClass() {
+
+        if(regex.startsWith("[[", index)) {
+            // PCRELexer reads "[[" as the start of a POSIX set
+            throw UnsupportedException.INSTANCE;
+        }
+
+        int start = token;
+
+        next(1);
+
+        CommonTree characterClass;
+
+        if(at('^')) {
+            next(1);
+            characterClass = node(PCREParser.NEGATED_CHARACTER_CLASS, "NEGATED_CHARACTER_CLASS");
+        }
+        else {
+            characterClass = node(PCREParser.CHARACTER_CLASS, "CHARACTER_CLASS");
+        }
+
+        if(at(']')) {
+            if(at(index + 1, '-')) {
+                // "[]-..." starts with a range
+                throw UnsupportedException.INSTANCE;
+            }
+
+            next(1);
+            characterClass.addChild(node(PCREParser.LITERAL, "]"));
+        }
+
+        while(!at(']')) {
+
+            if(index >= regex.length()) {
+                // an unclosed class
+                throw UnsupportedException.INSTANCE;
+            }
+
+            int atomStart = token;
+            CommonTree atom = classAtom();
+
+            if(atom.getType() == PCREParser.LITERAL && at('-') && index + 1 < regex.length() && !at(index + 1, ']')) {
+
+                int hyphen = index;
+                int hyphenToken = token;
+
+                next(1);
+
+                CommonTree end = classAtom();
+
+                if(end.getType() == PCREParser.LITERAL) {
+                    CommonTree range = node(PCREParser.RANGE, "RANGE");
+                    range.addChild(atom);
+                    range.addChild(end);
+                    bound(range, atomStart, previous());
+                    atom = range;
+                }
+                else {
+                    // not a range: the '-' is a literal
+                    index = hyphen;
+                    token = hyphenToken;
+                }
+            }
+
+            characterClass.addChild(atom);
+        }
+
+        next(1);
+        bound(characterClass, start, previous());
+
+        return characterClass;
+    }
+
+    private CommonTree classAtom() {
+
+        if(at('\\')) {
+            return escape(true);
+        }
+
+        CommonTree set = posixSet();
+
+        if(set != null) {
+            return set;
+        }
+
+        return leaf(PCREParser.LITERAL, String.valueOf(regex.charAt(index)), 1);
+    }
+
+    // [[:name:]] or [[:^name:]], of the named sets PCRELexer supports, or
+    // null if no "[[" starts here. PCRELexer reads "[[" as the start of a
+    // POSIX set, so anything else starting with it is left to PCRELexer.
+    private CommonTree posixSet() {
+
+        if(!regex.startsWith("[[", index)) {
+            return null;
+        }
+
+        boolean negated = regex.startsWith("[[:^", index);
+        int nameStart = index + (negated ? 4 : 3);
+        int end = nameStart;
+
+        while(end < regex.length() && isAlphaNumeric(regex.charAt(end))) {
+            end++;
+        }
+
+        if(!at(index + 2, ':') || end == nameStart || !regex.startsWith(":]]", end) ||
+                !PCRELexer.namedSet.contains(regex.substring(nameStart, end))) {
+            throw UnsupportedException.INSTANCE;
+        }
+
+        return token(negated ? PCREParser.POSIXNegatedNamedSet : PCREParser.POSIXNamedSet, null, end + 3 - index);
+    }
+
+    // a backslash followed by a char that is handled the same inside and
+    // outside character classes, or by one of the anchors (outside)
+    private CommonTree escape(boolean insideCharacterClass) {
+
+        if(index + 1 >= regex.length()) {
+            throw UnsupportedException.INSTANCE;
+        }
+
+        char c = regex.charAt(index + 1);
+
+        switch(c) {
+            case 'd': return token(PCREParser.DecimalDigit, null, 2);
+            case 'D': return token(PCREParser.NotDecimalDigit, null, 2);
+            case 'h': return token(PCREParser.HorizontalWhiteSpace, null, 2);
+            case 'H': return token(PCREParser.NotHorizontalWhiteSpace, null, 2);
+            case 'N': return token(PCREParser.NotNewLine, null, 2);
+            case 'R': return token(PCREParser.NewLineSequence, null, 2);
+            case 's': return token(PCREParser.WhiteSpace, null, 2);
+            case 'S': return token(PCREParser.NotWhiteSpace, null, 2);
+            case 'v': return token(PCREParser.VerticalWhiteSpace, null, 2);
+            case 'V': return token(PCREParser.NotVerticalWhiteSpace, null, 2);
+            case 'w': return token(PCREParser.WordChar, null, 2);
+            case 'W': return token(PCREParser.NotWordChar, null, 2);
+            case 'a': return leaf(PCREParser.LITERAL, "\u0007", 2);
+            case 'e': return leaf(PCREParser.LITERAL, String.valueOf((char)0x1B), 2);
+            case 'f': return leaf(PCREParser.LITERAL, String.valueOf((char)0x0C), 2);
+            case 'n': return leaf(PCREParser.LITERAL, "\n", 2);
+            case 'r': return leaf(PCREParser.LITERAL, "\r", 2);
+            case 't': return leaf(PCREParser.LITERAL, "\t", 2);
+            case 'b':
+                return insideCharacterClass ?
+                        leaf(PCREParser.LITERAL, "\u0008", 2) : // backspace
+                        token(PCREParser.WordBoundary, null, 2);
+            case 'c': return controlChar();
+            case 'p': return property(PCREParser.CharWithProperty);
+            case 'P': return property(PCREParser.CharWithoutProperty);
+            case 'x': return hexChar();
+            case 'Q': return blockQuoted();
+            default:
+                if(c >= '0' && c <= '9') {
+                    return octalCharOrBackreference();
+                }
+                else if(!isAlphaNumeric(c)) {
+                    // a quoted char
+                    return leaf(PCREParser.LITERAL, String.valueOf(c), 2);
+                }
+                else if(insideCharacterClass) {
+                    throw UnsupportedException.INSTANCE;
+                }
+                else {
+                    return anchor(c);
+                }
+        }
+    }
+
+    private CommonTree anchor(char c) {
+        switch(c) {
+            case 'g': return gReference();
+            case 'k': return kReference();
+            case 'A': return leaf(PCREParser.START_OF_SUBJECT, "START_OF_SUBJECT", 2);
+            case 'B': return token(PCREParser.NonWordBoundary, null, 2);
+            case 'z': return token(PCREParser.EndOfSubject, null, 2);
+            case 'Z': return token(PCREParser.EndOfSubjectOrLineEndOfSubject, null, 2);
+            case 'G': return token(PCREParser.PreviousMatchInSubject, null, 2);
+            case 'K': return token(PCREParser.ResetStartMatch, null, 2);
+            case 'C': return token(PCREParser.OneDataUnit, null, 2);
+            case 'X': return token(PCREParser.ExtendedUnicodeChar, null, 2);
+            default: throw UnsupportedException.INSTANCE;
+        }
+    }
+
+    // \g followed by a number, {n}, {-n} or {name}: a backreference, or by
+    // <..> or '..' holding a name, n, +n or -n: a subroutine reference
+    private CommonTree gReference() {
+
+        int start = token;
+        CommonTree reference;
+
+        skip(2);
+
+        if(at('<') || at('\'')) {
+
+            char close = at('<') ? '>' : '\'';
+
+            next(1);
+
+            if(at('+') || at('-')) {
+                reference = at('+') ?
+                        node(PCREParser.NUMBERED_REFERENCE_RELATIVE_PLUS, "NUMBERED_REFERENCE_RELATIVE_PLUS") :
+                        node(PCREParser.NUMBERED_REFERENCE_RELATIVE_MINUS, "NUMBERED_REFERENCE_RELATIVE_MINUS");
+                next(1);
+                reference.addChild(number());
+            }
+            else if(isDigit(index)) {
+                reference = node(PCREParser.NUMBERED_REFERENCE_ABSOLUTE_ONIGURUMA,
+                        "NUMBERED_REFERENCE_ABSOLUTE_ONIGURUMA");
+                reference.addChild(number());
+            }
+            else {
+                reference = node(PCREParser.NAMED_REFERENCE_ONIGURUMA, "NAMED_REFERENCE_ONIGURUMA");
+                reference.addChild(name());
+            }
+
+            expect(close);
+        }
+        else if(at('{')) {
+
+            next(1);
+
+            if(at('-')) {
+                next(1);
+                reference = node(PCREParser.RELATIVE_NUMBERED_BACKREFERENCE, "RELATIVE_NUMBERED_BACKREFERENCE");
+                reference.addChild(number());
+            }
+            else if(isDigit(index)) {
+                reference = node(PCREParser.NUMBERED_BACKREFERENCE, "NUMBERED_BACKREFERENCE");
+                reference.addChild(number());
+            }
+            else {
+                reference = node(PCREParser.NAMED_BACKREFERENCE_PERL, "NAMED_BACKREFERENCE_PERL");
+                reference.addChild(name());
+            }
+
+            expect('}');
+        }
+        else {
+            reference = node(PCREParser.NUMBERED_BACKREFERENCE, "NUMBERED_BACKREFERENCE");
+            reference.addChild(number());
+        }
+
+        bound(reference, start, previous());
+
+        return reference;
+    }
+
+    // \k<name>, \k'name' or \k{name}
+    private CommonTree kReference() {
+
+        int start = token;
+        char c = index + 2 < regex.length() ? regex.charAt(index + 2) : 0;
+        CommonTree reference;
+
+        if(c != '<' && c != '\'' && c != '{') {
+            throw UnsupportedException.INSTANCE;
+        }
+
+        skip(2);
+        next(1);
+
+        reference = c == '{' ?
+                node(PCREParser.NAMED_BACKREFERENCE_NET, "NAMED_BACKREFERENCE_NET") :
+                node(PCREParser.NAMED_BACKREFERENCE_PERL, "NAMED_BACKREFERENCE_PERL");
+        reference.addChild(name());
+        expect(c == '<' ? '>' : c == '{' ? '}' : '\'');
+        bound(reference, start, previous());
+
+        return reference;
+    }
+
+    // \cx, where x is any ASCII char
+    private CommonTree controlChar() {
+
+        if(index + 2 >= regex.length() || regex.charAt(index + 2) > 0x7F) {
+            throw UnsupportedException.INSTANCE;
+        }
+
+        return token(PCREParser.ControlChar, String.valueOf(regex.charAt(index + 2)), 3);
+    }
+
+    // \p{name} or \P{name}, of the properties PCRELexer supports
+    private CommonTree property(int type) {
+
+        int end = index + 3;
+
+        while(end < regex.length() && (regex.charAt(end) == '_' || isAlphaNumeric(regex.charAt(end)))) {
+            end++;
+        }
+
+        if(!at(index + 2, '{') || end == index + 3 || !at(end, '}') ||
+                !PCRELexer.propertySet.contains(regex.substring(index + 3, end))) {
+            throw UnsupportedException.INSTANCE;
+        }
+
+        return token(type, null, end + 1 - index);
+    }
+
+    // \xhh or \x{hhh..}
+    private CommonTree hexChar() {
+
+        if(at(index + 2, '{')) {
+
+            int end = index + 3;
+
+            while(end < regex.length() && Character.digit(regex.charAt(end), 16) >= 0 && regex.charAt(end) < 0x80) {
+                end++;
+            }
+
+            // at least 3 digits, like PCRELexer, and a valid code point
+            if(end - index - 3 < 3 || end - index - 3 > 8 || !at(end, '}') ||
+                    Long.parseLong(regex.substring(index + 3, end), 16) > Character.MAX_CODE_POINT) {
+                throw UnsupportedException.INSTANCE;
+            }
+
+            int hex = Integer.parseInt(regex.substring(index + 3, end), 16);
+
+            return leaf(PCREParser.LITERAL, new String(Character.toChars(hex)), end + 1 - index);
+        }
+
+        if(!isHexDigit(index + 2) || !isHexDigit(index + 3)) {
+            throw UnsupportedException.INSTANCE;
+        }
+
+        int hex = Integer.parseInt(regex.substring(index + 2, index + 4), 16);
+
+        return leaf(PCREParser.LITERAL, String.valueOf((char)hex), 4);
+    }
+
+    // \Q...\E, up to the first \E
+    private CommonTree blockQuoted() {
+
+        int end = regex.indexOf("\\E", index + 2);
+
+        if(end < 0) {
+            throw UnsupportedException.INSTANCE;
+        }
+
+        return leaf(PCREParser.LITERAL, regex.substring(index + 2, end), end + 2 - index);
+    }
+
+    // like PCREParser, a backslash followed by [0-3] and two octal digits,
+    // or by two octal digits, is an octal char, followed by any other digit
+    // a backreference. The backslash and digits are a token each.
+    private CommonTree octalCharOrBackreference() {
+
+        int start = token;
+        int digits = isOctalDigit(index + 1) && isOctalDigit(index + 2) ?
+                regex.charAt(index + 1) <= '3' && isOctalDigit(index + 3) ? 3 : 2 :
+                0;
+
+        CommonTree tree;
+
+        if(digits > 0) {
+            int octal = Integer.parseInt(regex.substring(index + 1, index + 1 + digits), 8);
+            tree = node(PCREParser.LITERAL, String.valueOf((char)octal));
+            next(digits + 1);
+        }
+        else {
+            tree = node(PCREParser.NUMBERED_BACKREFERENCE, "NUMBERED_BACKREFERENCE");
+            tree.addChild(node(PCREParser.NUMBER, String.valueOf(regex.charAt(index + 1))));
+            next(2);
+        }
+
+        bound(tree, start, previous());
+
+        return tree;
+    }
+
+    // number : digits, which must follow
+    private CommonTree number() {
+
+        int end = digits(index);
+
+        if(end == index) {
+            throw UnsupportedException.INSTANCE;
+        }
+
+        return number(end - index);
+    }
+
+    // the index after the (possibly empty) run of digits starting at `start`
+    private int digits(int start) {
+
+        int end = start;
+
+        while(end < regex.length() && regex.charAt(end) >= '0' && regex.charAt(end) <= '9') {
+            end++;
+        }
+
+        return end;
+    }
+
+    private boolean at(char c) {
+        return at(index, c);
+    }
+
+    private boolean at(int i, char c) {
+        return i < regex.length() && regex.charAt(i) == c;
+    }
+
+    private boolean isDigit(int i) {
+        return i < regex.length() && regex.charAt(i) >= '0' && regex.charAt(i) <= '9';
+    }
+
+    private boolean isOctalDigit(int i) {
+        return i < regex.length() && regex.charAt(i) >= '0' && regex.charAt(i) <= '7';
+    }
+
+    private boolean isHexDigit(int i) {
+        return i < regex.length() && regex.charAt(i) < 0x80 && Character.digit(regex.charAt(i), 16) >= 0;
+    }
+
+    private static boolean isAlphaNumeric(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    private static boolean isNameChar(char c, boolean first) {
+        return c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (!first && c >= '0' && c <= '9');
+    }
+
+    // skips the next `tokens` chars, which are a token each
+    private void next(int tokens) {
+        index += tokens;
+        token += tokens;
+    }
+
+    // skips the token of `chars` chars that follows
+    private void skip(int chars) {
+        index += chars;
+        token++;
+    }
+
+    // the index of the last token read, which PCREParser makes 0 before the
+    // first one
+    private int previous() {
+        return token == 0 ? 0 : token - 1;
+    }
+
+    // a node for the token of `chars` chars that follows, like PCREParser
+    // creates for it in a rewrite rule
+    private CommonTree leaf(int type, String text, int chars) {
+
+        CommonTree leaf = node(type, text);
+        bound(leaf, token, token);
+        index += chars;
+        token++;
+
+        return leaf;
+    }
+
+    // a node holding the token of `chars` chars that follows, like PCREParser
+    // adds it to a tree as it is: with the offsets, line and position in
+    // the line PCREScanner gives it, and its own text if not null
+    private CommonTree token(int type, String text, int chars) {
+
+        if(input == null) {
+            input = new PCRECharStream(regex);
+        }
+
+        if(lineScanned > index) {
+            // after a '-' in a class that was read as a range first
+            line = 1;
+            lineStart = 0;
+            lineScanned = 0;
+        }
+
+        for(; lineScanned < index; lineScanned++) {
+            if(regex.charAt(lineScanned) == '\n') {
+                line++;
+                lineStart = lineScanned + 1;
+            }
+        }
+
+        CommonToken token = new CommonToken(input, type, Token.DEFAULT_CHANNEL, index, index + chars - 1);
+        token.setTokenIndex(this.token);
+        token.setLine(line);
+        token.setCharPositionInLine(index - lineStart);
+
+        if(text != null) {
+            token.setText(text);
+        }
+
+        CommonTree tree = new CommonTree(token);
+        bound(tree, this.token, this.token);
+        index += chars;
+        this.token++;
+
+        return tree;
+    }
+
+    private static void bound(CommonTree tree, int start, int stop) {
+        tree.setTokenStartIndex(start);
+        tree.setTokenStopIndex(stop);
+    }
+
+    private static CommonTree node(int type, String text) {
+        return new CommonTree(new CommonToken(type, text));
+    }
+}
@@ -0,0 +1,896 @@
+package pcreparser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * A cache of parsed patterns in a file, kept across restarts and shared by
+ * all threads and processes that open the same file. See
+ * {@link PCRECache#open(Path)}.
+ *
+ * The cache consists of three files: <code>file</code> itself, an append-only
+ * log of entries holding a pattern and its tree in the binary format of
+ * {@link PCRE#writeTo(java.io.OutputStream)}, <code>file.index</code>, an
+ * open-addressing hash table from the SHA-256 of a pattern to the offset of
+ * its entry, and <code>file.lock</code>, which is locked while the files are
+ * written. Both the log and the index are memory-mapped, so a hit reads the
+ * tree straight from the page cache without locking.
+ *
+ * A miss parses the pattern, appends its entry to the log and only then
+ * adds it to the index, so an index never refers to an incomplete entry.
+ * Entries carry a CRC: when the cache is opened, entries a crashed process
+ * appended but did not index are indexed, and a partially written entry at
+ * the end of the log is truncated. A missing or damaged index is rebuilt
+ * from the log. Whenever the index grows, or {@link #compact()} rewrites the
+ * log, the new files are renamed over the old ones, which are flagged as
+ * stale first: other processes notice this on their next lookup and reopen
+ * the cache.
+ *
+ * Appends are not forced to disk, so entries survive a crash of the process,
+ * but not necessarily of the operating system. The log cannot grow beyond
+ * 2 GB, after which misses are no longer stored.
+ */
+public final class PCREFileCache implements Closeable {
+
+    private static final int DATA_MAGIC = 0x50435244; // "PCRD"
+    private static final int INDEX_MAGIC = 0x50435249; // "PCRI"
+    private static final int VERSION = 1;
+
+    // the log: magic, version, generation and the entries
+    private static final int DATA_GENERATION = 8;
+    private static final int DATA_HEADER = 16;
+
+    // the index: magic, version, stale flag, capacity, count, generation,
+    // the length of the log that is indexed, and the slots
+    private static final int INDEX_STALE = 8;
+    private static final int INDEX_CAPACITY = 12;
+    private static final int INDEX_COUNT = 16;
+    private static final int INDEX_GENERATION = 24;
+    private static final int INDEX_DATA_LENGTH = 32;
+    private static final int INDEX_HEADER = 64;
+
+    // a slot: the hash of the pattern (0 for an empty slot) and the offset of its entry
+    private static final int SLOT = 16;
+    private static final int MINIMUM_CAPACITY = 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // FileLocks are held by the entire JVM: caches of the same file in one JVM also need to exclude each other,
+    // the lock of a file is removed when the last cache of it is closed
+    private static final Map<Path, SharedLock> LOCKS = new HashMap<Path, SharedLock>();
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            }
+            catch(NoSuchAlgorithmException e) {
+                // every Java platform supports SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final Path dataPath;
+    private final Path indexPath;
+    private final SharedLock lock;
+    private final FileChannel lockChannel;
+    private FileLock fileLock;
+    private boolean closed = false;
+
+    // replaced while locked
+    private FileChannel dataChannel;
+    private long generation;
+    private volatile MappedByteBuffer data;
+    private volatile MappedByteBuffer index;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private PCREFileCache(Path file) throws IOException {
+
+        Path lockPath = file.resolveSibling(file.getFileName() + ".lock").toAbsolutePath().normalize();
+
+        this.dataPath = file;
+        this.indexPath = file.resolveSibling(file.getFileName() + ".index");
+        this.lock = SharedLock.acquire(lockPath);
+
+        try {
+            this.lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+        catch(IOException | RuntimeException e) {
+            lock.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the cache in <code>file</code>, creating it if it does not exist,
+     * and recovering it if a process crashed while writing to it.
+     *
+     * @param file the log of the cache, the index and lock file are created
+     *             next to it.
+     * @return     the opened cache.
+     * @throws IOException if the files cannot be read or written, or if
+     *                     <code>file</code> is not a cache.
+     */
+    public static PCREFileCache open(Path file) throws IOException {
+
+        PCREFileCache cache = new PCREFileCache(file);
+
+        try {
+            cache.lock();
+
+            try {
+                cache.reopen();
+            }
+            finally {
+                cache.unlock();
+            }
+        }
+        catch(IOException e) {
+            cache.close();
+            throw e;
+        }
+        catch(RuntimeException e) {
+            cache.close();
+            throw e;
+        }
+
+        return cache;
+    }
+
+    /**
+     * Returns the parsed <code>regex</code> from the cache, or parses and
+     * stores it if it is not present. Every call returns a new instance.
+     *
+     * @param regex the pattern to parse.
+     * @return      the parsed <code>regex</code>.
+     * @throws UncheckedIOException if the cache files cannot be read or
+     *                              written.
+     */
+    public PCRE get(String regex) {
+
+        PCREEvents.CacheLookup event = PCREEvents.beginCacheLookup();
+        PCRE pcre = null;
+
+        try {
+            pcre = lookup(regex, event);
+            return pcre;
+        }
+        finally {
+            if(event != null) {
+                event.finish("PCREFileCache", regex, pcre);
+            }
+        }
+    }
+
+    private PCRE lookup(String regex, PCREEvents.CacheLookup event) {
+
+        byte[] pattern = regex.getBytes(UTF_8);
+        long hash = hash(pattern);
+
+        try {
+            PCRE pcre = find(hash, pattern);
+
+            if(pcre != null) {
+                hits.incrementAndGet();
+
+                if(event != null) {
+                    event.hit = true;
+                }
+
+                return pcre;
+            }
+
+            misses.incrementAndGet();
+
+            PCREResult result = PCRE.tryParse(regex);
+
+            if(!result.isValid()) {
+                // the tree ANTLR recovered from the errors is not stored, parsing again reports them
+                return new PCRE(regex);
+            }
+
+            pcre = result.getPCRE();
+
+            byte[] record = record(pcre);
+
+            if(record != null) {
+                store(hash, pattern, record);
+            }
+
+            return pcre;
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Rewrites the log without the entries that are no longer indexed, like
+     * those of patterns stored by several processes at the same time, and
+     * without the entries that were written by another version of this
+     * library, which would be parsed again on every lookup otherwise.
+     *
+     * @throws IOException if the cache files cannot be read or written.
+     */
+    public void compact() throws IOException {
+
+        lock();
+
+        try {
+            refresh();
+
+            Path compactedPath = dataPath.resolveSibling(dataPath.getFileName() + ".tmp");
+            long compactedGeneration = new Random().nextLong();
+            MappedByteBuffer compactedIndex = createIndex(capacity(size()), compactedGeneration);
+            MappedByteBuffer data = remap();
+            long end = DATA_HEADER;
+            int count = 0;
+
+            FileChannel compacted = FileChannel.open(compactedPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+            try {
+                write(compacted, dataHeader(compactedGeneration), 0);
+
+                for(long offset = DATA_HEADER; offset < index.getLong(INDEX_DATA_LENGTH); ) {
+
+                    long next = entryEnd(data, offset);
+
+                    if(next == PCRETree.NONE) {
+                        // refresh() truncated the log at the first incomplete entry
+                        break;
+                    }
+
+                    byte[] pattern = pattern(data, offset);
+                    long hash = hash(pattern);
+
+                    if(probe(index, data, hash, pattern) == offset && readable(data, offset, pattern.length)) {
+
+                        ByteBuffer entry = data.duplicate();
+                        entry.limit((int)next).position((int)offset);
+
+                        write(compacted, entry, end);
+                        insert(compactedIndex, hash, end);
+                        end += next - offset;
+                        count++;
+                    }
+
+                    offset = next;
+                }
+
+                compacted.force(true);
+            }
+            finally {
+                compacted.close();
+            }
+
+            compactedIndex.putInt(INDEX_COUNT, count);
+            compactedIndex.putLong(INDEX_DATA_LENGTH, end);
+            compactedIndex.force();
+
+            // with the new log, but still the old index, the index is rebuilt on the next open
+            Files.move(compactedPath, dataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            install(compactedIndex);
+
+            dataChannel.close();
+            dataChannel = FileChannel.open(dataPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            generation = compactedGeneration;
+            this.data = map(dataChannel);
+        }
+        finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Returns the number of cached patterns.
+     *
+     * @return the number of cached patterns.
+     */
+    public int size() {
+        return index.getInt(INDEX_COUNT);
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Closes the files of this cache. Other caches of the same file are not
+     * affected. Closing a closed cache has no effect.
+     *
+     * @throws IOException if a file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+
+        lock.lock();
+
+        try {
+            if(closed) {
+                return;
+            }
+
+            closed = true;
+
+            try {
+                if(dataChannel != null) {
+                    dataChannel.close();
+                }
+            }
+            finally {
+                try {
+                    lockChannel.close();
+                }
+                finally {
+                    lock.release();
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // the number of files that open caches in this JVM share a lock of
+    static int lockCount() {
+        synchronized(LOCKS) {
+            return LOCKS.size();
+        }
+    }
+
+    // returns the parsed pattern if it is in the cache, without locking
+    private PCRE find(long hash, byte[] pattern) throws IOException {
+
+        MappedByteBuffer index = this.index;
+
+        if(index.getInt(INDEX_STALE) != 0) {
+            // replaced by another cache or process
+            lock();
+
+            try {
+                if(this.index == index) {
+                    refresh();
+                }
+
+                index = this.index;
+            }
+            finally {
+                unlock();
+            }
+        }
+
+        long offset = probe(index, data, hash, pattern);
+        MappedByteBuffer data = this.data;
+
+        // data may have been replaced by compact() since the probe
+        if(offset == PCRETree.NONE || !matches(data, offset, pattern)) {
+            return null;
+        }
+
+        try {
+            return PCRETree.read(data, (int)offset + 8 + pattern.length).toPCRE();
+        }
+        catch(IllegalArgumentException e) {
+            // written by another version, or damaged: store() finds the entry and does not append it again
+            return null;
+        }
+    }
+
+    // appends an entry for pattern, unless it is already in the log
+    private void store(long hash, byte[] pattern, byte[] record) throws IOException {
+
+        lock();
+
+        try {
+            refresh();
+
+            if(probe(index, data, hash, pattern) != PCRETree.NONE) {
+                return;
+            }
+
+            long offset = dataChannel.size();
+            int length = 4 + pattern.length + record.length + 4;
+
+            if(offset + 4 + length > Integer.MAX_VALUE) {
+                return;
+            }
+
+            ByteBuffer entry = ByteBuffer.allocate(4 + length);
+            entry.putInt(length).putInt(pattern.length).put(pattern).put(record);
+
+            CRC32 crc = new CRC32();
+            crc.update(entry.array(), 4, length - 4);
+            entry.putInt((int)crc.getValue());
+            entry.flip();
+
+            write(dataChannel, entry, offset);
+            add(hash, offset, offset + 4 + length);
+        }
+        finally {
+            unlock();
+        }
+    }
+
+    // makes sure the index is current and covers the entire log, while locked
+    private void refresh() throws IOException {
+
+        if(index.getInt(INDEX_STALE) != 0 || index.getLong(INDEX_GENERATION) != generation) {
+            reopen();
+        }
+        else if(index.getLong(INDEX_DATA_LENGTH) != dataChannel.size()) {
+            catchUp(index.getLong(INDEX_DATA_LENGTH));
+        }
+    }
+
+    // (re)opens the log and the index, recovering both if needed, while locked
+    private void reopen() throws IOException {
+
+        if(dataChannel != null) {
+            dataChannel.close();
+        }
+
+        dataChannel = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        if(dataChannel.size() < DATA_HEADER) {
+            // a new log, or one of which the header was never written entirely
+            dataChannel.truncate(0);
+            write(dataChannel, dataHeader(new Random().nextLong()), 0);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(DATA_HEADER);
+        dataChannel.read(header, 0);
+
+        if(header.getInt(0) != DATA_MAGIC) {
+            throw new IOException(dataPath + " is not a pattern cache");
+        }
+
+        if(header.getInt(4) != VERSION) {
+            throw new IOException(dataPath + " is a pattern cache of unsupported version " + header.getInt(4));
+        }
+
+        generation = header.getLong(DATA_GENERATION);
+        data = map(dataChannel);
+
+        MappedByteBuffer index = openIndex();
+
+        if(index == null) {
+            this.index = null;
+            install(createIndex(MINIMUM_CAPACITY, generation));
+            catchUp(DATA_HEADER);
+        }
+        else {
+            this.index = index;
+            catchUp(index.getLong(INDEX_DATA_LENGTH));
+        }
+    }
+
+    // maps the index if it belongs to the log and is not damaged
+    private MappedByteBuffer openIndex() throws IOException {
+
+        if(!Files.exists(indexPath)) {
+            return null;
+        }
+
+        FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            if(channel.size() < INDEX_HEADER) {
+                return null;
+            }
+
+            MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int capacity = index.getInt(INDEX_CAPACITY);
+            long dataLength = index.getLong(INDEX_DATA_LENGTH);
+
+            boolean valid = index.getInt(0) == INDEX_MAGIC &&
+                    index.getInt(4) == VERSION &&
+                    index.getInt(INDEX_STALE) == 0 &&
+                    capacity >= MINIMUM_CAPACITY && Integer.bitCount(capacity) == 1 &&
+                    channel.size() == INDEX_HEADER + (long)capacity * SLOT &&
+                    index.getLong(INDEX_GENERATION) == generation &&
+                    dataLength >= DATA_HEADER && dataLength <= dataChannel.size();
+
+            return valid ? index : null;
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    // indexes the entries from offset on, and truncates the log at the first incomplete one
+    private void catchUp(long offset) throws IOException {
+
+        MappedByteBuffer data = map(dataChannel);
+        long end = data.limit();
+
+        this.data = data;
+
+        while(offset < end) {
+
+            long next = entryEnd(data, offset);
+
+            if(next == PCRETree.NONE) {
+                // the tail of an append that did not finish
+                dataChannel.truncate(offset);
+                this.data = map(dataChannel);
+                break;
+            }
+
+            byte[] pattern = pattern(data, offset);
+            long hash = hash(pattern);
+
+            if(probe(index, data, hash, pattern) == PCRETree.NONE) {
+                add(hash, offset, next);
+            }
+
+            offset = next;
+        }
+
+        index.putLong(INDEX_DATA_LENGTH, offset);
+    }
+
+    // adds the entry at offset to the index, growing it if needed
+    private void add(long hash, long offset, long dataLength) throws IOException {
+
+        MappedByteBuffer index = this.index;
+        int count = index.getInt(INDEX_COUNT) + 1;
+
+        if(count * 2L > index.getInt(INDEX_CAPACITY)) {
+
+            MappedByteBuffer grown = createIndex(index.getInt(INDEX_CAPACITY) * 2, generation);
+
+            for(int slot = 0; slot < index.getInt(INDEX_CAPACITY); slot++) {
+
+                long slotHash = index.getLong(INDEX_HEADER + slot * SLOT);
+
+                if(slotHash != 0) {
+                    insert(grown, slotHash, index.getLong(INDEX_HEADER + slot * SLOT + 8));
+                }
+            }
+
+            grown.putInt(INDEX_COUNT, count - 1);
+            grown.putLong(INDEX_DATA_LENGTH, index.getLong(INDEX_DATA_LENGTH));
+            install(grown);
+            index = grown;
+        }
+
+        insert(index, hash, offset);
+        index.putInt(INDEX_COUNT, count);
+        index.putLong(INDEX_DATA_LENGTH, dataLength);
+    }
+
+    // creates an empty index in a temporary file
+    private MappedByteBuffer createIndex(int capacity, long generation) throws IOException {
+
+        Path path = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long)capacity * SLOT);
+
+            index.putInt(0, INDEX_MAGIC);
+            index.putInt(4, VERSION);
+            index.putInt(INDEX_CAPACITY, capacity);
+            index.putLong(INDEX_GENERATION, generation);
+            index.putLong(INDEX_DATA_LENGTH, DATA_HEADER);
+
+            return index;
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    // replaces the index file with the one created by createIndex()
+    private void install(MappedByteBuffer index) throws IOException {
+
+        if(Files.exists(indexPath)) {
+            // whoever has the current index mapped, reopens the cache before the next lookup
+            FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.WRITE);
+
+            try {
+                if(channel.size() >= INDEX_HEADER) {
+                    ByteBuffer stale = ByteBuffer.allocate(4).putInt(0, 1);
+                    write(channel, stale, INDEX_STALE);
+                }
+            }
+            finally {
+                channel.close();
+            }
+        }
+
+        Files.move(indexPath.resolveSibling(indexPath.getFileName() + ".tmp"), indexPath,
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        this.index = index;
+    }
+
+    private static void insert(MappedByteBuffer index, long hash, long offset) {
+
+        int mask = index.getInt(INDEX_CAPACITY) - 1;
+        int slot = (int)hash & mask;
+
+        while(index.getLong(INDEX_HEADER + slot * SLOT) != 0) {
+            slot = (slot + 1) & mask;
+        }
+
+        // the offset first: a lookup that sees the hash before the offset treats it as a miss
+        index.putLong(INDEX_HEADER + slot * SLOT + 8, offset);
+        index.putLong(INDEX_HEADER + slot * SLOT, hash);
+    }
+
+    // returns the offset of the entry of pattern, or NONE
+    private long probe(MappedByteBuffer index, MappedByteBuffer data, long hash, byte[] pattern) throws IOException {
+
+        int capacity = index.getInt(INDEX_CAPACITY);
+        int slot = (int)hash & (capacity - 1);
+
+        // bounded, in case another process damaged the index
+        for(int i = 0; i < capacity; i++, slot = (slot + 1) & (capacity - 1)) {
+
+            long slotHash = index.getLong(INDEX_HEADER + slot * SLOT);
+
+            if(slotHash == 0) {
+                break;
+            }
+
+            if(slotHash != hash) {
+                continue;
+            }
+
+            long offset = index.getLong(INDEX_HEADER + slot * SLOT + 8);
+
+            if(offset + 8 + pattern.length > data.limit()) {
+                // appended after data was mapped
+                data = remap();
+            }
+
+            if(matches(data, offset, pattern)) {
+                return offset;
+            }
+        }
+
+        return PCRETree.NONE;
+    }
+
+    private static boolean matches(MappedByteBuffer data, long offset, byte[] pattern) {
+
+        if(offset < DATA_HEADER || offset + 8 + pattern.length > data.limit() ||
+                data.getInt((int)offset + 4) != pattern.length) {
+            return false;
+        }
+
+        for(int i = 0; i < pattern.length; i++) {
+            if(data.get((int)offset + 8 + i) != pattern[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // returns the offset after the entry at offset, or NONE if it is incomplete or damaged
+    private static long entryEnd(MappedByteBuffer data, long offset) {
+
+        if(offset + 8 > data.limit()) {
+            return PCRETree.NONE;
+        }
+
+        int length = data.getInt((int)offset);
+        int patternLength = data.getInt((int)offset + 4);
+
+        if(length < 8 || patternLength < 0 || patternLength > length - 8 || offset + 4 + length > data.limit()) {
+            return PCRETree.NONE;
+        }
+
+        ByteBuffer checked = data.duplicate();
+        checked.limit((int)offset + length).position((int)offset + 4);
+
+        CRC32 crc = new CRC32();
+        crc.update(checked);
+
+        if((int)crc.getValue() != data.getInt((int)offset + length)) {
+            return PCRETree.NONE;
+        }
+
+        return offset + 4 + length;
+    }
+
+    private static byte[] pattern(MappedByteBuffer data, long offset) {
+
+        byte[] pattern = new byte[data.getInt((int)offset + 4)];
+
+        for(int i = 0; i < pattern.length; i++) {
+            pattern[i] = data.get((int)offset + 8 + i);
+        }
+
+        return pattern;
+    }
+
+    // true if the record of the entry at offset was written by this version
+    private static boolean readable(MappedByteBuffer data, long offset, int patternLength) {
+        try {
+            PCRETree.skip(data, (int)offset + 8 + patternLength);
+            return true;
+        }
+        catch(IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private MappedByteBuffer remap() throws IOException {
+
+        lock.lock();
+
+        try {
+            data = map(dataChannel);
+            return data;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    private static ByteBuffer dataHeader(long generation) {
+
+        ByteBuffer header = ByteBuffer.allocate(DATA_HEADER);
+        header.putInt(DATA_MAGIC).putInt(VERSION).putLong(generation).flip();
+
+        return header;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    // the binary record of pcre, or null if its tree cannot be stored
+    private static byte[] record(PCRE pcre) {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try {
+            pcre.writeTo(out);
+        }
+        catch(IllegalArgumentException e) {
+            // a tree ANTLR recovered from a syntax error, without all its groups
+            return null;
+        }
+        catch(IOException e) {
+            // a ByteArrayOutputStream does not throw
+            throw new RuntimeException(e);
+        }
+
+        return out.toByteArray();
+    }
+
+    // the first 8 bytes of the SHA-256 of pattern, 0 marks an empty slot
+    private static long hash(byte[] pattern) {
+
+        byte[] digest = SHA_256.get().digest(pattern);
+        long hash = 0;
+
+        for(int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (digest[i] & 0xFF);
+        }
+
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static int capacity(int count) {
+
+        int capacity = MINIMUM_CAPACITY;
+
+        while(capacity < count * 2L + 2) {
+            capacity *= 2;
+        }
+
+        return capacity;
+    }
+
+    private void lock() throws IOException {
+
+        lock.lock();
+
+        try {
+            fileLock = lockChannel.lock();
+        }
+        catch(IOException e) {
+            lock.unlock();
+            throw e;
+        }
+    }
+
+    private void unlock() throws IOException {
+        try {
+            fileLock.release();
+        }
+        finally {
+            fileLock = null;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The lock of a file shared by all open caches of it in this JVM.
+     */
+    private static final class SharedLock {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Path path;
+
+        // the number of open caches of the file, guarded by LOCKS
+        private int caches = 0;
+
+        private SharedLock(Path path) {
+            this.path = path;
+        }
+
+        static SharedLock acquire(Path path) {
+            synchronized(LOCKS) {
+
+                SharedLock lock = LOCKS.get(path);
+
+                if(lock == null) {
+                    lock = new SharedLock(path);
+                    LOCKS.put(path, lock);
+                }
+
+                lock.caches++;
+
+                return lock;
+            }
+        }
+
+        void release() {
+            synchronized(LOCKS) {
+                if(--caches == 0) {
+                    LOCKS.remove(path);
+                }
+            }
+        }
+
+        void lock() {
+            lock.lock();
+        }
+
+        void unlock() {
+            lock.unlock();
+        }
+    }
+}
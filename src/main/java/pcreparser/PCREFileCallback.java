@@ -0,0 +1,21 @@
+package pcreparser;
+
+/**
+ * Receives the results of <code>PCRE.parseFile</code>, a line at a time,
+ * in the order of the lines in the file, on the thread that called
+ * <code>parseFile</code>.
+ */
+public interface PCREFileCallback {
+
+    /**
+     * Called for every line of the file, including empty ones, which are
+     * valid empty patterns. The offsets in the parsed pattern and in the
+     * diagnostics are indexes of bytes in the line. The pattern of a valid
+     * line is only decoded into a <code>String</code> when
+     * <code>result.getRegex()</code> is called.
+     *
+     * @param line   the number of the line, starting at 1.
+     * @param result the parsed line, or its errors.
+     */
+    void parsed(long line, PCREResult result);
+}
@@ -0,0 +1,257 @@
+package pcreparser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The implementation of <code>PCRE.parseFile</code>: maps a file with a
+ * UTF-8 pattern per line in large segments that end at the end of a line,
+ * splits the segments into small chunks of whole lines, parses the chunks
+ * in parallel straight from the mapped bytes, and hands the results to a
+ * callback in the order of the lines.
+ */
+final class PCREFileParser {
+
+    // about the number of bytes per mapping: few enough mappings for even
+    // the largest files, which stay mapped while their results are in use
+    static final int SEGMENT_SIZE = 1 << 26;
+
+    // about the number of bytes per chunk: enough lines that scheduling a
+    // chunk costs little, few enough that the results waiting for the
+    // callback fit in the young generation
+    static final int CHUNK_SIZE = 1 << 12;
+
+    private final FileChannel channel;
+    private final Executor executor;
+    private final PCREFileCallback callback;
+    private final int segmentSize;
+    private final int chunkSize;
+
+    // enough chunks in flight to keep all threads busy, without parsing the
+    // entire file before the callback catches up
+    private final int maxPending = Runtime.getRuntime().availableProcessors() * 4;
+
+    private long line = 0;
+
+    private PCREFileParser(FileChannel channel, Executor executor, PCREFileCallback callback, int segmentSize,
+                           int chunkSize) {
+        this.channel = channel;
+        this.executor = executor;
+        this.callback = callback;
+        this.segmentSize = segmentSize;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Parses every line of <code>file</code> on the threads of
+     * <code>executor</code>, and on the calling thread while it waits.
+     *
+     * @param file        the file to parse.
+     * @param executor    the executor to parse with.
+     * @param callback    where to hand the results to.
+     * @param segmentSize about the number of bytes to map at once.
+     * @param chunkSize   about the number of bytes to parse per task.
+     * @return            the number of lines.
+     * @throws IOException if the file cannot be read or mapped, or has a
+     *                     line of 2 GB or more.
+     */
+    static long parse(Path file, Executor executor, PCREFileCallback callback, int segmentSize, int chunkSize)
+            throws IOException {
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+
+        try {
+            PCREFileParser parser = new PCREFileParser(channel, executor, callback, segmentSize, chunkSize);
+            parser.run();
+            return parser.line;
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    private void run() throws IOException {
+
+        Deque<FutureTask<List<PCREResult>>> pending = new ArrayDeque<FutureTask<List<PCREResult>>>();
+        long size = channel.size();
+        long start = 0;
+
+        try {
+            while(start < size) {
+
+                long end = segmentEnd(start, size);
+
+                if(end - start > Integer.MAX_VALUE) {
+                    throw new IOException("the line at offset " + start + " is too long to map");
+                }
+
+                final MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                int limit = segment.limit();
+
+                for(int chunkStart = 0; chunkStart < limit; ) {
+
+                    final int from = chunkStart;
+                    final int to = chunkEnd(segment, chunkStart);
+
+                    FutureTask<List<PCREResult>> chunk = new FutureTask<List<PCREResult>>(new Callable<List<PCREResult>>() {
+                        @Override
+                        public List<PCREResult> call() {
+                            return parseChunk(segment, from, to);
+                        }
+                    });
+
+                    pending.add(chunk);
+                    executor.execute(chunk);
+                    chunkStart = to;
+
+                    while(pending.size() >= maxPending) {
+                        deliver(pending.poll());
+                    }
+                }
+
+                start = end;
+            }
+
+            while(!pending.isEmpty()) {
+                deliver(pending.poll());
+            }
+        }
+        finally {
+            // after an exception: the rest is not needed anymore
+            for(FutureTask<List<PCREResult>> chunk : pending) {
+                chunk.cancel(false);
+            }
+        }
+    }
+
+    // the offset after the first \n at or after start + segmentSize - 1
+    private long segmentEnd(long start, long size) throws IOException {
+
+        long offset = start + segmentSize - 1;
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+        while(offset < size) {
+
+            buffer.clear();
+
+            int read = channel.read(buffer, offset);
+
+            if(read <= 0) {
+                break;
+            }
+
+            for(int i = 0; i < read; i++) {
+                if(buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+
+            offset += read;
+        }
+
+        return size;
+    }
+
+    // the index after the first \n at or after start + chunkSize - 1
+    private int chunkEnd(ByteBuffer segment, int start) {
+
+        int limit = segment.limit();
+
+        for(int i = (int)Math.min((long)start + chunkSize - 1, limit); i < limit; i++) {
+            if(segment.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+
+        return limit;
+    }
+
+    // parses the lines from start to end, each from a slice of its own
+    private static List<PCREResult> parseChunk(ByteBuffer data, int start, int limit) {
+
+        PCREParsingContext context = PCREParsingContext.forCurrentThread();
+        List<PCREResult> results = new ArrayList<PCREResult>();
+        int lineStart = start;
+
+        for(int i = start; i < limit; i++) {
+
+            byte b = data.get(i);
+
+            // like BufferedReader.readLine(): \n, \r and \r\n end a line
+            if(b == '\n' || b == '\r') {
+                results.add(parseLine(context, data, lineStart, i));
+
+                // chunks only end after a \n, so \r\n is never split
+                if(b == '\r' && i + 1 < limit && data.get(i + 1) == '\n') {
+                    i++;
+                }
+
+                lineStart = i + 1;
+            }
+        }
+
+        // the last line of the file, without a line terminator
+        if(lineStart < limit) {
+            results.add(parseLine(context, data, lineStart, limit));
+        }
+
+        return results;
+    }
+
+    private static PCREResult parseLine(PCREParsingContext context, ByteBuffer data, int start, int end) {
+
+        ByteBuffer line = data.duplicate();
+
+        line.limit(end);
+        line.position(start);
+
+        return context.tryParseUtf8(line.slice());
+    }
+
+    private void deliver(FutureTask<List<PCREResult>> chunk) {
+
+        // the calling thread helps: this does nothing if the chunk is
+        // already (being) parsed
+        chunk.run();
+
+        List<PCREResult> results;
+        boolean interrupted = false;
+
+        try {
+            while(true) {
+                try {
+                    results = chunk.get();
+                    break;
+                }
+                catch(InterruptedException e) {
+                    interrupted = true;
+                }
+                catch(ExecutionException e) {
+                    // tryParse does not throw, so this is an Error
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        finally {
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        for(PCREResult result : results) {
+            callback.parsed(++line, result);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package pcreparser;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * What is left of the <code>PCREParseOptions</code> of the pattern being
+ * parsed. The token stream checks it for every token it reads, the parser
+ * for every rule it enters, and <code>PCREFastParser</code> for every
+ * element it parses. The clock and the cancellation flag are only
+ * looked at every {@link #RULES_PER_CHECK} rules.
+ */
+final class PCREParseBudget {
+
+    // rules entered between two looks at the clock and the flag
+    static final int RULES_PER_CHECK = 64;
+
+    private final PCREParseOptions options;
+    private final long start;
+    private final int maxTokens;
+    private final int maxDepth;
+    private final AtomicBoolean cancelled;
+
+    private int rulesUntilCheck = RULES_PER_CHECK;
+
+    PCREParseBudget(PCREParseOptions options) {
+        this.options = options;
+        this.start = System.nanoTime();
+        this.maxTokens = options.getMaxTokens();
+        this.maxDepth = options.getMaxDepth();
+        this.cancelled = options.getCancelled();
+    }
+
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Checks all limits after the token stream has read a token.
+     *
+     * @param tokenCount the number of tokens read so far, EOF not included.
+     */
+    void tokenRead(int tokenCount) {
+
+        if(tokenCount > maxTokens) {
+            throw new PCREBudgetExceededException(PCREBudgetExceededException.Limit.TOKENS,
+                    "pattern has more than " + maxTokens + " tokens");
+        }
+
+        check();
+    }
+
+    /**
+     * Checks the depth, and every {@link #RULES_PER_CHECK} rules the other
+     * limits, when the parser enters a rule.
+     *
+     * @param depth the number of rules the parser is in, the entered one
+     *              included.
+     */
+    void ruleEntered(int depth) {
+
+        if(depth > maxDepth) {
+            throw new PCREBudgetExceededException(PCREBudgetExceededException.Limit.DEPTH,
+                    "pattern nested deeper than " + maxDepth + " rules");
+        }
+
+        if(--rulesUntilCheck == 0) {
+            rulesUntilCheck = RULES_PER_CHECK;
+            check();
+        }
+    }
+
+    // checks the flag and the clock
+    private void check() {
+
+        if(cancelled != null && cancelled.get()) {
+            throw new PCREBudgetExceededException(PCREBudgetExceededException.Limit.CANCELLED, "parse cancelled");
+        }
+
+        if(options.getTimeoutNanos() != Long.MAX_VALUE && System.nanoTime() - start > options.getTimeoutNanos()) {
+            throw new PCREBudgetExceededException(PCREBudgetExceededException.Limit.TIMEOUT,
+                    "parse took longer than " + TimeUnit.NANOSECONDS.toMillis(options.getTimeoutNanos()) + " ms");
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package pcreparser;
+
+/**
+ * Receives the counters of every pattern a <code>PCREParsingContext</code>
+ * parses, see <code>PCRE.setParseListener</code> and
+ * <code>PCREParsingContext.setParseListener</code>. Without a listener,
+ * nothing is counted.
+ */
+public interface PCREParseListener {
+
+    /**
+     * Called on the parsing thread after every pattern it parses, valid
+     * or not. The context is available again when this is called, but
+     * parsing with it from here reports to this listener again.
+     *
+     * @param stats the counters of the parse, which are not changed
+     *              afterwards.
+     */
+    void parsed(PCREParseStats stats);
+}
@@ -0,0 +1,141 @@
+package pcreparser;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The budget of a single parse: how long it may take, how many tokens the
+ * pattern may have, how deeply the parser rules may nest and a flag to
+ * cancel it from another thread. Once a parse exceeds its budget it stops
+ * with a <code>PCREBudgetExceededException</code>. Instances are immutable:
+ * every <code>with*</code> method returns a copy.
+ *
+ * <pre>
+ * PCREParseOptions options = PCREParseOptions.DEFAULT
+ *         .withTimeout(50, TimeUnit.MILLISECONDS)
+ *         .withMaxTokens(10000)
+ *         .withMaxDepth(2000);
+ *
+ * PCREResult result = PCRE.tryParse(regex, options);
+ * </pre>
+ *
+ * The limits are checked whenever the parser reads a token from the
+ * scanner or lexer, and when it enters a rule, so even a pattern the
+ * backtracking parser spends a long time on without reading any new tokens
+ * is stopped in time. <code>PCREFastParser</code>, which parses most
+ * <code>String</code> patterns first, checks them for every element it
+ * parses.
+ */
+public final class PCREParseOptions {
+
+    /**
+     * No limits at all.
+     */
+    public static final PCREParseOptions DEFAULT = new PCREParseOptions(Long.MAX_VALUE, Integer.MAX_VALUE,
+            Integer.MAX_VALUE, null);
+
+    private final long timeoutNanos;
+    private final int maxTokens;
+    private final int maxDepth;
+    private final AtomicBoolean cancelled;
+
+    private PCREParseOptions(long timeoutNanos, int maxTokens, int maxDepth, AtomicBoolean cancelled) {
+        this.timeoutNanos = timeoutNanos;
+        this.maxTokens = maxTokens;
+        this.maxDepth = maxDepth;
+        this.cancelled = cancelled;
+    }
+
+    public long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public AtomicBoolean getCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns <code>true</code> if these options limit nothing, like
+     * {@link #DEFAULT}.
+     *
+     * @return whether these options limit nothing.
+     */
+    public boolean isUnlimited() {
+        return timeoutNanos == Long.MAX_VALUE && maxTokens == Integer.MAX_VALUE && maxDepth == Integer.MAX_VALUE &&
+                cancelled == null;
+    }
+
+    /**
+     * Returns a copy that stops parsing once it has taken longer than
+     * <code>timeout</code>, counted from the start of every parse.
+     *
+     * @param timeout the time a parse may take.
+     * @param unit    the unit of <code>timeout</code>.
+     * @return        a copy with the given timeout.
+     */
+    public PCREParseOptions withTimeout(long timeout, TimeUnit unit) {
+
+        if(timeout < 0) {
+            throw new IllegalArgumentException("timeout < 0: " + timeout);
+        }
+
+        return new PCREParseOptions(unit.toNanos(timeout), maxTokens, maxDepth, cancelled);
+    }
+
+    /**
+     * Returns a copy that stops parsing patterns of more than
+     * <code>maxTokens</code> tokens, as soon as the parser reads the token
+     * after the last one allowed.
+     *
+     * @param maxTokens the number of tokens a pattern may have.
+     * @return          a copy with the given maximum number of tokens.
+     */
+    public PCREParseOptions withMaxTokens(int maxTokens) {
+
+        if(maxTokens < 0) {
+            throw new IllegalArgumentException("maxTokens < 0: " + maxTokens);
+        }
+
+        return new PCREParseOptions(timeoutNanos, maxTokens, maxDepth, cancelled);
+    }
+
+    /**
+     * Returns a copy that stops parsing once the parser rules nest deeper
+     * than <code>maxDepth</code>, <code>parse</code> itself being at depth
+     * 1. Every level of nested groups takes six rules, and a flat pattern
+     * nine, so this also keeps deeply nested patterns from overflowing the
+     * stack. <code>PCREFastParser</code> has no rules: it leaves patterns
+     * that nest groups close to the limit to <code>PCREParser</code>, so
+     * the same patterns exceed it either way.
+     *
+     * @param maxDepth the depth the parser rules may nest to.
+     * @return         a copy with the given maximum depth.
+     */
+    public PCREParseOptions withMaxDepth(int maxDepth) {
+
+        if(maxDepth < 1) {
+            throw new IllegalArgumentException("maxDepth < 1: " + maxDepth);
+        }
+
+        return new PCREParseOptions(timeoutNanos, maxTokens, maxDepth, cancelled);
+    }
+
+    /**
+     * Returns a copy that stops parsing once <code>cancelled</code> is set,
+     * typically by another thread.
+     *
+     * @param cancelled the flag to check, or <code>null</code>.
+     * @return          a copy checking the given flag.
+     */
+    public PCREParseOptions withCancellation(AtomicBoolean cancelled) {
+        return new PCREParseOptions(timeoutNanos, maxTokens, maxDepth, cancelled);
+    }
+}
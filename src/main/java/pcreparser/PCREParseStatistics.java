@@ -0,0 +1,273 @@
+package pcreparser;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A thread-safe <code>PCREParseListener</code> that aggregates the counters
+ * of all parses into a histogram per counter, and keeps the counters of
+ * the slowest parse:
+ *
+ * <pre>
+ * PCREParseStatistics statistics = new PCREParseStatistics();
+ * PCRE.setParseListener(statistics);
+ * ...
+ * System.out.println(statistics);
+ * System.out.println(statistics.getSlowest().getRegex());
+ * </pre>
+ *
+ * Reading the histograms while patterns are parsed is fine, but the
+ * counters of a parse may be added to some histograms and not yet to
+ * others.
+ */
+public class PCREParseStatistics implements PCREParseListener {
+
+    private final Histogram tokenCounts = new Histogram();
+    private final Histogram ruleInvocationCounts = new Histogram();
+    private final Histogram predicateEvaluationCounts = new Histogram();
+    private final Histogram memoHitCounts = new Histogram();
+    private final Histogram memoMissCounts = new Histogram();
+    private final Histogram maxBacktrackingDepths = new Histogram();
+    private final Histogram nanos = new Histogram();
+
+    private final AtomicReference<PCREParseStats> slowest = new AtomicReference<PCREParseStats>();
+
+    @Override
+    public void parsed(PCREParseStats stats) {
+
+        tokenCounts.add(stats.getTokenCount());
+        ruleInvocationCounts.add(stats.getRuleInvocationCount());
+        predicateEvaluationCounts.add(stats.getPredicateEvaluationCount());
+        memoHitCounts.add(stats.getMemoHitCount());
+        memoMissCounts.add(stats.getMemoMissCount());
+        maxBacktrackingDepths.add(stats.getMaxBacktrackingDepth());
+        nanos.add(stats.getNanos());
+
+        PCREParseStats current = slowest.get();
+
+        while(current == null || current.getNanos() < stats.getNanos()) {
+            if(slowest.compareAndSet(current, stats)) {
+                break;
+            }
+            current = slowest.get();
+        }
+    }
+
+    /**
+     * Returns the histogram of the number of tokens per pattern.
+     *
+     * @return the histogram of the number of tokens.
+     */
+    public Histogram getTokenCounts() {
+        return tokenCounts;
+    }
+
+    /**
+     * Returns the histogram of the number of rule invocations per pattern.
+     *
+     * @return the histogram of the number of rule invocations.
+     */
+    public Histogram getRuleInvocationCounts() {
+        return ruleInvocationCounts;
+    }
+
+    /**
+     * Returns the histogram of the number of syntactic predicates evaluated
+     * per pattern.
+     *
+     * @return the histogram of the number of predicates evaluated.
+     */
+    public Histogram getPredicateEvaluationCounts() {
+        return predicateEvaluationCounts;
+    }
+
+    /**
+     * Returns the histogram of the number of memo hits per pattern.
+     *
+     * @return the histogram of the number of memo hits.
+     */
+    public Histogram getMemoHitCounts() {
+        return memoHitCounts;
+    }
+
+    /**
+     * Returns the histogram of the number of memo misses per pattern.
+     *
+     * @return the histogram of the number of memo misses.
+     */
+    public Histogram getMemoMissCounts() {
+        return memoMissCounts;
+    }
+
+    /**
+     * Returns the histogram of the maximum backtracking depth per pattern.
+     *
+     * @return the histogram of the maximum backtracking depths.
+     */
+    public Histogram getMaxBacktrackingDepths() {
+        return maxBacktrackingDepths;
+    }
+
+    /**
+     * Returns the histogram of the wall time per pattern, in nanoseconds.
+     *
+     * @return the histogram of the wall times.
+     */
+    public Histogram getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Returns the counters of the parse that took the longest.
+     *
+     * @return the counters of the slowest parse, or <code>null</code> if
+     *         nothing was parsed.
+     */
+    public PCREParseStats getSlowest() {
+        return slowest.get();
+    }
+
+    @Override
+    public String toString() {
+
+        StringBuilder builder = new StringBuilder();
+
+        append(builder, "tokens", tokenCounts);
+        append(builder, "rules", ruleInvocationCounts);
+        append(builder, "predicates", predicateEvaluationCounts);
+        append(builder, "memoHits", memoHitCounts);
+        append(builder, "memoMisses", memoMissCounts);
+        append(builder, "maxBacktrackingDepth", maxBacktrackingDepths);
+        append(builder, "nanos", nanos);
+
+        return builder.toString();
+    }
+
+    private static void append(StringBuilder builder, String name, Histogram histogram) {
+        builder.append(name).append(": ").append(histogram).append('\n');
+    }
+
+    /**
+     * A thread-safe histogram of non-negative values, with a bucket per
+     * power of 2: bucket 0 counts the values 0, and bucket <code>b</code>
+     * the values from <code>2<sup>b - 1</sup></code> up to
+     * <code>2<sup>b</sup></code>, exclusive. Besides the buckets, it keeps
+     * the exact number, total and maximum of the values.
+     */
+    public static final class Histogram {
+
+        public static final int BUCKET_COUNT = 64;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram() {
+        }
+
+        void add(long value) {
+
+            buckets.incrementAndGet(bucket(value));
+            count.incrementAndGet();
+            total.addAndGet(value);
+
+            long current = max.get();
+
+            while(current < value && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        /**
+         * Returns the bucket that <code>value</code> is counted in.
+         *
+         * @param value a non-negative value.
+         * @return      the bucket of <code>value</code>.
+         */
+        public static int bucket(long value) {
+            return 64 - Long.numberOfLeadingZeros(value);
+        }
+
+        /**
+         * Returns the largest value counted in <code>bucket</code>.
+         *
+         * @param bucket a bucket.
+         * @return       the largest value of <code>bucket</code>.
+         */
+        public static long bucketLimit(int bucket) {
+            return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+        }
+
+        /**
+         * Returns the number of values counted in <code>bucket</code>.
+         *
+         * @param bucket a bucket.
+         * @return       the number of values of <code>bucket</code>.
+         */
+        public long getBucketCount(int bucket) {
+            return buckets.get(bucket);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getTotal() {
+            return total.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public double getMean() {
+            long count = getCount();
+            return count == 0 ? 0 : (double)getTotal() / count;
+        }
+
+        /**
+         * Returns an upper bound of the value that a <code>fraction</code>
+         * of all values is at most: the largest value of the bucket that
+         * holds it, or the maximum if that is smaller.
+         *
+         * @param fraction a fraction from 0 to 1, like 0.99 for the 99th
+         *                 percentile.
+         * @return         an upper bound of the percentile, 0 if there are
+         *                 no values.
+         */
+        public long getPercentile(double fraction) {
+
+            long count = getCount();
+
+            if(count == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long)Math.ceil(fraction * count));
+            long seen = 0;
+
+            for(int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+
+                seen += buckets.get(bucket);
+
+                if(seen >= rank) {
+                    return Math.min(bucketLimit(bucket), getMax());
+                }
+            }
+
+            return getMax();
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount() +
+                    ", mean=" + String.format(Locale.ROOT, "%.1f", getMean()) +
+                    ", p50<=" + getPercentile(0.5) +
+                    ", p99<=" + getPercentile(0.99) +
+                    ", max=" + getMax();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package pcreparser;
+
+import java.util.Arrays;
+
+/**
+ * The counters of a single parse, handed to a <code>PCREParseListener</code>.
+ * They tell where the time of a slow pattern goes: a pattern that makes the
+ * backtracking parser evaluate many syntactic predicates, or miss its memos
+ * often, takes a lot longer than its number of tokens suggests.
+ */
+public final class PCREParseStats {
+
+    private String regex;
+    private String parser;
+
+    // counted by the parser and its token stream while parsing
+    long ruleInvocations = 0;
+    long predicateEvaluations = 0;
+    long memoHits = 0;
+    long memoMisses = 0;
+    int maxBacktrackingDepth = 0;
+
+    private int tokenCount = 0;
+    private final long startNanos;
+    private long nanos = 0;
+
+    // the backtracking level at every mark of the token stream that has not
+    // been rewound yet
+    private int[] markLevels = new int[8];
+    private int marks = 0;
+
+    PCREParseStats() {
+        startNanos = System.nanoTime();
+    }
+
+    void setRegex(String regex) {
+        this.regex = regex;
+    }
+
+    void setParser(String parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Called for every mark of the token stream. The parser marks the stream
+     * for every syntactic predicate, right after raising its backtracking
+     * level, but also to predict alternatives and to report errors, without
+     * raising it: a mark is a predicate if it is made at a higher level than
+     * the last mark that has not been rewound.
+     *
+     * @param level the backtracking level of the parser.
+     */
+    void mark(int level) {
+
+        if(level > (marks == 0 ? 0 : markLevels[marks - 1])) {
+            predicateEvaluations++;
+            maxBacktrackingDepth = Math.max(maxBacktrackingDepth, level);
+        }
+
+        if(marks == markLevels.length) {
+            markLevels = Arrays.copyOf(markLevels, marks * 2);
+        }
+
+        markLevels[marks++] = level;
+    }
+
+    /**
+     * Called for every rewind of the token stream to a mark, which always
+     * is the last mark that has not been rewound.
+     */
+    void rewind() {
+        if(marks > 0) {
+            marks--;
+        }
+    }
+
+    void finish(int tokenCount) {
+        this.tokenCount = tokenCount;
+        this.nanos = System.nanoTime() - startNanos;
+        this.markLevels = null;
+    }
+
+    /**
+     * Returns the parsed pattern.
+     *
+     * @return the parsed pattern.
+     */
+    public String getRegex() {
+        return regex;
+    }
+
+    /**
+     * Returns the simple class name of the parser that parsed the pattern:
+     * <code>PCREFastParser</code>, <code>PCREParser</code> or
+     * <code>PCRELinearParser</code>. The fast parser has no rules, predicates
+     * or memos, so all its counters but the tokens and the time are 0.
+     *
+     * @return the name of the parser.
+     */
+    public String getParser() {
+        return parser;
+    }
+
+    /**
+     * Returns the number of tokens the parser read, <code>EOF</code> not
+     * included. This is the number of tokens of the pattern, unless parsing
+     * stopped at the first error.
+     *
+     * @return the number of tokens read.
+     */
+    public int getTokenCount() {
+        return tokenCount;
+    }
+
+    /**
+     * Returns the number of rules the parser invoked, including the rules
+     * invoked while evaluating syntactic predicates, and the rules that
+     * returned a memoized result right away.
+     *
+     * @return the number of rule invocations.
+     */
+    public long getRuleInvocationCount() {
+        return ruleInvocations;
+    }
+
+    /**
+     * Returns the number of syntactic predicates the parser evaluated, the
+     * ones nested in other predicates included. The grammar of
+     * <code>PCREParser</code> is parsed with <code>backtrack=true</code>,
+     * so these are the alternatives it tried before picking one;
+     * <code>PCRELinearParser</code> evaluates none.
+     *
+     * @return the number of syntactic predicates evaluated.
+     */
+    public long getPredicateEvaluationCount() {
+        return predicateEvaluations;
+    }
+
+    /**
+     * Returns the number of rules invoked while backtracking that returned
+     * the memoized result of an earlier invocation at the same token.
+     *
+     * @return the number of memo hits.
+     */
+    public long getMemoHitCount() {
+        return memoHits;
+    }
+
+    /**
+     * Returns the number of rules invoked while backtracking that had to be
+     * parsed because there was no memoized result for them yet.
+     *
+     * @return the number of memo misses.
+     */
+    public long getMemoMissCount() {
+        return memoMisses;
+    }
+
+    /**
+     * Returns the deepest nesting of syntactic predicates the parser
+     * evaluated, 0 if it evaluated none.
+     *
+     * @return the maximum backtracking depth.
+     */
+    public int getMaxBacktrackingDepth() {
+        return maxBacktrackingDepth;
+    }
+
+    /**
+     * Returns the wall time of the parse in nanoseconds, from preparing the
+     * context for the pattern until the parsed pattern was built. For a
+     * pattern <code>PCREFastParser</code> left to an ANTLR parser, this
+     * includes the time the fast parser took.
+     *
+     * @return the wall time of the parse.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "parser=" + parser +
+                ", tokens=" + tokenCount +
+                ", rules=" + ruleInvocations +
+                ", predicates=" + predicateEvaluations +
+                ", memoHits=" + memoHits +
+                ", memoMisses=" + memoMisses +
+                ", maxBacktrackingDepth=" + maxBacktrackingDepth +
+                ", nanos=" + nanos +
+                ": " + regex;
+    }
+}
@@ -0,0 +1,700 @@
+package pcreparser;
+
+import org.antlr.runtime.CharStream;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.TokenStream;
+import org.antlr.runtime.tree.TreeAdaptor;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A reusable scanner, lexer, token stream and parser. Instead of creating a
+ * new pipeline for every pattern, a context resets and reuses the same
+ * objects between patterns, which makes it the preferred way to parse many
+ * patterns in a row:
+ *
+ * <pre>
+ * PCREParsingContext context = new PCREParsingContext();
+ *
+ * for(String regex : patterns) {
+ *     PCRE pcre = context.parse(regex);
+ *     ...
+ * }
+ * </pre>
+ *
+ * Patterns are tokenized by a <code>PCREScanner</code>, or by the
+ * <code>PCRELexer</code> if the scanner leaves them to it. The
+ * <code>String</code> patterns of <code>parse</code> and <code>tryParse</code>
+ * are parsed by a <code>PCREFastParser</code> first, which builds the same
+ * trees without a lexer or recursion, unless the context parses with
+ * <code>PCRELinearParser</code>.
+ *
+ * A context is not thread-safe: every thread needs its own. The
+ * <code>PCRE(String)</code> constructor uses a context per thread.
+ *
+ * If a <code>PCREParseListener</code> is installed, for this context or for
+ * all of them, the context counts what the parser does for every pattern
+ * and reports it to the listener, whichever parser parsed it. Otherwise
+ * nothing is counted.
+ *
+ * With <code>PCREParseOptions</code> that limit anything, every parse of the
+ * context stops with a <code>PCREBudgetExceededException</code> once it
+ * exceeds them, in the fast parser as well.
+ */
+public class PCREParsingContext {
+
+    private static final ThreadLocal<PCREParsingContext> CONTEXTS = new ThreadLocal<PCREParsingContext>() {
+        @Override
+        protected PCREParsingContext initialValue() {
+            return new PCREParsingContext();
+        }
+    };
+
+    // the listener of the contexts without a listener of their own
+    private static volatile PCREParseListener defaultListener = null;
+
+    private final PCREScanner scanner = new PCREScanner();
+    private final PCRELexer lexer;
+    private final PCRETokenStream tokens;
+    private final AbstractPCREParser parser;
+
+    // whether String patterns are parsed by PCREFastParser first
+    private final boolean fast;
+
+    private boolean inUse = false;
+
+    private PCREParseListener listener = null;
+
+    private PCREParseOptions options = PCREParseOptions.DEFAULT;
+
+    // while in use with a listener: the listener and the counters to
+    // report to it
+    private PCREParseListener reportTo = null;
+    private PCREParseStats stats = null;
+
+    // the counters and budget of the pattern PCREFastParser just left to
+    // the ANTLR parser, which carries on with them
+    private PCREParseStats fallbackStats = null;
+    private PCREParseBudget fallbackBudget = null;
+
+    public PCREParsingContext() {
+        lexer = new PCRELexer();
+        tokens = new PCRETokenStream(lexer);
+        parser = new PCREParser(tokens);
+        parser.setTreeAdaptor(new PCRETreeAdaptor());
+        lexer.errors = parser.errors;
+        tokens.parser = parser;
+        fast = true;
+    }
+
+    private PCREParsingContext(PCRELexer lexer, PCRETokenStream tokens, AbstractPCREParser parser) {
+        this.lexer = lexer;
+        this.tokens = tokens;
+        this.parser = parser;
+        this.parser.setTreeAdaptor(new PCRETreeAdaptor());
+        this.lexer.errors = parser.errors;
+        this.tokens.parser = parser;
+        this.fast = false;
+    }
+
+    /**
+     * Creates a context that parses with <code>PCRELinearParser</code>
+     * instead of <code>PCREParser</code>. Both build the same trees, but the
+     * linear parser decides every alternative with a fixed amount of
+     * lookahead instead of backtracking, and does not memoize rule results.
+     *
+     * @return a new context parsing with <code>PCRELinearParser</code>.
+     */
+    public static PCREParsingContext linear() {
+
+        PCRELexer lexer = new PCRELexer();
+        PCRETokenStream tokens = new PCRETokenStream(lexer);
+
+        return new PCREParsingContext(lexer, tokens, new PCRELinearParser(tokens));
+    }
+
+    /**
+     * Installs the listener of all contexts that have no listener of their
+     * own, see <code>PCRE.setParseListener</code>.
+     *
+     * @param listener the listener to report to, or <code>null</code>.
+     */
+    static void setDefaultParseListener(PCREParseListener listener) {
+        defaultListener = listener;
+    }
+
+    static PCREParseListener getDefaultParseListener() {
+        return defaultListener;
+    }
+
+    /**
+     * Installs a listener that the counters of every pattern this context
+     * parses are reported to, instead of to the listener installed by
+     * <code>PCRE.setParseListener</code>. Patterns parsed by
+     * <code>PCREFastParser</code> are reported as well, with the tokens and
+     * time of the parse, see <code>PCREParseStats.getParser()</code>.
+     *
+     * @param listener the listener to report to, or <code>null</code> to
+     *                 report to the listener of all contexts, if any.
+     */
+    public void setParseListener(PCREParseListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the listener installed by {@link #setParseListener}.
+     *
+     * @return the listener of this context, or <code>null</code>.
+     */
+    public PCREParseListener getParseListener() {
+        return listener;
+    }
+
+    /**
+     * Sets the limits of every pattern this context parses from now on.
+     * Parsing a pattern that exceeds them throws a
+     * <code>PCREBudgetExceededException</code>, also from the
+     * <code>tryParse</code> methods: such a pattern is not known to be
+     * either valid or invalid.
+     *
+     * @param options the limits of every parse.
+     */
+    public void setParseOptions(PCREParseOptions options) {
+
+        if(options == null) {
+            throw new IllegalArgumentException("options == null");
+        }
+
+        this.options = options;
+    }
+
+    /**
+     * Returns the options set by {@link #setParseOptions}.
+     *
+     * @return the limits of every parse, <code>PCREParseOptions.DEFAULT</code>
+     *         if none were set.
+     */
+    public PCREParseOptions getParseOptions() {
+        return options;
+    }
+
+    /**
+     * Parses <code>regex</code> with the fast parser, or else with the lexer
+     * and parser of this context.
+     *
+     * @param regex the pattern to parse.
+     * @return      the parsed <code>regex</code>.
+     */
+    public PCRE parse(String regex) {
+
+        PCRE pcre = parseFast(regex);
+
+        return pcre != null ? pcre : parse(regex, 0, regex.length());
+    }
+
+    // parses regex with PCREFastParser, reporting to the listener and
+    // keeping to the options, or returns null if it does not handle regex,
+    // or this context is not to use it
+    private PCRE parseFast(String regex) {
+
+        if(!fast) {
+            return null;
+        }
+
+        PCREParseListener listener = this.listener != null ? this.listener : defaultListener;
+        PCREParseStats stats = listener != null ? new PCREParseStats() : null;
+        PCREParseBudget budget = options.isUnlimited() ? null : new PCREParseBudget(options);
+        PCRE pcre;
+
+        try {
+            pcre = PCREFastParser.tryParse(regex, stats, budget);
+        }
+        catch(PCREBudgetExceededException e) {
+            if(stats != null) {
+                listener.parsed(stats);
+            }
+
+            throw e;
+        }
+
+        if(pcre == null) {
+            // the time the fast parser took counts towards the timeout and
+            // the wall time of the ANTLR parser
+            fallbackStats = stats;
+            fallbackBudget = budget;
+        }
+        else if(stats != null) {
+            listener.parsed(stats);
+        }
+
+        return pcre;
+    }
+
+    /**
+     * Parses the chars of <code>regex</code> in place, without copying them.
+     * The chars must not change as long as the returned instance is in use:
+     * the text of its nodes is read from <code>regex</code>.
+     *
+     * @param regex the pattern to parse.
+     * @return      the parsed <code>regex</code>.
+     */
+    public PCRE parse(CharSequence regex) {
+        return parse(regex, 0, regex.length());
+    }
+
+    /**
+     * Parses the <code>length</code> chars of <code>regex</code> from
+     * <code>offset</code> on in place, like {@link #parse(CharSequence)}.
+     * The offsets of the groups and nodes are indexes in <code>regex</code>.
+     *
+     * @param regex  the array holding the pattern.
+     * @param offset the index of the first char of the pattern.
+     * @param length the number of chars of the pattern.
+     * @return       the parsed pattern.
+     * @throws IndexOutOfBoundsException if the pattern is not within
+     *                                   <code>regex</code>.
+     */
+    public PCRE parse(char[] regex, int offset, int length) {
+
+        if(offset < 0 || length < 0 || offset > regex.length - length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array length " + regex.length);
+        }
+
+        return parse(CharBuffer.wrap(regex), offset, offset + length);
+    }
+
+    /**
+     * Parses the remaining chars of <code>regex</code>, from its position to
+     * its limit, in place, like {@link #parse(CharSequence)}. The offsets of
+     * the groups and nodes are indexes in the buffer, not relative to its
+     * position. The position and limit of <code>regex</code> are left alone.
+     *
+     * @param regex the buffer holding the pattern.
+     * @return      the parsed pattern.
+     */
+    public PCRE parse(CharBuffer regex) {
+
+        CharBuffer buffer = regex.duplicate();
+
+        buffer.clear();
+
+        return parse(buffer, regex.position(), regex.limit());
+    }
+
+    private PCRE parse(CharSequence regex, int begin, int end) {
+
+        AbstractPCREParser parser = prepare(regex, begin, end);
+
+        try {
+            return new PCRE(parser);
+        }
+        finally {
+            release();
+        }
+    }
+
+    /**
+     * Parses the UTF-8 bytes of <code>regex</code> from its position to its
+     * limit, decoding them while they are lexed, through a
+     * <code>PCREUtf8CharStream</code>. Patterns of ASCII bytes only are
+     * scanned in place by the scanner instead. The offsets of the groups
+     * and nodes are indexes of bytes in the buffer. The position and limit
+     * of <code>regex</code> are left alone, and its bytes must not change
+     * as long as the returned instance is in use.
+     *
+     * @param regex the buffer holding the pattern.
+     * @return      the parsed pattern.
+     */
+    public PCRE parseUtf8(ByteBuffer regex) {
+
+        AbstractPCREParser parser = prepareUtf8(regex);
+
+        try {
+            return new PCRE(parser);
+        }
+        finally {
+            release();
+        }
+    }
+
+    /**
+     * Parses <code>regex</code> like {@link #parse(String)}, but adds the
+     * messages of all syntax errors to <code>errorMessages</code> instead of
+     * printing them to <code>System.err</code>.
+     *
+     * @param regex         the pattern to parse.
+     * @param errorMessages where to add the error messages to.
+     * @return              the parsed <code>regex</code>.
+     */
+    PCRE parse(String regex, List<String> errorMessages) {
+        return parse(regex, errorMessages, null, false);
+    }
+
+    /**
+     * Parses <code>regex</code> like {@link #parse(String, List)}. If
+     * <code>diagnostics</code> is not <code>null</code>, a diagnostic is
+     * added to it for every error, and unsupported properties and named
+     * sets are reported as errors instead of thrown.
+     *
+     * @param regex            the pattern to parse.
+     * @param errorMessages    where to add the error messages to.
+     * @param diagnostics      where to add the diagnostics to.
+     * @param stopAtFirstError whether to throw <code>PCREDiagnostic.STOP</code>
+     *                         after the first error.
+     * @return                 the parsed <code>regex</code>.
+     */
+    PCRE parse(String regex, List<String> errorMessages, List<PCREDiagnostic> diagnostics, boolean stopAtFirstError) {
+        return parse(prepare(regex), errorMessages, diagnostics, stopAtFirstError);
+    }
+
+    private PCRE parse(AbstractPCREParser parser, List<String> errorMessages, List<PCREDiagnostic> diagnostics,
+                       boolean stopAtFirstError) {
+
+        parser.errors.collect(errorMessages, diagnostics, stopAtFirstError);
+
+        try {
+            return new PCRE(parser);
+        }
+        finally {
+            parser.errors.reset();
+            release();
+        }
+    }
+
+    /**
+     * Parses <code>regex</code> without throwing or printing: syntax errors,
+     * exceptions and a too deeply nested pattern all end up in the errors
+     * of the returned result.
+     *
+     * @param regex the pattern to parse.
+     * @return      the parsed <code>regex</code>, or its errors.
+     */
+    public PCREResult tryParse(String regex) {
+        return tryParse(regex, false);
+    }
+
+    /**
+     * Parses <code>regex</code> like {@link #tryParse(String)}. If
+     * <code>stopAtFirstError</code> is <code>true</code>, parsing stops at
+     * the first error instead of recovering from it and reporting the
+     * errors that follow.
+     *
+     * @param regex            the pattern to parse.
+     * @param stopAtFirstError whether to stop at the first error.
+     * @return                 the parsed <code>regex</code>, or its errors.
+     */
+    public PCREResult tryParse(String regex, boolean stopAtFirstError) {
+
+        List<String> errorMessages = new ArrayList<String>();
+        List<PCREDiagnostic> diagnostics = new ArrayList<PCREDiagnostic>();
+        PCRE pcre = parseFast(regex);
+
+        if(pcre == null) {
+            pcre = tryParse(regex, null, errorMessages, diagnostics, stopAtFirstError);
+        }
+
+        return new PCREResult(regex, pcre, errorMessages, diagnostics);
+    }
+
+    /**
+     * Parses the UTF-8 bytes of <code>regex</code> from its position to its
+     * limit like {@link #tryParse(String)}. The pattern is only decoded into
+     * a <code>String</code> if it is invalid, or when the result is asked
+     * for it.
+     *
+     * @param regex the buffer holding the pattern.
+     * @return      the parsed pattern, or its errors.
+     */
+    PCREResult tryParseUtf8(ByteBuffer regex) {
+
+        List<String> errorMessages = new ArrayList<String>();
+        List<PCREDiagnostic> diagnostics = new ArrayList<PCREDiagnostic>();
+        PCRE pcre = tryParse(null, regex, errorMessages, diagnostics, false);
+
+        if(pcre != null) {
+            return new PCREResult(regex, pcre);
+        }
+
+        return new PCREResult(PCREResult.decode(regex), null, errorMessages, diagnostics);
+    }
+
+    // parses regex, or else the UTF-8 bytes of utf8, returning null if it
+    // is invalid
+    private PCRE tryParse(String regex, ByteBuffer utf8, List<String> errorMessages,
+                          List<PCREDiagnostic> diagnostics, boolean stopAtFirstError) {
+
+        PCRE pcre = null;
+
+        try {
+            AbstractPCREParser parser = regex != null ? prepare(regex) : prepareUtf8(utf8);
+            pcre = parse(parser, errorMessages, diagnostics, stopAtFirstError);
+        }
+        catch(PCREBudgetExceededException e) {
+            throw e;
+        }
+        catch(RuntimeException e) {
+            if(e != PCREDiagnostic.STOP) {
+                String message = e.getMessage() == null ? e.toString() : e.getMessage();
+                errorMessages.add(message);
+                diagnostics.add(new PCREDiagnostic(-1, Collections.<String>emptyList(), message));
+            }
+        }
+        catch(StackOverflowError e) {
+            errorMessages.add("pattern nested too deeply");
+            diagnostics.add(new PCREDiagnostic(-1, Collections.<String>emptyList(), "pattern nested too deeply"));
+        }
+
+        return errorMessages.isEmpty() ? pcre : null;
+    }
+
+    /**
+     * Parses <code>regex</code> with the lexer and parser of this context
+     * without building any trees: only the number, names and offsets of
+     * its groups are kept. See <code>PCRE.lazy(String)</code>.
+     *
+     * @param regex the pattern to parse.
+     * @return      the parsed <code>regex</code>, without trees.
+     */
+    public PCRE parseLazy(String regex) {
+
+        AbstractPCREParser parser = prepare(regex);
+        TreeAdaptor adaptor = parser.getTreeAdaptor();
+
+        parser.setTreeAdaptor(DiscardingTreeAdaptor.INSTANCE);
+
+        try {
+            return new PCRE(parser, regex);
+        }
+        finally {
+            parser.setTreeAdaptor(adaptor);
+            release();
+        }
+    }
+
+    /**
+     * Parses <code>regex</code> with the lexer and parser of this context
+     * into a compact tree. Unlike <code>PCRETree.of(parse(regex))</code>,
+     * every node of the tree gets its offsets in <code>regex</code>, except
+     * for values that are only implied, like the bounds of <code>+</code>.
+     *
+     * @param regex the pattern to parse.
+     * @return      the parsed <code>regex</code> as a compact tree.
+     */
+    public PCRETree parseTree(String regex) {
+
+        AbstractPCREParser parser = prepare(regex);
+
+        try {
+            return PCRETree.of(new PCRE(parser), parser.getTokenStream());
+        }
+        finally {
+            release();
+        }
+    }
+
+    /**
+     * Returns the context of the current thread, or a new context if the
+     * one of the current thread is busy.
+     *
+     * @return the context of the current thread.
+     */
+    static PCREParsingContext forCurrentThread() {
+
+        PCREParsingContext context = CONTEXTS.get();
+
+        return context.inUse ? new PCREParsingContext() : context;
+    }
+
+    /**
+     * Points the scanner or lexer, token stream and parser at <code>regex</code>,
+     * clearing all state left behind by a previous pattern. The context is
+     * in use until {@link #release()} is called, unless this method throws,
+     * in which case it has released the context already.
+     *
+     * @param regex the pattern to parse next.
+     * @return      the parser, ready to parse <code>regex</code>.
+     */
+    AbstractPCREParser prepare(String regex) {
+        return prepare(regex, 0, regex.length());
+    }
+
+    /**
+     * Points the scanner or lexer, token stream and parser at the chars of
+     * <code>regex</code> from <code>begin</code>, inclusive, to
+     * <code>end</code>, exclusive, like {@link #prepare(String)}.
+     *
+     * @param regex the chars of the pattern to parse next.
+     * @param begin the index of the first char of the pattern.
+     * @param end   the index after the last char of the pattern.
+     * @return      the parser, ready to parse the pattern.
+     */
+    AbstractPCREParser prepare(CharSequence regex, int begin, int end) {
+
+        acquire();
+
+        try {
+            if(stats != null) {
+                stats.setRegex(PCRECharStream.substring(regex, begin, end));
+            }
+
+            PCREEvents.Lex event = PCREEvents.beginLex();
+            boolean scanned = scanner.scan(regex, begin, end);
+
+            if(event != null) {
+                event.finish(end - begin, scanner.getTokenCount(), scanned);
+            }
+
+            if(scanned) {
+                tokens.setTokenSource(scanner);
+            }
+            else {
+                lexer.setCharStream(new PCRECharStream(regex, begin, end));
+                tokens.setTokenSource(lexer);
+            }
+
+            parser.setTokenStream(tokens);
+
+            return parser;
+        }
+        catch(RuntimeException | Error e) {
+            // the callers only release a context they got a parser from
+            release();
+            throw e;
+        }
+    }
+
+    /**
+     * Points the lexer, token stream and parser at <code>input</code>,
+     * clearing all state left behind by a previous pattern. The scanner is
+     * not used: it only reads <code>CharSequence</code>s.
+     *
+     * @param input the pattern to parse next.
+     * @return      the parser, ready to parse <code>input</code>.
+     */
+    AbstractPCREParser prepare(CharStream input) {
+
+        acquire();
+
+        try {
+            if(stats != null) {
+                stats.setRegex(input.substring(input.index(), input.size() - 1));
+            }
+
+            lexer.setCharStream(input);
+            tokens.setTokenSource(lexer);
+            parser.setTokenStream(tokens);
+
+            return parser;
+        }
+        catch(RuntimeException | Error e) {
+            release();
+            throw e;
+        }
+    }
+
+    /**
+     * Points the scanner or lexer, token stream and parser at the UTF-8
+     * bytes of <code>regex</code> from its position to its limit: patterns
+     * of ASCII bytes only are scanned in place, others are decoded by a
+     * <code>PCREUtf8CharStream</code> while they are lexed.
+     *
+     * @param regex the buffer holding the pattern to parse next.
+     * @return      the parser, ready to parse the pattern.
+     */
+    AbstractPCREParser prepareUtf8(ByteBuffer regex) {
+
+        int begin = regex.position();
+        int end = regex.limit();
+        CharSequence ascii = PCREUtf8CharStream.asciiView(regex, begin, end);
+
+        return ascii != null ? prepare(ascii, begin, end) : prepare(new PCREUtf8CharStream(regex));
+    }
+
+    private void acquire() {
+
+        PCREParseStats fallbackStats = this.fallbackStats;
+        PCREParseBudget fallbackBudget = this.fallbackBudget;
+
+        this.fallbackStats = null;
+        this.fallbackBudget = null;
+
+        if(inUse) {
+            throw new IllegalStateException("parsing context is already in use");
+        }
+
+        inUse = true;
+
+        PCREParseListener listener = this.listener != null ? this.listener : defaultListener;
+
+        if(listener != null) {
+            reportTo = listener;
+            stats = fallbackStats != null ? fallbackStats : new PCREParseStats();
+            stats.setParser(parser.getClass().getSimpleName());
+            // parse() itself is not invoked by another rule
+            stats.ruleInvocations = 1;
+            parser.stats = stats;
+            tokens.stats = stats;
+        }
+
+        if(!options.isUnlimited()) {
+            PCREParseBudget budget = fallbackBudget != null ? fallbackBudget : new PCREParseBudget(options);
+            parser.budget = budget;
+            tokens.budget = budget;
+        }
+    }
+
+    /**
+     * Drops all references to the last pattern's tokens and trees, and
+     * makes this context available for the next pattern. With a listener,
+     * the counters of the last pattern are reported to it after that.
+     */
+    void release() {
+
+        PCREParseListener listener = reportTo;
+        PCREParseStats stats = this.stats;
+
+        if(stats != null) {
+            stats.finish(tokenCount(tokens));
+            parser.stats = null;
+            tokens.stats = null;
+            this.stats = null;
+            reportTo = null;
+        }
+
+        parser.budget = null;
+        tokens.budget = null;
+        parser.reset();
+        scanner.clear();
+        lexer.setCharStream(null);
+        tokens.setTokenSource(lexer);
+
+        inUse = false;
+
+        if(stats != null) {
+            listener.parsed(stats);
+        }
+    }
+
+    /**
+     * Returns the number of tokens the parser read from <code>tokens</code>,
+     * EOF not included: the token stream keeps asking for more tokens after
+     * EOF, and gets EOF again.
+     *
+     * @param tokens the token stream of a parser.
+     * @return       the number of tokens read.
+     */
+    static int tokenCount(TokenStream tokens) {
+
+        int size = tokens.size();
+
+        while(size > 0 && tokens.get(size - 1).getType() == Token.EOF) {
+            size--;
+        }
+
+        return size;
+    }
+}
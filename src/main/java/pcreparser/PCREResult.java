@@ -0,0 +1,112 @@
+package pcreparser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of parsing a single pattern without throwing: either the
+ * parsed pattern, or the errors that made it invalid.
+ */
+public final class PCREResult {
+
+    private String regex;
+
+    // for valid results of UTF-8 patterns: the bytes, decoded on demand
+    private final ByteBuffer utf8;
+
+    private final PCRE pcre;
+    private final List<String> errors;
+    private final List<PCREDiagnostic> diagnostics;
+
+    PCREResult(String regex, PCRE pcre, List<String> errors, List<PCREDiagnostic> diagnostics) {
+        this.regex = regex;
+        this.utf8 = null;
+        this.pcre = pcre;
+        this.errors = Collections.unmodifiableList(errors);
+        this.diagnostics = Collections.unmodifiableList(diagnostics);
+    }
+
+    /**
+     * Creates the result of a valid pattern that is only decoded from the
+     * UTF-8 bytes of <code>utf8</code>, from its position to its limit,
+     * when {@link #getRegex()} is called.
+     *
+     * @param utf8 the bytes of the pattern, which must not change.
+     * @param pcre the parsed pattern.
+     */
+    PCREResult(ByteBuffer utf8, PCRE pcre) {
+        this.regex = null;
+        this.utf8 = utf8.duplicate();
+        this.pcre = pcre;
+        this.errors = Collections.emptyList();
+        this.diagnostics = Collections.emptyList();
+    }
+
+    // the remaining bytes of utf8 as a String, leaving utf8 alone
+    static String decode(ByteBuffer utf8) {
+        return StandardCharsets.UTF_8.decode(utf8.duplicate()).toString();
+    }
+
+    /**
+     * Returns the pattern that was parsed. A valid pattern parsed from
+     * UTF-8 bytes, like a line of <code>PCRE.parseFile</code>, is only
+     * decoded into a <code>String</code> when it is first asked for.
+     *
+     * @return the pattern that was parsed.
+     */
+    public String getRegex() {
+
+        if(regex == null && utf8 != null) {
+            // racing threads decode the same String
+            regex = decode(utf8);
+        }
+
+        return regex;
+    }
+
+    /**
+     * Returns <code>true</code> if the pattern was parsed without errors.
+     *
+     * @return <code>true</code> if the pattern was parsed without errors.
+     */
+    public boolean isValid() {
+        return pcre != null;
+    }
+
+    /**
+     * Returns the parsed pattern, or <code>null</code> if it is invalid.
+     *
+     * @return the parsed pattern, or <code>null</code> if it is invalid.
+     */
+    public PCRE getPCRE() {
+        return pcre;
+    }
+
+    /**
+     * Returns the messages of the syntax errors, or of the exception, that
+     * made the pattern invalid, or an empty list if it is valid.
+     *
+     * @return the errors of the pattern.
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Returns the errors that made the pattern invalid with their offsets
+     * in the pattern and the tokens that were expected there, in the same
+     * order as {@link #getErrors()}, or an empty list if it is valid.
+     *
+     * @return the diagnostics of the pattern.
+     */
+    public List<PCREDiagnostic> getDiagnostics() {
+        return diagnostics;
+    }
+
+    @Override
+    public String toString() {
+        return isValid() ? getRegex() : getRegex() + " " + errors;
+    }
+}
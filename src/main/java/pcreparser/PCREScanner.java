@@ -0,0 +1,569 @@
+package pcreparser;
+
+import org.antlr.runtime.CharStream;
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.TokenSource;
+
+import java.util.Arrays;
+
+/**
+ * A hand-written replacement for <code>PCRELexer</code> that produces the
+ * same tokens. Instead of predicting every token with a DFA, it looks up
+ * the type of a char in a table, and only looks further ahead for
+ * <code>\</code> and <code>[[:</code>.
+ *
+ * {@link #scan(String)} records the type and offsets of every token in
+ * <code>int</code> arrays, which are reused for the next pattern, without
+ * creating any tokens or texts:
+ *
+ * <pre>
+ * PCREScanner scanner = new PCREScanner();
+ *
+ * if(scanner.scan("(?&lt;YEAR&gt;\\d{4})")) {
+ *     for(int i = 0; i &lt; scanner.getTokenCount(); i++) {
+ *         System.out.println(scanner.getType(i) + " " + scanner.getStart(i) + ".." + scanner.getStop(i));
+ *     }
+ * }
+ * </pre>
+ *
+ * Texts are only created by {@link #getText(int)}, and tokens only by
+ * {@link #nextToken()}, through which a scanner serves as the token source
+ * of a parser.
+ *
+ * Incomplete or invalid escapes and named sets, like <code>\x{41}</code>,
+ * <code>\p{Foo}</code>, <code>[[a]]</code> or a <code>\Q</code> without
+ * <code>\E</code>, are left to <code>PCRELexer</code>, which reports or
+ * recovers from them: for such patterns <code>scan</code> returns
+ * <code>false</code>.
+ */
+public final class PCREScanner implements TokenSource {
+
+    private static final int[] LOWER_CASE = {
+            PCRELexer.ALC, PCRELexer.BLC, PCRELexer.CLC, PCRELexer.DLC, PCRELexer.ELC, PCRELexer.FLC, PCRELexer.GLC,
+            PCRELexer.HLC, PCRELexer.ILC, PCRELexer.JLC, PCRELexer.KLC, PCRELexer.LLC, PCRELexer.MLC, PCRELexer.NLC,
+            PCRELexer.OLC, PCRELexer.PLC, PCRELexer.QLC, PCRELexer.RLC, PCRELexer.SLC, PCRELexer.TLC, PCRELexer.ULC,
+            PCRELexer.VLC, PCRELexer.WLC, PCRELexer.XLC, PCRELexer.YLC, PCRELexer.ZLC
+    };
+
+    private static final int[] UPPER_CASE = {
+            PCRELexer.AUC, PCRELexer.BUC, PCRELexer.CUC, PCRELexer.DUC, PCRELexer.EUC, PCRELexer.FUC, PCRELexer.GUC,
+            PCRELexer.HUC, PCRELexer.IUC, PCRELexer.JUC, PCRELexer.KUC, PCRELexer.LUC, PCRELexer.MUC, PCRELexer.NUC,
+            PCRELexer.OUC, PCRELexer.PUC, PCRELexer.QUC, PCRELexer.RUC, PCRELexer.SUC, PCRELexer.TUC, PCRELexer.UUC,
+            PCRELexer.VUC, PCRELexer.WUC, PCRELexer.XUC, PCRELexer.YUC, PCRELexer.ZUC
+    };
+
+    private static final int[] DIGITS = {
+            PCRELexer.D0, PCRELexer.D1, PCRELexer.D2, PCRELexer.D3, PCRELexer.D4, PCRELexer.D5, PCRELexer.D6,
+            PCRELexer.D7, PCRELexer.D8, PCRELexer.D9
+    };
+
+    // the type of the single char tokens, or 0 for '\' and '['
+    private static final int[] CHARS = new int[128];
+
+    // the type of the two char escapes, 0 for the others
+    private static final int[] ESCAPES = new int[128];
+
+    static {
+
+        Arrays.fill(CHARS, PCRELexer.OtherChar);
+
+        for(int i = 0; i < 26; i++) {
+            CHARS['a' + i] = LOWER_CASE[i];
+            CHARS['A' + i] = UPPER_CASE[i];
+        }
+
+        for(int i = 0; i < 10; i++) {
+            CHARS['0' + i] = DIGITS[i];
+        }
+
+        CHARS['\\'] = 0;
+        CHARS['['] = 0;
+        CHARS['.'] = PCRELexer.Dot;
+        CHARS[']'] = PCRELexer.CharacterClassEnd;
+        CHARS['^'] = PCRELexer.Caret;
+        CHARS['-'] = PCRELexer.Hyphen;
+        CHARS['?'] = PCRELexer.QuestionMark;
+        CHARS['+'] = PCRELexer.Plus;
+        CHARS['*'] = PCRELexer.Star;
+        CHARS['{'] = PCRELexer.OpenBrace;
+        CHARS['}'] = PCRELexer.CloseBrace;
+        CHARS[','] = PCRELexer.Comma;
+        CHARS['$'] = PCRELexer.EndOfSubjectOrLine;
+        CHARS['|'] = PCRELexer.Pipe;
+        CHARS['('] = PCRELexer.OpenParen;
+        CHARS[')'] = PCRELexer.CloseParen;
+        CHARS['<'] = PCRELexer.LessThan;
+        CHARS['>'] = PCRELexer.GreaterThan;
+        CHARS['\''] = PCRELexer.SingleQuote;
+        CHARS['_'] = PCRELexer.Underscore;
+        CHARS[':'] = PCRELexer.Colon;
+        CHARS['#'] = PCRELexer.Hash;
+        CHARS['='] = PCRELexer.Equals;
+        CHARS['!'] = PCRELexer.Exclamation;
+        CHARS['&'] = PCRELexer.Ampersand;
+
+        ESCAPES['a'] = PCRELexer.BellChar;
+        ESCAPES['e'] = PCRELexer.EscapeChar;
+        ESCAPES['f'] = PCRELexer.FormFeed;
+        ESCAPES['n'] = PCRELexer.NewLine;
+        ESCAPES['r'] = PCRELexer.CarriageReturn;
+        ESCAPES['t'] = PCRELexer.Tab;
+        ESCAPES['C'] = PCRELexer.OneDataUnit;
+        ESCAPES['d'] = PCRELexer.DecimalDigit;
+        ESCAPES['D'] = PCRELexer.NotDecimalDigit;
+        ESCAPES['h'] = PCRELexer.HorizontalWhiteSpace;
+        ESCAPES['H'] = PCRELexer.NotHorizontalWhiteSpace;
+        ESCAPES['N'] = PCRELexer.NotNewLine;
+        ESCAPES['R'] = PCRELexer.NewLineSequence;
+        ESCAPES['s'] = PCRELexer.WhiteSpace;
+        ESCAPES['S'] = PCRELexer.NotWhiteSpace;
+        ESCAPES['v'] = PCRELexer.VerticalWhiteSpace;
+        ESCAPES['V'] = PCRELexer.NotVerticalWhiteSpace;
+        ESCAPES['w'] = PCRELexer.WordChar;
+        ESCAPES['W'] = PCRELexer.NotWordChar;
+        ESCAPES['X'] = PCRELexer.ExtendedUnicodeChar;
+        ESCAPES['b'] = PCRELexer.WordBoundary;
+        ESCAPES['B'] = PCRELexer.NonWordBoundary;
+        ESCAPES['A'] = PCRELexer.StartOfSubject;
+        ESCAPES['Z'] = PCRELexer.EndOfSubjectOrLineEndOfSubject;
+        ESCAPES['z'] = PCRELexer.EndOfSubject;
+        ESCAPES['G'] = PCRELexer.PreviousMatchInSubject;
+        ESCAPES['K'] = PCRELexer.ResetStartMatch;
+        ESCAPES['g'] = PCRELexer.SubroutineOrNamedReferenceStartG;
+        ESCAPES['k'] = PCRELexer.NamedReferenceStartK;
+    }
+
+    private CharSequence regex = null;
+    private int begin = 0;
+    private int end = 0;
+
+    private int count = 0;
+    private int[] types = new int[64];
+    private int[] starts = new int[64];
+    private int[] stops = new int[64];
+
+    // the state of nextToken()
+    private CharStream input = null;
+    private int next = 0;
+    private int line = 1;
+    private int lineStart = 0;
+    private int lineScanned = 0;
+
+    /**
+     * Scans <code>regex</code> into the token types and offsets of this
+     * scanner, replacing those of the previous pattern.
+     *
+     * @param regex the pattern to scan.
+     * @return      <code>true</code> if <code>regex</code> was scanned, or
+     *              <code>false</code> if it needs <code>PCRELexer</code>.
+     */
+    public boolean scan(String regex) {
+        return scan(regex, 0, regex.length());
+    }
+
+    /**
+     * Scans the chars of <code>regex</code> from <code>begin</code>,
+     * inclusive, to <code>end</code>, exclusive, in place, like
+     * {@link #scan(String)}. The offsets of the tokens are indexes in
+     * <code>regex</code>, which must not change until the next pattern is
+     * scanned.
+     *
+     * @param regex the chars of the pattern to scan.
+     * @param begin the index of the first char of the pattern.
+     * @param end   the index after the last char of the pattern.
+     * @return      <code>true</code> if the pattern was scanned, or
+     *              <code>false</code> if it needs <code>PCRELexer</code>.
+     */
+    public boolean scan(CharSequence regex, int begin, int end) {
+
+        if(begin < 0 || end < begin || end > regex.length()) {
+            throw new IndexOutOfBoundsException("begin " + begin + ", end " + end + ", length " + regex.length());
+        }
+
+        this.regex = regex;
+        this.begin = begin;
+        this.end = end;
+        this.count = 0;
+        this.input = null;
+        this.next = 0;
+        this.line = 1;
+        this.lineStart = begin;
+        this.lineScanned = begin;
+
+        int index = begin;
+
+        while(index < end) {
+
+            char ch = regex.charAt(index);
+            int type = ch < 128 ? CHARS[ch] : PCRELexer.OtherChar;
+
+            if(type != 0) {
+                add(type, index, index);
+                index++;
+            }
+            else {
+                index = ch == '\\' ? escape(index) : characterClassStart(index);
+
+                if(index < 0) {
+                    count = 0;
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the number of tokens of the last scanned pattern, without
+     * EOF.
+     *
+     * @return the number of tokens.
+     */
+    public int getTokenCount() {
+        return count;
+    }
+
+    public int getType(int token) {
+        return types[check(token)];
+    }
+
+    /**
+     * Returns the offset of the first char of <code>token</code> in the
+     * pattern.
+     *
+     * @param token the index of the token.
+     * @return      the offset of the first char of <code>token</code>.
+     */
+    public int getStart(int token) {
+        return starts[check(token)];
+    }
+
+    /**
+     * Returns the offset of the last char of <code>token</code> in the
+     * pattern.
+     *
+     * @param token the index of the token.
+     * @return      the offset of the last char of <code>token</code>.
+     */
+    public int getStop(int token) {
+        return stops[check(token)];
+    }
+
+    /**
+     * Creates the text of <code>token</code>, which is the same as the text
+     * of the <code>PCRELexer</code> token: the char an escape stands for,
+     * the contents of a <code>\Q...\E</code> block, or else the chars of
+     * <code>token</code> in the pattern.
+     *
+     * @param token the index of the token.
+     * @return      the text of <code>token</code>.
+     */
+    public String getText(int token) {
+
+        int start = starts[check(token)];
+        int stop = stops[token];
+
+        switch(types[token]) {
+            case PCRELexer.Quoted:
+                return substring(start + 1, stop + 1);
+            case PCRELexer.BlockQuoted:
+                return substring(start + 2, stop - 1);
+            case PCRELexer.ControlChar:
+                return substring(start + 2, start + 3);
+            case PCRELexer.BellChar:
+                return "\u0007";
+            case PCRELexer.EscapeChar:
+                return String.valueOf((char)0x1B);
+            case PCRELexer.FormFeed:
+                return String.valueOf((char)0x0C);
+            case PCRELexer.NewLine:
+                return "\n";
+            case PCRELexer.CarriageReturn:
+                return "\r";
+            case PCRELexer.Tab:
+                return "\t";
+            case PCRELexer.HexChar:
+                boolean braced = regex.charAt(start + 2) == '{';
+                int hex = Integer.parseInt(substring(start + (braced ? 3 : 2), stop + (braced ? 0 : 1)), 16);
+                return braced ? new String(Character.toChars(hex)) : String.valueOf((char)hex);
+            default:
+                return substring(start, stop + 1);
+        }
+    }
+
+    /**
+     * Returns the next token of the last scanned pattern, with the same
+     * type, offsets, line, position in the line and text as the one
+     * <code>PCRELexer</code> returns, or EOF after the last one.
+     *
+     * @return the next token.
+     */
+    @Override
+    public Token nextToken() {
+
+        if(input == null) {
+            input = new PCRECharStream(regex, begin, end);
+        }
+
+        int start = next < count ? starts[next] : end;
+
+        // the line of the token, like ANTLRStringStream counts them
+        for(; lineScanned < start; lineScanned++) {
+            if(regex.charAt(lineScanned) == '\n') {
+                line++;
+                lineStart = lineScanned + 1;
+            }
+        }
+
+        CommonToken token;
+
+        if(next < count) {
+
+            token = new CommonToken(input, types[next], Token.DEFAULT_CHANNEL, start, stops[next]);
+
+            if(hasOwnText(types[next])) {
+                token.setText(getText(next));
+            }
+
+            next++;
+        }
+        else {
+            token = new CommonToken(input, Token.EOF, Token.DEFAULT_CHANNEL, start, start);
+        }
+
+        token.setLine(line);
+        token.setCharPositionInLine(start - lineStart);
+
+        return token;
+    }
+
+    @Override
+    public String getSourceName() {
+        // like the unnamed ANTLRStringStream of PCRELexer
+        return null;
+    }
+
+    /**
+     * Drops the reference to the last scanned pattern.
+     */
+    void clear() {
+        regex = null;
+        input = null;
+        count = 0;
+    }
+
+    // '\' and what follows it, returns the index after it, or -1
+    private int escape(int start) {
+
+        if(start + 1 == end) {
+            add(PCRELexer.Backslash, start, start);
+            return start + 1;
+        }
+
+        char ch = regex.charAt(start + 1);
+
+        if(!isAlphaNumeric(ch)) {
+            add(PCRELexer.Quoted, start, start + 1);
+            return start + 2;
+        }
+
+        if(ESCAPES[ch] != 0) {
+            add(ESCAPES[ch], start, start + 1);
+            return start + 2;
+        }
+
+        switch(ch) {
+
+            case 'Q': {
+                // up to the first \E
+                int quoteEnd = indexOf("\\E", start + 2);
+
+                if(quoteEnd < 0) {
+                    return -1;
+                }
+
+                add(PCRELexer.BlockQuoted, start, quoteEnd + 1);
+                return quoteEnd + 2;
+            }
+
+            case 'c':
+                if(start + 2 == end || regex.charAt(start + 2) > 0x7F) {
+                    return -1;
+                }
+
+                add(PCRELexer.ControlChar, start, start + 2);
+                return start + 3;
+
+            case 'x':
+                return hexChar(start);
+
+            case 'p':
+            case 'P': {
+                int nameEnd = name(start + 3, true);
+
+                if(!startsWith("{", start + 2) || nameEnd == start + 3 || !startsWith("}", nameEnd) ||
+                        !PCRELexer.propertySet.contains(substring(start + 3, nameEnd))) {
+                    return -1;
+                }
+
+                add(ch == 'p' ? PCRELexer.CharWithProperty : PCRELexer.CharWithoutProperty, start, nameEnd);
+                return nameEnd + 1;
+            }
+
+            default:
+                // like a backreference: the alphanumeric is a token of its own
+                add(PCRELexer.Backslash, start, start);
+                return start + 1;
+        }
+    }
+
+    // \xhh or \x{hhh..}
+    private int hexChar(int start) {
+
+        if(hexDigits(start + 2) >= 2) {
+            add(PCRELexer.HexChar, start, start + 3);
+            return start + 4;
+        }
+
+        int digits = startsWith("{", start + 2) ? hexDigits(start + 3) : 0;
+        int hexEnd = start + 3 + digits;
+
+        // Character.toChars() rejects larger values
+        if(digits < 3 || digits > 8 || !startsWith("}", hexEnd) ||
+                Long.parseLong(substring(start + 3, hexEnd), 16) > Character.MAX_CODE_POINT) {
+            return -1;
+        }
+
+        add(PCRELexer.HexChar, start, hexEnd);
+        return hexEnd + 1;
+    }
+
+    // '[', or a POSIX named set
+    private int characterClassStart(int start) {
+
+        if(!startsWith("[[", start)) {
+            add(PCRELexer.CharacterClassStart, start, start);
+            return start + 1;
+        }
+
+        // PCRELexer takes every "[[" for the start of a POSIX named set
+        if(!startsWith("[[:", start)) {
+            return -1;
+        }
+
+        boolean negated = startsWith("^", start + 3);
+        int nameStart = start + (negated ? 4 : 3);
+        int nameEnd = name(nameStart, false);
+
+        if(nameEnd == nameStart || !startsWith(":]]", nameEnd) ||
+                !PCRELexer.namedSet.contains(substring(nameStart, nameEnd))) {
+            return -1;
+        }
+
+        add(negated ? PCRELexer.POSIXNegatedNamedSet : PCRELexer.POSIXNamedSet, start, nameEnd + 2);
+        return nameEnd + 3;
+    }
+
+    // the index after the alphanumerics, and underscores, from index on
+    private int name(int index, boolean underscores) {
+
+        while(index < end && (isAlphaNumeric(regex.charAt(index)) ||
+                (underscores && regex.charAt(index) == '_'))) {
+            index++;
+        }
+
+        return index;
+    }
+
+    private int hexDigits(int index) {
+
+        int start = index;
+
+        while(index < end && regex.charAt(index) < 128 && Character.digit(regex.charAt(index), 16) >= 0) {
+            index++;
+        }
+
+        return index - start;
+    }
+
+    // true if the pattern has prefix at index
+    private boolean startsWith(String prefix, int index) {
+
+        if(index + prefix.length() > end) {
+            return false;
+        }
+
+        for(int i = 0; i < prefix.length(); i++) {
+            if(regex.charAt(index + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // the index of the first occurrence of text from index on, or -1
+    private int indexOf(String text, int index) {
+
+        for(; index + text.length() <= end; index++) {
+            if(startsWith(text, index)) {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+    private String substring(int start, int stop) {
+        return PCRECharStream.substring(regex, start, stop);
+    }
+
+    private static boolean isAlphaNumeric(char ch) {
+        return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9');
+    }
+
+    // the tokens of which PCRELexer sets the text
+    private static boolean hasOwnText(int type) {
+
+        switch(type) {
+            case PCRELexer.Quoted:
+            case PCRELexer.BlockQuoted:
+            case PCRELexer.ControlChar:
+            case PCRELexer.BellChar:
+            case PCRELexer.EscapeChar:
+            case PCRELexer.FormFeed:
+            case PCRELexer.NewLine:
+            case PCRELexer.CarriageReturn:
+            case PCRELexer.Tab:
+            case PCRELexer.HexChar:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void add(int type, int start, int stop) {
+
+        if(count == types.length) {
+            types = Arrays.copyOf(types, count * 2);
+            starts = Arrays.copyOf(starts, count * 2);
+            stops = Arrays.copyOf(stops, count * 2);
+        }
+
+        types[count] = type;
+        starts[count] = start;
+        stops[count] = stop;
+        count++;
+    }
+
+    private int check(int token) {
+
+        if(token < 0 || token >= count) {
+            throw new IndexOutOfBoundsException("no such token: " + token);
+        }
+
+        return token;
+    }
+}
@@ -0,0 +1,60 @@
+package pcreparser;
+
+import org.antlr.runtime.BaseRecognizer;
+import org.antlr.runtime.CommonTokenStream;
+import org.antlr.runtime.TokenSource;
+
+/**
+ * The token stream of a <code>PCREParsingContext</code>. While a
+ * <code>PCREParseListener</code> is installed, it hands its marks and
+ * rewinds to the <code>PCREParseStats</code> of the pattern being parsed,
+ * which tell the syntactic predicates the parser evaluates apart from its
+ * other marks. With a <code>PCREParseBudget</code>, every token read from
+ * the scanner or lexer is checked against it. Otherwise it is a plain
+ * <code>CommonTokenStream</code>.
+ */
+final class PCRETokenStream extends CommonTokenStream {
+
+    // when not null, the counters of the pattern being parsed
+    PCREParseStats stats = null;
+
+    // the parser reading this stream, for its backtracking level
+    BaseRecognizer parser = null;
+
+    // when not null, the limits of the pattern being parsed
+    PCREParseBudget budget = null;
+
+    PCRETokenStream(TokenSource tokenSource) {
+        super(tokenSource);
+    }
+
+    @Override
+    public int mark() {
+
+        if(stats != null) {
+            stats.mark(parser.getBacktrackingLevel());
+        }
+
+        return super.mark();
+    }
+
+    @Override
+    public void rewind(int marker) {
+
+        if(stats != null) {
+            stats.rewind();
+        }
+
+        super.rewind(marker);
+    }
+
+    @Override
+    protected void fetch(int n) {
+
+        super.fetch(n);
+
+        if(budget != null) {
+            budget.tokenRead(PCREParsingContext.tokenCount(this));
+        }
+    }
+}
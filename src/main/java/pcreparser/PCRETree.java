@@ -0,0 +1,932 @@
+package pcreparser;
+
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.TokenStream;
+import org.antlr.runtime.tree.CommonTree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact, read-only representation of a parsed pattern. Instead of a
+ * <code>CommonTree</code>, <code>CommonToken</code>, child list and text per
+ * node, all nodes are stored in a single <code>int[]</code> in pre-order:
+ * the node type, text, parent, first child, next sibling and the offsets
+ * of the node in the pattern. Texts of a single char are stored inline,
+ * other texts in a table of distinct (interned) strings. This takes about
+ * a sixth of the memory of a <code>PCRE</code>:
+ *
+ * <pre>
+ * PCRETree tree = PCRETree.parse("(?&lt;YEAR&gt;(?:19|20)\\d{2})");
+ * PCRETree.Cursor cursor = tree.cursor(tree.getGroupNode("YEAR"));
+ *
+ * cursor.gotoFirstChild(); // NAME='YEAR'
+ * cursor.gotoNextSibling(); // ALTERNATIVE
+ * </pre>
+ *
+ * Nodes are identified by their index: the root is node 0 and a node is
+ * always followed by its descendants. Use {@link #toPCRE()} or
+ * {@link #toCommonTree(int)} to get <code>CommonTree</code>s again.
+ */
+public final class PCRETree {
+
+    /**
+     * Returned for a missing parent, child or sibling and for unknown
+     * offsets.
+     */
+    public static final int NONE = -1;
+
+    private static final int TYPE = 0;
+    private static final int TEXT = 1;
+    private static final int PARENT = 2;
+    private static final int FIRST_CHILD = 3;
+    private static final int NEXT_SIBLING = 4;
+    private static final int START = 5;
+    private static final int STOP = 6;
+    private static final int STRIDE = 7;
+
+    // TEXT values: the token name, a single char or an index in texts, or
+    // no text at all, like the NAME of a name PCREParser could not read,
+    // which is stored as the char after the last one
+    private static final int TOKEN_NAME = -1;
+    private static final int SINGLE_CHAR = -2;
+    private static final int NO_TEXT = SINGLE_CHAR - 0x10000;
+
+    // the binary format of writeTo and load, version 2 has the spans of the
+    // groups, including their parentheses
+    private static final byte[] MAGIC = {'P', 'C', 'R', 'E'};
+    private static final int VERSION = 2;
+    private static final int VOCABULARY = Arrays.hashCode(PCREParser.tokenNames);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] NO_STRINGS = new String[0];
+    private static final int[] NO_INTS = new int[0];
+
+    private final int[] nodes;
+    private final String[] texts;
+
+    // groupNodes[n] is the node of the n-th group
+    private final int[] groupNodes;
+
+    // the names of the named groups, sorted, and their group numbers
+    private final String[] names;
+    private final int[] nameGroups;
+
+    private PCRETree(int[] nodes, String[] texts, int[] groupNodes, String[] names, int[] nameGroups) {
+        this.nodes = nodes;
+        this.texts = texts;
+        this.groupNodes = groupNodes;
+        this.names = names;
+        this.nameGroups = nameGroups;
+    }
+
+    /**
+     * Parses <code>regex</code> into a compact tree, with the parsing
+     * context of the current thread.
+     *
+     * @param regex the pattern to parse.
+     * @return      the parsed <code>regex</code> as a compact tree.
+     */
+    public static PCRETree parse(String regex) {
+        return PCREParsingContext.forCurrentThread().parseTree(regex);
+    }
+
+    /**
+     * Converts the trees of <code>pcre</code> into a compact tree. Only
+     * the groups, nodes of which the token still knows its position in the
+     * pattern, and their ancestors, get offsets: use {@link #parse(String)}
+     * to get the offsets of all nodes.
+     *
+     * @param pcre the parsed pattern to convert.
+     * @return     the compact tree of <code>pcre</code>.
+     */
+    public static PCRETree of(PCRE pcre) {
+        return of(pcre, null);
+    }
+
+    /**
+     * Converts the trees of <code>pcre</code> into a compact tree, taking
+     * the offsets of the nodes from the tokens in <code>tokens</code> the
+     * nodes were parsed from.
+     */
+    static PCRETree of(PCRE pcre, TokenStream tokens) {
+
+        // the trees of groups in the first alternative of an OR are copies of
+        // the ones in the entire pattern, sharing their token
+        Map<Token, Integer> groupNumbers = new IdentityHashMap<Token, Integer>();
+
+        for(int group = 0; group <= pcre.getGroupCount(); group++) {
+            groupNumbers.put(pcre.getCommonTree(group).getToken(), group);
+        }
+
+        int size = PCRECache.countNodes(pcre.getCommonTree());
+        int[] nodes = new int[size * STRIDE];
+        int[] groupNodes = new int[pcre.getGroupCount() + 1];
+        Arrays.fill(groupNodes, NONE);
+
+        List<String> texts = new ArrayList<String>();
+        Map<String, Integer> textIndexes = new HashMap<String, Integer>();
+
+        // pre-order, with the node index of the parent of every tree on the stack
+        List<CommonTree> stack = new ArrayList<CommonTree>();
+        List<Integer> parents = new ArrayList<Integer>();
+        int[] lastChildren = new int[size];
+        boolean[] positioned = new boolean[size];
+
+        stack.add(pcre.getCommonTree());
+        parents.add(NONE);
+
+        int node = 0;
+
+        while(!stack.isEmpty()) {
+
+            CommonTree tree = stack.remove(stack.size() - 1);
+            int parent = parents.remove(parents.size() - 1);
+            int offset = node * STRIDE;
+
+            nodes[offset + TYPE] = tree.getType();
+            nodes[offset + TEXT] = text(tree, texts, textIndexes);
+            nodes[offset + PARENT] = parent;
+            nodes[offset + FIRST_CHILD] = NONE;
+            nodes[offset + NEXT_SIBLING] = NONE;
+            nodes[offset + START] = NONE;
+            nodes[offset + STOP] = NONE;
+            lastChildren[node] = NONE;
+
+            positioned[node] = setOffsets(nodes, offset, tree, tokens);
+
+            if(parent != NONE) {
+                if(lastChildren[parent] == NONE) {
+                    nodes[parent * STRIDE + FIRST_CHILD] = node;
+                }
+                else {
+                    nodes[lastChildren[parent] * STRIDE + NEXT_SIBLING] = node;
+                }
+                lastChildren[parent] = node;
+            }
+
+            Integer group = groupNumbers.get(tree.getToken());
+
+            if(group != null) {
+
+                groupNodes[group] = node;
+
+                // the span of a group includes its parentheses, which have no node
+                if(!positioned[node] && pcre.getGroupStart(group) != NONE) {
+                    nodes[offset + START] = pcre.getGroupStart(group);
+                    nodes[offset + STOP] = pcre.getGroupStop(group);
+                    positioned[node] = true;
+                }
+            }
+
+            for(int i = tree.getChildCount() - 1; i >= 0; i--) {
+                stack.add((CommonTree)tree.getChild(i));
+                parents.add(node);
+            }
+
+            node++;
+        }
+
+        for(int group = 0; group < groupNodes.length; group++) {
+            if(groupNodes[group] == NONE) {
+                throw new IllegalArgumentException("capture group " + group + " is not part of the pattern");
+            }
+        }
+
+        // nodes without offsets of their own span their children
+        for(node = size - 1; node > 0; node--) {
+
+            int offset = node * STRIDE;
+            int parent = nodes[offset + PARENT];
+
+            if(positioned[parent] || nodes[offset + START] == NONE) {
+                continue;
+            }
+
+            int parentOffset = parent * STRIDE;
+
+            if(nodes[parentOffset + START] == NONE || nodes[offset + START] < nodes[parentOffset + START]) {
+                nodes[parentOffset + START] = nodes[offset + START];
+            }
+
+            if(nodes[parentOffset + STOP] == NONE || nodes[offset + STOP] > nodes[parentOffset + STOP]) {
+                nodes[parentOffset + STOP] = nodes[offset + STOP];
+            }
+        }
+
+        String[] names = pcre.getNames();
+        int[] nameGroups = pcre.getNameGroups();
+
+        return new PCRETree(nodes, texts.isEmpty() ? NO_STRINGS : texts.toArray(new String[texts.size()]),
+                groupNodes, names.length == 0 ? NO_STRINGS : names, nameGroups.length == 0 ? NO_INTS : nameGroups);
+    }
+
+    private static int text(CommonTree tree, List<String> texts, Map<String, Integer> textIndexes) {
+
+        String text = tree.getText();
+
+        if(text == null) {
+            return NO_TEXT;
+        }
+
+        if(text.equals(PCREParser.tokenNames[tree.getType()])) {
+            return TOKEN_NAME;
+        }
+
+        if(text.length() == 1) {
+            return SINGLE_CHAR - text.charAt(0);
+        }
+
+        Integer index = textIndexes.get(text);
+
+        if(index == null) {
+            index = texts.size();
+            texts.add(text.intern());
+            textIndexes.put(text, index);
+        }
+
+        return index;
+    }
+
+    // returns true if the offsets of tree are known
+    private static boolean setOffsets(int[] nodes, int offset, CommonTree tree, TokenStream tokens) {
+
+        if(tokens != null && tree.getTokenStartIndex() >= 0) {
+
+            int startIndex = ((CommonToken)tokens.get(tree.getTokenStartIndex())).getStartIndex();
+
+            nodes[offset + START] = startIndex;
+
+            if(tree.getTokenStopIndex() < tree.getTokenStartIndex()) {
+                // matched nothing: an empty span before the start token
+                nodes[offset + STOP] = startIndex - 1;
+            }
+            else {
+                CommonToken stop = (CommonToken)tokens.get(tree.getTokenStopIndex());
+
+                // the root also spans EOF, which matched nothing
+                nodes[offset + STOP] = stop.getType() == Token.EOF ? stop.getStartIndex() - 1 : stop.getStopIndex();
+            }
+
+            return true;
+        }
+        else if(tree.getToken() instanceof CommonToken && tree.getToken().getInputStream() != null) {
+            // a token straight from the lexer
+            CommonToken token = (CommonToken)tree.getToken();
+            nodes[offset + START] = token.getStartIndex();
+            nodes[offset + STOP] = token.getStopIndex();
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the number of nodes.
+     *
+     * @return the number of nodes.
+     */
+    public int size() {
+        return nodes.length / STRIDE;
+    }
+
+    public int getType(int node) {
+        return nodes[check(node) * STRIDE + TYPE];
+    }
+
+    public String getText(int node) {
+
+        int text = nodes[check(node) * STRIDE + TEXT];
+
+        if(text == TOKEN_NAME) {
+            return PCREParser.tokenNames[nodes[node * STRIDE + TYPE]];
+        }
+
+        if(text == NO_TEXT) {
+            return null;
+        }
+
+        if(text <= SINGLE_CHAR) {
+            return String.valueOf((char)(SINGLE_CHAR - text));
+        }
+
+        return texts[text];
+    }
+
+    public int getParent(int node) {
+        return nodes[check(node) * STRIDE + PARENT];
+    }
+
+    public int getFirstChild(int node) {
+        return nodes[check(node) * STRIDE + FIRST_CHILD];
+    }
+
+    public int getNextSibling(int node) {
+        return nodes[check(node) * STRIDE + NEXT_SIBLING];
+    }
+
+    public int getChildCount(int node) {
+
+        int count = 0;
+
+        for(int child = getFirstChild(node); child != NONE; child = getNextSibling(child)) {
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the offset of the first char of <code>node</code> in the
+     * pattern, or {@link #NONE} if it is not known, or only implied by the
+     * pattern like the bounds of <code>+</code>.
+     *
+     * @param node the node.
+     * @return     the offset of the first char of <code>node</code>.
+     */
+    public int getStart(int node) {
+        return nodes[check(node) * STRIDE + START];
+    }
+
+    /**
+     * Returns the offset of the last char of <code>node</code> in the
+     * pattern, which is <code>getStart(node) - 1</code> for nodes that did
+     * not match any chars, or {@link #NONE} if it is not known.
+     *
+     * @param node the node.
+     * @return     the offset of the last char of <code>node</code>.
+     */
+    public int getStop(int node) {
+        return nodes[check(node) * STRIDE + STOP];
+    }
+
+    public int getGroupCount() {
+        return groupNodes.length - 1;
+    }
+
+    public int getNamedGroupCount() {
+        return names.length;
+    }
+
+    public int getGroupNode(int group) {
+
+        if(group < 0 || group >= groupNodes.length) {
+            throw new RuntimeException("no such capture group: " + group);
+        }
+
+        return groupNodes[group];
+    }
+
+    public int getGroupNode(String name) {
+
+        int index = Arrays.binarySearch(names, name);
+
+        if(index < 0) {
+            throw new RuntimeException("no such named group: " + name);
+        }
+
+        return groupNodes[nameGroups[index]];
+    }
+
+    /**
+     * Returns a cursor positioned at the root.
+     *
+     * @return a cursor positioned at the root.
+     */
+    public Cursor cursor() {
+        return new Cursor(0);
+    }
+
+    /**
+     * Returns a cursor positioned at <code>node</code>.
+     *
+     * @param node the node to start at.
+     * @return     a cursor positioned at <code>node</code>.
+     */
+    public Cursor cursor(int node) {
+        return new Cursor(check(node));
+    }
+
+    /**
+     * Converts the entire tree into <code>CommonTree</code>s, with the same
+     * group index and group spans.
+     *
+     * @return the same pattern as a <code>PCRE</code>.
+     */
+    public PCRE toPCRE() {
+
+        CommonTree[] trees = build(0);
+        CommonTree[] groups = new CommonTree[groupNodes.length];
+        int[] spans = new int[groups.length * 2];
+
+        for(int group = 0; group < groups.length; group++) {
+            groups[group] = trees[groupNodes[group]];
+            spans[group * 2] = nodes[groupNodes[group] * STRIDE + START];
+            spans[group * 2 + 1] = nodes[groupNodes[group] * STRIDE + STOP];
+        }
+
+        return new PCRE(groups, spans, names, nameGroups);
+    }
+
+    /**
+     * Converts <code>node</code> and its descendants into a
+     * <code>CommonTree</code>. The offsets are not carried over.
+     *
+     * @param node the root of the tree to convert.
+     * @return     the <code>CommonTree</code> of <code>node</code>.
+     */
+    public CommonTree toCommonTree(int node) {
+        return build(check(node))[0];
+    }
+
+    // the trees of node and all its descendants, in pre-order
+    private CommonTree[] build(int node) {
+
+        int end = node;
+
+        while(end != NONE && getNextSibling(end) == NONE) {
+            end = getParent(end);
+        }
+
+        end = end == NONE ? size() : getNextSibling(end);
+
+        CommonTree[] trees = new CommonTree[end - node];
+
+        for(int i = node; i < end; i++) {
+
+            CommonTree tree = new CommonTree(new CommonToken(getType(i), getText(i)));
+            trees[i - node] = tree;
+
+            if(i != node) {
+                trees[getParent(i) - node].addChild(tree);
+            }
+        }
+
+        return trees;
+    }
+
+    /**
+     * Writes this tree as a single record in the binary format that
+     * {@link #load(ByteBuffer, int)} reads. Records can be written one after
+     * the other to the same stream. A record consists of:
+     *
+     * <pre>
+     * magic       'P' 'C' 'R' 'E'
+     * version     1 byte
+     * vocabulary  4 bytes, a hash of the token names the types refer to
+     * length      varint, the number of bytes that follow
+     * strings     varint count, per string: varint length, UTF-8 bytes
+     * nodes       varint count, per node in pre-order: varint type,
+     *             varint text, varint child count, varint start + 1 and,
+     *             if the start is known, varint stop - start + 1
+     * groups      varint count, per group: varint node
+     * names       varint count, per name: varint string, varint group
+     * </pre>
+     *
+     * All varints are unsigned LEB128. A text is 0 for the token name,
+     * 1 + 2 * string for a string and 2 + 2 * char for a single char. A
+     * node without text, which only the trees of invalid patterns have, is
+     * written as the single char 0x10000, one after the last char.
+     *
+     * @param out where to write the record to.
+     * @throws IOException if <code>out</code> throws it.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+
+        List<String> strings = new ArrayList<String>(Arrays.asList(texts));
+        Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+
+        for(int i = 0; i < texts.length; i++) {
+            stringIndexes.put(texts[i], i);
+        }
+
+        for(String name : names) {
+            if(!stringIndexes.containsKey(name)) {
+                stringIndexes.put(name, strings.size());
+                strings.add(name);
+            }
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(size() * 4 + 16);
+
+        writeVarint(body, strings.size());
+
+        for(String string : strings) {
+            byte[] bytes = string.getBytes(UTF_8);
+            writeVarint(body, bytes.length);
+            body.write(bytes);
+        }
+
+        writeVarint(body, size());
+
+        for(int node = 0; node < size(); node++) {
+
+            int offset = node * STRIDE;
+            int text = nodes[offset + TEXT];
+
+            writeVarint(body, nodes[offset + TYPE]);
+            writeVarint(body, text == TOKEN_NAME ? 0 : text <= SINGLE_CHAR ? 2 + 2 * (SINGLE_CHAR - text) : 1 + 2 * text);
+            writeVarint(body, getChildCount(node));
+            writeVarint(body, nodes[offset + START] + 1);
+
+            if(nodes[offset + START] != NONE) {
+                writeVarint(body, nodes[offset + STOP] - nodes[offset + START] + 1);
+            }
+        }
+
+        writeVarint(body, groupNodes.length);
+
+        for(int groupNode : groupNodes) {
+            writeVarint(body, groupNode);
+        }
+
+        writeVarint(body, names.length);
+
+        for(int i = 0; i < names.length; i++) {
+            writeVarint(body, stringIndexes.get(names[i]));
+            writeVarint(body, nameGroups[i]);
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(16);
+
+        header.write(MAGIC);
+        header.write(VERSION);
+        header.write(VOCABULARY >>> 24);
+        header.write(VOCABULARY >>> 16);
+        header.write(VOCABULARY >>> 8);
+        header.write(VOCABULARY);
+        writeVarint(header, body.size());
+
+        header.writeTo(out);
+        body.writeTo(out);
+    }
+
+    /**
+     * Reads the <code>index</code>-th record written by
+     * {@link #writeTo(OutputStream)} from <code>buffer</code>, starting at
+     * offset 0, without parsing the pattern again. The position and limit
+     * of <code>buffer</code> are left untouched, so a (memory-mapped) buffer
+     * can be shared by threads.
+     *
+     * @param buffer the records.
+     * @param index  the number of records before the one to read.
+     * @return       the tree of the record.
+     * @throws IllegalArgumentException if there is no such record, or if it
+     *                                  is malformed or of another version.
+     */
+    public static PCRETree load(ByteBuffer buffer, int index) {
+
+        if(index < 0) {
+            throw new IllegalArgumentException("index < 0: " + index);
+        }
+
+        int offset = 0;
+
+        for(int i = 0; i < index; i++) {
+            offset = skip(buffer, offset);
+        }
+
+        return read(buffer, offset);
+    }
+
+    /**
+     * Returns the offset of the record after the one at
+     * <code>offset</code>.
+     */
+    static int skip(ByteBuffer buffer, int offset) {
+
+        try {
+            int[] position = {header(buffer, offset)};
+            int length = readVarint(buffer, position);
+
+            if(length > buffer.limit() - position[0]) {
+                throw new IllegalArgumentException("truncated record at offset " + offset);
+            }
+
+            return position[0] + length;
+        }
+        catch(IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("truncated record at offset " + offset);
+        }
+    }
+
+    /**
+     * Reads the record at <code>offset</code>.
+     */
+    static PCRETree read(ByteBuffer buffer, int offset) {
+
+        try {
+            int[] position = {header(buffer, offset)};
+            int length = readVarint(buffer, position);
+
+            if(length > buffer.limit() - position[0]) {
+                throw new IllegalArgumentException("truncated record at offset " + offset);
+            }
+
+            int end = position[0] + length;
+
+            String[] strings = new String[readCount(buffer, position, end)];
+
+            for(int i = 0; i < strings.length; i++) {
+
+                byte[] bytes = new byte[readCount(buffer, position, end)];
+
+                for(int b = 0; b < bytes.length; b++) {
+                    bytes[b] = buffer.get(position[0]++);
+                }
+
+                strings[i] = new String(bytes, UTF_8).intern();
+            }
+
+            int size = readCount(buffer, position, end);
+
+            if(size == 0) {
+                throw new IllegalArgumentException("record without nodes at offset " + offset);
+            }
+
+            int[] nodes = new int[size * STRIDE];
+
+            // the nodes that still have children to come, and how many
+            int[] parents = new int[16];
+            int[] childrenLeft = new int[16];
+            int[] lastChildren = new int[16];
+            int depth = -1;
+
+            for(int node = 0; node < size; node++) {
+
+                int nodeOffset = node * STRIDE;
+                int type = readVarint(buffer, position);
+                int text = readVarint(buffer, position);
+                int childCount = readVarint(buffer, position);
+                int start = readVarint(buffer, position) - 1;
+
+                if(type >= PCREParser.tokenNames.length) {
+                    throw new IllegalArgumentException("unknown node type " + type + " in record at offset " + offset);
+                }
+
+                nodes[nodeOffset + TYPE] = type;
+                nodes[nodeOffset + TEXT] = text == 0 ? TOKEN_NAME :
+                        text % 2 == 0 ? SINGLE_CHAR - (text - 2) / 2 : index((text - 1) / 2, strings.length, offset);
+                nodes[nodeOffset + FIRST_CHILD] = NONE;
+                nodes[nodeOffset + NEXT_SIBLING] = NONE;
+                nodes[nodeOffset + START] = start;
+                nodes[nodeOffset + STOP] = start == NONE ? NONE : start + readVarint(buffer, position) - 1;
+
+                if(node == 0) {
+                    nodes[nodeOffset + PARENT] = NONE;
+                }
+                else {
+                    if(depth < 0) {
+                        throw new IllegalArgumentException("more than one root in record at offset " + offset);
+                    }
+
+                    int parent = parents[depth];
+
+                    nodes[nodeOffset + PARENT] = parent;
+
+                    if(lastChildren[depth] == NONE) {
+                        nodes[parent * STRIDE + FIRST_CHILD] = node;
+                    }
+                    else {
+                        nodes[lastChildren[depth] * STRIDE + NEXT_SIBLING] = node;
+                    }
+
+                    lastChildren[depth] = node;
+
+                    if(--childrenLeft[depth] == 0) {
+                        depth--;
+                    }
+                }
+
+                if(childCount > 0) {
+                    if(++depth == parents.length) {
+                        parents = Arrays.copyOf(parents, depth * 2);
+                        childrenLeft = Arrays.copyOf(childrenLeft, depth * 2);
+                        lastChildren = Arrays.copyOf(lastChildren, depth * 2);
+                    }
+
+                    parents[depth] = node;
+                    childrenLeft[depth] = childCount;
+                    lastChildren[depth] = NONE;
+                }
+            }
+
+            if(depth >= 0) {
+                throw new IllegalArgumentException("missing nodes in record at offset " + offset);
+            }
+
+            int[] groupNodes = new int[readCount(buffer, position, end)];
+
+            if(groupNodes.length == 0) {
+                throw new IllegalArgumentException("record without groups at offset " + offset);
+            }
+
+            for(int group = 0; group < groupNodes.length; group++) {
+                groupNodes[group] = index(readVarint(buffer, position), size, offset);
+            }
+
+            String[] names = new String[readCount(buffer, position, end)];
+            int[] nameGroups = new int[names.length];
+
+            for(int i = 0; i < names.length; i++) {
+                names[i] = strings[index(readVarint(buffer, position), strings.length, offset)];
+                nameGroups[i] = index(readVarint(buffer, position), groupNodes.length, offset);
+            }
+
+            if(position[0] != end) {
+                throw new IllegalArgumentException("malformed record at offset " + offset);
+            }
+
+            return new PCRETree(nodes, strings.length == 0 ? NO_STRINGS : strings, groupNodes,
+                    names.length == 0 ? NO_STRINGS : names, nameGroups.length == 0 ? NO_INTS : nameGroups);
+        }
+        catch(IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("truncated record at offset " + offset);
+        }
+    }
+
+    // checks the magic, version and vocabulary, and returns the offset after them
+    private static int header(ByteBuffer buffer, int offset) {
+
+        for(int i = 0; i < MAGIC.length; i++) {
+            if(buffer.get(offset + i) != MAGIC[i]) {
+                throw new IllegalArgumentException("no record at offset " + offset);
+            }
+        }
+
+        if(buffer.get(offset + MAGIC.length) != VERSION) {
+            throw new IllegalArgumentException("unsupported version " + buffer.get(offset + MAGIC.length) +
+                    " of record at offset " + offset);
+        }
+
+        // big-endian, whatever the order of buffer
+        int vocabulary = 0;
+
+        for(int i = 0; i < 4; i++) {
+            vocabulary = (vocabulary << 8) | (buffer.get(offset + MAGIC.length + 1 + i) & 0xFF);
+        }
+
+        if(vocabulary != VOCABULARY) {
+            throw new IllegalArgumentException("record at offset " + offset + " was written by another grammar");
+        }
+
+        return offset + MAGIC.length + 5;
+    }
+
+    private static int index(int index, int count, int offset) {
+
+        if(index >= count) {
+            throw new IllegalArgumentException("index " + index + " out of range in record at offset " + offset);
+        }
+
+        return index;
+    }
+
+    // a count of things that take at least a byte each before end
+    private static int readCount(ByteBuffer buffer, int[] position, int end) {
+
+        int count = readVarint(buffer, position);
+
+        if(count > end - position[0]) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        return count;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+
+        while((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        out.write(value);
+    }
+
+    // reads a non-negative varint at position[0] and moves past it
+    private static int readVarint(ByteBuffer buffer, int[] position) {
+
+        int value = 0;
+
+        for(int shift = 0; shift < 32; shift += 7) {
+
+            byte b = buffer.get(position[0]++);
+            value |= (b & 0x7F) << shift;
+
+            if(b >= 0) {
+                if(value < 0) {
+                    break;
+                }
+
+                return value;
+            }
+        }
+
+        throw new IllegalArgumentException("malformed varint before offset " + position[0]);
+    }
+
+    private int check(int node) {
+
+        if(node < 0 || node >= size()) {
+            throw new IndexOutOfBoundsException("no such node: " + node);
+        }
+
+        return node;
+    }
+
+    /**
+     * A position in the tree that can move to the first child, next
+     * sibling and parent of the current node without allocating.
+     */
+    public final class Cursor {
+
+        private int node;
+
+        private Cursor(int node) {
+            this.node = node;
+        }
+
+        public int getNode() {
+            return node;
+        }
+
+        public int getType() {
+            return PCRETree.this.getType(node);
+        }
+
+        public String getText() {
+            return PCRETree.this.getText(node);
+        }
+
+        public int getStart() {
+            return PCRETree.this.getStart(node);
+        }
+
+        public int getStop() {
+            return PCRETree.this.getStop(node);
+        }
+
+        public int getChildCount() {
+            return PCRETree.this.getChildCount(node);
+        }
+
+        /**
+         * Moves to the first child of the current node, if it has one.
+         *
+         * @return <code>true</code> if the cursor moved.
+         */
+        public boolean gotoFirstChild() {
+            return go(getFirstChild(node));
+        }
+
+        /**
+         * Moves to the next sibling of the current node, if it has one.
+         *
+         * @return <code>true</code> if the cursor moved.
+         */
+        public boolean gotoNextSibling() {
+            return go(getNextSibling(node));
+        }
+
+        /**
+         * Moves to the parent of the current node, if it has one.
+         *
+         * @return <code>true</code> if the cursor moved.
+         */
+        public boolean gotoParent() {
+            return go(getParent(node));
+        }
+
+        /**
+         * Moves to <code>node</code>.
+         *
+         * @param node the node to move to.
+         */
+        public void reset(int node) {
+            this.node = check(node);
+        }
+
+        private boolean go(int next) {
+
+            if(next == NONE) {
+                return false;
+            }
+
+            node = next;
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package pcreparser;
+
+import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.TokenStream;
+import org.antlr.runtime.tree.CommonErrorNode;
+import org.antlr.runtime.tree.CommonTreeAdaptor;
+
+/**
+ * The tree adaptor of the parsers of a <code>PCREParsingContext</code>.
+ * The error nodes ANTLR creates for invalid input read their text from the
+ * token stream whenever it is asked for, but a context resets its token
+ * stream for the next pattern. This adaptor creates error nodes that copy
+ * their text and description when they are created, and are otherwise the
+ * same as ANTLR's, so invalid patterns get the same trees.
+ */
+final class PCRETreeAdaptor extends CommonTreeAdaptor {
+
+    @Override
+    public Object errorNode(TokenStream input, Token start, Token stop, RecognitionException e) {
+        return new ErrorNode(input, start, stop, e);
+    }
+
+    private static final class ErrorNode extends CommonErrorNode {
+
+        private final String text;
+        private final String description;
+
+        private ErrorNode(TokenStream input, Token start, Token stop, RecognitionException e) {
+            super(input, start, stop, e);
+            this.text = super.getText();
+            // reads the text copied above
+            this.description = super.toString();
+        }
+
+        @Override
+        public String getText() {
+            return text;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+}
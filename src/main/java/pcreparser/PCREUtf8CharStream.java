@@ -0,0 +1,461 @@
+package pcreparser;
+
+import org.antlr.runtime.CharStream;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A <code>CharStream</code> decoding the UTF-8 bytes of a pattern as the
+ * lexer reads them, without decoding them into a <code>String</code> or a
+ * <code>char[]</code> first.
+ *
+ * The indexes of the stream, and so the offsets of all tokens and nodes,
+ * are indexes of bytes in the buffer: a char starts at the index of the
+ * first byte of its sequence. A code point outside the BMP is two chars,
+ * like in a <code>String</code>: its high surrogate is at the index of its
+ * first byte, its low surrogate at the index after that. Lines and
+ * positions in the line are counted in chars, like for a
+ * <code>String</code>.
+ *
+ * Bytes that are not part of a well-formed sequence (including overlong
+ * forms, surrogates and values above U+10FFFF) decode to U+FFFD, one per
+ * byte.
+ *
+ * The bytes must not change while the stream is in use. Only absolute
+ * reads are done, so the position and limit of the buffer are left alone.
+ */
+public final class PCREUtf8CharStream implements CharStream {
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final ByteBuffer data;
+    private final int begin;
+    private final int end;
+
+    private int p;
+    private int line = 1;
+    private int charPositionInLine = 0;
+
+    // the char at p and the index of the char after it
+    private int c;
+    private int next;
+
+    // the index of the char after the last decoded one
+    private int decodedNext;
+
+    // the index, line and position in the line of marker m at [m * 3 ...]
+    private int[] markers = new int[0];
+    private int markDepth = 0;
+    private int lastMarker = 0;
+
+    /**
+     * Creates a stream over the bytes of <code>data</code> from its
+     * position to its limit.
+     *
+     * @param data the UTF-8 bytes to read.
+     */
+    public PCREUtf8CharStream(ByteBuffer data) {
+        this(data, data.position(), data.limit());
+    }
+
+    /**
+     * Creates a stream over the bytes of <code>data</code> from
+     * <code>begin</code>, inclusive, to <code>end</code>, exclusive.
+     *
+     * @param data  the UTF-8 bytes to read.
+     * @param begin the index of the first byte to read.
+     * @param end   the index after the last byte to read.
+     * @throws IndexOutOfBoundsException if the range is not within the
+     *                                   capacity of <code>data</code>.
+     */
+    public PCREUtf8CharStream(ByteBuffer data, int begin, int end) {
+
+        if(begin < 0 || end < begin || end > data.capacity()) {
+            throw new IndexOutOfBoundsException("begin " + begin + ", end " + end + ", capacity " + data.capacity());
+        }
+
+        this.data = data;
+        this.begin = begin;
+        this.end = end;
+
+        seekTo(begin);
+    }
+
+    /**
+     * Returns the index of the first byte of the pattern.
+     *
+     * @return the index of the first byte of the pattern.
+     */
+    public int getBegin() {
+        return begin;
+    }
+
+    /**
+     * Returns the index after the last byte of the pattern.
+     *
+     * @return the index after the last byte of the pattern.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    // moves to index without counting lines
+    private void seekTo(int index) {
+        p = index;
+        c = decode(index);
+        next = decodedNext;
+    }
+
+    // the char at index, setting decodedNext to the index after it
+    private int decode(int index) {
+
+        if(index >= end) {
+            decodedNext = end;
+            return EOF;
+        }
+
+        int b = data.get(index) & 0xFF;
+
+        if(b < 0x80) {
+            decodedNext = index + 1;
+            return b;
+        }
+
+        if(b < 0xC0) {
+            // the low surrogate of the code point starting at index - 1
+            int codePoint = index > begin ? codePoint(index - 1) : -1;
+
+            if(codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                decodedNext = index + 3;
+                return Character.lowSurrogate(codePoint);
+            }
+
+            decodedNext = index + 1;
+            return REPLACEMENT;
+        }
+
+        int codePoint = codePoint(index);
+
+        if(codePoint < 0) {
+            decodedNext = index + 1;
+            return REPLACEMENT;
+        }
+
+        if(codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            decodedNext = index + 1;
+            return Character.highSurrogate(codePoint);
+        }
+
+        decodedNext = index + (codePoint < 0x800 ? 2 : 3);
+        return codePoint;
+    }
+
+    // the code point of the well-formed multi-byte sequence at index, or -1
+    private int codePoint(int index) {
+
+        int b = data.get(index) & 0xFF;
+        int length;
+        int min;
+        int codePoint;
+
+        if(b >= 0xC2 && b <= 0xDF) {
+            length = 2;
+            min = 0x80;
+            codePoint = b & 0x1F;
+        }
+        else if(b >= 0xE0 && b <= 0xEF) {
+            length = 3;
+            min = 0x800;
+            codePoint = b & 0x0F;
+        }
+        else if(b >= 0xF0 && b <= 0xF4) {
+            length = 4;
+            min = Character.MIN_SUPPLEMENTARY_CODE_POINT;
+            codePoint = b & 0x07;
+        }
+        else {
+            return -1;
+        }
+
+        if(index + length > end) {
+            return -1;
+        }
+
+        for(int i = 1; i < length; i++) {
+
+            int continuation = data.get(index + i) & 0xFF;
+
+            if((continuation & 0xC0) != 0x80) {
+                return -1;
+            }
+
+            codePoint = (codePoint << 6) | (continuation & 0x3F);
+        }
+
+        if(codePoint < min || codePoint > Character.MAX_CODE_POINT ||
+                (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+            return -1;
+        }
+
+        return codePoint;
+    }
+
+    @Override
+    public void consume() {
+        if(p < end) {
+            charPositionInLine++;
+
+            if(c == '\n') {
+                line++;
+                charPositionInLine = 0;
+            }
+
+            seekTo(next);
+        }
+    }
+
+    @Override
+    public int LA(int i) {
+
+        if(i == 1) {
+            return c;
+        }
+
+        if(i == 0) {
+            // undefined
+            return 0;
+        }
+
+        if(i < 0) {
+            return previous(p, -i);
+        }
+
+        int index = next;
+        int ch = c;
+
+        for(int k = 1; k < i && ch != EOF; k++) {
+            ch = decode(index);
+            index = decodedNext;
+        }
+
+        return ch;
+    }
+
+    // the char i chars before index, or EOF
+    private int previous(int index, int i) {
+
+        for(; i > 0; i--) {
+
+            if(index <= begin) {
+                return EOF;
+            }
+
+            // the char before index is the first one found to end there:
+            // the bytes after the first one of a sequence only end there
+            // as single U+FFFDs
+            int start = Math.max(begin, index - 4);
+
+            while(decodeNext(start) != index) {
+                start++;
+            }
+
+            index = start;
+        }
+
+        return decode(index);
+    }
+
+    private int decodeNext(int index) {
+        decode(index);
+        return decodedNext;
+    }
+
+    @Override
+    public int LT(int i) {
+        return LA(i);
+    }
+
+    @Override
+    public int mark() {
+
+        markDepth++;
+
+        if(markDepth * 3 + 3 > markers.length) {
+            markers = Arrays.copyOf(markers, Math.max(24, markers.length * 2));
+        }
+
+        markers[markDepth * 3] = p;
+        markers[markDepth * 3 + 1] = line;
+        markers[markDepth * 3 + 2] = charPositionInLine;
+        lastMarker = markDepth;
+
+        return markDepth;
+    }
+
+    @Override
+    public int index() {
+        return p;
+    }
+
+    @Override
+    public void rewind(int marker) {
+        seek(markers[marker * 3]);
+        line = markers[marker * 3 + 1];
+        charPositionInLine = markers[marker * 3 + 2];
+        release(marker);
+    }
+
+    @Override
+    public void rewind() {
+        rewind(lastMarker);
+    }
+
+    @Override
+    public void release(int marker) {
+        markDepth = marker - 1;
+    }
+
+    @Override
+    public void seek(int index) {
+
+        if(index <= p) {
+            // like ANTLRStringStream: line and position are left alone
+            seekTo(index);
+            return;
+        }
+
+        while(p < index && p < end) {
+            consume();
+        }
+    }
+
+    /**
+     * Returns the index after the last byte of the pattern, which is what
+     * <code>CommonToken</code> compares the offsets of a token to, not the
+     * number of chars in the pattern.
+     *
+     * @return the index after the last byte of the pattern.
+     */
+    @Override
+    public int size() {
+        return end;
+    }
+
+    @Override
+    public String getSourceName() {
+        return null;
+    }
+
+    /**
+     * Decodes the chars from the one at <code>start</code> through the one
+     * at <code>stop</code>.
+     *
+     * @param start the index of the first char.
+     * @param stop  the index of the last char.
+     * @return      the decoded chars.
+     */
+    @Override
+    public String substring(int start, int stop) {
+
+        StringBuilder builder = new StringBuilder(stop - start + 1);
+
+        for(int index = start; index <= stop && index < end; index = decodedNext) {
+            builder.append((char)decode(index));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Returns the bytes of <code>data</code> from <code>begin</code> to
+     * <code>end</code> as chars, if they are all ASCII: their UTF-8 and
+     * UTF-16 forms are the same then, so that <code>PCREScanner</code> can
+     * scan them in place, with the same offsets as this stream.
+     *
+     * @param data  the UTF-8 bytes to read.
+     * @param begin the index of the first byte to read.
+     * @param end   the index after the last byte to read.
+     * @return      a view of all bytes of <code>data</code> as chars, or
+     *              <code>null</code> if there are non-ASCII bytes between
+     *              <code>begin</code> and <code>end</code>.
+     */
+    static CharSequence asciiView(ByteBuffer data, int begin, int end) {
+
+        for(int i = begin; i < end; i++) {
+            if(data.get(i) < 0) {
+                return null;
+            }
+        }
+
+        return new AsciiView(data, 0, data.capacity());
+    }
+
+    private static final class AsciiView implements CharSequence {
+
+        private final ByteBuffer data;
+        private final int begin;
+        private final int end;
+
+        private AsciiView(ByteBuffer data, int begin, int end) {
+            this.data = data;
+            this.begin = begin;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - begin;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char)data.get(begin + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return toString(0, length());
+        }
+
+        private String toString(int start, int end) {
+
+            if(start < 0 || end < start || end > length()) {
+                throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length());
+            }
+
+            char[] chars = new char[end - start];
+
+            for(int i = 0; i < chars.length; i++) {
+                chars[i] = (char)data.get(begin + start + i);
+            }
+
+            return new String(chars);
+        }
+    }
+
+    @Override
+    public int getLine() {
+        return line;
+    }
+
+    @Override
+    public void setLine(int line) {
+        this.line = line;
+    }
+
+    @Override
+    public int getCharPositionInLine() {
+        return charPositionInLine;
+    }
+
+    @Override
+    public void setCharPositionInLine(int pos) {
+        this.charPositionInLine = pos;
+    }
+}
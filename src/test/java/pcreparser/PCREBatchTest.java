@@ -0,0 +1,126 @@
+package pcreparser;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PCREBatchTest {
+
+    private static List<String> run(String input, String... args) throws Exception {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        int status = PCREBatch.run(args, new ByteArrayInputStream(input.getBytes("UTF-8")), out, new PrintStream(err));
+
+        assertThat(err.toString("UTF-8"), status, is(0));
+
+        String output = out.toString("UTF-8");
+
+        return output.isEmpty() ? new ArrayList<String>() : Arrays.asList(output.split("\n"));
+    }
+
+    // removes the timing, the only part of a line that differs between runs
+    private static String withoutNanos(String line) {
+        return line.replaceAll(",\"nanos\":\\d+}$", "}");
+    }
+
+    @Test
+    public void outputTest() throws Exception {
+
+        List<String> lines = run("(?<Y>\\d{4})-(\\d\\d)\n(a\n\\p{Foo}\n\n\"\\\\\"\n", "--batch", "-", "--threads", "2");
+
+        assertThat(lines.size(), is(5));
+        assertThat(withoutNanos(lines.get(0)), is("{\"line\":1,\"pattern\":\"(?<Y>\\\\d{4})-(\\\\d\\\\d)\",\"groups\":2," +
+                "\"namedGroups\":{\"Y\":1},\"tree\":\"" + new PCRE("(?<Y>\\d{4})-(\\d\\d)").toStringLisp().replace("\\", "\\\\") + "\"}"));
+        assertThat(withoutNanos(lines.get(1)), is("{\"line\":2,\"pattern\":\"(a\"," +
+                "\"error\":\"line 1:2 mismatched input '<EOF>' expecting CloseParen\"}"));
+        assertThat(withoutNanos(lines.get(2)), is("{\"line\":3,\"pattern\":\"\\\\p{Foo}\"," +
+                "\"error\":\"unsupported character property: Foo\"}"));
+        assertThat(withoutNanos(lines.get(3)), is("{\"line\":4,\"pattern\":\"\",\"groups\":0,\"namedGroups\":{},\"tree\":\"ALTERNATIVE\"}"));
+        assertThat(withoutNanos(lines.get(4)), is("{\"line\":5,\"pattern\":\"\\\"\\\\\\\\\\\"\",\"groups\":0,\"namedGroups\":{}," +
+                "\"tree\":\"(ALTERNATIVE (ELEMENT \\\") (ELEMENT \\\\) (ELEMENT \\\"))\"}"));
+    }
+
+    @Test
+    public void treeTest() throws Exception {
+
+        List<String> lines = run("a\n", "--batch", "--tree", "ascii");
+
+        assertThat(lines.get(0), containsString("\"tree\":\"'- ALTERNATIVE\\n   '- ELEMENT\\n      '- LITERAL='a'\\n\""));
+
+        lines = run("a\n", "--batch", "--tree", "none");
+
+        assertThat(lines.get(0), not(containsString("\"tree\"")));
+    }
+
+    @Test
+    public void orderTest() throws Exception {
+
+        List<String> corpus = PCREParserTest.getCorpus();
+        StringBuilder input = new StringBuilder();
+
+        // more than the number of patterns kept in flight
+        for(int i = 0; i < 3; i++) {
+            for(String regex : corpus) {
+                input.append(regex).append('\n');
+            }
+        }
+
+        List<String> inputOrder = run(input.toString(), "--batch", "--threads", "4", "--order", "input");
+        List<String> completionOrder = run(input.toString(), "--batch", "--threads", "4", "--order", "completion");
+
+        assertThat(inputOrder.size(), is(corpus.size() * 3));
+        assertThat(completionOrder.size(), is(corpus.size() * 3));
+
+        List<String> sorted = new ArrayList<String>();
+
+        for(int i = 0; i < inputOrder.size(); i++) {
+            assertThat(inputOrder.get(i), startsWith("{\"line\":" + (i + 1) + ","));
+            assertThat(inputOrder.get(i), not(containsString("\"error\"")));
+        }
+
+        for(String line : completionOrder) {
+            sorted.add(withoutNanos(line));
+        }
+
+        for(int i = 0; i < inputOrder.size(); i++) {
+            inputOrder.set(i, withoutNanos(inputOrder.get(i)));
+        }
+
+        Collections.sort(sorted);
+        Collections.sort(inputOrder);
+
+        assertThat(sorted, is(inputOrder));
+    }
+
+    @Test
+    public void usageTest() throws Exception {
+
+        String[][] invalid = {
+                {"--batch", "--threads", "0"},
+                {"--batch", "--threads"},
+                {"--batch", "--order", "random"},
+                {"--batch", "a.txt", "b.txt"},
+                {"--batch", "/no/such/file"}
+        };
+
+        for(String[] args : invalid) {
+
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            int status = PCREBatch.run(args, new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream(), new PrintStream(err));
+
+            assertThat(Arrays.toString(args), status, is(42));
+            assertThat(Arrays.toString(args), err.size() > 0, is(true));
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package pcreparser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PCRECacheTest {
+
+    @Test
+    public void getTest() {
+
+        PCRECache cache = new PCRECache();
+
+        PCRE first = cache.get("(a)(?<B>b)");
+        PCRE second = cache.get("(a)(?<B>b)");
+
+        assertThat(second, sameInstance(first));
+        assertThat(second.getGroupCount(), is(2));
+        assertThat(second.getNamedGroupCount(), is(1));
+
+        assertThat(cache.getMissCount(), is(1L));
+        assertThat(cache.getHitCount(), is(1L));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test
+    public void ofTest() {
+
+        PCRE pcre = PCRE.of("x(y)z");
+
+        assertThat(PCRE.of("x(y)z"), sameInstance(pcre));
+        assertThat(pcre.toStringLisp(), is(new PCRE("x(y)z").toStringLisp()));
+    }
+
+    @Test
+    public void evictBySizeTest() {
+
+        PCRECache cache = new PCRECache(2, Long.MAX_VALUE);
+
+        PCRE a = cache.get("a");
+        cache.get("b");
+        cache.get("a"); // gives "a" a second chance
+        cache.get("c"); // evicts "b"
+
+        assertThat(cache.size(), is(2));
+        assertThat(cache.getEvictionCount(), is(1L));
+        assertThat(cache.get("a"), sameInstance(a));
+
+        cache.get("b");
+
+        assertThat(cache.getMissCount(), is(4L));
+        assertThat(cache.getEvictionCount(), is(2L));
+    }
+
+    @Test
+    public void evictByWeightTest() {
+
+        // "a" -> ALTERNATIVE ELEMENT LITERAL
+        assertThat(PCRECache.countNodes(new PCRE("a").getCommonTree()), is(3));
+        assertThat(PCRECache.countNodes(new PCRE("ab").getCommonTree()), is(5));
+
+        PCRECache cache = new PCRECache(100, 8);
+
+        cache.get("a");
+        cache.get("ab");
+
+        assertThat(cache.weight(), is(8L));
+        assertThat(cache.getEvictionCount(), is(0L));
+
+        cache.get("c");
+
+        assertThat(cache.weight(), is(8L));
+        assertThat(cache.size(), is(2));
+        assertThat(cache.getEvictionCount(), is(1L));
+    }
+
+    @Test
+    public void tooHeavyTest() {
+
+        PCRECache cache = new PCRECache(100, 4);
+
+        PCRE pcre = cache.get("ab");
+
+        assertThat(pcre, notNullValue());
+        assertThat(cache.size(), is(0));
+        assertThat(cache.weight(), is(0L));
+    }
+
+    @Test
+    public void clearTest() {
+
+        PCRECache cache = new PCRECache();
+
+        cache.get("a");
+        cache.get("b");
+        cache.clear();
+
+        assertThat(cache.size(), is(0));
+        assertThat(cache.weight(), is(0L));
+        assertThat(cache.getMissCount(), is(2L));
+    }
+
+    @Test
+    public void concurrentTest() throws Exception {
+
+        final PCRECache cache = new PCRECache(16, Long.MAX_VALUE);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+
+            for(int t = 0; t < 8; t++) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int groups = 0;
+                        for(int i = 0; i < 2000; i++) {
+                            groups += cache.get("(" + (i % 32) + ")").getGroupCount();
+                        }
+                        return groups;
+                    }
+                }));
+            }
+
+            for(Future<Integer> future : futures) {
+                assertThat(future.get(), is(2000));
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        assertThat(cache.size() <= 16, is(true));
+        assertThat(cache.getHitCount() + cache.getMissCount(), is(16000L));
+    }
+
+    @Test
+    public void concurrentClearTest() throws Exception {
+
+        final PCRECache cache = new PCRECache(100000, Long.MAX_VALUE);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+
+            for(int t = 0; t < 4; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        for(int i = 0; i < 2000; i++) {
+                            if(thread == 0) {
+                                cache.clear();
+                            }
+                            else {
+                                cache.get("(" + thread + "_" + i + ")");
+                            }
+                        }
+                        return 0;
+                    }
+                }));
+            }
+
+            for(Future<Integer> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        // no entry is left in the map without being in the eviction queue
+        cache.clear();
+
+        assertThat(cache.size(), is(0));
+        assertThat(cache.weight(), is(0L));
+    }
+}
@@ -0,0 +1,111 @@
+package pcreparser;
+
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CharStream;
+import org.junit.Test;
+
+import java.nio.CharBuffer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class PCRECharStreamTest {
+
+    // reads both streams to the end, comparing them char by char
+    private static void assertSameChars(CharStream expected, PCRECharStream actual, int shift) {
+
+        while(true) {
+
+            String message = "index " + expected.index();
+
+            assertThat(message, actual.index(), is(expected.index() + shift));
+            assertThat(message, actual.LA(1), is(expected.LA(1)));
+            assertThat(message, actual.LA(2), is(expected.LA(2)));
+            assertThat(message, actual.LA(-1), is(expected.LA(-1)));
+            assertThat(message, actual.getLine(), is(expected.getLine()));
+            assertThat(message, actual.getCharPositionInLine(), is(expected.getCharPositionInLine()));
+
+            if(expected.LA(1) == CharStream.EOF) {
+                break;
+            }
+
+            expected.consume();
+            actual.consume();
+        }
+    }
+
+    @Test
+    public void sliceTest() {
+
+        String regex = "a(b)\nc[d]\n\\x{41}";
+        char[] array = ("[(" + regex + "])").toCharArray();
+
+        PCRECharStream stream = new PCRECharStream(CharBuffer.wrap(array), 2, 2 + regex.length());
+
+        assertThat(stream.size(), is(2 + regex.length()));
+        assertThat(stream.getBegin(), is(2));
+        assertThat(stream.getEnd(), is(2 + regex.length()));
+        assertThat(stream.substring(3, 5), is("(b)"));
+
+        assertSameChars(new ANTLRStringStream(regex), stream, 2);
+        assertSameChars(new ANTLRStringStream(regex), new PCRECharStream(regex), 0);
+    }
+
+    @Test
+    public void markTest() {
+
+        ANTLRStringStream expected = new ANTLRStringStream("ab\ncd\nef");
+        PCRECharStream actual = new PCRECharStream("##ab\ncd\nef", 2, 10);
+
+        for(int i = 0; i < 3; i++) {
+            expected.consume();
+            actual.consume();
+        }
+
+        int outer = actual.mark();
+        assertThat(outer, is(expected.mark()));
+
+        for(int i = 0; i < 2; i++) {
+            expected.consume();
+            actual.consume();
+        }
+
+        int inner = actual.mark();
+        assertThat(inner, is(expected.mark()));
+
+        for(int i = 0; i < 2; i++) {
+            expected.consume();
+            actual.consume();
+        }
+
+        actual.rewind(inner);
+        expected.rewind(inner);
+        assertSameChars(expected, actual, 2);
+
+        actual.rewind(outer);
+        expected.rewind(outer);
+        assertSameChars(expected, actual, 2);
+    }
+
+    @Test
+    public void rangeTest() {
+
+        int[][] ranges = {{-1, 2}, {2, 1}, {0, 4}};
+
+        for(int[] range : ranges) {
+            try {
+                new PCRECharStream("abc", range[0], range[1]);
+                fail("expected an IndexOutOfBoundsException for " + range[0] + ".." + range[1]);
+            }
+            catch(IndexOutOfBoundsException e) {
+                // expected
+            }
+        }
+
+        PCRECharStream empty = new PCRECharStream("abc", 3, 3);
+
+        assertThat(empty.LA(1), is(CharStream.EOF));
+        assertThat(empty.size(), is(3));
+    }
+}
@@ -0,0 +1,205 @@
+package pcreparser;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PCREEventsTest {
+
+    private static final String[] EVENTS = {
+            "pcreparser.Parse", "pcreparser.Lex", "pcreparser.Serialize", "pcreparser.CacheLookup"
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Recording start() {
+
+        Recording recording = new Recording();
+
+        for(String name : EVENTS) {
+            // every operation, not only the slow ones
+            recording.enable(name).withThreshold(Duration.ZERO);
+        }
+
+        recording.start();
+
+        return recording;
+    }
+
+    private List<RecordedEvent> stop(Recording recording) throws Exception {
+
+        Path file = folder.newFile().toPath();
+
+        recording.stop();
+        recording.dump(file);
+        recording.close();
+
+        List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+
+        for(RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            if(event.getEventType().getName().startsWith("pcreparser.") &&
+                    event.getThread().getJavaThreadId() == Thread.currentThread().getId()) {
+                events.add(event);
+            }
+        }
+
+        return events;
+    }
+
+    private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+
+        List<RecordedEvent> named = new ArrayList<RecordedEvent>();
+
+        for(RecordedEvent event : events) {
+            if(event.getEventType().getName().equals(name)) {
+                named.add(event);
+            }
+        }
+
+        return named;
+    }
+
+    @Test
+    public void parseTest() throws Exception {
+
+        Recording recording = start();
+
+        new PCRE("(a)(?<B>b)c");
+        PCRE.tryParse("\u00E9(");
+
+        try {
+            new PCRE("\\p{Foo}");
+        }
+        catch(RuntimeException e) {
+            // reported as the outcome of the parse
+        }
+
+        List<RecordedEvent> events = stop(recording);
+        List<RecordedEvent> parses = named(events, "pcreparser.Parse");
+        List<RecordedEvent> lexes = named(events, "pcreparser.Lex");
+
+        assertThat(parses.size(), is(3));
+
+        // the valid pattern is read by the fast parser, without a lexer
+        RecordedEvent valid = parses.get(0);
+        assertThat(valid.getString("parser"), is("PCREFastParser"));
+        assertThat(valid.getInt("patternLength"), is(11));
+        assertThat(valid.getInt("tokenCount"), is(11));
+        assertThat(valid.getInt("nodeCount"), is(PCRECache.countNodes(new PCRE("(a)(?<B>b)c").getCommonTree())));
+        assertThat(valid.getInt("groupCount"), is(2));
+        assertThat(valid.getInt("syntaxErrors"), is(0));
+        assertThat(valid.getString("outcome"), is("ok"));
+
+        RecordedEvent invalid = parses.get(1);
+        assertThat(invalid.getString("parser"), is("PCREParser"));
+        assertThat(invalid.getInt("patternLength"), is(2));
+        assertThat(invalid.getInt("syntaxErrors"), is(1));
+        assertThat(invalid.getString("outcome"), is("ok"));
+
+        RecordedEvent unsupported = parses.get(2);
+        assertThat(unsupported.getInt("nodeCount"), is(0));
+        assertThat(unsupported.getString("outcome"), is("unsupported character property: Foo"));
+
+        // the scanner leaves unknown properties to the lexer
+        assertThat(lexes.size(), is(2));
+        assertThat(lexes.get(0).getInt("patternLength"), is(2));
+        assertThat(lexes.get(0).getInt("tokenCount"), is(2));
+        assertThat(lexes.get(0).getString("outcome"), is("ok"));
+        assertThat(lexes.get(1).getString("outcome"), is("lexer"));
+    }
+
+    @Test
+    public void serializeTest() throws Exception {
+
+        PCRE pcre = new PCRE("(?<A>x)y");
+        Recording recording = start();
+
+        String ascii = pcre.toStringASCII();
+        pcre.toStringDOT("A");
+        pcre.toStringLisp(1);
+
+        try {
+            pcre.toStringLisp("B");
+        }
+        catch(RuntimeException e) {
+            // no such named group, before serializing
+        }
+
+        try {
+            pcre.toStringLisp(2);
+        }
+        catch(RuntimeException e) {
+            assertThat(e.getMessage(), is("no such capture group: 2"));
+        }
+
+        List<RecordedEvent> events = named(stop(recording), "pcreparser.Serialize");
+
+        assertThat(events.size(), is(4));
+
+        assertThat(events.get(0).getString("format"), is("ascii"));
+        assertThat(events.get(0).getInt("group"), is(0));
+        assertThat(events.get(0).getInt("outputLength"), is(ascii.length()));
+        assertThat(events.get(0).getInt("nodeCount"), is(PCRECache.countNodes(pcre.getCommonTree())));
+
+        assertThat(events.get(1).getString("format"), is("dot"));
+        assertThat(events.get(1).getInt("group"), is(1));
+        assertThat(events.get(2).getString("format"), is("lisp"));
+        assertThat(events.get(2).getString("outcome"), is("ok"));
+
+        assertThat(events.get(3).getInt("group"), is(2));
+        assertThat(events.get(3).getString("outcome"), is("failed"));
+    }
+
+    @Test
+    public void cacheLookupTest() throws Exception {
+
+        PCRECache cache = new PCRECache();
+        Recording recording = start();
+
+        cache.get("(a)b");
+        cache.get("(a)b");
+
+        List<RecordedEvent> events = named(stop(recording), "pcreparser.CacheLookup");
+
+        assertThat(events.size(), is(2));
+        assertThat(events.get(0).getString("cache"), is("PCRECache"));
+        assertThat(events.get(0).getBoolean("hit"), is(false));
+        assertThat(events.get(0).getInt("patternLength"), is(4));
+        assertThat(events.get(0).getInt("groupCount"), is(1));
+        assertThat(events.get(1).getBoolean("hit"), is(true));
+        assertThat(events.get(1).getString("outcome"), is("ok"));
+    }
+
+    @Test
+    public void thresholdTest() throws Exception {
+
+        Recording recording = new Recording();
+        recording.enable("pcreparser.Parse");
+        recording.start();
+
+        // far below the default threshold of 1 ms, once warmed up
+        for(int i = 0; i < 1000; i++) {
+            new PCRE("a");
+        }
+
+        List<RecordedEvent> events = named(stop(recording), "pcreparser.Parse");
+
+        assertThat(events.size() < 100, is(true));
+
+        for(RecordedEvent event : events) {
+            assertThat(event.getDuration().toNanos() >= 1000000, is(true));
+        }
+    }
+}
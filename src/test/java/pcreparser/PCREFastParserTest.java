@@ -0,0 +1,299 @@
+package pcreparser;
+
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.tree.CommonTree;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PCREFastParserTest {
+
+    // parses regex with PCREParser, which must find no errors
+    private static PCRE parseANTLR(String regex) {
+
+        List<String> errorMessages = new ArrayList<String>();
+        PCRE pcre = new PCREParsingContext().parse(regex, errorMessages);
+
+        assertThat(regex, errorMessages, is(Collections.<String>emptyList()));
+
+        return pcre;
+    }
+
+    // the type, text and token boundaries of every node, and the token
+    // index, offsets, line and position in the line of the lexer's tokens
+    private static String dump(CommonTree tree) {
+
+        StringBuilder builder = new StringBuilder();
+
+        builder.append(tree.getType()).append(' ').append(tree.getText()).append(" [")
+                .append(tree.getTokenStartIndex()).append(',').append(tree.getTokenStopIndex()).append(']');
+
+        if(tree.getToken().getInputStream() != null) {
+            CommonToken token = (CommonToken)tree.getToken();
+            builder.append(" #").append(token.getTokenIndex()).append(' ').append(token.getStartIndex()).append("..")
+                    .append(token.getStopIndex()).append(' ').append(token.getLine()).append(':')
+                    .append(token.getCharPositionInLine());
+        }
+
+        builder.append(" (");
+
+        for(int i = 0; i < tree.getChildCount(); i++) {
+            builder.append(dump((CommonTree)tree.getChild(i)));
+        }
+
+        return builder.append(')').toString();
+    }
+
+    // returns the number of patterns handled by the fast parser
+    private static int assertSameTrees(List<String> patterns) {
+
+        int handled = 0;
+
+        for(String regex : patterns) {
+
+            PCRE actual = PCREFastParser.tryParse(regex);
+
+            if(actual == null) {
+                continue;
+            }
+
+            PCRE expected = parseANTLR(regex);
+
+            handled++;
+
+            assertThat(regex, actual.toStringLisp(), is(expected.toStringLisp()));
+            assertThat(regex, actual.getGroupCount(), is(expected.getGroupCount()));
+            assertThat(regex, actual.getNamedGroupCount(), is(expected.getNamedGroupCount()));
+
+            // the ASCII trees also contain the token names
+            for(int group = 0; group <= expected.getGroupCount(); group++) {
+                assertThat(regex, actual.toStringASCII(group), is(expected.toStringASCII(group)));
+                assertThat(regex, dump(actual.getCommonTree(group)), is(dump(expected.getCommonTree(group))));
+                assertThat(regex, actual.getGroupStart(group), is(expected.getGroupStart(group)));
+                assertThat(regex, actual.getGroupStop(group), is(expected.getGroupStop(group)));
+                assertThat(regex, actual.getGroupName(group), is(expected.getGroupName(group)));
+            }
+        }
+
+        return handled;
+    }
+
+    @Test
+    public void corpusTest() throws Exception {
+
+        List<String> corpus = PCREParserTest.getCorpus();
+        int handled = assertSameTrees(corpus);
+
+        assertThat(handled * 2 > corpus.size(), is(true));
+    }
+
+    @Test
+    public void supportedTest() {
+
+        List<String> patterns = Arrays.asList(
+                "", "a", "ab|", "|", "a|b|c", "^a.b$", "\\A\\z\\Z\\G\\K\\C\\X\\b\\B", "\\d\\D\\h\\H\\N\\R\\s\\S\\v\\V\\w\\W",
+                "\\a\\e\\f\\n\\r\\t\\.\\\\\\ \\]", "]", "{", "}", ",", "a{", "a{1", "a{1,", "a{1,2", "a{,2}", "a{x}",
+                "a{1}{2}", "a{007}", "a?b+c*d??e+?f*?g?+h++i*+", "a{1}?b{1,}+c{1,2}", "[a]", "[^a]", "[a-z]",
+                "[a-]", "[-a]", "[a--]", "[--/]", "[]]", "[]a]", "[^]]", "[^]a]", "[^^]", "[a^]", "[.$|()?*+{}]",
+                "[\\b\\n\\]\\-]", "[\\d-z]", "[a-\\d]", "[!-\\~]", "[a\\-z]", "[a-b-c]", "(a)", "(a(b)(c(d)))",
+                "(?:a)", "(?|a)", "(?>a)", "(?=a)", "(?!a)", "(?<=a)", "(?<!a)", "(?<n>a)", "(?'n'a)",
+                "(?P<n>a)", "(?<n>a)(?<n>b)", "(?<b>a)(?<a>b)", "(a|(b|c))+", "()", "(|)", "\u00e9\ud83d\ude00",
+                "\\1", "(a)\\1+", "\\8", "\\012", "\\0123", "\\400", "\\18", "[\\1\\101-\\132]", "\\x41",
+                "\\x{263A}", "\\x{1F600}", "[\\x41-\\x{05A}]", "\\p{L}\\P{Lu}+", "[\\p{Greek}\\cA]", "\\cA\\c)",
+                "\\Qa|b\\E*", "\\Q\\E", "[\\Q]\\E]", "[a[]", "[a-[]", "(?#x)", "(?#(?:\u00e9)", "(?i)", "(?J-mU)",
+                "(?-sx)+", "a\nb(\\d)\n\\d$", "(?<n>a)\\g1\\g{1}\\g{-1}\\g{n}\\k<n>\\k'n'\\k{n}(?P=n)+",
+                "\\g<n>\\g'1'\\g<+1>\\g<-1>(?R)(?1)(?+1)(?-1)(?&n)(?P>n)*", "(?C)(?C12)", "[[:alpha:]][[:^digit:]]+",
+                "[a[[:space:]]]", "(?(1)a|b|c)", "(?(+1)a)(?(-2)a)(?(<n>)a)(?('n')a)(?(n)a)",
+                "(?(R)a)(?(R1)a)(?(R&n)a)(?(R1x)a)(?(DEFINE)(a))(?(assert)a)*", "(*UTF8)(*CRLF)(*ACCEPT)(*F)",
+                "(*FAIL)(*MARK:NAME)(*:NAME)(*COMMIT)(*PRUNE)(*SKIP:NAME)(*THEN)?"
+        );
+
+        assertThat(assertSameTrees(patterns), is(patterns.size()));
+    }
+
+    @Test
+    public void unsupportedTest() {
+
+        String[] patterns = {
+                "[[a]", "[[:foo:]]", "[[:alpha:]-z]", "[]-a]", "[\\g1]", "\\g{+1}", "\\k<1>", "(?&1)", "(?(1x)a)",
+                "(?C", "(*BAD)", "(*MARK:X)", "(?<1>a)",
+                "\\p{Foo}", "\\p{L", "\\x{41}", "\\x{110000}", "\\x4", "\\c\u00e9", "\\Qa", "(?#)", "(?#\\))",
+                "(?i", "(?i-)", "(?-)", "*", "a**", "(a", "a)", "[a", "[^]", "\\"
+        };
+
+        for(String regex : patterns) {
+            assertThat(regex, PCREFastParser.tryParse(regex), nullValue());
+        }
+    }
+
+    @Test
+    public void fallbackTest() {
+
+        PCRE pcre = PCREFastParser.parse("(\\d+)[]-a](?i)(?<A>\\x41)");
+
+        assertThat(pcre.getGroupCount(), is(2));
+        assertThat(pcre.getNamedGroupCount(), is(1));
+        assertThat(pcre.toStringLisp(), is(parseANTLR("(\\d+)[]-a](?i)(?<A>\\x41)").toStringLisp()));
+    }
+
+    private static String repeat(String text, int times) {
+
+        StringBuilder builder = new StringBuilder(text.length() * times);
+
+        for(int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+
+        return builder.toString();
+    }
+
+    @Test
+    public void nestedTest() {
+
+        // deep enough for the ANTLR parser to compare with
+        String[] patterns = {
+                repeat("(", 200) + "a" + repeat(")", 200),
+                repeat("(?:a|(?<n>b+", 100) + repeat(")*)?", 100),
+                repeat("(?=x(?!y|(?<=z[^)]", 50) + repeat("))", 50) + repeat(")", 50),
+                repeat("(?'a'(?P<b>(?>(?|", 50) + "." + repeat("))))", 50),
+                repeat("(?<n>\\k<n>(?(1)\\g{-1}|[[:alpha:]](*ACCEPT)", 50) + repeat("))", 50)
+        };
+
+        assertThat(assertSameTrees(Arrays.asList(patterns)), is(patterns.length));
+
+        for(String regex : patterns) {
+
+            PCRE expected = parseANTLR(regex);
+            PCRE actual = PCREFastParser.tryParse(regex);
+
+            assertThat(actual.toStringLisp(), is(expected.getCommonTree().toStringTree()));
+
+            for(int group = 0; group <= expected.getGroupCount(); group++) {
+                assertThat(actual.getGroupStart(group), is(expected.getGroupStart(group)));
+                assertThat(actual.getGroupStop(group), is(expected.getGroupStop(group)));
+            }
+
+            // of the groups with the same name, the innermost one
+            if(expected.getNamedGroupCount() > 0) {
+                assertThat(actual.getGroupNumber(expected.getGroupName(expected.getGroupCount())),
+                        is(expected.getGroupNumber(expected.getGroupName(expected.getGroupCount()))));
+            }
+        }
+    }
+
+    @Test
+    public void deeplyNestedTest() {
+
+        for(int depth = 1000; depth <= 100000; depth *= 10) {
+
+            String regex = repeat("(", depth) + "a" + repeat(")", depth);
+            PCRE pcre = PCREFastParser.parse(regex);
+
+            assertThat(pcre.getGroupCount(), is(depth));
+            assertThat(pcre.getGroupStart(1), is(0));
+            assertThat(pcre.getGroupStop(1), is(regex.length() - 1));
+            assertThat(pcre.getGroupStart(depth), is(depth - 1));
+            assertThat(pcre.getGroupStop(depth), is(depth + 1));
+
+            String lisp = repeat("(ALTERNATIVE (ELEMENT (CAPTURING_GROUP ", depth) + "(ALTERNATIVE (ELEMENT a))" +
+                    repeat(")))", depth);
+
+            assertThat(pcre.toStringLisp(), is(lisp));
+            assertThat(PCRECache.countNodes(pcre.getCommonTree()), is(depth * 3 + 3));
+        }
+    }
+
+    @Test
+    public void deeplyNestedMixedTest() {
+
+        int depth = 100000;
+        String regex = repeat("(?:a|(?<n>b+", depth) + repeat(")*)?", depth);
+        PCRE pcre = PCREFastParser.parse(regex);
+
+        assertThat(pcre.getGroupCount(), is(depth));
+        assertThat(pcre.getNamedGroupCount(), is(1));
+        assertThat(pcre.getGroupNumber("n"), is(depth));
+
+        // down the first alternative to the innermost group
+        CommonTree tree = pcre.getCommonTree();
+        int groups = 0;
+
+        while(tree != pcre.getCommonTree(depth)) {
+
+            if(tree.getType() == PCREParser.NAMED_CAPTURING_GROUP_PERL) {
+                groups++;
+                tree = (CommonTree)tree.getChild(1);
+            }
+            else if(tree.getType() == PCREParser.OR) {
+                tree = (CommonTree)tree.getChild(1);
+            }
+            else if(tree.getType() == PCREParser.ALTERNATIVE) {
+                tree = (CommonTree)tree.getChild(tree.getChildCount() - 1);
+            }
+            else {
+                tree = (CommonTree)tree.getChild(0);
+            }
+        }
+
+        assertThat(groups, is(depth - 1));
+        assertThat(pcre.getGroupStart(depth), is(regex.indexOf("b+)") - 5));
+    }
+
+    @Test
+    public void deeplyNestedEntryPointsTest() {
+
+        int depth = 100000;
+        String regex = repeat("(", depth) + "a" + repeat(")", depth);
+
+        // far too deep for PCREParser
+        assertThat(new PCRE(regex).getGroupCount(), is(depth));
+
+        PCREResult result = PCRE.tryParse(regex);
+
+        assertThat(result.getErrors(), is(Collections.<String>emptyList()));
+        assertThat(result.getPCRE().getGroupCount(), is(depth));
+        assertThat(result.getPCRE().getGroupStop(depth), is(depth + 1));
+    }
+
+    @Test
+    public void deeplyNestedEscapesTest() {
+
+        int depth = 5000;
+        String[] patterns = {
+                repeat("(", depth) + "\\x41\\p{L}\\101" + repeat(")", depth),
+                repeat("(?:(", depth) + "a" + repeat("))", depth) + "\\1(?i)(?#done)"
+        };
+
+        for(String regex : patterns) {
+
+            assertThat(new PCRE(regex).getGroupCount(), is(depth));
+
+            PCREResult result = PCRE.tryParse(regex);
+
+            assertThat(result.isValid(), is(true));
+            assertThat(result.getPCRE().getGroupCount(), is(depth));
+        }
+    }
+
+    @Test
+    public void deeplyNestedReferencesTest() {
+
+        int depth = 100000;
+        String regex = repeat("(?<n>\\k<n>(?(1)\\g1[[:alpha:]]|(?&n)(*ACCEPT)", depth) + repeat("))", depth);
+
+        assertThat(new PCRE(regex).getGroupCount(), is(depth));
+
+        PCREResult result = PCRE.tryParse(regex);
+
+        assertThat(result.getErrors(), is(Collections.<String>emptyList()));
+        assertThat(result.getPCRE().getGroupCount(), is(depth));
+        assertThat(result.getPCRE().getGroupNumber("n"), is(depth));
+        assertThat(result.getPCRE().getGroupStop(depth), is(regex.length() - 2 * depth + 1));
+    }
+}
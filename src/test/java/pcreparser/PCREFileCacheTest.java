@@ -0,0 +1,304 @@
+package pcreparser;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PCREFileCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Set<String> corpus() throws Exception {
+        return new LinkedHashSet<String>(PCREParserTest.getCorpus());
+    }
+
+    private static void assertHits(PCREFileCache cache, Iterable<String> regexes) {
+
+        long hits = cache.getHitCount();
+        int count = 0;
+
+        for(String regex : regexes) {
+            assertThat(regex, cache.get(regex).toStringLisp(), is(new PCRE(regex).toStringLisp()));
+            count++;
+        }
+
+        assertThat(cache.getHitCount() - hits, is((long)count));
+    }
+
+    // the offset of the entry of regex in the log
+    private static int entry(byte[] log, String regex) throws Exception {
+
+        ByteBuffer buffer = ByteBuffer.wrap(log);
+        byte[] pattern = regex.getBytes("UTF-8");
+
+        for(int offset = 16; offset < log.length; offset += 4 + buffer.getInt(offset)) {
+            if(buffer.getInt(offset + 4) == pattern.length &&
+                    new String(log, offset + 8, pattern.length, "UTF-8").equals(regex)) {
+                return offset;
+            }
+        }
+
+        throw new AssertionError("no entry for " + regex);
+    }
+
+    @Test
+    public void restartTest() throws Exception {
+
+        Path file = folder.getRoot().toPath().resolve("patterns");
+        Set<String> corpus = corpus();
+
+        PCREFileCache cache = PCRECache.open(file);
+
+        for(String regex : corpus) {
+            cache.get(regex);
+        }
+
+        assertThat(cache.getMissCount(), is((long)corpus.size()));
+        assertThat(cache.size(), is(corpus.size()));
+        assertHits(cache, corpus);
+
+        cache.close();
+        cache = PCRECache.open(file);
+
+        assertThat(cache.size(), is(corpus.size()));
+        assertHits(cache, corpus);
+        assertThat(cache.getMissCount(), is(0L));
+
+        PCRE pcre = cache.get("(?<YEAR>\\d{4})-(\\d\\d)");
+
+        assertThat(pcre.getGroupCount(), is(2));
+        assertThat(pcre.toStringLisp("YEAR"), is(new PCRE("(?<YEAR>\\d{4})-(\\d\\d)").toStringLisp("YEAR")));
+
+        cache.close();
+    }
+
+    @Test
+    public void sharedTest() throws Exception {
+
+        Path file = folder.getRoot().toPath().resolve("patterns");
+        PCREFileCache first = PCRECache.open(file);
+        PCREFileCache second = PCRECache.open(file);
+        Set<String> regexes = new LinkedHashSet<String>();
+
+        // more than fit in the initial index
+        for(int i = 0; i < 1500; i++) {
+            regexes.add("a{" + i + "}(b|c)");
+        }
+
+        for(String regex : regexes) {
+            first.get(regex);
+        }
+
+        assertHits(second, regexes);
+        assertThat(second.getMissCount(), is(0L));
+        assertThat(second.size(), is(regexes.size()));
+
+        second.get("only in the second cache");
+
+        assertHits(first, regexes);
+        assertThat(first.get("only in the second cache").toStringLisp(), is(new PCRE("only in the second cache").toStringLisp()));
+        assertThat(first.getMissCount(), is((long)regexes.size()));
+
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void crashTest() throws Exception {
+
+        Path file = folder.getRoot().toPath().resolve("patterns");
+        Path index = folder.getRoot().toPath().resolve("patterns.index");
+        Path oldIndex = folder.getRoot().toPath().resolve("old.index");
+        Set<String> corpus = corpus();
+
+        PCREFileCache cache = PCRECache.open(file);
+
+        for(String regex : corpus) {
+            cache.get(regex);
+        }
+
+        Files.copy(index, oldIndex);
+        cache.get("appended after the copy");
+        cache.close();
+
+        long length = Files.size(file);
+
+        // a crash after appending an entry, before adding it to the index
+        Files.copy(oldIndex, index, StandardCopyOption.REPLACE_EXISTING);
+
+        // and a crash while appending the next one
+        byte[] log = Files.readAllBytes(file);
+        int entry = entry(log, "appended after the copy");
+        Files.write(file, Arrays.copyOfRange(log, entry, entry + 12), StandardOpenOption.APPEND);
+
+        cache = PCRECache.open(file);
+
+        assertThat(Files.size(file), is(length));
+        assertThat(cache.size(), is(corpus.size() + 1));
+        assertHits(cache, corpus);
+        assertThat(cache.get("appended after the copy").toStringLisp(), is(new PCRE("appended after the copy").toStringLisp()));
+        assertThat(cache.getMissCount(), is(0L));
+
+        cache.get("appended after the recovery");
+        cache.close();
+
+        // a missing or damaged index is rebuilt from the log
+        Files.delete(index);
+        cache = PCRECache.open(file);
+
+        assertThat(cache.size(), is(corpus.size() + 2));
+        assertHits(cache, corpus);
+        cache.close();
+
+        Files.write(index, new byte[100]);
+        cache = PCRECache.open(file);
+
+        assertThat(cache.size(), is(corpus.size() + 2));
+        assertHits(cache, corpus);
+        cache.close();
+    }
+
+    @Test
+    public void compactTest() throws Exception {
+
+        Path file = folder.getRoot().toPath().resolve("patterns");
+        Set<String> corpus = corpus();
+        String outdated = corpus.iterator().next();
+
+        PCREFileCache cache = PCRECache.open(file);
+
+        for(String regex : corpus) {
+            cache.get(regex);
+        }
+
+        cache.close();
+
+        // make one entry look like it was written by another version of the grammar
+        byte[] log = Files.readAllBytes(file);
+        ByteBuffer buffer = ByteBuffer.wrap(log);
+        int entry = entry(log, outdated);
+        int length = buffer.getInt(entry);
+        int record = entry + 8 + buffer.getInt(entry + 4);
+
+        log[record + 5]++;
+
+        CRC32 crc = new CRC32();
+        crc.update(log, entry + 4, length - 4);
+        buffer.putInt(entry + length, (int)crc.getValue());
+
+        Files.write(file, log);
+
+        cache = PCRECache.open(file);
+        PCREFileCache other = PCRECache.open(file);
+
+        // parsed again, but not appended again
+        assertThat(cache.get(outdated).toStringLisp(), is(new PCRE(outdated).toStringLisp()));
+        assertThat(cache.getMissCount(), is(1L));
+        assertThat(Files.size(file), is((long)log.length));
+
+        cache.compact();
+
+        assertThat(cache.size(), is(corpus.size() - 1));
+        assertThat(Files.size(file), is((long)log.length - 4 - length));
+
+        corpus.remove(outdated);
+
+        assertHits(cache, corpus);
+        assertHits(other, corpus);
+
+        cache.get(outdated);
+
+        assertThat(cache.size(), is(corpus.size() + 1));
+        assertThat(other.get(outdated).toStringLisp(), is(new PCRE(outdated).toStringLisp()));
+        assertThat(other.getMissCount(), is(0L));
+
+        cache.close();
+        other.close();
+
+        cache = PCRECache.open(file);
+
+        assertHits(cache, corpus);
+        assertThat(cache.size(), is(corpus.size() + 1));
+        cache.close();
+    }
+
+    @Test
+    public void invalidPatternTest() throws Exception {
+
+        Path file = folder.getRoot().toPath().resolve("patterns");
+        PrintStream err = System.err;
+
+        try {
+            // ANTLR reports syntax errors on stderr
+            System.setErr(new PrintStream(new ByteArrayOutputStream()));
+
+            PCREFileCache cache = PCRECache.open(file);
+
+            assertThat(cache.get("(a").toStringLisp(), is(new PCRE("(a").toStringLisp()));
+            assertThat(cache.get("b").toStringLisp(), is(new PCRE("b").toStringLisp()));
+            assertThat(cache.size(), is(1));
+            cache.close();
+
+            // only the valid pattern was stored
+            cache = PCRECache.open(file);
+
+            cache.get("(a");
+            cache.get("b");
+
+            assertThat(cache.getMissCount(), is(1L));
+            assertThat(cache.getHitCount(), is(1L));
+            cache.close();
+        }
+        finally {
+            System.setErr(err);
+        }
+    }
+
+    @Test
+    public void locksTest() throws Exception {
+
+        Path file = folder.getRoot().toPath().resolve("patterns");
+        int locks = PCREFileCache.lockCount();
+
+        PCREFileCache cache = PCRECache.open(file);
+        PCREFileCache other = PCRECache.open(file);
+
+        assertThat(PCREFileCache.lockCount(), is(locks + 1));
+
+        cache.close();
+        cache.close();
+
+        assertThat(PCREFileCache.lockCount(), is(locks + 1));
+        assertThat(other.get("(a)").getGroupCount(), is(1));
+
+        other.close();
+
+        assertThat(PCREFileCache.lockCount(), is(locks));
+    }
+
+    @Test(expected = IOException.class)
+    public void notACacheTest() throws Exception {
+
+        Path file = folder.newFile("not-a-cache").toPath();
+        Files.write(file, "just some text, not a cache".getBytes("UTF-8"));
+
+        PCRECache.open(file);
+    }
+}
@@ -0,0 +1,142 @@
+package pcreparser;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PCREFileParserTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final Executor CALLER = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            // run by the calling thread when the results are needed
+        }
+    };
+
+    private static final class Results implements PCREFileCallback {
+
+        private final List<PCREResult> results = new ArrayList<PCREResult>();
+
+        @Override
+        public void parsed(long line, PCREResult result) {
+            assertThat(line, is((long)results.size() + 1));
+            results.add(result);
+        }
+    }
+
+    private Path write(String text) throws Exception {
+        Path file = folder.newFile().toPath();
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    // parses the lines of text from a file and as Strings, and compares them
+    private void assertSameResults(String text, Executor executor, int segmentSize, int chunkSize) throws Exception {
+
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new StringReader(text));
+        String line;
+
+        while((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+
+        Results results = new Results();
+        long count = PCREFileParser.parse(write(text), executor, results, segmentSize, chunkSize);
+
+        assertThat(count, is((long)lines.size()));
+        assertThat(results.results.size(), is(lines.size()));
+
+        for(int i = 0; i < lines.size(); i++) {
+
+            PCREResult expected = new PCREParsingContext().tryParse(lines.get(i));
+            PCREResult actual = results.results.get(i);
+            String message = "line " + (i + 1) + ": " + lines.get(i);
+
+            assertThat(message, actual.isValid(), is(expected.isValid()));
+            assertThat(message, actual.getRegex(), is(lines.get(i)));
+            assertThat(message, actual.getErrors().size(), is(expected.getErrors().size()));
+
+            if(expected.isValid()) {
+                assertThat(message, actual.getPCRE().toStringLisp(), is(expected.getPCRE().toStringLisp()));
+            }
+        }
+    }
+
+    @Test
+    public void corpusTest() throws Exception {
+
+        StringBuilder text = new StringBuilder();
+
+        for(String regex : PCREParserTest.getCorpus()) {
+            text.append(regex).append('\n');
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            for(int[] sizes : new int[][]{{1, 1}, {64, 1}, {4096, 64}, {PCREFileParser.SEGMENT_SIZE, PCREFileParser.CHUNK_SIZE}}) {
+                assertSameResults(text.toString(), executor, sizes[0], sizes[1]);
+                assertSameResults(text.toString(), CALLER, sizes[0], sizes[1]);
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void linesTest() throws Exception {
+
+        String[] texts = {
+                "", "\n", "a", "a\n", "a\r\nb\r\n", "\n\n(x)\n", "a\rb\n", "a\r", "a\r\r\nb", "(\n)\n[a-\n",
+                "\u00E9(\u20AC)\n\uD83D\uDE00+\n(?<n>\\x{1F600})\n\\p{Foo}\n"
+        };
+
+        for(String text : texts) {
+            for(int[] sizes : new int[][]{{1, 1}, {3, 1}, {8, 3}, {PCREFileParser.SEGMENT_SIZE, PCREFileParser.CHUNK_SIZE}}) {
+                assertSameResults(text, CALLER, sizes[0], sizes[1]);
+            }
+        }
+    }
+
+    @Test
+    public void offsetsTest() throws Exception {
+
+        Results results = new Results();
+
+        PCRE.parseFile(write("abc\n  (\u20AC)(x\n(y)"), results);
+
+        assertThat(results.results.size(), is(3));
+
+        // offsets are indexes of bytes in the line
+        PCRE pcre = results.results.get(2).getPCRE();
+        assertThat(pcre.getGroupStart(1), is(0));
+        assertThat(pcre.getGroupStop(1), is(2));
+
+        PCREResult invalid = results.results.get(1);
+        assertThat(invalid.isValid(), is(false));
+        assertThat(invalid.getRegex(), is("  (\u20AC)(x"));
+        assertThat(invalid.getDiagnostics().get(0).getOffset(), is(9));
+
+        assertThat(Arrays.asList(results.results.get(0).getRegex()), is(Arrays.asList("abc")));
+    }
+}
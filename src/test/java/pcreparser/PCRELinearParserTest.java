@@ -0,0 +1,101 @@
+package pcreparser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PCRELinearParserTest {
+
+    private static void assertSameTrees(List<String> patterns) {
+
+        PCREParsingContext backtracking = new PCREParsingContext();
+        PCREParsingContext linear = PCREParsingContext.linear();
+
+        for(String regex : patterns) {
+
+            PCRE expected = backtracking.parse(regex);
+            PCRE actual = linear.parse(regex);
+
+            assertThat(regex, actual.getGroupCount(), is(expected.getGroupCount()));
+            assertThat(regex, actual.getNamedGroupCount(), is(expected.getNamedGroupCount()));
+
+            // the ASCII trees contain the token names, texts and structure
+            for(int group = 0; group <= expected.getGroupCount(); group++) {
+                assertThat(regex, actual.toStringASCII(group), is(expected.toStringASCII(group)));
+            }
+        }
+    }
+
+    @Test
+    public void corpusTest() throws Exception {
+        // contains all valid patterns of PCREParserTest
+        assertSameTrees(PCREParserTest.getCorpus());
+    }
+
+    @Test
+    public void alternativesTest() {
+
+        assertSameTrees(Arrays.asList(
+                // a '{' not starting a quantifier
+                "a{", "a{1", "a{1,", "a{1,2", "a{,2}", "a{x}", "{1}", "a{1}{2}", "a{1,}?", "a{1,2}+",
+                // octal chars and backreferences
+                "\\0", "\\01", "\\012", "\\0123", "\\12", "\\123", "\\412", "\\4123", "\\8", "\\81", "\\18", "\\7",
+                // character classes
+                "[a-]", "[-a]", "[a-z]", "[a--]", "[--/]", "[]]", "[]-]", "[]-a]", "[]-a-z]", "[]-\\d]", "[^]",
+                "[^]]", "[^]-a]", "[^^]", "[^-]", "[a-\\d]", "[\\d-a]", "[\\101-\\132]", "[\\1-x]", "[a-\\1]",
+                "[a-\\101]", "[\\12]", "[\\8]", "[.-\\b]", "[(-)]", "[[:alpha:]]",
+                // groups
+                "(?<n>a)(?'m'b)(?P<o>c)", "(?P=n)(?P>n)(?&n)", "(?<=a)(?<!b)(?=c)(?!d)", "(?:a)(?|b)(?>c)",
+                "(?#comment)", "(?R)(?1)(?+1)(?-1)", "(?i)(?-i)(?im-sx)(?U)(?J)", "(?C)(?C12)", "(a(b(c)))",
+                // conditionals
+                "(?(1)a|b)", "(?(+1)a)", "(?(-1)a)", "(?(<n>)a)", "(?('n')a)", "(?(n)a)", "(?(R)a)", "(?(R1)a)",
+                "(?(R12)a)", "(?(R1x)a)", "(?(R_1)a)", "(?(R&n)a)", "(?(DEFINE)a)", "(?(DEFINEx)a)", "(?(assert)a)",
+                // backtracking control, options and newline conventions
+                "(*ACCEPT)(*F)(*FAIL)(*MARK:NAME)(*:NAME)(*COMMIT)(*PRUNE)(*PRUNE:NAME)(*SKIP)(*SKIP:NAME)",
+                "(*THEN)(*THEN:NAME)(*NO_START_OPT)(*UTF8)(*UTF16)(*UCP)(*CR)(*LF)(*CRLF)(*ANYCRLF)(*ANY)",
+                "(*BSR_ANYCRLF)(*BSR_UNICODE)",
+                // backreferences and subroutine references
+                "\\g1\\g{1}\\g{-1}\\g{n}\\k<n>\\k'n'\\k{n}",
+                "\\g<n>\\g'n'\\g<1>\\g'1'\\g<+1>\\g'+1'\\g<-1>\\g'-1'",
+                // everything else
+                "^a.b$", "\\A\\z\\Z\\G\\K\\C\\X\\b\\B", "a|b||", "]", "\\Qa|b\\E\\|"
+        ));
+    }
+
+    @Test
+    public void groupsTest() {
+
+        PCRE pcre = PCREParsingContext.linear().parse("((.)\\1+ (?<YEAR>(?:19|20)\\d{2})) [^]-x]");
+
+        assertThat(pcre.getGroupCount(), is(3));
+        assertThat(pcre.getNamedGroupCount(), is(1));
+        assertThat(pcre.toStringLisp("YEAR"), is(pcre.toStringLisp(3)));
+    }
+
+    @Test
+    public void longPatternTest() {
+
+        List<String> patterns = new ArrayList<String>();
+        StringBuilder nested = new StringBuilder();
+        StringBuilder flat = new StringBuilder();
+
+        for(int i = 0; i < 200; i++) {
+            nested.append("(?:a|");
+            flat.append("(?<g").append(i).append(">[a-z]{1,2}?)|\\").append(i % 10);
+        }
+
+        for(int i = 0; i < 200; i++) {
+            nested.append(')');
+        }
+
+        patterns.add(nested.toString());
+        patterns.add(flat.toString());
+
+        assertSameTrees(patterns);
+    }
+}
@@ -0,0 +1,211 @@
+package pcreparser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class PCREParseOptionsTest {
+
+    private static String repeat(String text, int times) {
+
+        StringBuilder builder = new StringBuilder();
+
+        for(int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+
+        return builder.toString();
+    }
+
+    private static String nested(int depth) {
+        return repeat("(", depth) + "a" + repeat(")", depth);
+    }
+
+    private static PCREBudgetExceededException.Limit exceeded(PCREParsingContext context, String regex) {
+
+        try {
+            context.parse(regex);
+            fail("expected " + regex + " to exceed its budget");
+            return null;
+        }
+        catch(PCREBudgetExceededException e) {
+            return e.getLimit();
+        }
+    }
+
+    @Test
+    public void optionsTest() {
+
+        PCREParseOptions options = PCREParseOptions.DEFAULT.withMaxTokens(10);
+
+        assertThat(PCREParseOptions.DEFAULT.isUnlimited(), is(true));
+        assertThat(PCREParseOptions.DEFAULT.getMaxTokens(), is(Integer.MAX_VALUE));
+        assertThat(options.isUnlimited(), is(false));
+        assertThat(options.getMaxTokens(), is(10));
+
+        options = options.withTimeout(2, TimeUnit.SECONDS).withMaxDepth(100);
+
+        assertThat(options.getTimeoutNanos(), is(2000000000L));
+        assertThat(options.getMaxDepth(), is(100));
+        assertThat(options.getMaxTokens(), is(10));
+        assertThat(PCREParseOptions.DEFAULT.withCancellation(new AtomicBoolean()).isUnlimited(), is(false));
+
+        try {
+            PCREParseOptions.DEFAULT.withMaxDepth(0);
+            fail("expected an invalid depth");
+        }
+        catch(IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("maxDepth < 1: 0"));
+        }
+    }
+
+    @Test
+    public void maxDepthTest() {
+
+        PCREParsingContext context = new PCREParsingContext();
+        PCREParsingContext linear = PCREParsingContext.linear();
+
+        // 9 rules for the pattern, 6 more for every group
+        context.setParseOptions(PCREParseOptions.DEFAULT.withMaxDepth(69));
+        linear.setParseOptions(PCREParseOptions.DEFAULT.withMaxDepth(69));
+
+        assertThat(context.parse(nested(10)).getGroupCount(), is(10));
+        assertThat(linear.parse(nested(10)).getGroupCount(), is(10));
+        assertThat(exceeded(context, nested(11)), is(PCREBudgetExceededException.Limit.DEPTH));
+        assertThat(exceeded(linear, nested(11)), is(PCREBudgetExceededException.Limit.DEPTH));
+
+        // instead of overflowing the stack
+        context.setParseOptions(PCREParseOptions.DEFAULT.withMaxDepth(2000));
+
+        assertThat(exceeded(context, nested(100000)), is(PCREBudgetExceededException.Limit.DEPTH));
+
+        // the context is left ready for the next pattern
+        assertThat(context.parse("(a)").getGroupCount(), is(1));
+    }
+
+    @Test
+    public void maxTokensTest() {
+
+        PCREParsingContext context = new PCREParsingContext();
+
+        context.setParseOptions(PCREParseOptions.DEFAULT.withMaxTokens(3));
+
+        assertThat(context.parse("abc").toStringLisp(), is("(ALTERNATIVE (ELEMENT a) (ELEMENT b) (ELEMENT c))"));
+        assertThat(exceeded(context, "abcd"), is(PCREBudgetExceededException.Limit.TOKENS));
+
+        // lexed instead of scanned
+        assertThat(context.parse("\u00E9bc").getGroupCount(), is(0));
+        assertThat(exceeded(context, "\u00E9bcd"), is(PCREBudgetExceededException.Limit.TOKENS));
+
+        context.setParseOptions(PCREParseOptions.DEFAULT);
+
+        assertThat(context.parse("abcd").getGroupCount(), is(0));
+    }
+
+    @Test
+    public void timeoutTest() {
+
+        PCREParsingContext context = new PCREParsingContext();
+
+        // the backtracking parser takes hundreds of milliseconds for this
+        String regex = repeat("(?", 5000);
+
+        context.setParseOptions(PCREParseOptions.DEFAULT.withTimeout(20, TimeUnit.MILLISECONDS));
+
+        long start = System.nanoTime();
+
+        try {
+            context.parse(regex);
+            fail("expected a timeout");
+        }
+        catch(PCREBudgetExceededException e) {
+            assertThat(e.getLimit(), is(PCREBudgetExceededException.Limit.TIMEOUT));
+            assertThat(e.getMessage(), is("parse took longer than 20 ms"));
+            assertThat(e.getStackTrace().length, is(0));
+        }
+
+        assertThat(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), is(true));
+    }
+
+    @Test
+    public void cancellationTest() {
+
+        PCREParsingContext context = new PCREParsingContext();
+        AtomicBoolean cancelled = new AtomicBoolean();
+
+        context.setParseOptions(PCREParseOptions.DEFAULT.withCancellation(cancelled));
+
+        assertThat(context.parse("(a)").getGroupCount(), is(1));
+
+        cancelled.set(true);
+
+        assertThat(exceeded(context, "(a)"), is(PCREBudgetExceededException.Limit.CANCELLED));
+    }
+
+    @Test
+    public void tryParseTest() {
+
+        PCREParseOptions options = PCREParseOptions.DEFAULT.withMaxTokens(5);
+
+        assertThat(PCRE.tryParse("(a)", options).isValid(), is(true));
+        assertThat(PCRE.tryParse("(a", options).isValid(), is(false));
+
+        try {
+            PCRE.tryParse("(a)(b)", options);
+            fail("expected too many tokens");
+        }
+        catch(PCREBudgetExceededException e) {
+            assertThat(e.getMessage(), is("pattern has more than 5 tokens"));
+        }
+
+        // the options only apply to the patterns they are passed with
+        assertThat(PCREParsingContext.forCurrentThread().getParseOptions(), is(PCREParseOptions.DEFAULT));
+        assertThat(PCRE.tryParse("(a)(b)").isValid(), is(true));
+    }
+
+    @Test
+    public void fastParserTest() {
+
+        PCREParsingContext context = new PCREParsingContext();
+        final List<String> parsers = new ArrayList<String>();
+
+        context.setParseListener(new PCREParseListener() {
+            @Override
+            public void parsed(PCREParseStats stats) {
+                parsers.add(stats.getParser());
+            }
+        });
+
+        // the fast parser counts the tokens, without overflowing the stack
+        context.setParseOptions(PCREParseOptions.DEFAULT.withMaxTokens(1000));
+
+        assertThat(context.parse(nested(100)).getGroupCount(), is(100));
+        assertThat(exceeded(context, nested(100000)), is(PCREBudgetExceededException.Limit.TOKENS));
+        assertThat(parsers, is(Arrays.asList("PCREFastParser", "PCREFastParser")));
+
+        // and leaves groups nested close to the maximum depth to PCREParser
+        context.setParseOptions(PCREParseOptions.DEFAULT.withMaxDepth(69));
+        parsers.clear();
+
+        assertThat(context.parse(nested(8)).getGroupCount(), is(8));
+        assertThat(context.parse(nested(10)).getGroupCount(), is(10));
+        assertThat(exceeded(context, nested(11)), is(PCREBudgetExceededException.Limit.DEPTH));
+        assertThat(parsers, is(Arrays.asList("PCREFastParser", "PCREParser", "PCREParser")));
+
+        AtomicBoolean cancelled = new AtomicBoolean(true);
+
+        context.setParseOptions(PCREParseOptions.DEFAULT.withCancellation(cancelled));
+        parsers.clear();
+
+        assertThat(exceeded(context, "(a)"), is(PCREBudgetExceededException.Limit.CANCELLED));
+        assertThat(parsers, is(Arrays.asList("PCREFastParser")));
+    }
+}
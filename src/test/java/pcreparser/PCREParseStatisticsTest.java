@@ -0,0 +1,276 @@
+package pcreparser;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PCREParseStatisticsTest {
+
+    private static final class Recorder implements PCREParseListener {
+
+        private final List<PCREParseStats> stats = new ArrayList<PCREParseStats>();
+
+        @Override
+        public void parsed(PCREParseStats stats) {
+            this.stats.add(stats);
+        }
+
+        PCREParseStats last() {
+            return stats.get(stats.size() - 1);
+        }
+    }
+
+    private static String counters(PCREParseStats stats) {
+        return stats.getTokenCount() + " " + stats.getRuleInvocationCount() + " " +
+                stats.getPredicateEvaluationCount() + " " + stats.getMemoHitCount() + " " +
+                stats.getMemoMissCount() + " " + stats.getMaxBacktrackingDepth();
+    }
+
+    @Test
+    public void countersTest() {
+
+        PCREParsingContext context = new PCREParsingContext();
+        Recorder recorder = new Recorder();
+
+        context.setParseListener(recorder);
+
+        // parse(CharSequence) leaves the fast parser out
+        context.parse((CharSequence)"abc");
+
+        PCREParseStats stats = recorder.last();
+
+        assertThat(stats.getRegex(), is("abc"));
+        assertThat(stats.getParser(), is("PCREParser"));
+        assertThat(stats.getTokenCount(), is(3));
+        assertThat(stats.getRuleInvocationCount() > 3, is(true));
+        assertThat(stats.getPredicateEvaluationCount(), is(0L));
+        assertThat(stats.getMemoHitCount(), is(0L));
+        assertThat(stats.getMemoMissCount(), is(0L));
+        assertThat(stats.getMaxBacktrackingDepth(), is(0));
+
+        // the condition is told apart from a group by nested predicates
+        context.parse((CharSequence)"(?(1)a|b)");
+
+        stats = recorder.last();
+
+        assertThat(stats.getTokenCount(), is(9));
+        assertThat(stats.getPredicateEvaluationCount() > 1, is(true));
+        assertThat(stats.getMaxBacktrackingDepth(), is(2));
+        assertThat(stats.getMemoHitCount() > 0, is(true));
+        assertThat(stats.getMemoMissCount() > 0, is(true));
+
+        context.parse((CharSequence)"");
+
+        assertThat(recorder.last().getTokenCount(), is(0));
+        assertThat(recorder.last().getRuleInvocationCount() > 0, is(true));
+        assertThat(recorder.stats.size(), is(3));
+    }
+
+    @Test
+    public void linearTest() {
+
+        PCREParsingContext context = PCREParsingContext.linear();
+        Recorder recorder = new Recorder();
+
+        context.setParseListener(recorder);
+        context.parse("(?(1)a|b)");
+
+        PCREParseStats stats = recorder.last();
+
+        assertThat(stats.getParser(), is("PCRELinearParser"));
+        assertThat(stats.getTokenCount(), is(9));
+        assertThat(stats.getPredicateEvaluationCount(), is(0L));
+        assertThat(stats.getMemoHitCount() + stats.getMemoMissCount(), is(0L));
+        assertThat(stats.getMaxBacktrackingDepth(), is(0));
+    }
+
+    @Test
+    public void sameCountersTest() throws Exception {
+
+        PCREParsingContext context = new PCREParsingContext();
+        Recorder recorder = new Recorder();
+
+        context.setParseListener(recorder);
+
+        // the scanner, the lexer and the lexer decoding UTF-8 make the
+        // parser do the same
+        for(String regex : PCREParserTest.getCorpus()) {
+
+            context.parse((CharSequence)regex);
+            String expected = counters(recorder.last());
+
+            context.tryParseUtf8(ByteBuffer.wrap(regex.getBytes(StandardCharsets.UTF_8)));
+            PCREParseStats stats = recorder.last();
+
+            assertThat(regex, counters(stats), is(expected));
+            assertThat(regex, stats.getRegex(), is(regex));
+
+            AbstractPCREParser parser = context.prepare(new PCRECharStream(regex, 0, regex.length()));
+
+            try {
+                new PCRE(parser);
+            }
+            catch(RuntimeException e) {
+                // unsupported properties, reported by tryParse as well
+            }
+            finally {
+                context.release();
+            }
+
+            assertThat(regex, counters(recorder.last()), is(expected));
+        }
+    }
+
+    @Test
+    public void invalidTest() {
+
+        PCREParsingContext context = new PCREParsingContext();
+        Recorder recorder = new Recorder();
+
+        context.setParseListener(recorder);
+
+        assertThat(context.tryParse("(((").isValid(), is(false));
+        assertThat(context.tryParse("a\\p{Unknown}", true).isValid(), is(false));
+
+        assertThat(recorder.stats.size(), is(2));
+        assertThat(recorder.stats.get(0).getRegex(), is("((("));
+        assertThat(recorder.stats.get(0).getTokenCount(), is(3));
+        assertThat(recorder.stats.get(1).getRegex(), is("a\\p{Unknown}"));
+
+        // left to PCREParser by the fast parser, and reported once
+        assertThat(recorder.stats.get(0).getParser(), is("PCREParser"));
+        assertThat(recorder.stats.get(0).getRuleInvocationCount() > 0, is(true));
+    }
+
+    @Test
+    public void fastParserTest() {
+
+        PCREParsingContext context = new PCREParsingContext();
+        Recorder recorder = new Recorder();
+
+        context.setParseListener(recorder);
+
+        assertThat(context.parse("(?<n>a|b)\\d+").getGroupCount(), is(1));
+        assertThat(context.tryParse("abc").isValid(), is(true));
+
+        PCREParseStats stats = recorder.stats.get(0);
+
+        assertThat(recorder.stats.size(), is(2));
+        assertThat(stats.getParser(), is("PCREFastParser"));
+        assertThat(stats.getRegex(), is("(?<n>a|b)\\d+"));
+        assertThat(stats.getTokenCount(), is(11));
+        assertThat(stats.getNanos() > 0, is(true));
+        assertThat(counters(stats), is("11 0 0 0 0 0"));
+        assertThat(stats.toString(), startsWith("parser=PCREFastParser, tokens=11, rules=0, "));
+        assertThat(recorder.last().getTokenCount(), is(3));
+
+        // the same tokens as the ANTLR parsers read
+        context.parse((CharSequence)"(?<n>a|b)\\d+");
+
+        assertThat(recorder.last().getTokenCount(), is(11));
+    }
+
+    @Test
+    public void defaultListenerTest() {
+
+        Recorder all = new Recorder();
+        Recorder own = new Recorder();
+
+        PCRE.setParseListener(all);
+
+        try {
+            assertThat(PCRE.getParseListener(), is((PCREParseListener)all));
+
+            new PCRE("a(b)");
+            PCRE.tryParse("(c)");
+
+            PCREParsingContext context = new PCREParsingContext();
+            context.setParseListener(own);
+            context.parse("d");
+
+            assertThat(all.stats.size(), is(2));
+            assertThat(all.stats.get(1).getRegex(), is("(c)"));
+            assertThat(own.stats.size(), is(1));
+
+            context.setParseListener(null);
+            context.parse("e");
+
+            assertThat(all.stats.size(), is(3));
+        }
+        finally {
+            PCRE.setParseListener(null);
+        }
+
+        new PCRE("f");
+
+        assertThat(all.stats.size(), is(3));
+    }
+
+    @Test
+    public void statisticsTest() {
+
+        PCREParsingContext context = new PCREParsingContext();
+        PCREParseStatistics statistics = new PCREParseStatistics();
+
+        assertThat(statistics.getSlowest(), is(nullValue()));
+
+        context.setParseListener(statistics);
+
+        context.parse((CharSequence)"a");
+        context.parse((CharSequence)"abcd");
+        context.parse((CharSequence)"(?(1)a|b)");
+
+        PCREParseStatistics.Histogram tokens = statistics.getTokenCounts();
+
+        assertThat(tokens.getCount(), is(3L));
+        assertThat(tokens.getTotal(), is(14L));
+        assertThat(tokens.getMax(), is(9L));
+        assertThat(tokens.getBucketCount(1), is(1L));
+        assertThat(tokens.getBucketCount(3), is(1L));
+        assertThat(tokens.getBucketCount(4), is(1L));
+        assertThat(tokens.getPercentile(0.5), is(7L));
+        assertThat(tokens.getPercentile(1), is(9L));
+
+        assertThat(statistics.getMaxBacktrackingDepths().getMax(), is(2L));
+        assertThat(statistics.getNanos().getCount(), is(3L));
+        assertThat(statistics.getSlowest().getNanos(), is(statistics.getNanos().getMax()));
+        assertThat(statistics.toString(), containsString("tokens: count=3, mean=4.7, p50<=7, p99<=9, max=9\n"));
+    }
+
+    @Test
+    public void histogramTest() {
+
+        PCREParseStatistics.Histogram histogram = new PCREParseStatistics.Histogram();
+
+        assertThat(histogram.getPercentile(0.99), is(0L));
+        assertThat(histogram.getMean(), is(0.0));
+
+        for(long value = 0; value < 100; value++) {
+            histogram.add(value);
+        }
+
+        histogram.add(Long.MAX_VALUE);
+
+        assertThat(PCREParseStatistics.Histogram.bucket(0), is(0));
+        assertThat(PCREParseStatistics.Histogram.bucket(1), is(1));
+        assertThat(PCREParseStatistics.Histogram.bucket(2), is(2));
+        assertThat(PCREParseStatistics.Histogram.bucket(3), is(2));
+        assertThat(PCREParseStatistics.Histogram.bucket(Long.MAX_VALUE), is(63));
+        assertThat(PCREParseStatistics.Histogram.bucketLimit(2), is(3L));
+        assertThat(PCREParseStatistics.Histogram.bucketLimit(63), is(Long.MAX_VALUE));
+
+        assertThat(histogram.getCount(), is(101L));
+        assertThat(histogram.getBucketCount(7), is(36L));
+        assertThat(histogram.getBucketCount(63), is(1L));
+        assertThat(histogram.getPercentile(0), is(0L));
+        assertThat(histogram.getPercentile(0.5), is(63L));
+        assertThat(histogram.getPercentile(0.99), is(127L));
+        assertThat(histogram.getPercentile(1), is(Long.MAX_VALUE));
+    }
+}
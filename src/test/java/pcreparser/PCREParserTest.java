@@ -5,6 +5,12 @@ import org.antlr.runtime.CommonTokenStream;
 import org.antlr.runtime.tree.CommonTree;
 import org.junit.Test;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.junit.Assert.*;
@@ -24,6 +30,32 @@ public class PCREParserTest {
         return new PCREParser(tokenStream);
     }
 
+    /**
+     * Returns the patterns from <code>corpus.txt</code>: all valid patterns
+     * used in the tests and benchmarks, one per line.
+     *
+     * @return the patterns from <code>corpus.txt</code>.
+     */
+    public static List<String> getCorpus() throws IOException {
+
+        List<String> corpus = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                PCREParserTest.class.getResourceAsStream("corpus.txt"), "UTF-8"));
+
+        try {
+            String line;
+
+            while((line = reader.readLine()) != null) {
+                corpus.add(line);
+            }
+        }
+        finally {
+            reader.close();
+        }
+
+        return corpus;
+    }
+
     @Test
     public void parseTest() throws Exception {
 
@@ -1148,4 +1180,29 @@ public class PCREParserTest {
             assertThat(value, notNullValue());
         }
     }
+
+    @Test
+    public void memoTest() throws Exception {
+
+        List<String> corpus = getCorpus();
+        PCREParser reused = getParser("");
+        int memoized = 0;
+
+        // backwards, so that the shorter patterns at the start run into stale memos if they are not cleared
+        for(int i = corpus.size() - 1; i >= 0; i--) {
+
+            String source = corpus.get(i);
+            CommonTree expected = (CommonTree)getParser(source).parse().getTree();
+
+            reused.setTokenStream(new CommonTokenStream(new PCRELexer(new ANTLRStringStream(source))));
+            assertThat(reused.getRuleMemoizationCacheSize(), is(0));
+
+            CommonTree tree = (CommonTree)reused.parse().getTree();
+
+            assertThat(source, tree.toStringTree(), is(expected.toStringTree()));
+            memoized = Math.max(memoized, reused.getRuleMemoizationCacheSize());
+        }
+
+        assertThat(memoized > 0, is(true));
+    }
 }
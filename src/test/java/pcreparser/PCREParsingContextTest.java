@@ -0,0 +1,141 @@
+package pcreparser;
+
+import org.antlr.runtime.tree.CommonTree;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class PCREParsingContextTest {
+
+    @Test
+    public void sameTreesTest() throws Exception {
+
+        PCREParsingContext context = new PCREParsingContext();
+
+        for(String regex : PCREParserTest.getCorpus()) {
+
+            PCREParser parser = PCREParserTest.getParser(regex);
+            CommonTree expected = (CommonTree)parser.parse().getTree();
+
+            PCRE pcre = context.parse(regex);
+
+            assertThat(regex, pcre.toStringLisp(), is(expected.toStringTree()));
+            assertThat(regex, pcre.getGroupCount(), is(parser.captureReturns.size()));
+            assertThat(regex, pcre.getNamedGroupCount(), is(parser.namedReturns.size()));
+        }
+    }
+
+    @Test
+    public void reuseAfterErrorTest() {
+
+        PCREParsingContext context = new PCREParsingContext();
+        PrintStream err = System.err;
+
+        try {
+            // ANTLR reports syntax errors on stderr
+            System.setErr(new PrintStream(new ByteArrayOutputStream()));
+            context.parse("([a");
+        }
+        finally {
+            System.setErr(err);
+        }
+
+        try {
+            context.parse("\\p{Unknown}");
+            fail("expected an unsupported property");
+        }
+        catch(RuntimeException e) {
+            assertThat(e.getMessage(), is("unsupported character property: Unknown"));
+        }
+
+        PCRE pcre = context.parse("(a)(?<B>b)");
+
+        assertThat(pcre.getGroupCount(), is(2));
+        assertThat(pcre.getNamedGroupCount(), is(1));
+        assertThat(pcre.toStringLisp(), is(new PCRE("(a)(?<B>b)").toStringLisp()));
+    }
+
+    @Test
+    public void forCurrentThreadTest() {
+
+        PCREParsingContext context = PCREParsingContext.forCurrentThread();
+
+        assertThat(PCREParsingContext.forCurrentThread() == context, is(true));
+
+        context.prepare("a");
+
+        try {
+            assertThat(PCREParsingContext.forCurrentThread() == context, is(false));
+        }
+        finally {
+            context.release();
+        }
+
+        assertThat(PCREParsingContext.forCurrentThread() == context, is(true));
+    }
+
+    @Test
+    public void reuseAfterFailedPrepareTest() {
+
+        PCREParsingContext context = PCREParsingContext.forCurrentThread();
+
+        CharSequence broken = new CharSequence() {
+            @Override
+            public int length() {
+                return 3;
+            }
+
+            @Override
+            public char charAt(int index) {
+                throw new IllegalStateException("unreadable");
+            }
+
+            @Override
+            public CharSequence subSequence(int start, int end) {
+                throw new IllegalStateException("unreadable");
+            }
+        };
+
+        try {
+            context.parse(broken);
+            fail("expected the pattern to be unreadable");
+        }
+        catch(IllegalStateException e) {
+            assertThat(e.getMessage(), is("unreadable"));
+        }
+
+        assertThat(PCREParsingContext.forCurrentThread() == context, is(true));
+        assertThat(context.parse("(a)").getGroupCount(), is(1));
+    }
+
+    @Test
+    public void invalidPatternTest() throws Exception {
+
+        PCREParsingContext context = new PCREParsingContext();
+
+        for(String regex : new String[]{"(a", "[a", "\\", "a)", "\\g-1|"}) {
+
+            PCREParser parser = PCREParserTest.getParser(regex);
+            parser.errors.errorMessages = new ArrayList<String>();
+            CommonTree expected = (CommonTree)parser.parse().getTree();
+
+            List<String> errorMessages = new ArrayList<String>();
+            PCRE pcre = context.parse(regex, errorMessages);
+
+            // error nodes must not read from the token stream reused for "b"
+            context.parse("b");
+
+            assertThat(regex, pcre.toStringLisp(), is(expected.toStringTree()));
+            assertThat(regex, pcre.toStringASCII(), is(new PCRE(regex).toStringASCII()));
+            assertThat(regex, errorMessages, is(parser.errors.errorMessages));
+            assertThat(regex, errorMessages.isEmpty(), is(false));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package pcreparser;
+
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.Token;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PCREScannerTest {
+
+    // the tokens of PCRELexer, or null if it reports an error or throws
+    private static List<Token> lex(String regex) {
+
+        PCRELexer lexer = new PCRELexer(new ANTLRStringStream(regex));
+        List<String> errors = new ArrayList<String>();
+        List<Token> tokens = new ArrayList<Token>();
+
+        lexer.errors.errorMessages = errors;
+
+        try {
+            Token token;
+
+            do {
+                token = lexer.nextToken();
+                tokens.add(token);
+            }
+            while(token.getType() != Token.EOF);
+        }
+        catch(RuntimeException e) {
+            return null;
+        }
+
+        return errors.isEmpty() ? tokens : null;
+    }
+
+    private static void assertSameTokens(String regex, PCREScanner scanner) {
+
+        List<Token> expected = lex(regex);
+
+        if(!scanner.scan(regex)) {
+            assertThat("only patterns PCRELexer rejects are left to it: " + regex, expected == null, is(true));
+            return;
+        }
+
+        assertThat("PCRELexer rejects " + regex, expected != null, is(true));
+        assertThat(regex, scanner.getTokenCount(), is(expected.size() - 1));
+
+        for(int i = 0; i < expected.size(); i++) {
+
+            CommonToken token = (CommonToken)expected.get(i);
+            CommonToken actual = (CommonToken)scanner.nextToken();
+            String message = regex + ", token " + i;
+
+            assertThat(message, actual.getType(), is(token.getType()));
+            assertThat(message, actual.getText(), is(token.getText()));
+            assertThat(message, actual.getStartIndex(), is(token.getStartIndex()));
+            assertThat(message, actual.getStopIndex(), is(token.getStopIndex()));
+            assertThat(message, actual.getLine(), is(token.getLine()));
+            assertThat(message, actual.getCharPositionInLine(), is(token.getCharPositionInLine()));
+
+            if(i < scanner.getTokenCount()) {
+                assertThat(message, scanner.getType(i), is(token.getType()));
+                assertThat(message, scanner.getText(i), is(token.getText()));
+                assertThat(message, scanner.getStart(i), is(token.getStartIndex()));
+                assertThat(message, scanner.getStop(i), is(token.getStopIndex()));
+            }
+        }
+    }
+
+    @Test
+    public void corpusTest() throws Exception {
+
+        PCREScanner scanner = new PCREScanner();
+
+        for(String regex : PCREParserTest.getCorpus()) {
+            assertSameTokens(regex, scanner);
+        }
+    }
+
+    @Test
+    public void escapesTest() {
+
+        PCREScanner scanner = new PCREScanner();
+
+        String[] regexes = {
+                "", "\\", "\\\\", "\\Q\\E", "\\Qa\\Eb\\E", "\\Q\\\\E", "\\Qab", "\\x41\\x414\\x{263A}\\x{1F600}",
+                "\\x{41}", "\\x4", "\\x{110000}", "\\cA\\c\\\\c", "\\c\u00e9", "\\a\\e\\f\\n\\r\\t", "\\1\\o\\E",
+                "\\p{Lu}\\P{Greek}", "\\p{Foo}", "\\p", "\\pL", "[[:alpha:]][[:^digit:]]", "[[:foo:]]", "[[:",
+                "[[:alpha:]", "[[a]]", "a\nb\\\nc\n", "\u00e9\u20ac\uD83D\uDE00", "(?<n>a)\\k<n>\\g{-1}(*UCP)"
+        };
+
+        for(String regex : regexes) {
+            assertSameTokens(regex, scanner);
+        }
+    }
+
+    @Test
+    public void sliceTest() throws Exception {
+
+        PCREScanner scanner = new PCREScanner();
+        PCREScanner sliceScanner = new PCREScanner();
+        List<String> regexes = new ArrayList<String>(PCREParserTest.getCorpus());
+
+        regexes.addAll(Arrays.asList("", "\\Qab", "\\x{41}", "\\p{Lu}", "[[:alpha:]]", "a\nb"));
+
+        for(String regex : regexes) {
+
+            // chars around the slice that would change its tokens if read
+            StringBuilder padded = new StringBuilder("\\Q").append(regex).append("\\E\\");
+            boolean scanned = scanner.scan(regex);
+
+            assertThat(regex, sliceScanner.scan(padded, 2, 2 + regex.length()), is(scanned));
+
+            if(!scanned) {
+                continue;
+            }
+
+            assertThat(regex, sliceScanner.getTokenCount(), is(scanner.getTokenCount()));
+
+            for(int i = 0; i <= scanner.getTokenCount(); i++) {
+
+                CommonToken token = (CommonToken)scanner.nextToken();
+                CommonToken actual = (CommonToken)sliceScanner.nextToken();
+                String message = regex + ", token " + i;
+
+                assertThat(message, actual.getType(), is(token.getType()));
+                assertThat(message, actual.getText(), is(token.getText()));
+                assertThat(message, actual.getStartIndex(), is(token.getStartIndex() + 2));
+                assertThat(message, actual.getStopIndex(), is(token.getStopIndex() + 2));
+                assertThat(message, actual.getLine(), is(token.getLine()));
+                assertThat(message, actual.getCharPositionInLine(), is(token.getCharPositionInLine()));
+            }
+        }
+    }
+
+    @Test
+    public void randomTest() {
+
+        PCREScanner scanner = new PCREScanner();
+        Random random = new Random(42);
+        String chars = "\\\\\\\\[[[:::]]]^^{{}}QEcxpP_aZ09fF{}-()|?*+.$#\n\u00e9";
+
+        for(int i = 0; i < 20000; i++) {
+
+            StringBuilder regex = new StringBuilder();
+            int length = random.nextInt(12);
+
+            for(int j = 0; j < length; j++) {
+                regex.append(chars.charAt(random.nextInt(chars.length())));
+            }
+
+            assertSameTokens(regex.toString(), scanner);
+        }
+    }
+}
@@ -2,9 +2,25 @@ package pcreparser;
 
 import org.antlr.runtime.tree.CommonTree;
 import org.junit.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
 
 public class PCRETest {
 
@@ -113,4 +129,522 @@ public class PCRETest {
         pcre = new PCRE("(?<A>aaa)(?'B'bbb)(?P<C>ccc(?<D>ddd))");
         assertThat(pcre.getNamedGroupCount(), is(4));
     }
+
+    @Test
+    public void groupTableTest() {
+
+        PCRE pcre = new PCRE("a(b)(?<X>c(?'Y'd))(?P<Z>)");
+
+        assertThat(pcre.getGroupNumber("X"), is(2));
+        assertThat(pcre.getGroupNumber("Y"), is(3));
+        assertThat(pcre.getGroupNumber("Z"), is(4));
+        assertThat(pcre.getGroupNumber("W"), is(-1));
+        assertThat(pcre.getGroupName(0), nullValue());
+        assertThat(pcre.getGroupName(1), nullValue());
+        assertThat(pcre.getGroupName(3), is("Y"));
+
+        int[] spans = {0, 24, 1, 3, 4, 17, 10, 16, 18, 24};
+
+        for(int group = 0; group <= pcre.getGroupCount(); group++) {
+            assertThat(pcre.getGroupStart(group), is(spans[group * 2]));
+            assertThat(pcre.getGroupStop(group), is(spans[group * 2 + 1]));
+        }
+
+        pcre = new PCRE("");
+
+        assertThat(pcre.getGroupStart(0), is(0));
+        assertThat(pcre.getGroupStop(0), is(-1));
+        assertThat(pcre.getGroupNumber("X"), is(-1));
+
+        // many names, colliding in the table
+        StringBuilder regex = new StringBuilder();
+
+        for(int i = 0; i < 100; i++) {
+            regex.append("(?<n").append(i).append(">x)");
+        }
+
+        pcre = new PCRE(regex.toString());
+
+        for(int i = 0; i < 100; i++) {
+            assertThat(pcre.getGroupNumber("n" + i), is(i + 1));
+            assertThat(pcre.getGroupName(i + 1), is("n" + i));
+        }
+    }
+
+    @Test
+    public void groupSpansTest() throws Exception {
+
+        for(String regex : PCREParserTest.getCorpus()) {
+
+            PCRE expected = new PCRE(regex);
+            PCRE fast = PCREFastParser.tryParse(regex);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            expected.writeTo(out);
+
+            PCRE[] others = {
+                    PCRE.lazy(regex), PCREParsingContext.linear().parse(regex),
+                    PCRE.load(ByteBuffer.wrap(out.toByteArray()), 0), fast == null ? expected : fast
+            };
+
+            for(int group = 0; group <= expected.getGroupCount(); group++) {
+
+                int start = expected.getGroupStart(group);
+                int stop = expected.getGroupStop(group);
+
+                if(group > 0) {
+                    assertThat(regex, regex.charAt(start), is('('));
+                    assertThat(regex, regex.charAt(stop), is(')'));
+                }
+
+                for(PCRE other : others) {
+                    assertThat(regex, other.getGroupStart(group), is(start));
+                    assertThat(regex, other.getGroupStop(group), is(stop));
+                    assertThat(regex, other.getGroupName(group), is(expected.getGroupName(group)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void charSliceTest() throws Exception {
+
+        for(String regex : PCREParserTest.getCorpus()) {
+
+            PCRE expected = new PCRE(regex);
+            String padded = "#(" + regex + ")#";
+            char[] array = padded.toCharArray();
+            CharBuffer buffer = CharBuffer.wrap(array, 2, regex.length());
+
+            PCRE[] slices = {
+                    new PCRE(array, 2, regex.length()), new PCRE(buffer), new PCRE(new StringBuilder(regex))
+            };
+
+            assertThat(regex, buffer.position(), is(2));
+            assertThat(regex, buffer.limit(), is(2 + regex.length()));
+
+            for(int i = 0; i < slices.length; i++) {
+
+                // the array and buffer slices start at index 2
+                int shift = i < 2 ? 2 : 0;
+
+                assertThat(regex, slices[i].toStringLisp(), is(expected.toStringLisp()));
+                assertThat(regex, slices[i].getGroupCount(), is(expected.getGroupCount()));
+
+                for(int group = 0; group <= expected.getGroupCount(); group++) {
+
+                    int start = expected.getGroupStart(group);
+                    int stop = expected.getGroupStop(group);
+
+                    assertThat(regex, slices[i].getGroupStart(group), is(start == PCRETree.NONE ? start : start + shift));
+                    assertThat(regex, slices[i].getGroupStop(group), is(stop == PCRETree.NONE ? stop : stop + shift));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void fromUtf8Test() throws Exception {
+
+        List<String> regexes = new ArrayList<String>(PCREParserTest.getCorpus());
+
+        regexes.addAll(Arrays.asList(
+                "\u00e9+(\u20ac)\\x{20AC}", "\uD83D\uDE00+", "(a\uD83D\uDE00)\\x{1F600}[\uD83D\uDE00-\uD83D\uDE4F]",
+                "(?<n\u00e9>x)", "\\Q\uD83D\uDE00\\E(\\\uD83D\uDE00)", "a\n(\u20ac)\n#\uD83D\uDE00"
+        ));
+
+        for(String regex : regexes) {
+
+            PCRE expected = new PCRE(regex);
+            byte[] bytes = regex.getBytes(StandardCharsets.UTF_8);
+            byte[] padded = new byte[bytes.length + 4];
+
+            System.arraycopy(bytes, 0, padded, 3, bytes.length);
+            padded[0] = '(';
+            padded[bytes.length + 3] = ')';
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(padded.length);
+            direct.put(padded).position(3).limit(3 + bytes.length);
+
+            PCRE[] decoded = {PCRE.fromUtf8(padded, 3, bytes.length), PCRE.fromUtf8(direct)};
+            int[] indexes = PCREUtf8CharStreamTest.byteIndexes(regex, 3);
+
+            assertThat(regex, direct.position(), is(3));
+
+            for(PCRE pcre : decoded) {
+
+                assertThat(regex, pcre.toStringLisp(), is(expected.toStringLisp()));
+                assertThat(regex, pcre.getGroupCount(), is(expected.getGroupCount()));
+
+                for(int group = 0; group <= expected.getGroupCount(); group++) {
+
+                    int start = expected.getGroupStart(group);
+                    int stop = expected.getGroupStop(group);
+
+                    if(start == PCRETree.NONE) {
+                        assertThat(regex, pcre.getGroupStart(group), is(start));
+                        continue;
+                    }
+
+                    // the stop of a group is the last byte of its last char
+                    assertThat(regex, pcre.getGroupStart(group), is(indexes[start]));
+                    assertThat(regex, pcre.getGroupStop(group), is(stop < start ? indexes[start] - 1 : indexes[stop + 1] - 1));
+                    assertThat(regex, pcre.getGroupName(group), is(expected.getGroupName(group)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void charSliceInvalidTest() {
+
+        char[] array = "x(ab)".toCharArray();
+
+        try {
+            new PCRE(array, 3, 3);
+            fail("expected an IndexOutOfBoundsException");
+        }
+        catch(IndexOutOfBoundsException e) {
+            // expected
+        }
+
+        // \p{Foo} is left to the lexer, which reads the array in place
+        array = "ab\\p{Foo}".toCharArray();
+
+        try {
+            new PCRE(array, 2, 7);
+            fail("expected an unsupported property");
+        }
+        catch(RuntimeException e) {
+            assertThat(e.getMessage().contains("Foo"), is(true));
+        }
+    }
+
+    @Test
+    public void retainedSizeTest() throws Exception {
+
+        String regex = "^(?<year>\\d{4})-(?<month>0[1-9]|1[0-2])-(?<day>0[1-9]|[12]\\d|3[01])$";
+
+        // what a PCRE instance used to retain: the parser after parsing,
+        // including its token stream, memoization maps and return scopes
+        PCREParser parser = PCREParserTest.getParser(regex);
+        parser.captureReturns.put(0, parser.parse());
+
+        long parserSize = GraphLayout.parseInstance(parser).totalSize();
+        long pcreSize = GraphLayout.parseInstance(new PCRE(regex)).totalSize();
+
+        assertThat("retained " + pcreSize + " bytes instead of " + parserSize, pcreSize * 10 < parserSize, is(true));
+    }
+
+    @Test
+    public void lazyTest() throws Exception {
+
+        for(String regex : PCREParserTest.getCorpus()) {
+
+            PCRE expected = new PCRE(regex);
+            PCRE lazy = PCRE.lazy(regex);
+
+            assertThat(regex, lazy.getGroupCount(), is(expected.getGroupCount()));
+            assertThat(regex, lazy.getNamedGroupCount(), is(expected.getNamedGroupCount()));
+
+            // the groups first, then the entire pattern
+            for(int group = expected.getGroupCount(); group >= 0; group--) {
+                assertThat(regex, lazy.toStringASCII(group), is(expected.toStringASCII(group)));
+            }
+        }
+    }
+
+    @Test
+    public void lazyNamedGroupTest() {
+
+        PCRE pcre = PCREParsingContext.linear().parseLazy("(x)(?<A>a(?'B'b))");
+
+        assertThat(pcre.getGroupCount(), is(3));
+        assertThat(pcre.getNamedGroupCount(), is(2));
+        assertThat(pcre.toStringLisp("B"), is(new PCRE("(x)(?<A>a(?'B'b))").toStringLisp("B")));
+        assertThat(pcre.getCommonTree("A"), is(pcre.getCommonTree(2)));
+
+        // the groups built before are the subtrees of the entire pattern
+        CommonTree groupA = pcre.getCommonTree("A");
+        CommonTree group0 = pcre.getCommonTree();
+
+        assertThat(pcre.getCommonTree("A") == groupA, is(true));
+        assertThat(groupA.getParent().getParent(), is((Object)group0));
+    }
+
+    @Test
+    public void lazyOffsetsTest() {
+
+        String regex = "xyz(ab(?<n>c))";
+
+        PCRE expected = new PCRE(regex);
+        PCRE lazy = PCRE.lazy(regex);
+
+        // the groups first, then the entire pattern
+        for(int group = expected.getGroupCount(); group >= 0; group--) {
+
+            CommonTree expectedTree = expected.getCommonTree(group);
+            CommonTree lazyTree = lazy.getCommonTree(group);
+
+            assertThat(regex, lazyTree.getTokenStartIndex(), is(expectedTree.getTokenStartIndex()));
+            assertThat(regex, lazyTree.getTokenStopIndex(), is(expectedTree.getTokenStopIndex()));
+            assertThat(regex, lazyTree.getCharPositionInLine(), is(expectedTree.getCharPositionInLine()));
+        }
+
+        assertThat(lazy.getCommonTree(1).getTokenStartIndex(), is(3));
+        assertThat(lazy.getCommonTree("n").getTokenStartIndex(), is(6));
+    }
+
+    @Test
+    public void writeASCIITest() throws Exception {
+
+        PCRE pcre = new PCRE("(a|b)(?<N>c+)");
+
+        String expected =
+                "'- ALTERNATIVE\n" +
+                "   |- ELEMENT\n" +
+                "   |  '- CAPTURING_GROUP\n" +
+                "   |     '- OR\n" +
+                "   |        |- ALTERNATIVE\n" +
+                "   |        |  '- ELEMENT\n" +
+                "   |        |     '- LITERAL='a'\n" +
+                "   |        '- ALTERNATIVE\n" +
+                "   |           '- ELEMENT\n" +
+                "   |              '- LITERAL='b'\n" +
+                "   '- ELEMENT\n" +
+                "      '- NAMED_CAPTURING_GROUP_PERL\n" +
+                "         |- NAME='N'\n" +
+                "         '- ALTERNATIVE\n" +
+                "            '- ELEMENT\n" +
+                "               |- LITERAL='c'\n" +
+                "               '- QUANTIFIER\n" +
+                "                  |- NUMBER='1'\n" +
+                "                  |- NUMBER='2147483647'\n" +
+                "                  '- GREEDY\n";
+
+        StringWriter writer = new StringWriter();
+        pcre.writeASCII(writer);
+
+        assertThat(writer.toString(), is(expected));
+        assertThat(pcre.toStringASCII(), is(expected));
+
+        writer = new StringWriter();
+        pcre.writeASCII(writer, "N");
+
+        assertThat(writer.toString(), is(pcre.toStringASCII(2)));
+        assertThat(pcre.toStringASCII("N"), is(expected.substring(expected.indexOf("'- NAMED")).replaceAll("(?m)^      ", "")));
+    }
+
+    @Test
+    public void writeDOTTest() throws Exception {
+
+        PCRE pcre = new PCRE("(a)|(?<N>\"\\\\)");
+
+        StringWriter writer = new StringWriter();
+        pcre.writeDOT(writer);
+        String dot = writer.toString();
+
+        assertThat(dot.startsWith("digraph {\n"), is(true));
+        assertThat(dot.endsWith("\n}\n"), is(true));
+        assertThat(dot.contains("  n0 [label=\"OR\"];\n"), is(true));
+        assertThat(dot.contains("  n0 -> n1;\n"), is(true));
+
+        // the literals '"' and '\\' are escaped
+        assertThat(dot.contains("[label=\"\\\"\"];"), is(true));
+        assertThat(dot.contains("[label=\"\\\\\"];"), is(true));
+
+        // all nodes once, and an edge to every node but the root
+        int nodes = PCRETree.of(pcre).size();
+        assertThat(dot.split("\\[label=").length - 1, is(nodes));
+        assertThat(dot.split(" -> ").length - 1, is(nodes - 1));
+
+        writer = new StringWriter();
+        pcre.writeDOT(writer, "N", DOTOptions.DEFAULT
+                .withLabel(DOTOptions.Label.TOKEN_NAME_AND_TEXT)
+                .withGroupsHighlighted(true)
+                .withMaxDepth(1));
+        dot = writer.toString();
+
+        assertThat(dot.contains("  n0 [label=\"NAMED_CAPTURING_GROUP_PERL\\ngroup 2 'N'\", fillcolor=\"lightblue\"];\n"), is(true));
+        assertThat(dot.contains("  n1 [label=\"NAME='N'\"];\n"), is(true));
+        assertThat(dot.contains("  n2 [label=\"ALTERNATIVE\"];\n"), is(true));
+        assertThat(dot.contains("  n3 [label=\"...\", style=\"dashed\"];\n  n2 -> n3;\n"), is(true));
+        assertThat(dot.contains("n4"), is(false));
+
+        // a group in the first alternative of an OR
+        writer = new StringWriter();
+        pcre.writeDOT(writer, 0, DOTOptions.DEFAULT.withLabel(DOTOptions.Label.TOKEN_NAME).withGroupsHighlighted(true));
+
+        assertThat(writer.toString().contains("[label=\"CAPTURING_GROUP\\ngroup 1\", fillcolor=\"lightblue\"];"), is(true));
+    }
+
+    @Test
+    public void parseAllTest() throws Exception {
+
+        List<String> patterns = new ArrayList<String>();
+
+        for(String regex : PCREParserTest.getCorpus()) {
+            patterns.add(regex);
+            patterns.add("(" + regex);
+        }
+
+        patterns.add("\\p{Foo}");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            List<PCREResult> results = PCRE.parseAll(patterns, executor);
+
+            assertThat(results.size(), is(patterns.size()));
+
+            for(int i = 0; i < patterns.size(); i++) {
+
+                PCREResult result = results.get(i);
+                String regex = patterns.get(i);
+
+                assertThat(result.getRegex(), is(regex));
+
+                if(i == patterns.size() - 1) {
+                    assertThat(result.isValid(), is(false));
+                    assertThat(result.getErrors(), is(Arrays.asList("unsupported character property: Foo")));
+                }
+                else if(i % 2 == 1) {
+                    assertThat(regex, result.isValid(), is(false));
+                    assertThat(regex, result.getPCRE(), nullValue());
+                    assertThat(regex, result.getErrors().isEmpty(), is(false));
+                }
+                else {
+                    assertThat(regex, result.getErrors(), is(Collections.<String>emptyList()));
+                    assertThat(regex, result.getPCRE().toStringLisp(), is(new PCRE(regex).toStringLisp()));
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void parseAllCallerThreadTest() {
+
+        // an executor that never runs anything: the calling thread parses all
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+            }
+        };
+
+        List<PCREResult> results = PCRE.parseAll(Arrays.asList("(a)", "(?<n>b)", "[a"), executor);
+
+        assertThat(results.get(0).getPCRE().getGroupCount(), is(1));
+        assertThat(results.get(1).getPCRE().getNamedGroupCount(), is(1));
+        assertThat(results.get(2).isValid(), is(false));
+        assertThat(PCRE.parseAll(new ArrayList<String>()).isEmpty(), is(true));
+    }
+
+    @Test
+    public void tryParseTest() throws Exception {
+
+        for(String regex : PCREParserTest.getCorpus()) {
+
+            PCREResult result = PCRE.tryParse(regex);
+
+            assertThat(regex, result.isValid(), is(true));
+            assertThat(regex, result.getDiagnostics().isEmpty(), is(true));
+            assertThat(regex, result.getPCRE().toStringLisp(), is(new PCRE(regex).toStringLisp()));
+        }
+
+        PCREResult result = PCRE.tryParse("(?<n");
+        PCREDiagnostic diagnostic = result.getDiagnostics().get(0);
+
+        assertThat(result.isValid(), is(false));
+        assertThat(result.getPCRE(), nullValue());
+        assertThat(diagnostic.getOffset(), is(4));
+        assertThat(diagnostic.getExpected(), is(Arrays.asList("GreaterThan")));
+        assertThat(diagnostic.getMessage(), is("mismatched input '<EOF>' expecting GreaterThan"));
+
+        // inside a single token: the lexer expects a char
+        diagnostic = PCRE.tryParse("a\\Qb").getDiagnostics().get(0);
+
+        assertThat(diagnostic.getOffset(), is(4));
+        assertThat(diagnostic.getExpected(), is(Arrays.asList("'\\'")));
+
+        // reported at the start of the token instead of thrown
+        result = PCRE.tryParse("ab\\p{Foo}");
+        diagnostic = result.getDiagnostics().get(0);
+
+        assertThat(result.getErrors(), is(Arrays.asList("unsupported character property: Foo")));
+        assertThat(diagnostic.getOffset(), is(2));
+        assertThat(diagnostic.getExpected().isEmpty(), is(true));
+
+        diagnostic = PCRE.tryParse("[[:foo:]]").getDiagnostics().get(0);
+
+        assertThat(diagnostic.getOffset(), is(0));
+        assertThat(diagnostic.getMessage(), is("unsupported named set: foo"));
+    }
+
+    @Test
+    public void tryParseStopAtFirstErrorTest() {
+
+        PCREResult all = PCRE.tryParse("(*FOO)\\p{Foo}");
+        PCREResult first = PCRE.tryParse("(*FOO)\\p{Foo}", true);
+
+        assertThat(all.getDiagnostics().size() > 1, is(true));
+        assertThat(all.getErrors().size(), is(all.getDiagnostics().size()));
+        assertThat(first.isValid(), is(false));
+        assertThat(first.getErrors(), is(all.getErrors().subList(0, 1)));
+        assertThat(first.getDiagnostics().size(), is(1));
+        assertThat(first.getDiagnostics().get(0).getOffset(), is(3));
+        assertThat(first.getDiagnostics().get(0).getExpected(), is(Arrays.asList("CloseParen")));
+
+        // the context is usable again after stopping
+        assertThat(PCRE.tryParse("(a)", true).getPCRE().getGroupCount(), is(1));
+    }
+
+    @Test
+    public void writeToLoadTest() throws Exception {
+
+        String[] regexes = {"(?<Y>\\d{4})-(?<M>\\d\\d)", "", "a|(b)|(?:c(d))", PCREParserTest.getCorpus().get(42)};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        for(String regex : regexes) {
+            PCRE.lazy(regex).writeTo(out);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(out.size());
+        buffer.put(out.toByteArray()).flip();
+
+        for(int i = regexes.length - 1; i >= 0; i--) {
+
+            PCRE expected = new PCRE(regexes[i]);
+            PCRE loaded = PCRE.load(buffer, i);
+
+            assertThat(regexes[i], loaded.toStringLisp(), is(expected.toStringLisp()));
+            assertThat(regexes[i], loaded.getGroupCount(), is(expected.getGroupCount()));
+            assertThat(regexes[i], Arrays.asList(loaded.getNames()), is(Arrays.asList(expected.getNames())));
+
+            for(int group = 0; group <= expected.getGroupCount(); group++) {
+                assertThat(regexes[i], loaded.toStringLisp(group), is(expected.toStringLisp(group)));
+            }
+        }
+    }
+
+    @Test
+    public void writeToInvalidTest() throws Exception {
+
+        // PCREParser recovers from the error with a NAME without text
+        List<String> errors = new ArrayList<String>();
+        PCRE invalid = new PCREParsingContext().parse("(?&\\18[a-]\\R", errors);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertThat(errors.isEmpty(), is(false));
+        assertThat(invalid.getCommonTree().getChild(0).getChild(0).getChild(0).getText(), nullValue());
+
+        invalid.writeTo(out);
+
+        PCRE loaded = PCRE.load(ByteBuffer.wrap(out.toByteArray()), 0);
+
+        assertThat(loaded.toStringLisp(), is(invalid.toStringLisp()));
+        assertThat(loaded.getCommonTree().getChild(0).getChild(0).getChild(0).getText(), nullValue());
+    }
 }
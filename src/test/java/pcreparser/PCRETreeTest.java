@@ -0,0 +1,257 @@
+package pcreparser;
+
+import org.junit.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class PCRETreeTest {
+
+    private static void assertSameTrees(String regex, PCRE expected, PCRE actual) {
+
+        assertThat(regex, actual.getGroupCount(), is(expected.getGroupCount()));
+        assertThat(regex, actual.getNamedGroupCount(), is(expected.getNamedGroupCount()));
+
+        for(int group = 0; group <= expected.getGroupCount(); group++) {
+            assertThat(regex, actual.toStringASCII(group), is(expected.toStringASCII(group)));
+        }
+
+        for(String name : expected.getNames()) {
+            assertThat(regex, actual.toStringASCII(name), is(expected.toStringASCII(name)));
+        }
+    }
+
+    private static void assertSameNodes(String regex, PCRETree expected, PCRETree actual) {
+
+        assertThat(regex, actual.size(), is(expected.size()));
+
+        for(int node = 0; node < expected.size(); node++) {
+            assertThat(regex, actual.getType(node), is(expected.getType(node)));
+            assertThat(regex, actual.getText(node), is(expected.getText(node)));
+            assertThat(regex, actual.getParent(node), is(expected.getParent(node)));
+            assertThat(regex, actual.getNextSibling(node), is(expected.getNextSibling(node)));
+            assertThat(regex, actual.getStart(node), is(expected.getStart(node)));
+            assertThat(regex, actual.getStop(node), is(expected.getStop(node)));
+        }
+
+        for(int group = 0; group <= expected.getGroupCount(); group++) {
+            assertThat(regex, actual.getGroupNode(group), is(expected.getGroupNode(group)));
+        }
+
+        assertSameTrees(regex, expected.toPCRE(), actual.toPCRE());
+    }
+
+    @Test
+    public void corpusTest() throws Exception {
+
+        for(String regex : PCREParserTest.getCorpus()) {
+
+            PCRE expected = new PCRE(regex);
+
+            assertSameTrees(regex, expected, PCRETree.parse(regex).toPCRE());
+            assertSameTrees(regex, expected, PCRETree.of(expected).toPCRE());
+            assertSameTrees(regex, expected, PCRETree.of(PCREFastParser.parse(regex)).toPCRE());
+        }
+    }
+
+    @Test
+    public void offsetsTest() {
+
+        PCRETree tree = PCRETree.parse("\\d{4}");
+        PCRETree.Cursor cursor = tree.cursor();
+
+        // ALTERNATIVE
+        assertThat(cursor.getStart(), is(0));
+        assertThat(cursor.getStop(), is(4));
+
+        // ELEMENT
+        assertThat(cursor.gotoFirstChild(), is(true));
+        assertThat(cursor.getStart(), is(0));
+        assertThat(cursor.getStop(), is(4));
+
+        // DecimalDigit
+        assertThat(cursor.gotoFirstChild(), is(true));
+        assertThat(cursor.getText(), is("\\d"));
+        assertThat(cursor.getStart(), is(0));
+        assertThat(cursor.getStop(), is(1));
+
+        // QUANTIFIER
+        assertThat(cursor.gotoNextSibling(), is(true));
+        assertThat(cursor.getType(), is(PCREParser.QUANTIFIER));
+        assertThat(cursor.getStart(), is(2));
+        assertThat(cursor.getStop(), is(4));
+
+        tree = PCRETree.parse("(a)(?<n>bc)");
+
+        assertThat(tree.getStart(tree.getGroupNode(1)), is(0));
+        assertThat(tree.getStop(tree.getGroupNode(1)), is(2));
+        assertThat(tree.getStart(tree.getGroupNode("n")), is(3));
+        assertThat(tree.getStop(tree.getGroupNode("n")), is(10));
+
+        // an empty pattern has an empty span
+        tree = PCRETree.parse("");
+
+        assertThat(tree.getStart(0), is(0));
+        assertThat(tree.getStop(0), is(-1));
+
+        // values only implied by the pattern have no offsets
+        tree = PCRETree.parse("a+");
+        cursor = tree.cursor();
+
+        cursor.gotoFirstChild();
+        cursor.gotoFirstChild();
+        cursor.gotoNextSibling();
+        cursor.gotoFirstChild();
+
+        assertThat(cursor.getText(), is("1"));
+        assertThat(cursor.getStart(), is(PCRETree.NONE));
+    }
+
+    @Test
+    public void cursorTest() {
+
+        PCRETree tree = PCRETree.parse("(?<YEAR>(?:19|20)\\d{2})");
+        PCRETree.Cursor cursor = tree.cursor(tree.getGroupNode("YEAR"));
+
+        assertThat(cursor.getType(), is(PCREParser.NAMED_CAPTURING_GROUP_PERL));
+        assertThat(cursor.getChildCount(), is(2));
+        assertThat(cursor.gotoFirstChild(), is(true));
+        assertThat(cursor.getType(), is(PCREParser.NAME));
+        assertThat(cursor.getText(), is("YEAR"));
+        assertThat(cursor.gotoFirstChild(), is(false));
+        assertThat(cursor.gotoNextSibling(), is(true));
+        assertThat(cursor.getType(), is(PCREParser.ALTERNATIVE));
+        assertThat(cursor.gotoNextSibling(), is(false));
+        assertThat(cursor.gotoParent(), is(true));
+        assertThat(cursor.getNode(), is(tree.getGroupNode(1)));
+
+        cursor.reset(0);
+
+        assertThat(cursor.gotoParent(), is(false));
+        assertThat(tree.getParent(0), is(PCRETree.NONE));
+        assertThat(tree.toCommonTree(tree.getGroupNode(1)).toStringTree(), is(new PCRE("(?<YEAR>(?:19|20)\\d{2})").toStringLisp(1)));
+    }
+
+    @Test
+    public void retainedSizeTest() throws Exception {
+
+        List<PCRE> pcres = new ArrayList<PCRE>();
+        List<PCRETree> trees = new ArrayList<PCRETree>();
+
+        // measured against the trees of PCREParser: parse(CharSequence)
+        // does not try PCREFastParser first
+        PCREParsingContext context = new PCREParsingContext();
+
+        for(String regex : PCREParserTest.getCorpus()) {
+            pcres.add(context.parse((CharSequence)regex));
+            trees.add(PCRETree.parse(regex));
+        }
+
+        long pcreSize = GraphLayout.parseInstance(pcres).totalSize();
+        long treeSize = GraphLayout.parseInstance(trees).totalSize();
+
+        assertThat("retained " + treeSize + " bytes instead of " + pcreSize, treeSize * 5 < pcreSize, is(true));
+    }
+
+    @Test
+    public void binaryTest() throws Exception {
+
+        List<String> corpus = PCREParserTest.getCorpus();
+        List<PCRETree> trees = new ArrayList<PCRETree>();
+        File file = File.createTempFile("pcre", ".bin");
+
+        file.deleteOnExit();
+
+        OutputStream out = new FileOutputStream(file);
+
+        try {
+            for(String regex : corpus) {
+                PCRETree tree = PCRETree.parse(regex);
+                trees.add(tree);
+                tree.writeTo(out);
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+        try {
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            int offset = 0;
+
+            for(int i = 0; i < corpus.size(); i++) {
+                assertSameNodes(corpus.get(i), trees.get(i), PCRETree.read(buffer, offset));
+                offset = PCRETree.skip(buffer, offset);
+            }
+
+            assertThat(offset, is((int)file.length()));
+            assertThat(buffer.position(), is(0));
+
+            int last = corpus.size() - 1;
+
+            assertSameNodes(corpus.get(last), trees.get(last), PCRETree.load(buffer, last));
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+    @Test
+    public void malformedBinaryTest() throws Exception {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PCRETree.parse("(?<n>a|bc)\\d+").writeTo(out);
+
+        byte[] bytes = out.toByteArray();
+
+        // every truncation
+        for(int length = 0; length < bytes.length; length++) {
+            try {
+                PCRETree.load(ByteBuffer.wrap(Arrays.copyOf(bytes, length)), 0);
+                fail("loaded a record of " + length + " of " + bytes.length + " bytes");
+            }
+            catch(IllegalArgumentException e) {
+                // expected
+            }
+        }
+
+        // magic, version and vocabulary
+        for(int i = 0; i < 9; i++) {
+
+            byte[] corrupt = bytes.clone();
+            corrupt[i]++;
+
+            try {
+                PCRETree.load(ByteBuffer.wrap(corrupt), 0);
+                fail("loaded a record with byte " + i + " changed");
+            }
+            catch(IllegalArgumentException e) {
+                // expected
+            }
+        }
+
+        try {
+            PCRETree.load(ByteBuffer.wrap(bytes), 1);
+            fail("loaded a second record");
+        }
+        catch(IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package pcreparser;
+
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CharStream;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PCREUtf8CharStreamTest {
+
+    // the index of every char of text in its UTF-8 bytes, and of its end
+    static int[] byteIndexes(String text, int shift) {
+
+        int[] indexes = new int[text.length() + 1];
+        int index = shift;
+
+        for(int i = 0; i < text.length(); i++) {
+
+            char ch = text.charAt(i);
+            indexes[i] = index;
+
+            if(Character.isHighSurrogate(ch)) {
+                // the low surrogate is at the index after the first byte
+                indexes[++i] = index + 1;
+                index += 4;
+            }
+            else {
+                index += ch < 0x80 ? 1 : ch < 0x800 ? 2 : 3;
+            }
+        }
+
+        indexes[text.length()] = index;
+
+        return indexes;
+    }
+
+    private static PCREUtf8CharStream stream(String text, int shift) {
+
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + shift + 1);
+
+        buffer.position(shift);
+        buffer.put(bytes).put((byte)'x').position(shift).limit(shift + bytes.length);
+
+        return new PCREUtf8CharStream(buffer);
+    }
+
+    // reads both streams to the end, comparing them char by char
+    private static void assertSameChars(String text, PCREUtf8CharStream actual, int shift) {
+
+        CharStream expected = new ANTLRStringStream(text);
+        int[] indexes = byteIndexes(text, shift);
+
+        while(true) {
+
+            String message = text + ", index " + expected.index();
+
+            assertThat(message, actual.index(), is(indexes[expected.index()]));
+            assertThat(message, actual.LA(1), is(expected.LA(1)));
+            assertThat(message, actual.LA(2), is(expected.LA(2)));
+            assertThat(message, actual.LA(3), is(expected.LA(3)));
+            assertThat(message, actual.LA(-1), is(expected.LA(-1)));
+            assertThat(message, actual.getLine(), is(expected.getLine()));
+            assertThat(message, actual.getCharPositionInLine(), is(expected.getCharPositionInLine()));
+
+            if(expected.LA(1) == CharStream.EOF) {
+                break;
+            }
+
+            int i = expected.index();
+
+            assertThat(message, actual.substring(indexes[i], indexes[i + 1] - 1), is(text.substring(i, i + 1)));
+            assertThat(message, actual.substring(indexes[0], indexes[i + 1] - 1), is(text.substring(0, i + 1)));
+
+            expected.consume();
+            actual.consume();
+        }
+    }
+
+    @Test
+    public void decodeTest() {
+
+        String[] texts = {
+                "", "abc", "a\nb\nc", "\u00E9\u20AC", "\uD83D\uDE00", "a\uD83D\uDE00b\uD83D\uDE00\n\uDBFF\uDFFF",
+                "\u0080\u07FF\u0800\uFFFF\uD800\uDC00"
+        };
+
+        for(String text : texts) {
+            assertSameChars(text, stream(text, 0), 0);
+            assertSameChars(text, stream(text, 3), 3);
+        }
+    }
+
+    @Test
+    public void randomTest() {
+
+        Random random = new Random(42);
+        String chars = "ab\n(\u00E9\u20AC\uD83D\uDE00";
+
+        for(int i = 0; i < 2000; i++) {
+
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(10);
+
+            for(int j = 0; j < length; j++) {
+
+                int index = random.nextInt(chars.length());
+
+                if(Character.isLowSurrogate(chars.charAt(index))) {
+                    index--;
+                }
+
+                text.appendCodePoint(chars.codePointAt(index));
+            }
+
+            assertSameChars(text.toString(), stream(text.toString(), i % 4), i % 4);
+        }
+    }
+
+    @Test
+    public void malformedTest() {
+
+        byte[][] inputs = {
+                {(byte)0xFF}, {'a', (byte)0x80, 'b'}, {(byte)0xC3}, {(byte)0xE2, (byte)0x82}, {(byte)0xC0, (byte)0xAF},
+                {(byte)0xED, (byte)0xA0, (byte)0x80}, {(byte)0xF4, (byte)0x90, (byte)0x80, (byte)0x80}
+        };
+
+        for(byte[] input : inputs) {
+
+            PCREUtf8CharStream stream = new PCREUtf8CharStream(ByteBuffer.wrap(input));
+
+            // one U+FFFD per byte that is not part of a well-formed sequence
+            for(int i = 0; i < input.length; i++) {
+
+                int expected = input[i] >= 0 ? input[i] : 0xFFFD;
+
+                assertThat(stream.index(), is(i));
+                assertThat(stream.LA(1), is(expected));
+                stream.consume();
+            }
+
+            assertThat(stream.LA(1), is(CharStream.EOF));
+        }
+    }
+
+    @Test
+    public void markTest() {
+
+        String text = "a\uD83D\uDE00\nb\u20ACc";
+        PCREUtf8CharStream actual = stream(text, 2);
+        ANTLRStringStream expected = new ANTLRStringStream(text);
+
+        for(int i = 0; i < 2; i++) {
+            expected.consume();
+            actual.consume();
+        }
+
+        // between the surrogates
+        int marker = actual.mark();
+        assertThat(marker, is(expected.mark()));
+        assertThat(actual.index(), is(4));
+
+        for(int i = 0; i < 4; i++) {
+            expected.consume();
+            actual.consume();
+        }
+
+        actual.rewind(marker);
+        expected.rewind(marker);
+
+        while(true) {
+
+            assertThat(actual.LA(1), is(expected.LA(1)));
+            assertThat(actual.getLine(), is(expected.getLine()));
+            assertThat(actual.getCharPositionInLine(), is(expected.getCharPositionInLine()));
+
+            if(expected.LA(1) == CharStream.EOF) {
+                break;
+            }
+
+            expected.consume();
+            actual.consume();
+        }
+    }
+}